@@ -33,8 +33,8 @@ import com.parrot.arsdk.ardiscovery.ARDiscoveryService;
 import com.parrot.arsdk.arutils.ARUtilsException;
 import com.parrot.arsdk.arutils.ARUtilsManager;
 
-import java.util.ArrayList;
-import java.util.List;
+import fr.telecomlille.mydrone.gallery.MediaGallery;
+
 
 /**
  * Cette classe permet de contrôler un drône de type Bebop.
@@ -65,41 +65,46 @@ public class BebopDrone {
     public static final byte FLAG_DISABLED = 0;
     private static final String TAG = "BebopDrone";
     private static final int DEVICE_PORT = 21;
-    private final List<Listener> mListeners;
-    private final Handler mHandler;
+    /**
+     * Délai maximal de connexion et d'attente de données des téléchargements de médias.
+     */
+    private static final int FTP_TIMEOUT_MS = 10000;
+    /**
+     * Fréquence d'envoi des commandes de pilotage fusionnées, en Hz.
+     */
+    private static final int PCMD_RATE_HZ = 25;
+    /**
+     * Nombre maximal de consignes de pilotage en attente entre deux envois.
+     */
+    private static final int PCMD_QUEUE_CAPACITY = 64;
+    /**
+     * Nombre de médias téléchargés simultanément, chacun sur sa propre connexion FTP.
+     */
+    private static final int MEDIA_DOWNLOAD_SESSIONS = 3;
+    private final DroneEventBus mEventBus;
+    private final MediaGallery mGallery;
 
     /**
      * Relaie les évènements liés au stockage des photos et des vidéos prises par le drône.
      */
     private final SDCardModule.Listener mSDCardModuleListener = new SDCardModule.Listener() {
         @Override
-        public void onMatchingMediasFound(final int nbMedias) {
-            mHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    notifyMatchingMediasFound(nbMedias);
-                }
-            });
+        public void onMatchingMediasFound(int nbMedias) {
+            mEventBus.postMatchingMediasFound(nbMedias);
         }
 
         @Override
-        public void onDownloadProgressed(final String mediaName, final int progress) {
-            mHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    notifyDownloadProgressed(mediaName, progress);
-                }
-            });
+        public void onDownloadProgressed(String mediaName, int progress) {
+            mEventBus.postDownloadProgressed(mediaName, progress);
         }
 
         @Override
-        public void onDownloadComplete(final String mediaName) {
-            mHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    notifyDownloadComplete(mediaName);
-                }
-            });
+        public void onDownloadComplete(String mediaName, boolean success) {
+            if (success) {
+                // Les miniatures sont prêtes avant que la galerie ne soit ouverte
+                mGallery.onMediaDownloaded(mediaName);
+            }
+            mEventBus.postDownloadComplete(mediaName);
         }
     };
 
@@ -109,13 +114,13 @@ public class BebopDrone {
     private final ARDeviceControllerStreamListener mStreamListener = new ARDeviceControllerStreamListener() {
         @Override
         public ARCONTROLLER_ERROR_ENUM configureDecoder(ARDeviceController deviceController, final ARControllerCodec codec) {
-            notifyConfigureDecoder(codec);
+            mEventBus.dispatchConfigureDecoder(codec);
             return ARCONTROLLER_ERROR_ENUM.ARCONTROLLER_OK;
         }
 
         @Override
         public ARCONTROLLER_ERROR_ENUM onFrameReceived(ARDeviceController deviceController, final ARFrame frame) {
-            notifyFrameReceived(frame);
+            mEventBus.dispatchFrameReceived(frame);
             return ARCONTROLLER_ERROR_ENUM.ARCONTROLLER_OK;
         }
 
@@ -126,9 +131,29 @@ public class BebopDrone {
 
     private ARDeviceController mDeviceController;
     private SDCardModule mSDCardModule;
-    private ARCONTROLLER_DEVICE_STATE_ENUM mState;
-    private ARCOMMANDS_ARDRONE3_PILOTINGSTATE_FLYINGSTATECHANGED_STATE_ENUM mFlyingState;
-    private String mCurrentRunId;
+    /**
+     * Etat de la connexion, modifié par le Thread du SDK et lu par la boucle de contrôle.
+     */
+    private volatile ARCONTROLLER_DEVICE_STATE_ENUM mState;
+    private volatile ARCOMMANDS_ARDRONE3_PILOTINGSTATE_FLYINGSTATECHANGED_STATE_ENUM mFlyingState;
+    private volatile String mCurrentRunId;
+    private final DroneTelemetry mTelemetry = new DroneTelemetry();
+
+    /**
+     * Transmet les commandes de pilotage fusionnées au drône, si la connexion est établie.
+     */
+    private final PilotingCommandMixer.Sink mPilotingSink = new PilotingCommandMixer.Sink() {
+        @Override
+        public void setPilotingPCMD(byte flag, byte roll, byte pitch, byte yaw, byte gaz, int timestampAndSeqNum) {
+            if ((mDeviceController != null) && (mState.equals(ARCONTROLLER_DEVICE_STATE_ENUM.ARCONTROLLER_DEVICE_STATE_RUNNING))) {
+                mDeviceController.getFeatureARDrone3().setPilotingPCMD(flag, roll, pitch, yaw, gaz, timestampAndSeqNum);
+            }
+        }
+    };
+    private final ControlLoop mControlLoop =
+            new ControlLoop(mPilotingSink, PCMD_RATE_HZ, PCMD_QUEUE_CAPACITY, ControlLoop.SYSTEM_CLOCK);
+
+    private final CommandDispatcher mCommandDispatcher = new CommandDispatcher();
 
     /**
      * Relaie les évènements liés au pilotage du drône (changements d'état, réception de commandes).
@@ -140,15 +165,14 @@ public class BebopDrone {
             mState = newState;
             if (ARCONTROLLER_DEVICE_STATE_ENUM.ARCONTROLLER_DEVICE_STATE_RUNNING.equals(mState)) {
                 mDeviceController.getFeatureARDrone3().sendMediaStreamingVideoEnable((byte) 1);
+                startPilotingTicker();
+                // Des médias ont pu être enregistrés ou supprimés depuis la dernière connexion
+                invalidateMediaIndex();
             } else if (ARCONTROLLER_DEVICE_STATE_ENUM.ARCONTROLLER_DEVICE_STATE_STOPPED.equals(mState)) {
+                stopPilotingTicker();
                 mSDCardModule.cancelGetFlightMedias();
             }
-            mHandler.post(new Runnable() {
-                @Override
-                public void run() {
-                    notifyConnectionChanged(mState);
-                }
-            });
+            mEventBus.postConnectionChanged(newState);
         }
 
         @Override
@@ -163,90 +187,7 @@ public class BebopDrone {
         public void onCommandReceived(ARDeviceController deviceController,
                                       ARCONTROLLER_DICTIONARY_KEY_ENUM commandKey,
                                       ARControllerDictionary elementDictionary) {
-            // if event received is the battery update
-            if ((commandKey == ARCONTROLLER_DICTIONARY_KEY_ENUM.ARCONTROLLER_DICTIONARY_KEY_COMMON_COMMONSTATE_BATTERYSTATECHANGED) && (elementDictionary != null)) {
-                ARControllerArgumentDictionary<Object> args = elementDictionary.get(ARControllerDictionary.ARCONTROLLER_DICTIONARY_SINGLE_KEY);
-                if (args != null) {
-                    final int battery = (Integer) args.get(ARFeatureCommon.ARCONTROLLER_DICTIONARY_KEY_COMMON_COMMONSTATE_BATTERYSTATECHANGED_PERCENT);
-                    mHandler.post(new Runnable() {
-                        @Override
-                        public void run() {
-                            notifyBatteryChanged(battery);
-                        }
-                    });
-                }
-            }
-            // if event received is the flying state update
-            else if ((commandKey == ARCONTROLLER_DICTIONARY_KEY_ENUM.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_PILOTINGSTATE_FLYINGSTATECHANGED) && (elementDictionary != null)) {
-                ARControllerArgumentDictionary<Object> args = elementDictionary.get(ARControllerDictionary.ARCONTROLLER_DICTIONARY_SINGLE_KEY);
-                if (args != null) {
-                    final ARCOMMANDS_ARDRONE3_PILOTINGSTATE_FLYINGSTATECHANGED_STATE_ENUM state = ARCOMMANDS_ARDRONE3_PILOTINGSTATE_FLYINGSTATECHANGED_STATE_ENUM.getFromValue((Integer) args.get(ARFeatureARDrone3.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_PILOTINGSTATE_FLYINGSTATECHANGED_STATE));
-
-                    mHandler.post(new Runnable() {
-                        @Override
-                        public void run() {
-                            mFlyingState = state;
-                            notifyPilotingStateChanged(state);
-                        }
-                    });
-                }
-            }
-            // if event received is the picture notification
-            else if ((commandKey == ARCONTROLLER_DICTIONARY_KEY_ENUM.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_MEDIARECORDEVENT_PICTUREEVENTCHANGED) && (elementDictionary != null)) {
-                ARControllerArgumentDictionary<Object> args = elementDictionary.get(ARControllerDictionary.ARCONTROLLER_DICTIONARY_SINGLE_KEY);
-                if (args != null) {
-                    final ARCOMMANDS_ARDRONE3_MEDIARECORDEVENT_PICTUREEVENTCHANGED_ERROR_ENUM error = ARCOMMANDS_ARDRONE3_MEDIARECORDEVENT_PICTUREEVENTCHANGED_ERROR_ENUM.getFromValue((Integer) args.get(ARFeatureARDrone3.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_MEDIARECORDEVENT_PICTUREEVENTCHANGED_ERROR));
-                    mHandler.post(new Runnable() {
-                        @Override
-                        public void run() {
-                            notifyPictureTaken(error);
-                        }
-                    });
-                }
-            }
-            // if event received is the run id
-            else if ((commandKey == ARCONTROLLER_DICTIONARY_KEY_ENUM.ARCONTROLLER_DICTIONARY_KEY_COMMON_RUNSTATE_RUNIDCHANGED) && (elementDictionary != null)) {
-                ARControllerArgumentDictionary<Object> args = elementDictionary.get(ARControllerDictionary.ARCONTROLLER_DICTIONARY_SINGLE_KEY);
-                if (args != null) {
-                    final String runID = (String) args.get(ARFeatureCommon.ARCONTROLLER_DICTIONARY_KEY_COMMON_RUNSTATE_RUNIDCHANGED_RUNID);
-                    mHandler.post(new Runnable() {
-                        @Override
-                        public void run() {
-                            mCurrentRunId = runID;
-                        }
-                    });
-                }
-            } else if ((commandKey == ARCONTROLLER_DICTIONARY_KEY_ENUM.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_PILOTINGEVENT_MOVEBYEND) && (elementDictionary != null)) {
-                ARControllerArgumentDictionary<Object> args = elementDictionary.get(ARControllerDictionary.ARCONTROLLER_DICTIONARY_SINGLE_KEY);
-                if (args != null) {
-                    Log.d(TAG, "onCommandReceived: moveByFinished");
-                    final float dX = (float) ((Double) args.get(ARFeatureARDrone3.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_PILOTINGEVENT_MOVEBYEND_DX)).doubleValue();
-                    final float dY = (float) ((Double) args.get(ARFeatureARDrone3.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_PILOTINGEVENT_MOVEBYEND_DY)).doubleValue();
-                    final float dZ = (float) ((Double) args.get(ARFeatureARDrone3.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_PILOTINGEVENT_MOVEBYEND_DZ)).doubleValue();
-                    final float dPsi = (float) ((Double) args.get(ARFeatureARDrone3.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_PILOTINGEVENT_MOVEBYEND_DPSI)).doubleValue();
-                    final ARCOMMANDS_ARDRONE3_PILOTINGEVENT_MOVEBYEND_ERROR_ENUM error = ARCOMMANDS_ARDRONE3_PILOTINGEVENT_MOVEBYEND_ERROR_ENUM.getFromValue((Integer) args.get(ARFeatureARDrone3.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_PILOTINGEVENT_MOVEBYEND_ERROR));
-                    mHandler.post(new Runnable() {
-                        @Override
-                        public void run() {
-                            notifyRelativeMoveFinished(dX, dY, dZ, dPsi,
-                                    error.equals(ARCOMMANDS_ARDRONE3_PILOTINGEVENT_MOVEBYEND_ERROR_ENUM
-                                            .ARCOMMANDS_ARDRONE3_PILOTINGEVENT_MOVEBYEND_ERROR_INTERRUPTED));
-                        }
-                    });
-                }
-            }
-
-            if ((commandKey == ARCONTROLLER_DICTIONARY_KEY_ENUM.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_PILOTINGSTATE_SPEEDCHANGED) && (elementDictionary != null)) {
-                ARControllerArgumentDictionary<Object> args = elementDictionary.get(ARControllerDictionary.ARCONTROLLER_DICTIONARY_SINGLE_KEY);
-                if (args != null) {
-                    float speedX = (float) ((Double) args.get(ARFeatureARDrone3.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_PILOTINGSTATE_SPEEDCHANGED_SPEEDX)).doubleValue();
-                    float speedY = (float) ((Double) args.get(ARFeatureARDrone3.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_PILOTINGSTATE_SPEEDCHANGED_SPEEDY)).doubleValue();
-                    float speedZ = (float) ((Double) args.get(ARFeatureARDrone3.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_PILOTINGSTATE_SPEEDCHANGED_SPEEDZ)).doubleValue();
-                    if (speedX > 0 || speedY > 0 || speedZ > 0) {
-                        Log.d(TAG, String.format("onCommandReceived: speed=[%f, %f, %f]", speedX, speedY, speedZ));
-                    }
-                }
-            }
+            mCommandDispatcher.dispatch(commandKey, elementDictionary);
         }
     };
 
@@ -262,13 +203,14 @@ public class BebopDrone {
      */
     public BebopDrone(@NonNull Context context, @NonNull ARDiscoveryDeviceService deviceService) {
 
-        mListeners = new ArrayList<>();
-
         // Needed because some callbacks will be called on the main thread
-        mHandler = new Handler(context.getMainLooper());
+        mEventBus = new DroneEventBus(new Handler(context.getMainLooper()), MEDIA_DOWNLOAD_SESSIONS);
+        mGallery = MediaGallery.getInstance(context);
 
         mState = ARCONTROLLER_DEVICE_STATE_ENUM.ARCONTROLLER_DEVICE_STATE_STOPPED;
 
+        registerCommandHandlers();
+
         // If the product type of the deviceService match with the types supported
         ARDISCOVERY_PRODUCT_ENUM productType = ARDiscoveryService.getProductFromProductID(deviceService.getProductID());
         ARDISCOVERY_PRODUCT_FAMILY_ENUM family = ARDiscoveryService.getProductFamily(productType);
@@ -281,7 +223,7 @@ public class BebopDrone {
             }
 
             try {
-                String productIP = ((ARDiscoveryDeviceNetService) (deviceService.getDevice())).getIp();
+                final String productIP = ((ARDiscoveryDeviceNetService) (deviceService.getDevice())).getIp();
 
                 ARUtilsManager ftpListManager = new ARUtilsManager();
                 ARUtilsManager ftpQueueManager = new ARUtilsManager();
@@ -289,7 +231,15 @@ public class BebopDrone {
                 ftpListManager.initWifiFtp(productIP, DEVICE_PORT, ARUtilsManager.FTP_ANONYMOUS, "");
                 ftpQueueManager.initWifiFtp(productIP, DEVICE_PORT, ARUtilsManager.FTP_ANONYMOUS, "");
 
-                mSDCardModule = new SDCardModule(ftpListManager, ftpQueueManager);
+                MediaDownloadScheduler.FtpConnector ftpConnector = new MediaDownloadScheduler.FtpConnector() {
+                    @Override
+                    public ResumableDownloader.Source connect() {
+                        return new FtpClient(productIP, DEVICE_PORT, FTP_TIMEOUT_MS);
+                    }
+                };
+
+                mSDCardModule = new SDCardModule(ftpListManager, ftpQueueManager, ftpConnector,
+                        MEDIA_DOWNLOAD_SESSIONS);
                 mSDCardModule.addListener(mSDCardModuleListener);
             } catch (ARUtilsException e) {
                 Log.e(TAG, "Exception", e);
@@ -305,6 +255,9 @@ public class BebopDrone {
      * Cette méthode doit être appelée lorsque l'objet n'est plus utilisé.
      */
     public void dispose() {
+        stopPilotingTicker();
+        if (mSDCardModule != null)
+            mSDCardModule.dispose();
         if (mDeviceController != null)
             mDeviceController.dispose();
     }
@@ -316,7 +269,7 @@ public class BebopDrone {
      * @param listener objet client souhaitant recevoir les évènements du drône
      */
     public void addListener(Listener listener) {
-        mListeners.add(listener);
+        mEventBus.addListener(listener);
     }
 
     /**
@@ -325,7 +278,7 @@ public class BebopDrone {
      * @param listener objet client souhaitant ne plus recevoir les évènements du drône
      */
     public void removeListener(Listener listener) {
-        mListeners.remove(listener);
+        mEventBus.removeListener(listener);
     }
 
     /**
@@ -360,6 +313,7 @@ public class BebopDrone {
         if ((mDeviceController != null) && (ARCONTROLLER_DEVICE_STATE_ENUM.ARCONTROLLER_DEVICE_STATE_RUNNING.equals(mState))) {
             // Bloque les mouvements du drône et le fait atterir avant déconnexion par sécurité
             setFlag(FLAG_DISABLED);
+            mControlLoop.flush();
             land();
             ARCONTROLLER_ERROR_ENUM error = mDeviceController.stop();
             if (error == ARCONTROLLER_ERROR_ENUM.ARCONTROLLER_OK) {
@@ -383,6 +337,16 @@ public class BebopDrone {
         return mFlyingState;
     }
 
+    /**
+     * Donne accès aux dernières données de télémétrie reçues (vitesse, attitude, altitude, etc.).
+     * Elles peuvent être lues depuis n'importe quel Thread via {@link DroneTelemetry#snapshot}.
+     *
+     * @return la télémétrie du drône
+     */
+    public DroneTelemetry getTelemetry() {
+        return mTelemetry;
+    }
+
     /**
      * Demande le décollage du drône.
      * Cette méthode n'a d'effet que si la connexion avec le drône est établie.
@@ -430,9 +394,7 @@ public class BebopDrone {
      * @param pitch value in percentage from -100 to 100
      */
     public void setPitch(@IntRange(from = -100, to = 100) int pitch) {
-        if ((mDeviceController != null) && (mState.equals(ARCONTROLLER_DEVICE_STATE_ENUM.ARCONTROLLER_DEVICE_STATE_RUNNING))) {
-            mDeviceController.getFeatureARDrone3().setPilotingPCMDPitch((byte) pitch);
-        }
+        mControlLoop.setPitch(pitch);
     }
 
     /**
@@ -442,9 +404,7 @@ public class BebopDrone {
      * @param roll value in percentage from -100 to 100
      */
     public void setRoll(@IntRange(from = -100, to = 100) int roll) {
-        if ((mDeviceController != null) && (mState.equals(ARCONTROLLER_DEVICE_STATE_ENUM.ARCONTROLLER_DEVICE_STATE_RUNNING))) {
-            mDeviceController.getFeatureARDrone3().setPilotingPCMDRoll((byte) roll);
-        }
+        mControlLoop.setRoll(roll);
     }
 
     /**
@@ -455,9 +415,7 @@ public class BebopDrone {
      * @param yaw valeur en pourcent de -100 à 100
      */
     public void setYaw(@IntRange(from = -100, to = 100) int yaw) {
-        if ((mDeviceController != null) && (mState.equals(ARCONTROLLER_DEVICE_STATE_ENUM.ARCONTROLLER_DEVICE_STATE_RUNNING))) {
-            mDeviceController.getFeatureARDrone3().setPilotingPCMDYaw((byte) yaw);
-        }
+        mControlLoop.setYaw(yaw);
     }
 
     /**
@@ -469,9 +427,7 @@ public class BebopDrone {
      * @param gaz valeur en pourcent de -100 à 100
      */
     public void setGaz(@IntRange(from = -100, to = 100) int gaz) {
-        if ((mDeviceController != null) && (mState.equals(ARCONTROLLER_DEVICE_STATE_ENUM.ARCONTROLLER_DEVICE_STATE_RUNNING))) {
-            mDeviceController.getFeatureARDrone3().setPilotingPCMDGaz((byte) gaz);
-        }
+        mControlLoop.setGaz(gaz);
     }
 
     /**
@@ -481,9 +437,32 @@ public class BebopDrone {
      *             {@link #FLAG_DISABLED} sinon
      */
     public void setFlag(byte flag) {
-        if ((mDeviceController != null) && (mState.equals(ARCONTROLLER_DEVICE_STATE_ENUM.ARCONTROLLER_DEVICE_STATE_RUNNING))) {
-            mDeviceController.getFeatureARDrone3().setPilotingPCMDFlag(flag);
-        }
+        mControlLoop.setFlag(flag);
+    }
+
+    /**
+     * Applique une commande de pilotage complète. Contrairement à des appels successifs aux
+     * méthodes de chaque axe, la commande ne peut pas être mélangée à celle d'un autre Thread.
+     *
+     * @param flag  {@link #FLAG_ENABLED} si Pitch et Roll doivent être pris en compte,
+     *              {@link #FLAG_DISABLED} sinon
+     * @param roll  valeur en pourcent de -100 à 100
+     * @param pitch valeur en pourcent de -100 à 100
+     * @param yaw   valeur en pourcent de -100 à 100
+     * @param gaz   valeur en pourcent de -100 à 100
+     */
+    public void setPilotingCommand(byte flag, @IntRange(from = -100, to = 100) int roll,
+                                   @IntRange(from = -100, to = 100) int pitch,
+                                   @IntRange(from = -100, to = 100) int yaw,
+                                   @IntRange(from = -100, to = 100) int gaz) {
+        mControlLoop.setCommand(flag, roll, pitch, yaw, gaz);
+    }
+
+    /**
+     * Annule toutes les consignes de mouvement : le drône reste sur place.
+     */
+    public void hover() {
+        setPilotingCommand(FLAG_DISABLED, 0, 0, 0, 0);
     }
 
     /**
@@ -518,10 +497,174 @@ public class BebopDrone {
         }
     }
 
+    /**
+     * Indique que la liste des médias du drône a pu changer.
+     */
+    private void invalidateMediaIndex() {
+        if (mSDCardModule != null) {
+            mSDCardModule.invalidateMediaIndex();
+        }
+    }
+
     public void cancelGetLastFlightMedias() {
         mSDCardModule.cancelGetFlightMedias();
     }
 
+    /**
+     * @return le mélangeur fusionnant les commandes de pilotage,
+     * notamment pour consulter le nombre de commandes fusionnées et envoyées.
+     */
+    public PilotingCommandMixer getPilotingCommandMixer() {
+        return mControlLoop.getMixer();
+    }
+
+    /**
+     * @return la boucle de contrôle cadençant l'envoi des commandes de pilotage,
+     * notamment pour consulter le nombre d'échéances manquées.
+     */
+    public ControlLoop getControlLoop() {
+        return mControlLoop;
+    }
+
+    /**
+     * Démarre l'envoi périodique des commandes de pilotage fusionnées.
+     */
+    private void startPilotingTicker() {
+        mControlLoop.start();
+    }
+
+    /**
+     * Arrête l'envoi périodique des commandes de pilotage fusionnées.
+     */
+    private void stopPilotingTicker() {
+        if (!mControlLoop.stop()) {
+            return;
+        }
+        PilotingCommandMixer mixer = mControlLoop.getMixer();
+        Log.d(TAG, "PCMD: " + mixer.getUpdateCount() + " updates, "
+                + mixer.getSentCount() + " sent, "
+                + mixer.getMergedCount() + " merged, "
+                + mControlLoop.getDeadlineMissCount() + " deadlines missed, max lateness "
+                + (mControlLoop.getMaxLatenessNanos() / 1000) + " µs");
+    }
+
+    /**
+     * Associe un traitement à chacune des commandes reçues depuis le drône qui nous intéressent.
+     */
+    private void registerCommandHandlers() {
+        // Niveau de batterie
+        mCommandDispatcher.register(ARCONTROLLER_DICTIONARY_KEY_ENUM.ARCONTROLLER_DICTIONARY_KEY_COMMON_COMMONSTATE_BATTERYSTATECHANGED,
+                new CommandDispatcher.CommandHandler() {
+                    @Override
+                    public void onCommand(@NonNull ARControllerArgumentDictionary<Object> args) {
+                        int battery = CommandDispatcher.getInt(args, ARFeatureCommon.ARCONTROLLER_DICTIONARY_KEY_COMMON_COMMONSTATE_BATTERYSTATECHANGED_PERCENT);
+                        mTelemetry.updateBattery(battery);
+                        mEventBus.postBatteryChanged(battery);
+                    }
+                });
+
+        // Etat de pilotage
+        mCommandDispatcher.register(ARCONTROLLER_DICTIONARY_KEY_ENUM.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_PILOTINGSTATE_FLYINGSTATECHANGED,
+                new CommandDispatcher.CommandHandler() {
+                    @Override
+                    public void onCommand(@NonNull ARControllerArgumentDictionary<Object> args) {
+                        int state = CommandDispatcher.getInt(args, ARFeatureARDrone3.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_PILOTINGSTATE_FLYINGSTATECHANGED_STATE);
+                        mFlyingState = ARCOMMANDS_ARDRONE3_PILOTINGSTATE_FLYINGSTATECHANGED_STATE_ENUM.getFromValue(state);
+                        mTelemetry.updateFlyingState(state);
+                        mEventBus.postPilotingStateChanged(mFlyingState);
+                        // L'enregistrement d'une vidéo se termine au plus tard à l'atterrissage
+                        invalidateMediaIndex();
+                    }
+                });
+
+        // Photo prise : évènement ponctuel, qui ne doit pas être fusionné avec le précédent
+        mCommandDispatcher.register(ARCONTROLLER_DICTIONARY_KEY_ENUM.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_MEDIARECORDEVENT_PICTUREEVENTCHANGED,
+                new CommandDispatcher.CommandHandler() {
+                    @Override
+                    public void onCommand(@NonNull ARControllerArgumentDictionary<Object> args) {
+                        invalidateMediaIndex();
+                        mEventBus.postPictureTaken(ARCOMMANDS_ARDRONE3_MEDIARECORDEVENT_PICTUREEVENTCHANGED_ERROR_ENUM.getFromValue(
+                                CommandDispatcher.getInt(args, ARFeatureARDrone3.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_MEDIARECORDEVENT_PICTUREEVENTCHANGED_ERROR)));
+                    }
+                });
+
+        // Identifiant du vol en cours
+        mCommandDispatcher.register(ARCONTROLLER_DICTIONARY_KEY_ENUM.ARCONTROLLER_DICTIONARY_KEY_COMMON_RUNSTATE_RUNIDCHANGED,
+                new CommandDispatcher.CommandHandler() {
+                    @Override
+                    public void onCommand(@NonNull ARControllerArgumentDictionary<Object> args) {
+                        mCurrentRunId = (String) args.get(ARFeatureCommon.ARCONTROLLER_DICTIONARY_KEY_COMMON_RUNSTATE_RUNIDCHANGED_RUNID);
+                        invalidateMediaIndex();
+                    }
+                });
+
+        // Fin d'un déplacement relatif : évènement ponctuel
+        mCommandDispatcher.register(ARCONTROLLER_DICTIONARY_KEY_ENUM.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_PILOTINGEVENT_MOVEBYEND,
+                new CommandDispatcher.CommandHandler() {
+                    @Override
+                    public void onCommand(@NonNull ARControllerArgumentDictionary<Object> args) {
+                        Log.d(TAG, "onCommandReceived: moveByFinished");
+                        float dX = (float) CommandDispatcher.getDouble(args, ARFeatureARDrone3.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_PILOTINGEVENT_MOVEBYEND_DX);
+                        float dY = (float) CommandDispatcher.getDouble(args, ARFeatureARDrone3.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_PILOTINGEVENT_MOVEBYEND_DY);
+                        float dZ = (float) CommandDispatcher.getDouble(args, ARFeatureARDrone3.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_PILOTINGEVENT_MOVEBYEND_DZ);
+                        float dPsi = (float) CommandDispatcher.getDouble(args, ARFeatureARDrone3.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_PILOTINGEVENT_MOVEBYEND_DPSI);
+                        ARCOMMANDS_ARDRONE3_PILOTINGEVENT_MOVEBYEND_ERROR_ENUM error = ARCOMMANDS_ARDRONE3_PILOTINGEVENT_MOVEBYEND_ERROR_ENUM.getFromValue(
+                                CommandDispatcher.getInt(args, ARFeatureARDrone3.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_PILOTINGEVENT_MOVEBYEND_ERROR));
+                        mEventBus.postRelativeMoveFinished(dX, dY, dZ, dPsi,
+                                ARCOMMANDS_ARDRONE3_PILOTINGEVENT_MOVEBYEND_ERROR_ENUM
+                                        .ARCOMMANDS_ARDRONE3_PILOTINGEVENT_MOVEBYEND_ERROR_INTERRUPTED.equals(error));
+                    }
+                });
+
+        // Télémétrie : reçue à haute fréquence, stockée directement depuis le Thread du SDK
+        mCommandDispatcher.register(ARCONTROLLER_DICTIONARY_KEY_ENUM.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_PILOTINGSTATE_SPEEDCHANGED,
+                new CommandDispatcher.CommandHandler() {
+                    @Override
+                    public void onCommand(@NonNull ARControllerArgumentDictionary<Object> args) {
+                        mTelemetry.updateSpeed(
+                                CommandDispatcher.getDouble(args, ARFeatureARDrone3.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_PILOTINGSTATE_SPEEDCHANGED_SPEEDX),
+                                CommandDispatcher.getDouble(args, ARFeatureARDrone3.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_PILOTINGSTATE_SPEEDCHANGED_SPEEDY),
+                                CommandDispatcher.getDouble(args, ARFeatureARDrone3.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_PILOTINGSTATE_SPEEDCHANGED_SPEEDZ));
+                    }
+                });
+        mCommandDispatcher.register(ARCONTROLLER_DICTIONARY_KEY_ENUM.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_PILOTINGSTATE_ATTITUDECHANGED,
+                new CommandDispatcher.CommandHandler() {
+                    @Override
+                    public void onCommand(@NonNull ARControllerArgumentDictionary<Object> args) {
+                        mTelemetry.updateAttitude(
+                                CommandDispatcher.getDouble(args, ARFeatureARDrone3.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_PILOTINGSTATE_ATTITUDECHANGED_ROLL),
+                                CommandDispatcher.getDouble(args, ARFeatureARDrone3.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_PILOTINGSTATE_ATTITUDECHANGED_PITCH),
+                                CommandDispatcher.getDouble(args, ARFeatureARDrone3.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_PILOTINGSTATE_ATTITUDECHANGED_YAW));
+                    }
+                });
+        mCommandDispatcher.register(ARCONTROLLER_DICTIONARY_KEY_ENUM.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_PILOTINGSTATE_ALTITUDECHANGED,
+                new CommandDispatcher.CommandHandler() {
+                    @Override
+                    public void onCommand(@NonNull ARControllerArgumentDictionary<Object> args) {
+                        mTelemetry.updateAltitude(
+                                CommandDispatcher.getDouble(args, ARFeatureARDrone3.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_PILOTINGSTATE_ALTITUDECHANGED_ALTITUDE));
+                    }
+                });
+        mCommandDispatcher.register(ARCONTROLLER_DICTIONARY_KEY_ENUM.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_PILOTINGSTATE_POSITIONCHANGED,
+                new CommandDispatcher.CommandHandler() {
+                    @Override
+                    public void onCommand(@NonNull ARControllerArgumentDictionary<Object> args) {
+                        mTelemetry.updatePosition(
+                                CommandDispatcher.getDouble(args, ARFeatureARDrone3.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_PILOTINGSTATE_POSITIONCHANGED_LATITUDE),
+                                CommandDispatcher.getDouble(args, ARFeatureARDrone3.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_PILOTINGSTATE_POSITIONCHANGED_LONGITUDE),
+                                CommandDispatcher.getDouble(args, ARFeatureARDrone3.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_PILOTINGSTATE_POSITIONCHANGED_ALTITUDE));
+                    }
+                });
+        mCommandDispatcher.register(ARCONTROLLER_DICTIONARY_KEY_ENUM.ARCONTROLLER_DICTIONARY_KEY_COMMON_COMMONSTATE_WIFISIGNALCHANGED,
+                new CommandDispatcher.CommandHandler() {
+                    @Override
+                    public void onCommand(@NonNull ARControllerArgumentDictionary<Object> args) {
+                        mTelemetry.updateWifiRssi(
+                                CommandDispatcher.getInt(args, ARFeatureCommon.ARCONTROLLER_DICTIONARY_KEY_COMMON_COMMONSTATE_WIFISIGNALCHANGED_RSSI));
+                    }
+                });
+    }
+
     private ARDiscoveryDevice createDiscoveryDevice(@NonNull ARDiscoveryDeviceService service, ARDISCOVERY_PRODUCT_ENUM productType) {
         ARDiscoveryDevice device = null;
         try {
@@ -552,78 +695,6 @@ public class BebopDrone {
         return deviceController;
     }
 
-    //region notify listener block
-    private void notifyConnectionChanged(ARCONTROLLER_DEVICE_STATE_ENUM state) {
-        List<Listener> listenersCpy = new ArrayList<>(mListeners);
-        for (Listener listener : listenersCpy) {
-            listener.onDroneConnectionChanged(state);
-        }
-    }
-
-    private void notifyBatteryChanged(int battery) {
-        List<Listener> listenersCpy = new ArrayList<>(mListeners);
-        for (Listener listener : listenersCpy) {
-            listener.onBatteryChargeChanged(battery);
-        }
-    }
-
-    private void notifyPilotingStateChanged(ARCOMMANDS_ARDRONE3_PILOTINGSTATE_FLYINGSTATECHANGED_STATE_ENUM state) {
-        List<Listener> listenersCpy = new ArrayList<>(mListeners);
-        for (Listener listener : listenersCpy) {
-            listener.onPilotingStateChanged(state);
-        }
-    }
-
-    private void notifyPictureTaken(ARCOMMANDS_ARDRONE3_MEDIARECORDEVENT_PICTUREEVENTCHANGED_ERROR_ENUM error) {
-        List<Listener> listenersCpy = new ArrayList<>(mListeners);
-        for (Listener listener : listenersCpy) {
-            listener.onPictureTaken(error);
-        }
-    }
-
-    private void notifyConfigureDecoder(ARControllerCodec codec) {
-        List<Listener> listenersCpy = new ArrayList<>(mListeners);
-        for (Listener listener : listenersCpy) {
-            listener.configureDecoder(codec);
-        }
-    }
-
-    private void notifyFrameReceived(ARFrame frame) {
-        List<Listener> listenersCpy = new ArrayList<>(mListeners);
-        for (Listener listener : listenersCpy) {
-            listener.onFrameReceived(frame);
-        }
-    }
-
-    private void notifyMatchingMediasFound(int nbMedias) {
-        List<Listener> listenersCpy = new ArrayList<>(mListeners);
-        for (Listener listener : listenersCpy) {
-            listener.onMatchingMediasFound(nbMedias);
-        }
-    }
-
-    private void notifyDownloadProgressed(String mediaName, int progress) {
-        List<Listener> listenersCpy = new ArrayList<>(mListeners);
-        for (Listener listener : listenersCpy) {
-            listener.onDownloadProgressed(mediaName, progress);
-        }
-    }
-
-    private void notifyDownloadComplete(String mediaName) {
-        List<Listener> listenersCpy = new ArrayList<>(mListeners);
-        for (Listener listener : listenersCpy) {
-            listener.onDownloadComplete(mediaName);
-        }
-    }
-
-    private void notifyRelativeMoveFinished(float dX, float dY, float dZ, float dPsi, boolean isInterrupted) {
-        List<Listener> listenersCpy = new ArrayList<>(mListeners);
-        for (Listener listener : listenersCpy) {
-            listener.onRelativeMoveFinished(dX, dY, dZ, dPsi, isInterrupted);
-        }
-    }
-    //endregion notify listener block
-
     public interface Listener {
         /**
          * Appelé quand l'état de connexion au drône a changé.
@@ -654,11 +725,12 @@ public class BebopDrone {
 
         /**
          * Appelé lorsqu'une photo a été prise par le drône.
-         * Cette méthode est appelée depuis un autre Thread.
+         * Cette méthode est appelée sur le Thread principal.
          *
          * @param error ERROR_OK si la photo a été prise avec succès,
          *              sinon une autre valeur décrivant l'erreur qui s'est produite.
          */
+        @MainThread
         void onPictureTaken(ARCOMMANDS_ARDRONE3_MEDIARECORDEVENT_PICTUREEVENTCHANGED_ERROR_ENUM error);
 
         /**
@@ -0,0 +1,85 @@
+package fr.telecomlille.mydrone.drone;
+
+import android.support.annotation.NonNull;
+
+import com.parrot.arsdk.arcontroller.ARCONTROLLER_DICTIONARY_KEY_ENUM;
+import com.parrot.arsdk.arcontroller.ARControllerArgumentDictionary;
+import com.parrot.arsdk.arcontroller.ARControllerDictionary;
+
+/**
+ * Table de répartition des commandes reçues depuis le drône.
+ * <p>
+ * Chaque clé de commande est associée à un {@link CommandHandler} au plus, stocké dans un tableau
+ * indexé par l'ordinal de {@link ARCONTROLLER_DICTIONARY_KEY_ENUM}. La recherche du handler
+ * est ainsi en temps constant et n'alloue aucun objet, contrairement à une suite de comparaisons.
+ * </p><p>
+ * Les handlers doivent être enregistrés avant la connexion au drône :
+ * la table n'est pas prévue pour être modifiée pendant la réception des commandes.
+ * </p>
+ */
+class CommandDispatcher {
+
+    private final CommandHandler[] mHandlers =
+            new CommandHandler[ARCONTROLLER_DICTIONARY_KEY_ENUM.values().length];
+
+    /**
+     * Associe un handler à une clé de commande, en remplaçant le handler précédent s'il existe.
+     *
+     * @param key     clé de la commande à traiter
+     * @param handler objet traitant les arguments de cette commande
+     */
+    void register(@NonNull ARCONTROLLER_DICTIONARY_KEY_ENUM key, @NonNull CommandHandler handler) {
+        mHandlers[key.ordinal()] = handler;
+    }
+
+    /**
+     * Transmet une commande reçue au handler associé à sa clé.
+     *
+     * @param key        clé de la commande reçue
+     * @param dictionary arguments de la commande
+     * @return true si la commande a été traitée par un handler
+     */
+    boolean dispatch(ARCONTROLLER_DICTIONARY_KEY_ENUM key, ARControllerDictionary dictionary) {
+        if ((key == null) || (dictionary == null)) {
+            return false;
+        }
+
+        CommandHandler handler = mHandlers[key.ordinal()];
+        if (handler == null) {
+            return false;
+        }
+
+        ARControllerArgumentDictionary<Object> args = dictionary.get(ARControllerDictionary.ARCONTROLLER_DICTIONARY_SINGLE_KEY);
+        if (args == null) {
+            return false;
+        }
+
+        handler.onCommand(args);
+        return true;
+    }
+
+    /**
+     * Lit un argument entier, quel que soit le type numérique utilisé par le SDK pour le stocker.
+     */
+    static int getInt(ARControllerArgumentDictionary<Object> args, String key) {
+        return ((Number) args.get(key)).intValue();
+    }
+
+    /**
+     * Lit un argument décimal, quel que soit le type numérique utilisé par le SDK pour le stocker.
+     */
+    static double getDouble(ARControllerArgumentDictionary<Object> args, String key) {
+        return ((Number) args.get(key)).doubleValue();
+    }
+
+    /**
+     * Traite les arguments d'un type de commande reçu depuis le drône.
+     * Les méthodes de cette interface sont appelées depuis le Thread du SDK.
+     */
+    interface CommandHandler {
+        /**
+         * @param args arguments de la commande, jamais null
+         */
+        void onCommand(@NonNull ARControllerArgumentDictionary<Object> args);
+    }
+}
@@ -0,0 +1,353 @@
+package fr.telecomlille.mydrone.drone;
+
+import android.os.Process;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+
+/**
+ * Boucle de contrôle à fréquence fixe, exécutée sur un Thread dédié et indépendant du Thread
+ * principal.
+ * <p>
+ * Tous les modes de pilotage (joysticks, boutons, accéléromètre, tracé, suivi de visage) déposent
+ * leurs consignes dans une file bornée, quel que soit le Thread sur lequel elles sont produites.
+ * A chaque période, la boucle vide cette file dans un {@link PilotingCommandMixer} puis envoie la
+ * commande fusionnée. La régularité des envois ne dépend donc plus de la charge du Thread principal.
+ * </p><p>
+ * Lorsque la file est pleine, elle est compactée : seule la consigne la plus récente de chaque axe
+ * est conservée, ce qui ne change pas la commande envoyée à la période suivante.
+ * </p><p>
+ * Une période est considérée comme manquée lorsque la boucle prend assez de retard pour qu'une
+ * échéance soit dépassée avant d'avoir été traitée. Le temps est lu via une {@link Clock}, ce qui
+ * permet de tester la boucle sur la JVM avec une horloge simulée.
+ * </p>
+ */
+public class ControlLoop implements Runnable {
+
+    static final int AXIS_FLAG = 0;
+    static final int AXIS_ROLL = 1;
+    static final int AXIS_PITCH = 2;
+    static final int AXIS_YAW = 3;
+    static final int AXIS_GAZ = 4;
+    private static final int AXIS_COUNT = 5;
+    /**
+     * Attente maximale de la fin du Thread de la boucle lors de son arrêt, en millisecondes.
+     * Une période de la boucle ne dure que quelques millisecondes.
+     */
+    private static final long STOP_TIMEOUT_MS = 500;
+
+    /**
+     * Horloge basée sur {@link System#nanoTime()}.
+     */
+    public static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void sleepUntil(long deadlineNanos) throws InterruptedException {
+            long remaining = deadlineNanos - System.nanoTime();
+            if (remaining > 0) {
+                Thread.sleep(remaining / 1000000L, (int) (remaining % 1000000L));
+            }
+        }
+    };
+
+    private final PilotingCommandMixer mMixer;
+    private final Clock mClock;
+    private final long mPeriodNanos;
+
+    /**
+     * File circulaire des consignes : axe sur les 32 bits de poids fort, valeur sur les 32 autres.
+     */
+    private final long[] mQueue;
+    private final Object mQueueLock = new Object();
+    private int mQueueHead;
+    private int mQueueSize;
+    private final boolean[] mSeenAxes = new boolean[AXIS_COUNT];
+
+    private final Object mStepLock = new Object();
+    private volatile Thread mThread;
+    private long mNextDeadline;
+
+    private volatile long mTickCount;
+    private volatile long mDeadlineMissCount;
+    private volatile long mMaxLatenessNanos;
+    private long mCoalescedInputCount;
+
+    /**
+     * @param sink          destinataire des commandes fusionnées
+     * @param rateHz        nombre de commandes envoyées par seconde (par exemple 25 ou 50)
+     * @param queueCapacity nombre maximal de consignes en attente entre deux périodes
+     * @param clock         horloge utilisée pour cadencer la boucle
+     */
+    public ControlLoop(@NonNull PilotingCommandMixer.Sink sink, @IntRange(from = 1) int rateHz,
+                       @IntRange(from = AXIS_COUNT) int queueCapacity, @NonNull Clock clock) {
+        if (rateHz <= 0) {
+            throw new IllegalArgumentException("rateHz must be positive: " + rateHz);
+        }
+        if (queueCapacity < AXIS_COUNT) {
+            throw new IllegalArgumentException("queueCapacity must be at least " + AXIS_COUNT);
+        }
+        mMixer = new PilotingCommandMixer(sink);
+        mClock = clock;
+        mPeriodNanos = 1000000000L / rateHz;
+        mQueue = new long[queueCapacity];
+    }
+
+    public void setFlag(byte flag) {
+        post(AXIS_FLAG, flag);
+    }
+
+    public void setRoll(@IntRange(from = -100, to = 100) int roll) {
+        post(AXIS_ROLL, roll);
+    }
+
+    public void setPitch(@IntRange(from = -100, to = 100) int pitch) {
+        post(AXIS_PITCH, pitch);
+    }
+
+    public void setYaw(@IntRange(from = -100, to = 100) int yaw) {
+        post(AXIS_YAW, yaw);
+    }
+
+    public void setGaz(@IntRange(from = -100, to = 100) int gaz) {
+        post(AXIS_GAZ, gaz);
+    }
+
+    /**
+     * Dépose les consignes des 5 axes en une fois : aucune autre consigne ne peut s'intercaler,
+     * et une période de la boucle ne peut pas en appliquer seulement une partie.
+     */
+    public void setCommand(byte flag, @IntRange(from = -100, to = 100) int roll,
+                           @IntRange(from = -100, to = 100) int pitch, @IntRange(from = -100, to = 100) int yaw,
+                           @IntRange(from = -100, to = 100) int gaz) {
+        synchronized (mQueueLock) {
+            post(AXIS_FLAG, flag);
+            post(AXIS_ROLL, roll);
+            post(AXIS_PITCH, pitch);
+            post(AXIS_YAW, yaw);
+            post(AXIS_GAZ, gaz);
+        }
+    }
+
+    /**
+     * Démarre le Thread de la boucle de contrôle, s'il n'est pas déjà démarré.
+     */
+    public synchronized void start() {
+        if (mThread == null) {
+            mNextDeadline = mClock.nanoTime();
+            mThread = new Thread(this, "ControlLoop");
+            mThread.start();
+        }
+    }
+
+    /**
+     * Arrête le Thread de la boucle de contrôle, et attend qu'il se termine : après un arrêt suivi
+     * d'un redémarrage, deux Threads ne peuvent pas envoyer de commande en même temps.
+     * Les consignes en attente ne sont pas envoyées ; utiliser {@link #flush()} au préalable si nécessaire.
+     *
+     * @return true si la boucle était démarrée
+     */
+    public synchronized boolean stop() {
+        Thread thread = mThread;
+        if (thread == null) {
+            return false;
+        }
+        mThread = null;
+        thread.interrupt();
+        // Appelé depuis la boucle elle-même, par exemple via un listener : elle s'arrêtera au retour
+        if (thread != Thread.currentThread()) {
+            try {
+                thread.join(STOP_TIMEOUT_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Envoie immédiatement, sur le Thread appelant, les consignes en attente.
+     * Utile avant une déconnexion, lorsque la boucle risque d'être arrêtée avant la période suivante.
+     */
+    public void flush() {
+        step();
+    }
+
+    @Override
+    public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+        try {
+            while (mThread == Thread.currentThread()) {
+                runIteration();
+            }
+        } catch (InterruptedException e) {
+            // Arrêt demandé via stop()
+        }
+    }
+
+    /**
+     * Attend la prochaine échéance, envoie la commande de la période puis met à jour les métriques.
+     * Cette méthode n'est appelée que par le Thread de la boucle, ou directement par les tests.
+     */
+    void runIteration() throws InterruptedException {
+        long deadline = mNextDeadline;
+        mClock.sleepUntil(deadline);
+
+        long start = mClock.nanoTime();
+        step();
+        long lateness = start - deadline;
+        if (lateness > mMaxLatenessNanos) {
+            mMaxLatenessNanos = lateness;
+        }
+        mTickCount++;
+
+        // Si la prochaine échéance est déjà dépassée, les périodes concernées sont manquées :
+        // elles sont comptabilisées et sautées plutôt que rattrapées en rafale.
+        long next = deadline + mPeriodNanos;
+        long overrun = mClock.nanoTime() - next;
+        if (overrun > 0) {
+            long missed = overrun / mPeriodNanos + 1;
+            mDeadlineMissCount += missed;
+            next += missed * mPeriodNanos;
+        }
+        mNextDeadline = next;
+    }
+
+    /**
+     * Applique les consignes en attente au mélangeur, puis envoie la commande fusionnée.
+     */
+    private void step() {
+        synchronized (mStepLock) {
+            synchronized (mQueueLock) {
+                for (int i = 0; i < mQueueSize; i++) {
+                    apply(mQueue[(mQueueHead + i) % mQueue.length]);
+                }
+                mQueueHead = 0;
+                mQueueSize = 0;
+            }
+            mMixer.tick();
+        }
+    }
+
+    private void post(int axis, int value) {
+        long entry = ((long) axis << 32) | (value & 0xFFFFFFFFL);
+        synchronized (mQueueLock) {
+            if (mQueueSize == mQueue.length) {
+                compactQueue();
+            }
+            mQueue[(mQueueHead + mQueueSize) % mQueue.length] = entry;
+            mQueueSize++;
+        }
+    }
+
+    /**
+     * Ne conserve que la consigne la plus récente de chaque axe.
+     * La file contient alors au plus {@link #AXIS_COUNT} éléments.
+     */
+    private void compactQueue() {
+        int capacity = mQueue.length;
+        for (int i = 0; i < AXIS_COUNT; i++) {
+            mSeenAxes[i] = false;
+        }
+        // Parcours du plus récent au plus ancien, en remplissant la file depuis la fin
+        int kept = 0;
+        for (int i = mQueueSize - 1; i >= 0; i--) {
+            long entry = mQueue[(mQueueHead + i) % capacity];
+            int axis = (int) (entry >>> 32);
+            if (!mSeenAxes[axis]) {
+                mSeenAxes[axis] = true;
+                kept++;
+                mQueue[(mQueueHead + mQueueSize - kept) % capacity] = entry;
+            }
+        }
+        mCoalescedInputCount += mQueueSize - kept;
+        mQueueHead = (mQueueHead + mQueueSize - kept) % capacity;
+        mQueueSize = kept;
+    }
+
+    private void apply(long entry) {
+        int value = (int) entry;
+        switch ((int) (entry >>> 32)) {
+            case AXIS_FLAG:
+                mMixer.setFlag((byte) value);
+                break;
+            case AXIS_ROLL:
+                mMixer.setRoll(value);
+                break;
+            case AXIS_PITCH:
+                mMixer.setPitch(value);
+                break;
+            case AXIS_YAW:
+                mMixer.setYaw(value);
+                break;
+            case AXIS_GAZ:
+                mMixer.setGaz(value);
+                break;
+        }
+    }
+
+    /**
+     * @return le mélangeur utilisé en sortie de boucle, et ses statistiques d'envoi
+     */
+    public PilotingCommandMixer getMixer() {
+        return mMixer;
+    }
+
+    /**
+     * @return la période de la boucle, en nanosecondes
+     */
+    public long getPeriodNanos() {
+        return mPeriodNanos;
+    }
+
+    /**
+     * @return le nombre de périodes exécutées
+     */
+    public long getTickCount() {
+        return mTickCount;
+    }
+
+    /**
+     * @return le nombre de périodes manquées parce que la boucle avait pris du retard
+     */
+    public long getDeadlineMissCount() {
+        return mDeadlineMissCount;
+    }
+
+    /**
+     * @return le plus grand retard observé entre une échéance et le début de son traitement,
+     * en nanosecondes
+     */
+    public long getMaxLatenessNanos() {
+        return mMaxLatenessNanos;
+    }
+
+    /**
+     * @return le nombre de consignes écartées lors du compactage de la file,
+     * car remplacées par une consigne plus récente sur le même axe
+     */
+    public long getCoalescedInputCount() {
+        synchronized (mQueueLock) {
+            return mCoalescedInputCount;
+        }
+    }
+
+    /**
+     * Source de temps de la boucle de contrôle.
+     */
+    public interface Clock {
+        /**
+         * @return temps courant en nanosecondes, selon une origine arbitraire
+         */
+        long nanoTime();
+
+        /**
+         * Bloque le Thread appelant jusqu'à l'instant indiqué.
+         *
+         * @param deadlineNanos instant à attendre, dans la même base que {@link #nanoTime()}
+         */
+        void sleepUntil(long deadlineNanos) throws InterruptedException;
+    }
+}
@@ -0,0 +1,248 @@
+package fr.telecomlille.mydrone.drone;
+
+import android.os.Handler;
+import android.support.annotation.NonNull;
+import android.view.Choreographer;
+
+import com.parrot.arsdk.arcommands.ARCOMMANDS_ARDRONE3_MEDIARECORDEVENT_PICTUREEVENTCHANGED_ERROR_ENUM;
+import com.parrot.arsdk.arcommands.ARCOMMANDS_ARDRONE3_PILOTINGSTATE_FLYINGSTATECHANGED_STATE_ENUM;
+import com.parrot.arsdk.arcontroller.ARCONTROLLER_DEVICE_STATE_ENUM;
+import com.parrot.arsdk.arcontroller.ARControllerCodec;
+import com.parrot.arsdk.arcontroller.ARFrame;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Distribue les évènements du drône aux {@link BebopDrone.Listener} enregistrés.
+ * <p>
+ * Les évènements destinés au Thread principal sont regroupés et délivrés une seule fois par frame
+ * d'affichage, via {@link Choreographer}. Lorsqu'aucune frame n'est produite (écran éteint,
+ * Activity arrêtée), ils sont délivrés par le {@link Handler} principal après un court délai.
+ * </p><p>
+ * Les évènements d'état (batterie, état de pilotage, progression du téléchargement de chaque média)
+ * sont fusionnés : seule la dernière valeur reçue pendant la frame est délivrée, à la place de
+ * cette dernière valeur parmi les autres évènements. Chacun est un objet réutilisé d'une frame
+ * à l'autre : leur publication n'alloue rien (voir {@link DroneEventQueue}). Les évènements ponctuels (connexion, photo,
+ * fin de déplacement, etc.) sont tous délivrés. Tous les évènements sont délivrés dans leur ordre
+ * d'arrivée : par exemple, la dernière progression d'un média précède toujours la fin de son
+ * téléchargement.
+ * </p><p>
+ * Les listeners sont stockés dans un tableau copié à chaque modification (copy-on-write) :
+ * la distribution parcourt le tableau courant sans le copier ni allouer d'objet,
+ * et un listener peut se désabonner pendant la distribution.
+ * </p>
+ */
+class DroneEventBus {
+
+    private static final BebopDrone.Listener[] NO_LISTENERS = new BebopDrone.Listener[0];
+    /**
+     * Délai au-delà duquel les évènements sont délivrés sans attendre de frame d'affichage.
+     */
+    private static final long FRAME_FALLBACK_DELAY_MS = 100;
+
+    private final Handler mMainHandler;
+    private final Object mListenersLock = new Object();
+    private volatile BebopDrone.Listener[] mListeners = NO_LISTENERS;
+
+    private final AtomicBoolean mFrameScheduled = new AtomicBoolean();
+
+    /**
+     * Evènements en attente, dans leur ordre d'arrivée.
+     */
+    private final Object mPendingLock = new Object();
+    private final DroneEventQueue mPendingEvents;
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            deliverPendingEvents();
+        }
+    };
+
+    /**
+     * Délivre les évènements lorsqu'aucune frame n'est produite.
+     */
+    private final Runnable mFallbackDelivery = new Runnable() {
+        @Override
+        public void run() {
+            deliverPendingEvents();
+        }
+    };
+
+    /**
+     * Programme la prochaine distribution sur le Thread principal,
+     * où le {@link Choreographer} doit être obtenu.
+     */
+    private final Runnable mScheduleFrame = new Runnable() {
+        @Override
+        public void run() {
+            Choreographer.getInstance().postFrameCallback(mFrameCallback);
+            mMainHandler.postDelayed(mFallbackDelivery, FRAME_FALLBACK_DELAY_MS);
+        }
+    };
+
+    /**
+     * @param mainHandler       Handler associé au Thread principal
+     * @param parallelDownloads nombre de médias téléchargés simultanément
+     */
+    DroneEventBus(@NonNull Handler mainHandler, int parallelDownloads) {
+        mMainHandler = mainHandler;
+        mPendingEvents = new DroneEventQueue(parallelDownloads);
+    }
+
+    void addListener(BebopDrone.Listener listener) {
+        synchronized (mListenersLock) {
+            BebopDrone.Listener[] current = mListeners;
+            BebopDrone.Listener[] updated = new BebopDrone.Listener[current.length + 1];
+            System.arraycopy(current, 0, updated, 0, current.length);
+            updated[current.length] = listener;
+            mListeners = updated;
+        }
+    }
+
+    void removeListener(BebopDrone.Listener listener) {
+        synchronized (mListenersLock) {
+            BebopDrone.Listener[] current = mListeners;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == listener) {
+                    BebopDrone.Listener[] updated = new BebopDrone.Listener[current.length - 1];
+                    System.arraycopy(current, 0, updated, 0, i);
+                    System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                    mListeners = updated;
+                    return;
+                }
+            }
+        }
+    }
+
+    //region Evènements d'état, fusionnés
+    void postBatteryChanged(int battery) {
+        synchronized (mPendingLock) {
+            mPendingEvents.setBattery(battery);
+        }
+        scheduleFrame();
+    }
+
+    void postPilotingStateChanged(ARCOMMANDS_ARDRONE3_PILOTINGSTATE_FLYINGSTATECHANGED_STATE_ENUM state) {
+        synchronized (mPendingLock) {
+            mPendingEvents.setPilotingState(state);
+        }
+        scheduleFrame();
+    }
+
+    void postDownloadProgressed(String mediaName, int progress) {
+        // Les médias téléchargés en parallèle ont chacun leur progression
+        synchronized (mPendingLock) {
+            mPendingEvents.setDownloadProgress(mediaName, progress);
+        }
+        scheduleFrame();
+    }
+    //endregion
+
+    //region Evènements ponctuels
+    void postConnectionChanged(final ARCONTROLLER_DEVICE_STATE_ENUM state) {
+        postEvent(new DroneEventQueue.Event() {
+            @Override
+            void deliver(BebopDrone.Listener[] listeners) {
+                for (BebopDrone.Listener listener : listeners) {
+                    listener.onDroneConnectionChanged(state);
+                }
+            }
+        });
+    }
+
+    void postPictureTaken(final ARCOMMANDS_ARDRONE3_MEDIARECORDEVENT_PICTUREEVENTCHANGED_ERROR_ENUM error) {
+        postEvent(new DroneEventQueue.Event() {
+            @Override
+            void deliver(BebopDrone.Listener[] listeners) {
+                for (BebopDrone.Listener listener : listeners) {
+                    listener.onPictureTaken(error);
+                }
+            }
+        });
+    }
+
+    void postMatchingMediasFound(final int nbMedias) {
+        postEvent(new DroneEventQueue.Event() {
+            @Override
+            void deliver(BebopDrone.Listener[] listeners) {
+                for (BebopDrone.Listener listener : listeners) {
+                    listener.onMatchingMediasFound(nbMedias);
+                }
+            }
+        });
+    }
+
+    void postDownloadComplete(final String mediaName) {
+        postEvent(new DroneEventQueue.Event() {
+            @Override
+            void deliver(BebopDrone.Listener[] listeners) {
+                for (BebopDrone.Listener listener : listeners) {
+                    listener.onDownloadComplete(mediaName);
+                }
+            }
+        });
+    }
+
+    void postRelativeMoveFinished(final float dX, final float dY, final float dZ, final float dPsi,
+                                  final boolean isInterrupted) {
+        postEvent(new DroneEventQueue.Event() {
+            @Override
+            void deliver(BebopDrone.Listener[] listeners) {
+                for (BebopDrone.Listener listener : listeners) {
+                    listener.onRelativeMoveFinished(dX, dY, dZ, dPsi, isInterrupted);
+                }
+            }
+        });
+    }
+    //endregion
+
+    //region Evènements du flux vidéo, délivrés immédiatement sur le Thread appelant
+    void dispatchConfigureDecoder(ARControllerCodec codec) {
+        for (BebopDrone.Listener listener : mListeners) {
+            listener.configureDecoder(codec);
+        }
+    }
+
+    void dispatchFrameReceived(ARFrame frame) {
+        for (BebopDrone.Listener listener : mListeners) {
+            listener.onFrameReceived(frame);
+        }
+    }
+    //endregion
+
+    private void postEvent(DroneEventQueue.Event event) {
+        synchronized (mPendingLock) {
+            mPendingEvents.add(event);
+        }
+        scheduleFrame();
+    }
+
+    private void scheduleFrame() {
+        if (mFrameScheduled.compareAndSet(false, true)) {
+            mMainHandler.post(mScheduleFrame);
+        }
+    }
+
+    /**
+     * Délivre tous les évènements accumulés depuis la frame précédente.
+     * Appelé sur le Thread principal, par la frame ou par le délai de secours.
+     */
+    private void deliverPendingEvents() {
+        Choreographer.getInstance().removeFrameCallback(mFrameCallback);
+        mMainHandler.removeCallbacks(mFallbackDelivery);
+        // Les évènements reçus à partir d'ici programmeront une nouvelle frame
+        mFrameScheduled.set(false);
+
+        int count;
+        synchronized (mPendingLock) {
+            count = mPendingEvents.take();
+        }
+        for (int i = 0; i < count; i++) {
+            DroneEventQueue.Event event = mPendingEvents.poll(i);
+            if (event != null) {
+                event.deliver(mListeners);
+            }
+        }
+    }
+}
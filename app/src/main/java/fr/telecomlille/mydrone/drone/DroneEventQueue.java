@@ -0,0 +1,292 @@
+package fr.telecomlille.mydrone.drone;
+
+import com.parrot.arsdk.arcommands.ARCOMMANDS_ARDRONE3_PILOTINGSTATE_FLYINGSTATECHANGED_STATE_ENUM;
+
+import java.util.Arrays;
+
+/**
+ * File des évènements du drône en attente de délivrance sur le Thread principal.
+ * <p>
+ * Les évènements sont rangés dans un tableau, dans leur ordre d'arrivée. Chaque évènement d'état
+ * (batterie, état de pilotage, progression du téléchargement d'un média) est un objet alloué une
+ * seule fois, qui conserve la dernière valeur reçue : une nouvelle valeur remplace la précédente
+ * et déplace l'évènement en fin de file, sans allocation. Les évènements ponctuels sont ajoutés
+ * tels quels.
+ * </p><p>
+ * Deux tableaux sont utilisés en alternance : l'un reçoit les nouveaux évènements pendant que
+ * l'autre est délivré. {@link #take()} les échange et fige la valeur de chaque évènement d'état.
+ * </p><p>
+ * Cette classe n'est pas thread-safe : {@link DroneEventBus} protège par un verrou l'ajout
+ * des évènements et {@link #take()}. Seul le Thread principal appelle {@link #poll(int)}.
+ * </p>
+ */
+final class DroneEventQueue {
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int NOT_PENDING = -1;
+
+    private Event[] mPending = new Event[INITIAL_CAPACITY];
+    private int mPendingCount;
+    private Event[] mTaken = new Event[INITIAL_CAPACITY];
+
+    private final BatteryEvent mBatteryEvent = new BatteryEvent();
+    private final FlyingStateEvent mFlyingStateEvent = new FlyingStateEvent();
+    /**
+     * Un évènement de progression par média en cours de téléchargement.
+     */
+    private DownloadProgressEvent[] mProgressEvents;
+
+    /**
+     * @param parallelDownloads nombre de médias téléchargés simultanément
+     */
+    DroneEventQueue(int parallelDownloads) {
+        // Pendant une même frame, un média peut se terminer et le suivant commencer sur la même session
+        mProgressEvents = new DownloadProgressEvent[2 * Math.max(parallelDownloads, 1)];
+        for (int i = 0; i < mProgressEvents.length; i++) {
+            mProgressEvents[i] = new DownloadProgressEvent();
+        }
+    }
+
+    void setBattery(int battery) {
+        mBatteryEvent.mBattery = battery;
+        moveToEnd(mBatteryEvent);
+    }
+
+    void setPilotingState(ARCOMMANDS_ARDRONE3_PILOTINGSTATE_FLYINGSTATECHANGED_STATE_ENUM state) {
+        mFlyingStateEvent.mState = state;
+        moveToEnd(mFlyingStateEvent);
+    }
+
+    void setDownloadProgress(String mediaName, int progress) {
+        DownloadProgressEvent event = progressEventFor(mediaName);
+        event.mMediaName = mediaName;
+        event.mProgress = progress;
+        moveToEnd(event);
+    }
+
+    /**
+     * Ajoute un évènement ponctuel en fin de file.
+     */
+    void add(Event event) {
+        append(event);
+    }
+
+    /**
+     * Retire de la file tous les évènements en attente, pour les délivrer via {@link #poll(int)}.
+     * Les évènements d'état délivrent la valeur qu'ils ont à cet instant,
+     * et peuvent de nouveau être mis en attente.
+     *
+     * @return nombre d'évènements retirés, dont certains peuvent être vides
+     */
+    int take() {
+        Event[] events = mPending;
+        int count = mPendingCount;
+        mPending = mTaken;
+        mPendingCount = 0;
+        mTaken = events;
+        for (int i = 0; i < count; i++) {
+            if (events[i] != null) {
+                events[i].onTaken();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Renvoie l'évènement retiré à la position donnée par le dernier appel à {@link #take()},
+     * puis libère cette position.
+     *
+     * @return l'évènement, ou null si l'évènement d'état qui occupait cette position
+     * a été déplacé plus loin dans la file
+     */
+    Event poll(int index) {
+        Event event = mTaken[index];
+        mTaken[index] = null;
+        return event;
+    }
+
+    /**
+     * @return nombre de positions occupées dans la file, y compris celles libérées
+     * par le déplacement d'un évènement d'état
+     */
+    int getPendingCount() {
+        return mPendingCount;
+    }
+
+    /**
+     * @return l'évènement d'état de la batterie, pour les tests
+     */
+    StateEvent getBatteryEvent() {
+        return mBatteryEvent;
+    }
+
+    /**
+     * @return l'évènement d'état de pilotage, pour les tests
+     */
+    StateEvent getFlyingStateEvent() {
+        return mFlyingStateEvent;
+    }
+
+    private DownloadProgressEvent progressEventFor(String mediaName) {
+        DownloadProgressEvent free = null;
+        for (DownloadProgressEvent event : mProgressEvents) {
+            if (event.isPending()) {
+                if (event.mMediaName.equals(mediaName)) {
+                    return event;
+                }
+            } else if (free == null) {
+                free = event;
+            }
+        }
+        if (free == null) {
+            // Plus de médias en cours que prévu : les évènements ajoutés sont conservés ensuite
+            int size = mProgressEvents.length;
+            mProgressEvents = Arrays.copyOf(mProgressEvents, 2 * size);
+            for (int i = size; i < mProgressEvents.length; i++) {
+                mProgressEvents[i] = new DownloadProgressEvent();
+            }
+            free = mProgressEvents[size];
+        }
+        return free;
+    }
+
+    private void moveToEnd(StateEvent event) {
+        if (event.mPosition != NOT_PENDING) {
+            mPending[event.mPosition] = null;
+        }
+        append(event);
+    }
+
+    private void append(Event event) {
+        if (mPendingCount == mPending.length) {
+            compact();
+            if (mPendingCount == mPending.length) {
+                mPending = Arrays.copyOf(mPending, 2 * mPending.length);
+            }
+        }
+        event.onQueued(mPendingCount);
+        mPending[mPendingCount++] = event;
+    }
+
+    /**
+     * Supprime les positions libérées par le déplacement des évènements d'état,
+     * qui s'accumulent lorsque le Thread principal ne délivre pas les évènements.
+     */
+    private void compact() {
+        int count = 0;
+        for (int i = 0; i < mPendingCount; i++) {
+            Event event = mPending[i];
+            if (event != null) {
+                event.onQueued(count);
+                mPending[count++] = event;
+            }
+        }
+        Arrays.fill(mPending, count, mPendingCount, null);
+        mPendingCount = count;
+    }
+
+    /**
+     * Evènement délivré aux listeners sur le Thread principal.
+     */
+    abstract static class Event {
+
+        /**
+         * Appelé lorsque l'évènement est placé à la position donnée de la file.
+         */
+        void onQueued(int position) {
+        }
+
+        /**
+         * Appelé lorsque l'évènement est retiré de la file par {@link #take()}.
+         */
+        void onTaken() {
+        }
+
+        /**
+         * Notifie les listeners. Appelé sur le Thread principal.
+         */
+        abstract void deliver(BebopDrone.Listener[] listeners);
+    }
+
+    /**
+     * Evènement réutilisable transmettant la dernière valeur d'un état :
+     * tant que l'évènement est en attente, les nouvelles valeurs remplacent la précédente.
+     */
+    abstract static class StateEvent extends Event {
+        private int mPosition = NOT_PENDING;
+
+        boolean isPending() {
+            return mPosition != NOT_PENDING;
+        }
+
+        @Override
+        final void onQueued(int position) {
+            mPosition = position;
+        }
+
+        @Override
+        final void onTaken() {
+            mPosition = NOT_PENDING;
+            latch();
+        }
+
+        /**
+         * Fige la dernière valeur reçue, qui sera délivrée aux listeners.
+         */
+        abstract void latch();
+    }
+
+    private static final class BatteryEvent extends StateEvent {
+        private int mBattery;
+        private int mDeliveredBattery;
+
+        @Override
+        void latch() {
+            mDeliveredBattery = mBattery;
+        }
+
+        @Override
+        void deliver(BebopDrone.Listener[] listeners) {
+            for (BebopDrone.Listener listener : listeners) {
+                listener.onBatteryChargeChanged(mDeliveredBattery);
+            }
+        }
+    }
+
+    private static final class FlyingStateEvent extends StateEvent {
+        private ARCOMMANDS_ARDRONE3_PILOTINGSTATE_FLYINGSTATECHANGED_STATE_ENUM mState;
+        private ARCOMMANDS_ARDRONE3_PILOTINGSTATE_FLYINGSTATECHANGED_STATE_ENUM mDeliveredState;
+
+        @Override
+        void latch() {
+            mDeliveredState = mState;
+        }
+
+        @Override
+        void deliver(BebopDrone.Listener[] listeners) {
+            for (BebopDrone.Listener listener : listeners) {
+                listener.onPilotingStateChanged(mDeliveredState);
+            }
+        }
+    }
+
+    private static final class DownloadProgressEvent extends StateEvent {
+        private String mMediaName;
+        private int mProgress;
+        private String mDeliveredMediaName;
+        private int mDeliveredProgress;
+
+        @Override
+        void latch() {
+            mDeliveredMediaName = mMediaName;
+            mDeliveredProgress = mProgress;
+        }
+
+        @Override
+        void deliver(BebopDrone.Listener[] listeners) {
+            for (BebopDrone.Listener listener : listeners) {
+                listener.onDownloadProgressed(mDeliveredMediaName, mDeliveredProgress);
+            }
+        }
+    }
+}
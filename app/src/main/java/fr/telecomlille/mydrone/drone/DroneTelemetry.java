@@ -0,0 +1,331 @@
+package fr.telecomlille.mydrone.drone;
+
+import android.support.annotation.NonNull;
+
+import com.parrot.arsdk.arcommands.ARCOMMANDS_ARDRONE3_PILOTINGSTATE_FLYINGSTATECHANGED_STATE_ENUM;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Conserve les dernières données de télémétrie reçues depuis le drône :
+ * vitesse, attitude, altitude, position GPS, batterie, signal Wi-Fi et état de pilotage.
+ * <p>
+ * Les écritures sont effectuées directement depuis le Thread du SDK, sans passer par le
+ * Thread principal. La lecture se fait via {@link #snapshot(Snapshot)} depuis n'importe quel Thread,
+ * sans verrou ni allocation : les valeurs sont protégées par un compteur de séquence (seqlock).
+ * Le compteur est impair pendant une écriture ; un lecteur qui observe un compteur impair
+ * ou modifié entre le début et la fin de sa copie recommence celle-ci.
+ * </p>
+ */
+public class DroneTelemetry {
+
+    /**
+     * Valeur de latitude/longitude envoyée par le drône lorsque la position GPS n'est pas connue.
+     */
+    public static final double GPS_UNAVAILABLE = 500.0;
+
+    private static final int SPEED_X = 0;
+    private static final int SPEED_Y = 1;
+    private static final int SPEED_Z = 2;
+    private static final int ROLL = 3;
+    private static final int PITCH = 4;
+    private static final int YAW = 5;
+    private static final int ALTITUDE = 6;
+    private static final int LATITUDE = 7;
+    private static final int LONGITUDE = 8;
+    private static final int GPS_ALTITUDE = 9;
+    private static final int BATTERY = 10;
+    private static final int WIFI_RSSI = 11;
+    private static final int FLYING_STATE = 12;
+    private static final int UPDATE_TIME = 13;
+    private static final int VALUE_COUNT = 14;
+
+    /**
+     * Valeurs stockées sous forme de bits bruts de double (sauf l'horodatage, stocké tel quel).
+     * Chaque accès est volatile, ce qui garantit la validité du seqlock.
+     */
+    private final AtomicLongArray mValues = new AtomicLongArray(VALUE_COUNT);
+    private final Object mWriteLock = new Object();
+    private volatile int mSequence;
+
+    public DroneTelemetry() {
+        set(LATITUDE, GPS_UNAVAILABLE);
+        set(LONGITUDE, GPS_UNAVAILABLE);
+        set(FLYING_STATE, -1);
+    }
+
+    /**
+     * @param speedX vitesse selon l'axe x (nord), en m/s
+     * @param speedY vitesse selon l'axe y (est), en m/s
+     * @param speedZ vitesse selon l'axe z (bas), en m/s
+     */
+    public void updateSpeed(double speedX, double speedY, double speedZ) {
+        synchronized (mWriteLock) {
+            mSequence++;
+            set(SPEED_X, speedX);
+            set(SPEED_Y, speedY);
+            set(SPEED_Z, speedZ);
+            mValues.set(UPDATE_TIME, System.nanoTime());
+            mSequence++;
+        }
+    }
+
+    /**
+     * @param roll  angle de roulis en radians
+     * @param pitch angle de tangage en radians
+     * @param yaw   angle de lacet en radians
+     */
+    public void updateAttitude(double roll, double pitch, double yaw) {
+        synchronized (mWriteLock) {
+            mSequence++;
+            set(ROLL, roll);
+            set(PITCH, pitch);
+            set(YAW, yaw);
+            mValues.set(UPDATE_TIME, System.nanoTime());
+            mSequence++;
+        }
+    }
+
+    /**
+     * @param altitude altitude par rapport au point de décollage, en mètres
+     */
+    public void updateAltitude(double altitude) {
+        update(ALTITUDE, altitude);
+    }
+
+    /**
+     * @param latitude  latitude en degrés, ou {@link #GPS_UNAVAILABLE}
+     * @param longitude longitude en degrés, ou {@link #GPS_UNAVAILABLE}
+     * @param altitude  altitude GPS en mètres
+     */
+    public void updatePosition(double latitude, double longitude, double altitude) {
+        synchronized (mWriteLock) {
+            mSequence++;
+            set(LATITUDE, latitude);
+            set(LONGITUDE, longitude);
+            set(GPS_ALTITUDE, altitude);
+            mValues.set(UPDATE_TIME, System.nanoTime());
+            mSequence++;
+        }
+    }
+
+    /**
+     * @param batteryPercentage pourcentage de batterie restant
+     */
+    public void updateBattery(int batteryPercentage) {
+        update(BATTERY, batteryPercentage);
+    }
+
+    /**
+     * @param rssi puissance du signal Wi-Fi reçu par le drône, en dBm
+     */
+    public void updateWifiRssi(int rssi) {
+        update(WIFI_RSSI, rssi);
+    }
+
+    /**
+     * @param state valeur numérique de l'état de pilotage du drône
+     */
+    public void updateFlyingState(int state) {
+        update(FLYING_STATE, state);
+    }
+
+    /**
+     * Copie les dernières valeurs connues dans l'objet fourni.
+     * Cette méthode peut être appelée depuis n'importe quel Thread, et n'alloue aucun objet.
+     * Les valeurs copiées sont toujours cohérentes entre elles.
+     *
+     * @param out objet dans lequel copier les valeurs ; il peut être réutilisé d'un appel à l'autre
+     * @return l'objet passé en paramètre
+     */
+    public Snapshot snapshot(@NonNull Snapshot out) {
+        int before;
+        do {
+            before = mSequence;
+            if ((before & 1) != 0) {
+                // Ecriture en cours
+                continue;
+            }
+            out.speedX = get(SPEED_X);
+            out.speedY = get(SPEED_Y);
+            out.speedZ = get(SPEED_Z);
+            out.roll = get(ROLL);
+            out.pitch = get(PITCH);
+            out.yaw = get(YAW);
+            out.altitude = get(ALTITUDE);
+            out.latitude = get(LATITUDE);
+            out.longitude = get(LONGITUDE);
+            out.gpsAltitude = get(GPS_ALTITUDE);
+            out.battery = (int) get(BATTERY);
+            out.wifiRssi = (int) get(WIFI_RSSI);
+            out.flyingState = (int) get(FLYING_STATE);
+            out.updateTimeNanos = mValues.get(UPDATE_TIME);
+        } while (((before & 1) != 0) || (before != mSequence));
+
+        out.sequence = before;
+        return out;
+    }
+
+    private void update(int index, double value) {
+        synchronized (mWriteLock) {
+            mSequence++;
+            set(index, value);
+            mValues.set(UPDATE_TIME, System.nanoTime());
+            mSequence++;
+        }
+    }
+
+    private void set(int index, double value) {
+        mValues.set(index, Double.doubleToRawLongBits(value));
+    }
+
+    private double get(int index) {
+        return Double.longBitsToDouble(mValues.get(index));
+    }
+
+    /**
+     * Copie cohérente des données de télémétrie à un instant donné.
+     * Une même instance peut être réutilisée pour éviter les allocations.
+     */
+    public static class Snapshot {
+        double speedX, speedY, speedZ;
+        double roll, pitch, yaw;
+        double altitude;
+        double latitude, longitude, gpsAltitude;
+        int battery;
+        int wifiRssi;
+        int flyingState;
+        long updateTimeNanos;
+        int sequence;
+
+        /**
+         * @return vitesse selon l'axe x (nord), en m/s
+         */
+        public double getSpeedX() {
+            return speedX;
+        }
+
+        /**
+         * @return vitesse selon l'axe y (est), en m/s
+         */
+        public double getSpeedY() {
+            return speedY;
+        }
+
+        /**
+         * @return vitesse selon l'axe z (bas), en m/s
+         */
+        public double getSpeedZ() {
+            return speedZ;
+        }
+
+        /**
+         * @return angle de roulis en radians
+         */
+        public double getRoll() {
+            return roll;
+        }
+
+        /**
+         * @return angle de tangage en radians
+         */
+        public double getPitch() {
+            return pitch;
+        }
+
+        /**
+         * @return angle de lacet en radians
+         */
+        public double getYaw() {
+            return yaw;
+        }
+
+        /**
+         * @return altitude par rapport au point de décollage, en mètres
+         */
+        public double getAltitude() {
+            return altitude;
+        }
+
+        /**
+         * @return latitude en degrés, ou {@link #GPS_UNAVAILABLE}
+         */
+        public double getLatitude() {
+            return latitude;
+        }
+
+        /**
+         * @return longitude en degrés, ou {@link #GPS_UNAVAILABLE}
+         */
+        public double getLongitude() {
+            return longitude;
+        }
+
+        /**
+         * @return altitude GPS en mètres
+         */
+        public double getGpsAltitude() {
+            return gpsAltitude;
+        }
+
+        /**
+         * @return true si la position GPS du drône est connue
+         */
+        public boolean hasGpsFix() {
+            return (latitude != GPS_UNAVAILABLE) && (longitude != GPS_UNAVAILABLE);
+        }
+
+        /**
+         * @return pourcentage de batterie restant
+         */
+        public int getBattery() {
+            return battery;
+        }
+
+        /**
+         * @return puissance du signal Wi-Fi en dBm
+         */
+        public int getWifiRssi() {
+            return wifiRssi;
+        }
+
+        /**
+         * @return l'état de pilotage du drône, ou null s'il n'est pas encore connu
+         */
+        public ARCOMMANDS_ARDRONE3_PILOTINGSTATE_FLYINGSTATECHANGED_STATE_ENUM getFlyingState() {
+            return (flyingState < 0) ? null
+                    : ARCOMMANDS_ARDRONE3_PILOTINGSTATE_FLYINGSTATECHANGED_STATE_ENUM.getFromValue(flyingState);
+        }
+
+        /**
+         * @return true si le drône est en vol stable, et peut donc recevoir des commandes de déplacement
+         */
+        public boolean isAirborne() {
+            ARCOMMANDS_ARDRONE3_PILOTINGSTATE_FLYINGSTATECHANGED_STATE_ENUM state = getFlyingState();
+            if (state == null) {
+                return false;
+            }
+            switch (state) {
+                case ARCOMMANDS_ARDRONE3_PILOTINGSTATE_FLYINGSTATECHANGED_STATE_HOVERING:
+                case ARCOMMANDS_ARDRONE3_PILOTINGSTATE_FLYINGSTATECHANGED_STATE_FLYING:
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        /**
+         * @return instant de la dernière mise à jour, selon {@link System#nanoTime()}
+         */
+        public long getUpdateTimeNanos() {
+            return updateTimeNanos;
+        }
+
+        /**
+         * @return numéro de version des données ; il change à chaque mise à jour
+         */
+        public int getSequence() {
+            return sequence;
+        }
+    }
+}
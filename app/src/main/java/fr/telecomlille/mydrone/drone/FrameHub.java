@@ -0,0 +1,513 @@
+package fr.telecomlille.mydrone.drone;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.parrot.arsdk.arcontroller.ARFrame;
+
+import java.util.ArrayDeque;
+
+import fr.telecomlille.mydrone.video.VideoFrame;
+import fr.telecomlille.mydrone.video.VideoFramePool;
+
+/**
+ * Distribue chaque frame du flux vidéo à plusieurs consommateurs (affichage, vision, enregistrement)
+ * sans que l'un d'eux ne puisse ralentir les autres.
+ * <p>
+ * Chaque frame reçue depuis le SDK n'est copiée qu'une seule fois, dans un {@link VideoFrame} issu
+ * d'un pool partagé. Cette frame est ensuite partagée par comptage de références entre les
+ * consommateurs. Chaque consommateur dispose de sa propre file d'attente bornée et de son propre
+ * Thread, et choisit la politique appliquée lorsque sa file est pleine ({@link DropPolicy}).
+ * </p><p>
+ * Chaque consommateur reçoit les frames via des vues issues de son propre pool, dont la taille
+ * est son budget : sa file, la frame en cours de traitement et les frames qu'il retient au-delà
+ * (par exemple dans la file d'un décodeur). Le pool partagé contient une frame par vue, plus celle
+ * en cours de publication : il ne peut donc jamais être épuisé. Un consommateur qui retient toutes
+ * ses frames n'épuise que ses propres vues, et ne perd que ses propres frames.
+ * </p><p>
+ * {@link #publish(ARFrame)} ne bloque jamais : elle ne prend que des verrous internes très brefs,
+ * jamais pendant le traitement d'une frame par un consommateur.
+ * </p>
+ */
+public class FrameHub {
+
+    private static final String TAG = "FrameHub";
+    private static final Subscription[] NO_SUBSCRIPTIONS = new Subscription[0];
+    /**
+     * Attente maximale de la fin du Thread d'un consommateur, en millisecondes.
+     * Elle couvre le traitement d'une frame, comme une détection de visages.
+     */
+    private static final long CLOSE_TIMEOUT_MS = 500;
+
+    /**
+     * Politique appliquée par un consommateur lorsque sa file d'attente est pleine.
+     */
+    public enum DropPolicy {
+        /**
+         * Seule la frame la plus récente est conservée. Adapté à l'analyse d'images,
+         * qui n'a d'intérêt que sur l'image la plus récente.
+         */
+        LATEST_ONLY,
+        /**
+         * Lorsque la file déborde, les frames en attente sont abandonnées ainsi que les P-frames
+         * suivantes, jusqu'à la prochaine I-frame. Adapté au décodage du flux H.264.
+         */
+        DROP_UNTIL_KEYFRAME,
+        /**
+         * Les frames en attente ne sont jamais abandonnées. Lorsque la file est pleine, ou que le
+         * consommateur a épuisé son budget, la nouvelle frame est abandonnée ainsi que les P-frames
+         * suivantes, jusqu'à la prochaine I-frame. Aucune frame n'est donc perdue tant que le
+         * consommateur rattrape son retard. Adapté à l'enregistrement du flux.
+         */
+        LOSSLESS
+    }
+
+    private final VideoFramePool mPool;
+    private final Object mSubscriptionsLock = new Object();
+    private volatile Subscription[] mSubscriptions = NO_SUBSCRIPTIONS;
+
+    private volatile long mPublishedCount;
+    private volatile long mLostCount;
+
+    /**
+     * @param frameCapacity capacité initiale en octets du buffer de chaque frame
+     */
+    public FrameHub(@IntRange(from = 1) int frameCapacity) {
+        // La frame en cours de publication ; les autres sont ajoutées avec chaque consommateur
+        mPool = new VideoFramePool(1, frameCapacity);
+    }
+
+    /**
+     * Ajoute un consommateur qui ne retient pas les frames après les avoir traitées.
+     *
+     * @see #subscribe(String, int, int, DropPolicy, Consumer)
+     */
+    public Subscription subscribe(@NonNull String name, @IntRange(from = 1) int capacity,
+                                  @NonNull DropPolicy policy, @NonNull Consumer consumer) {
+        return subscribe(name, capacity, 0, policy, consumer);
+    }
+
+    /**
+     * Ajoute un consommateur, qui recevra les frames publiées à partir de maintenant
+     * sur son propre Thread.
+     *
+     * @param name     nom du consommateur, utilisé pour nommer son Thread
+     * @param capacity nombre maximal de frames en attente pour ce consommateur
+     * @param retained nombre maximal de frames que le consommateur retient après les avoir traitées,
+     *                 via {@link VideoFrame#retain()}
+     * @param policy   politique appliquée lorsque la file du consommateur est pleine
+     * @param consumer objet traitant les frames
+     * @return l'abonnement, permettant de retirer le consommateur et de consulter ses statistiques
+     */
+    public Subscription subscribe(@NonNull String name, @IntRange(from = 1) int capacity,
+                                  @IntRange(from = 0) int retained, @NonNull DropPolicy policy,
+                                  @NonNull Consumer consumer) {
+        // Sa file, la frame en cours de traitement et les frames retenues
+        int budget = capacity + 1 + retained;
+        Subscription subscription = new Subscription(name, capacity, budget, policy, consumer);
+        // Alloué une fois pour toutes : les vues d'un consommateur retiré peuvent encore retenir
+        // des frames partagées, le pool n'est donc jamais réduit
+        mPool.grow(budget);
+        synchronized (mSubscriptionsLock) {
+            Subscription[] current = mSubscriptions;
+            Subscription[] updated = new Subscription[current.length + 1];
+            System.arraycopy(current, 0, updated, 0, current.length);
+            updated[current.length] = subscription;
+            mSubscriptions = updated;
+        }
+        subscription.start();
+        return subscription;
+    }
+
+    /**
+     * Retire un consommateur. Les frames en attente pour ce consommateur sont abandonnées,
+     * et cette méthode attend que son Thread s'arrête une fois la frame en cours traitée.
+     *
+     * @param subscription abonnement obtenu via {@link #subscribe}
+     */
+    public void unsubscribe(@NonNull Subscription subscription) {
+        synchronized (mSubscriptionsLock) {
+            Subscription[] current = mSubscriptions;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == subscription) {
+                    Subscription[] updated = new Subscription[current.length - 1];
+                    System.arraycopy(current, 0, updated, 0, i);
+                    System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                    mSubscriptions = updated;
+                    break;
+                }
+            }
+        }
+        subscription.close();
+        subscription.join(CLOSE_TIMEOUT_MS);
+    }
+
+    /**
+     * Retire tous les consommateurs, et attend la fin de leurs Threads : les frames et les
+     * ressources utilisées par les consommateurs peuvent ensuite être libérées sans risque.
+     */
+    public void close() {
+        Subscription[] subscriptions;
+        synchronized (mSubscriptionsLock) {
+            subscriptions = mSubscriptions;
+            mSubscriptions = NO_SUBSCRIPTIONS;
+        }
+        // Tous les Threads s'arrêtent en parallèle
+        for (Subscription subscription : subscriptions) {
+            subscription.close();
+        }
+        for (Subscription subscription : subscriptions) {
+            subscription.join(CLOSE_TIMEOUT_MS);
+        }
+    }
+
+    /**
+     * Copie une frame reçue depuis le SDK et la transmet à tous les consommateurs.
+     * Appelé depuis le Thread du SDK, typiquement dans {@link BebopDrone.Listener#onFrameReceived}.
+     *
+     * @param frame frame reçue, qui n'est plus utilisée après le retour de cette méthode
+     */
+    public void publish(@NonNull ARFrame frame) {
+        Subscription[] subscriptions = mSubscriptions;
+        VideoFrame shared = acquire(subscriptions);
+        if (shared != null) {
+            shared.copyFrom(frame);
+            distribute(shared, subscriptions);
+        }
+    }
+
+    /**
+     * Copie une frame déjà reçue et la transmet à tous les consommateurs.
+     * Utilisé par les tests, qui ne peuvent pas construire d'{@link ARFrame}.
+     *
+     * @param frame frame à copier, qui n'est plus utilisée après le retour de cette méthode
+     */
+    void publish(@NonNull VideoFrame frame) {
+        Subscription[] subscriptions = mSubscriptions;
+        VideoFrame shared = acquire(subscriptions);
+        if (shared != null) {
+            shared.copyFrom(frame);
+            distribute(shared, subscriptions);
+        }
+    }
+
+    private VideoFrame acquire(Subscription[] subscriptions) {
+        if (subscriptions.length == 0) {
+            return null;
+        }
+
+        VideoFrame shared = mPool.acquire();
+        if (shared == null) {
+            // Ne devrait pas arriver, chaque frame retenue l'étant par la vue d'un consommateur
+            mLostCount++;
+            for (Subscription subscription : subscriptions) {
+                subscription.onFrameLost();
+            }
+        }
+        return shared;
+    }
+
+    private void distribute(VideoFrame shared, Subscription[] subscriptions) {
+        mPublishedCount++;
+        for (Subscription subscription : subscriptions) {
+            subscription.offer(shared);
+        }
+        shared.release();
+    }
+
+    /**
+     * @return nombre de frames copiées et distribuées aux consommateurs
+     */
+    public long getPublishedCount() {
+        return mPublishedCount;
+    }
+
+    /**
+     * @return nombre de frames perdues pour tous les consommateurs, faute de frame libre dans le pool.
+     * Il reste nul tant que les consommateurs respectent leur budget.
+     */
+    public long getLostCount() {
+        return mLostCount;
+    }
+
+    /**
+     * @return le pool des frames partagées, pour vérifier qu'aucun buffer n'est alloué à chaque frame
+     */
+    public VideoFramePool getFramePool() {
+        return mPool;
+    }
+
+    /**
+     * Traite les frames distribuées par un {@link FrameHub}.
+     */
+    public interface Consumer {
+        /**
+         * Appelé sur le Thread propre au consommateur, pour chaque frame qui lui est délivrée.
+         * La frame est libérée au retour de cette méthode : pour la conserver plus longtemps,
+         * le consommateur doit obtenir sa propre référence avec {@link VideoFrame#retain()}, dans
+         * la limite du nombre de frames retenues déclaré lors de son abonnement.
+         *
+         * @param frame frame à traiter
+         */
+        void onFrame(@NonNull VideoFrame frame);
+    }
+
+    /**
+     * Abonnement d'un consommateur, avec sa file d'attente et son Thread.
+     */
+    public static final class Subscription implements Runnable {
+
+        private final String mName;
+        private final int mCapacity;
+        private final int mBudget;
+        private final DropPolicy mPolicy;
+        private final Consumer mConsumer;
+
+        private final Object mLock = new Object();
+        private final ArrayDeque<VideoFrame> mPending;
+        private boolean mWaitingForKeyFrame;
+        private boolean mClosed;
+        private volatile Thread mThread;
+        /**
+         * Vues par lesquelles le consommateur reçoit les frames partagées : sa taille est son budget.
+         */
+        private final VideoFramePool mViews;
+
+        private volatile long mDeliveredCount;
+        private volatile long mDroppedCount;
+        private volatile long mOverBudgetCount;
+        private volatile int mMaxBacklog;
+
+        Subscription(String name, int capacity, int budget, DropPolicy policy, Consumer consumer) {
+            mName = name;
+            mCapacity = capacity;
+            mBudget = budget;
+            mPolicy = policy;
+            mConsumer = consumer;
+            mPending = new ArrayDeque<>(capacity);
+            mViews = new VideoFramePool(budget);
+        }
+
+        void start() {
+            mThread = new Thread(this, "FrameHub-" + mName);
+            mThread.start();
+        }
+
+        void close() {
+            synchronized (mLock) {
+                mClosed = true;
+                dropPending();
+                mLock.notifyAll();
+            }
+        }
+
+        /**
+         * Attend la fin du Thread du consommateur, au plus le délai indiqué.
+         * Sans effet si appelé depuis ce Thread, par exemple par le consommateur lui-même.
+         */
+        void join(long timeoutMillis) {
+            Thread thread = mThread;
+            if ((thread == null) || (thread == Thread.currentThread())) {
+                return;
+            }
+            try {
+                thread.join(timeoutMillis);
+                if (thread.isAlive()) {
+                    Log.w(TAG, "Consumer " + mName + " still running after " + timeoutMillis + " ms");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Ajoute une frame partagée à la file de ce consommateur, selon sa politique.
+         * Appelé depuis le Thread qui publie les frames.
+         */
+        void offer(VideoFrame shared) {
+            synchronized (mLock) {
+                if (mClosed) {
+                    return;
+                }
+
+                switch (mPolicy) {
+                    case LATEST_ONLY:
+                        dropPending();
+                        if (!enqueue(shared)) {
+                            return;
+                        }
+                        break;
+
+                    case DROP_UNTIL_KEYFRAME:
+                        if (mPending.size() == mCapacity) {
+                            dropPending();
+                            mWaitingForKeyFrame = true;
+                        }
+                        if (mWaitingForKeyFrame && !shared.isIFrame()) {
+                            mDroppedCount++;
+                            return;
+                        }
+                        if (!enqueue(shared)) {
+                            // Les P-frames suivantes ne seraient plus décodables sans celle-ci
+                            mWaitingForKeyFrame = true;
+                            return;
+                        }
+                        mWaitingForKeyFrame = false;
+                        break;
+
+                    case LOSSLESS:
+                        if (mWaitingForKeyFrame && !shared.isIFrame()) {
+                            mDroppedCount++;
+                            return;
+                        }
+                        if (mPending.size() == mCapacity) {
+                            mDroppedCount++;
+                            mWaitingForKeyFrame = true;
+                            return;
+                        }
+                        if (!enqueue(shared)) {
+                            mWaitingForKeyFrame = true;
+                            return;
+                        }
+                        mWaitingForKeyFrame = false;
+                        if (mPending.size() > mMaxBacklog) {
+                            mMaxBacklog = mPending.size();
+                        }
+                        break;
+                }
+                mLock.notify();
+            }
+        }
+
+        /**
+         * Ajoute une frame partagée à la file, via une vue du consommateur.
+         *
+         * @return false si le consommateur retient déjà autant de frames que son budget le permet :
+         * la frame est alors abandonnée pour ce seul consommateur
+         */
+        private boolean enqueue(VideoFrame shared) {
+            VideoFrame view = mViews.acquireView(shared);
+            if (view == null) {
+                mDroppedCount++;
+                mOverBudgetCount++;
+                return false;
+            }
+            mPending.add(view);
+            return true;
+        }
+
+        /**
+         * Appelé lorsqu'une frame n'a pas pu être publiée.
+         */
+        void onFrameLost() {
+            synchronized (mLock) {
+                mDroppedCount++;
+                if (mPolicy == DropPolicy.DROP_UNTIL_KEYFRAME) {
+                    // Les P-frames suivantes ne sont plus décodables
+                    dropPending();
+                    mWaitingForKeyFrame = true;
+                } else if (mPolicy == DropPolicy.LOSSLESS) {
+                    mWaitingForKeyFrame = true;
+                }
+            }
+        }
+
+        private void dropPending() {
+            VideoFrame frame;
+            while ((frame = mPending.poll()) != null) {
+                frame.release();
+                mDroppedCount++;
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                VideoFrame frame;
+                synchronized (mLock) {
+                    while (mPending.isEmpty() && !mClosed) {
+                        try {
+                            mLock.wait();
+                        } catch (InterruptedException e) {
+                            mClosed = true;
+                        }
+                    }
+                    if (mClosed) {
+                        dropPending();
+                        return;
+                    }
+                    frame = mPending.poll();
+                }
+
+                try {
+                    mConsumer.onFrame(frame);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Consumer " + mName + " failed to process a frame", e);
+                } finally {
+                    frame.release();
+                }
+                mDeliveredCount++;
+            }
+        }
+
+        /**
+         * @return nom du consommateur
+         */
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * @return politique appliquée lorsque la file du consommateur est pleine
+         */
+        public DropPolicy getPolicy() {
+            return mPolicy;
+        }
+
+        /**
+         * @return nombre de frames en attente pour ce consommateur
+         */
+        public int getBacklog() {
+            synchronized (mLock) {
+                return mPending.size();
+            }
+        }
+
+        /**
+         * @return plus grand nombre de frames en attente observé, en mode {@link DropPolicy#LOSSLESS}
+         */
+        public int getMaxBacklog() {
+            return mMaxBacklog;
+        }
+
+        /**
+         * @return nombre maximal de frames que ce consommateur peut retenir à la fois
+         */
+        public int getBudget() {
+            return mBudget;
+        }
+
+        /**
+         * @return nombre de frames abandonnées parce que le consommateur retenait déjà autant de
+         * frames que son budget le permet
+         */
+        public long getOverBudgetCount() {
+            return mOverBudgetCount;
+        }
+
+        /**
+         * @return nombre de frames traitées par le consommateur
+         */
+        public long getDeliveredCount() {
+            return mDeliveredCount;
+        }
+
+        /**
+         * @return nombre de frames abandonnées pour ce consommateur
+         */
+        public long getDroppedCount() {
+            return mDroppedCount;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package fr.telecomlille.mydrone.drone;
+
+import android.support.annotation.NonNull;
+
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.Charset;
+
+/**
+ * Client FTP minimal, limité au téléchargement de fichiers à partir d'une position donnée.
+ * <p>
+ * Les connexions FTP du SDK Parrot téléchargent toujours un fichier en entier. Ce client utilise
+ * la commande REST pour reprendre un téléchargement interrompu là où il s'était arrêté. Il se
+ * connecte en anonyme, en mode passif et binaire, et se reconnecte automatiquement lors de
+ * l'ouverture d'un fichier si la connexion précédente a été perdue.
+ * </p><p>
+ * Un seul fichier peut être téléchargé à la fois. {@link #close()} peut être appelée depuis un
+ * autre Thread pour interrompre un téléchargement bloqué en lecture.
+ * </p>
+ */
+public class FtpClient implements ResumableDownloader.Source {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final String mHost;
+    private final int mPort;
+    private final int mTimeoutMillis;
+
+    private volatile Socket mControlSocket;
+    private volatile Socket mDataSocket;
+    private BufferedReader mReader;
+    private Writer mWriter;
+
+    /**
+     * @param host          adresse du serveur FTP
+     * @param port          port du serveur FTP
+     * @param timeoutMillis délai maximal de connexion et d'attente de données
+     */
+    public FtpClient(@NonNull String host, int port, int timeoutMillis) {
+        mHost = host;
+        mPort = port;
+        mTimeoutMillis = timeoutMillis;
+    }
+
+    @NonNull
+    @Override
+    public synchronized InputStream open(@NonNull String path, long offset) throws IOException {
+        try {
+            if (mDataSocket != null) {
+                finishTransfer();
+            }
+            if (mControlSocket == null) {
+                connect();
+            }
+
+            // L'adresse annoncée par le serveur est ignorée : seul le port est utilisé
+            int port = parsePassivePort(command("PASV", 227));
+            Socket data = new Socket();
+            data.connect(new InetSocketAddress(mHost, port), mTimeoutMillis);
+            data.setSoTimeout(mTimeoutMillis);
+            mDataSocket = data;
+
+            if (offset > 0) {
+                command("REST " + offset, 350);
+            }
+            command("RETR " + path, 150, 125);
+            return new FilterInputStream(data.getInputStream()) {
+                @Override
+                public void close() throws IOException {
+                    finishTransfer();
+                }
+            };
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Ferme la connexion. La prochaine ouverture de fichier se reconnectera.
+     */
+    @Override
+    public void close() {
+        closeQuietly(mDataSocket);
+        closeQuietly(mControlSocket);
+        mDataSocket = null;
+        mControlSocket = null;
+    }
+
+    private void connect() throws IOException {
+        Socket control = new Socket();
+        control.connect(new InetSocketAddress(mHost, mPort), mTimeoutMillis);
+        control.setSoTimeout(mTimeoutMillis);
+        mControlSocket = control;
+        mReader = new BufferedReader(new InputStreamReader(control.getInputStream(), ASCII));
+        mWriter = new OutputStreamWriter(control.getOutputStream(), ASCII);
+
+        expect(readReply(), 220);
+        String reply = command("USER anonymous", 230, 331);
+        if (reply.startsWith("331")) {
+            command("PASS anonymous@", 230);
+        }
+        command("TYPE I", 200);
+    }
+
+    /**
+     * Ferme la connexion de données du fichier en cours, et lit la réponse du serveur.
+     * Un téléchargement interrompu avant la fin est accepté.
+     */
+    private synchronized void finishTransfer() throws IOException {
+        Socket data = mDataSocket;
+        if (data == null) {
+            return;
+        }
+        mDataSocket = null;
+        closeQuietly(data);
+        try {
+            // 226 : transfert terminé, 426 / 451 : transfert interrompu par la fermeture
+            expect(readReply(), 226, 426, 451);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private String command(String command, int... expectedCodes) throws IOException {
+        mWriter.write(command);
+        mWriter.write("\r\n");
+        mWriter.flush();
+        return expect(readReply(), expectedCodes);
+    }
+
+    /**
+     * @return la dernière ligne de la réponse du serveur, éventuellement sur plusieurs lignes
+     */
+    private String readReply() throws IOException {
+        String line = mReader.readLine();
+        if (line == null || line.length() < 3) {
+            throw new IOException("Connection closed by " + mHost);
+        }
+        if (line.length() > 3 && line.charAt(3) == '-') {
+            // Réponse sur plusieurs lignes, terminée par le même code suivi d'une espace
+            String end = line.substring(0, 3) + " ";
+            do {
+                line = mReader.readLine();
+                if (line == null) {
+                    throw new IOException("Connection closed by " + mHost);
+                }
+            } while (!line.startsWith(end));
+        }
+        return line;
+    }
+
+    private static String expect(String reply, int... expectedCodes) throws IOException {
+        for (int code : expectedCodes) {
+            if (reply.startsWith(Integer.toString(code))) {
+                return reply;
+            }
+        }
+        throw new IOException("Unexpected FTP reply: " + reply);
+    }
+
+    /**
+     * @return le port de la réponse à PASV : "227 ... (h1,h2,h3,h4,p1,p2)"
+     */
+    static int parsePassivePort(String reply) throws IOException {
+        int start = reply.indexOf('(');
+        int end = reply.indexOf(')', start + 1);
+        String[] parts = (start < 0 || end < 0) ? new String[0] : reply.substring(start + 1, end).split(",");
+        if (parts.length != 6) {
+            throw new IOException("Malformed PASV reply: " + reply);
+        }
+        try {
+            return (Integer.parseInt(parts[4].trim()) << 8) | Integer.parseInt(parts[5].trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed PASV reply: " + reply);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // Aucune autre action possible
+            }
+        }
+    }
+}
@@ -0,0 +1,354 @@
+package fr.telecomlille.mydrone.drone;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Télécharge plusieurs médias du drône en parallèle, sur plusieurs connexions FTP.
+ * <p>
+ * Une connexion FTP ne télécharge qu'un fichier à la fois. Ce planificateur utilise donc un ensemble
+ * de sessions, chacune avec sa propre connexion, et chaque session prend le prochain média à
+ * télécharger dès qu'elle a terminé le précédent. Les sessions sont créées à la demande puis
+ * conservées jusqu'à {@link #dispose()}.
+ * </p><p>
+ * Les médias sont téléchargés par un {@link ResumableDownloader} : un média déjà téléchargé n'est
+ * pas téléchargé de nouveau, et un téléchargement interrompu reprend là où il s'était arrêté.
+ * </p><p>
+ * Les médias sont téléchargés par ordre de {@link Priority}, puis par taille croissante :
+ * les photos arrivent avant les vidéos, et les petits fichiers avant les gros.
+ * </p>
+ */
+public class MediaDownloadScheduler {
+
+    private static final String TAG = "MediaDownloadScheduler";
+
+    /**
+     * Priorité identique pour tous les médias : ils sont téléchargés par taille croissante.
+     */
+    public static final Priority SMALLEST_FIRST = new Priority() {
+        @Override
+        public int of(@NonNull MediaIndex.Entry media) {
+            return 0;
+        }
+    };
+
+    /**
+     * Télécharge les photos avant les vidéos, puis par taille croissante.
+     */
+    public static final Priority PHOTOS_FIRST = new Priority() {
+        @Override
+        public int of(@NonNull MediaIndex.Entry media) {
+            String name = media.getName().toLowerCase(Locale.US);
+            return (name.endsWith(".jpg") || name.endsWith(".dng")) ? 0 : 1;
+        }
+    };
+
+    private static final Comparator<Task> TASK_ORDER = new Comparator<Task>() {
+        @Override
+        public int compare(Task a, Task b) {
+            if (a.priority != b.priority) {
+                return (a.priority < b.priority) ? -1 : 1;
+            }
+            if (a.size != b.size) {
+                return (a.size < b.size) ? -1 : 1;
+            }
+            return a.name.compareTo(b.name);
+        }
+    };
+
+    private final FtpConnector mConnector;
+    private final ResumableDownloader mDownloader;
+    private final File mLocalDirectory;
+    private final int mSessionCount;
+    private final Priority mPriority;
+    private final ExecutorService mExecutor;
+    private final TransferStats mStats = new TransferStats();
+
+    private final PriorityQueue<Task> mPending = new PriorityQueue<>(16, TASK_ORDER);
+    private final Deque<ResumableDownloader.Source> mIdleSessions = new ArrayDeque<>();
+    private final List<ResumableDownloader.Source> mActiveSessions = new ArrayList<>();
+    private volatile boolean mCancelled;
+    private boolean mDisposed;
+
+    /**
+     * @param connector      objet créant les connexions FTP vers le drône
+     * @param downloader     objet téléchargeant chaque média, en reprenant les téléchargements interrompus
+     * @param localDirectory dossier dans lequel les médias sont enregistrés
+     * @param sessionCount   nombre maximal de téléchargements simultanés
+     * @param priority       ordre de téléchargement des médias
+     */
+    public MediaDownloadScheduler(@NonNull FtpConnector connector, @NonNull ResumableDownloader downloader,
+                                  @NonNull File localDirectory, @IntRange(from = 1) int sessionCount,
+                                  @NonNull Priority priority) {
+        mConnector = connector;
+        mDownloader = downloader;
+        mLocalDirectory = localDirectory;
+        mSessionCount = sessionCount;
+        mPriority = priority;
+        mExecutor = Executors.newFixedThreadPool(sessionCount, new ThreadFactory() {
+            private final AtomicInteger mThreadCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                return new Thread(runnable, "MediaDownload-" + mThreadCount.incrementAndGet());
+            }
+        });
+    }
+
+    /**
+     * Télécharge des médias et attend la fin de tous les téléchargements.
+     * Les statistiques du téléchargement précédent sont oubliées.
+     *
+     * @param medias   médias à télécharger
+     * @param listener objet informé de la progression de chaque média, depuis les Threads
+     *                 de téléchargement
+     * @return nombre de médias entièrement téléchargés
+     */
+    @WorkerThread
+    public int download(@NonNull List<MediaIndex.Entry> medias, @NonNull Listener listener) {
+        synchronized (this) {
+            if (mDisposed) {
+                return 0;
+            }
+            mCancelled = false;
+            mStats.reset();
+            mPending.clear();
+            for (MediaIndex.Entry media : medias) {
+                mPending.add(new Task(media, mPriority.of(media)));
+            }
+        }
+
+        int workerCount = Math.min(mSessionCount, medias.size());
+        CountDownLatch done = new CountDownLatch(workerCount);
+        AtomicInteger successCount = new AtomicInteger();
+        for (int i = 0; i < workerCount; i++) {
+            mExecutor.execute(new Worker(listener, done, successCount));
+        }
+
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            cancel();
+            Thread.currentThread().interrupt();
+        }
+        Log.i(TAG, "Downloaded " + successCount.get() + "/" + medias.size() + " medias: " + mStats);
+        return successCount.get();
+    }
+
+    /**
+     * Annule les téléchargements en cours et ceux qui n'ont pas encore commencé.
+     */
+    public void cancel() {
+        mCancelled = true;
+        synchronized (this) {
+            mPending.clear();
+            // Fermer les connexions interrompt les lectures bloquées
+            for (ResumableDownloader.Source session : mActiveSessions) {
+                session.close();
+            }
+        }
+    }
+
+    /**
+     * Annule les téléchargements et ferme toutes les connexions.
+     * Ce planificateur ne peut plus être utilisé ensuite.
+     */
+    public void dispose() {
+        cancel();
+        mExecutor.shutdown();
+        synchronized (this) {
+            mDisposed = true;
+            for (ResumableDownloader.Source session : mIdleSessions) {
+                session.close();
+            }
+            mIdleSessions.clear();
+        }
+    }
+
+    /**
+     * @return statistiques de débit du dernier téléchargement, éventuellement en cours
+     */
+    @NonNull
+    public TransferStats getStats() {
+        return mStats;
+    }
+
+    private synchronized Task nextTask() {
+        return mCancelled ? null : mPending.poll();
+    }
+
+    /**
+     * Prend une session inactive, ou en crée une nouvelle.
+     */
+    private synchronized ResumableDownloader.Source acquireSession() {
+        ResumableDownloader.Source session = mIdleSessions.poll();
+        if (session == null) {
+            session = mConnector.connect();
+        }
+        mActiveSessions.add(session);
+        return session;
+    }
+
+    private void releaseSession(ResumableDownloader.Source session) {
+        synchronized (this) {
+            mActiveSessions.remove(session);
+            if (!mDisposed) {
+                mIdleSessions.push(session);
+                return;
+            }
+        }
+        session.close();
+    }
+
+    /**
+     * Objet créant les connexions FTP vers le drône.
+     */
+    public interface FtpConnector {
+
+        /**
+         * @return une nouvelle connexion, qui ne sera établie qu'à l'ouverture du premier fichier
+         */
+        @NonNull
+        ResumableDownloader.Source connect();
+    }
+
+    /**
+     * Détermine l'ordre de téléchargement des médias.
+     */
+    public interface Priority {
+
+        /**
+         * @param media un média à télécharger
+         * @return sa priorité : les médias de plus petite valeur sont téléchargés en premier
+         */
+        int of(@NonNull MediaIndex.Entry media);
+    }
+
+    /**
+     * Objet informé de la progression des téléchargements.
+     * Ses méthodes peuvent être appelées simultanément depuis plusieurs Threads.
+     */
+    public interface Listener {
+
+        /**
+         * Appelé lorsque la progression du téléchargement d'un média change d'au moins un pourcent.
+         *
+         * @param mediaName nom du média
+         * @param progress  progression de son téléchargement, de 0 à 100
+         */
+        @WorkerThread
+        void onDownloadProgressed(String mediaName, int progress);
+
+        /**
+         * Appelé lorsque le téléchargement d'un média est terminé.
+         *
+         * @param mediaName nom du média
+         * @param success   true si le média a été entièrement téléchargé
+         */
+        @WorkerThread
+        void onDownloadComplete(String mediaName, boolean success);
+    }
+
+    /**
+     * Média à télécharger, avec l'état de son téléchargement.
+     */
+    private static final class Task {
+        final MediaIndex.Entry media;
+        final String name;
+        final long size;
+        final int priority;
+        int lastProgressSent = -1;
+
+        Task(MediaIndex.Entry media, int priority) {
+            this.media = media;
+            this.name = media.getName();
+            this.size = media.getSize();
+            this.priority = priority;
+        }
+    }
+
+    /**
+     * Télécharge les médias en attente sur une session, jusqu'à ce qu'il n'y en ait plus.
+     */
+    private final class Worker implements Runnable, ResumableDownloader.Callback {
+        private final Listener mListener;
+        private final CountDownLatch mDone;
+        private final AtomicInteger mSuccessCount;
+        private Task mTask;
+
+        Worker(Listener listener, CountDownLatch done, AtomicInteger successCount) {
+            mListener = listener;
+            mDone = done;
+            mSuccessCount = successCount;
+        }
+
+        @Override
+        public void run() {
+            ResumableDownloader.Source session = acquireSession();
+            try {
+                while ((mTask = nextTask()) != null) {
+                    download(session, mTask);
+                }
+            } finally {
+                releaseSession(session);
+                mDone.countDown();
+            }
+        }
+
+        private void download(ResumableDownloader.Source session, Task task) {
+            mStats.onStarted(task.name, task.size);
+            boolean success;
+            try {
+                success = mDownloader.download(session, task.media.getRemotePath(), task.name, task.size,
+                        new File(mLocalDirectory, task.name), this);
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to download " + task.name, e);
+                success = false;
+            }
+            if (success) {
+                mSuccessCount.incrementAndGet();
+                if (task.lastProgressSent != 100) {
+                    mListener.onDownloadProgressed(task.name, 100);
+                }
+            }
+            mStats.onCompleted(task.name, success);
+            mListener.onDownloadComplete(task.name, success);
+        }
+
+        @Override
+        public void onProgress(long bytes, long size) {
+            int progress = (int) (100 * bytes / size);
+            if (mTask.lastProgressSent != progress) {
+                mTask.lastProgressSent = progress;
+                mListener.onDownloadProgressed(mTask.name, progress);
+            }
+        }
+
+        @Override
+        public void onRetry(long bytes, @NonNull IOException cause) {
+            Log.w(TAG, "Download of " + mTask.name + " interrupted at " + bytes + " bytes, resuming: " + cause);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package fr.telecomlille.mydrone.drone;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Index des médias présents sur le drône, conservé sur le stockage externe entre deux connexions.
+ * <p>
+ * Le nom, la taille, la date et l'identifiant de vol de chaque média ne sont analysés qu'une fois,
+ * lorsque le média apparaît pour la première fois dans la liste du drône. Les médias sont ensuite
+ * indexés par identifiant de vol et par jour, ce qui évite de parcourir toute la liste à chaque
+ * recherche.
+ * </p><p>
+ * Une mise à jour est incrémentale : elle se fait entre {@link #beginRefresh()} et
+ * {@link #endRefresh()}, en déclarant chaque média listé par le drône avec
+ * {@link #add(String, long, String, String)}. Les médias déjà connus sont conservés tels quels, et
+ * ceux qui ne sont plus listés sont retirés. L'index n'est réécrit sur le disque que s'il a changé.
+ * </p><p>
+ * L'index est considéré comme périmé à sa création, et lorsque {@link #invalidate()} est appelée,
+ * par exemple après la prise d'une photo : la liste du drône n'a besoin d'être relue que dans ce cas.
+ * Cette classe est thread-safe.
+ * </p>
+ */
+public class MediaIndex {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File mFile;
+    /**
+     * Médias indexés par nom, dans l'ordre de la liste du drône.
+     */
+    private Map<String, Entry> mEntries = new LinkedHashMap<>();
+    private final Map<String, List<Entry>> mByRunId = new HashMap<>();
+    private final Map<String, List<Entry>> mByDay = new HashMap<>();
+
+    private Map<String, Entry> mRefreshed;
+    private boolean mChanged;
+    private boolean mStale = true;
+
+    /**
+     * Charge l'index enregistré, s'il existe.
+     *
+     * @param file fichier de l'index
+     * @throws IOException si l'index existe mais ne peut pas être lu
+     */
+    public MediaIndex(@NonNull File file) throws IOException {
+        mFile = file;
+        if (file.isFile()) {
+            load();
+        }
+        rebuildLookups();
+    }
+
+    /**
+     * @return true si la liste du drône doit être relue avant d'utiliser l'index
+     */
+    public synchronized boolean isStale() {
+        return mStale;
+    }
+
+    /**
+     * Indique que de nouveaux médias ont pu être enregistrés sur le drône.
+     */
+    public synchronized void invalidate() {
+        mStale = true;
+    }
+
+    /**
+     * Commence une mise à jour de l'index.
+     */
+    public synchronized void beginRefresh() {
+        mRefreshed = new LinkedHashMap<>();
+        mChanged = false;
+    }
+
+    /**
+     * Déclare un média listé par le drône, pendant une mise à jour.
+     *
+     * @param name       nom du média
+     * @param size       taille du média, en octets
+     * @param date       date du média, au format "yyyy-MM-ddTHHmmss"
+     * @param remotePath chemin du média sur le drône
+     */
+    public synchronized void add(@NonNull String name, long size, @NonNull String date,
+                                 @NonNull String remotePath) {
+        Entry entry = mEntries.get(name);
+        if (entry == null || entry.mSize != size || !entry.mDate.equals(date)
+                || !entry.mRemotePath.equals(remotePath)) {
+            entry = new Entry(name, size, date, remotePath);
+            mChanged = true;
+        }
+        mRefreshed.put(name, entry);
+    }
+
+    /**
+     * Termine une mise à jour : les médias qui n'ont pas été déclarés sont retirés de l'index.
+     *
+     * @throws IOException si l'index a changé mais n'a pas pu être enregistré.
+     *                     L'index en mémoire est tout de même à jour.
+     */
+    public synchronized void endRefresh() throws IOException {
+        Map<String, Entry> refreshed = mRefreshed;
+        mRefreshed = null;
+        mStale = false;
+        if (mChanged || refreshed.size() != mEntries.size()) {
+            mEntries = refreshed;
+            rebuildLookups();
+            save();
+        }
+    }
+
+    /**
+     * @return nombre de médias indexés
+     */
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * @param name nom d'un média
+     * @return le média de ce nom, ou null s'il n'est pas indexé
+     */
+    @Nullable
+    public synchronized Entry get(@NonNull String name) {
+        return mEntries.get(name);
+    }
+
+    /**
+     * @param runId identifiant d'un vol
+     * @return médias enregistrés pendant ce vol
+     */
+    @NonNull
+    public synchronized List<Entry> getByRunId(@NonNull String runId) {
+        List<Entry> entries = mByRunId.get(runId);
+        if (entries != null) {
+            return new ArrayList<>(entries);
+        }
+
+        // Noms ne suivant pas la convention habituelle : recherche de l'identifiant dans le nom
+        List<Entry> matching = new ArrayList<>();
+        for (Entry entry : mEntries.values()) {
+            if (entry.mName.contains(runId)) {
+                matching.add(entry);
+            }
+        }
+        return matching;
+    }
+
+    /**
+     * @param year  année
+     * @param month mois, de 1 à 12
+     * @param day   jour du mois
+     * @return médias enregistrés ce jour, selon l'horloge du drône
+     */
+    @NonNull
+    public synchronized List<Entry> getByDay(int year, int month, int day) {
+        List<Entry> entries = mByDay.get(String.format(Locale.US, "%04d-%02d-%02d", year, month, day));
+        return (entries != null) ? new ArrayList<>(entries) : Collections.<Entry>emptyList();
+    }
+
+    private void rebuildLookups() {
+        mByRunId.clear();
+        mByDay.clear();
+        for (Entry entry : mEntries.values()) {
+            if (entry.mRunId != null) {
+                addTo(mByRunId, entry.mRunId, entry);
+            }
+            if (entry.mDay != null) {
+                addTo(mByDay, entry.mDay, entry);
+            }
+        }
+    }
+
+    private static void addTo(Map<String, List<Entry>> lookup, String key, Entry entry) {
+        List<Entry> entries = lookup.get(key);
+        if (entries == null) {
+            entries = new ArrayList<>(4);
+            lookup.put(key, entries);
+        }
+        entries.add(entry);
+    }
+
+    private void load() throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(mFile), UTF_8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (fields.length != 4) {
+                    continue;
+                }
+                try {
+                    mEntries.put(fields[0], new Entry(fields[0], Long.parseLong(fields[1]), fields[2], fields[3]));
+                } catch (NumberFormatException e) {
+                    // Ligne corrompue : le média sera de nouveau indexé à la prochaine mise à jour
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Ecrit l'index dans un fichier temporaire, renommé une fois complet.
+     */
+    private void save() throws IOException {
+        File tmp = new File(mFile.getPath() + ".tmp");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), UTF_8);
+        try {
+            for (Entry entry : mEntries.values()) {
+                writer.write(entry.mName + "\t" + entry.mSize + "\t" + entry.mDate + "\t" + entry.mRemotePath + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+        if (!tmp.renameTo(mFile)) {
+            throw new IOException("Failed to rename " + tmp + " to " + mFile);
+        }
+    }
+
+    /**
+     * Média présent sur le drône.
+     */
+    public static final class Entry {
+        private final String mName;
+        private final long mSize;
+        private final String mDate;
+        private final String mRemotePath;
+        private final String mRunId;
+        private final String mDay;
+
+        Entry(String name, long size, String date, String remotePath) {
+            mName = name;
+            mSize = size;
+            mDate = date;
+            mRemotePath = remotePath;
+            mRunId = parseRunId(name);
+            // Date au format "yyyy-MM-ddTHHmmss" : le jour est lu directement, sans conversion
+            mDay = (date.length() >= 10 && date.charAt(4) == '-' && date.charAt(7) == '-')
+                    ? date.substring(0, 10) : null;
+        }
+
+        /**
+         * Les médias sont nommés "produit_date_runId.extension".
+         *
+         * @return l'identifiant de vol contenu dans le nom, ou null s'il n'y en a pas
+         */
+        static String parseRunId(String name) {
+            int end = name.lastIndexOf('.');
+            if (end < 0) {
+                end = name.length();
+            }
+            int start = name.lastIndexOf('_', end - 1);
+            // Sans date avant l'identifiant, le nom ne suit pas la convention
+            if (start < 0 || start + 1 >= end || name.lastIndexOf('_', start - 1) < 0) {
+                return null;
+            }
+            return name.substring(start + 1, end);
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * @return taille du média, en octets
+         */
+        public long getSize() {
+            return mSize;
+        }
+
+        /**
+         * @return date du média, au format "yyyy-MM-ddTHHmmss"
+         */
+        public String getDate() {
+            return mDate;
+        }
+
+        /**
+         * @return chemin du média sur le drône
+         */
+        public String getRemotePath() {
+            return mRemotePath;
+        }
+
+        /**
+         * @return identifiant du vol pendant lequel le média a été enregistré, ou null s'il est inconnu
+         */
+        @Nullable
+        public String getRunId() {
+            return mRunId;
+        }
+
+        @Override
+        public String toString() {
+            return mName;
+        }
+    }
+}
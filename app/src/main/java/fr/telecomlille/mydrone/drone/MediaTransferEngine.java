@@ -0,0 +1,440 @@
+package fr.telecomlille.mydrone.drone;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exécute les demandes de téléchargement de médias, une à la fois, sur un Thread dédié.
+ * <p>
+ * Une demande passe successivement par les états {@link State#QUEUED}, {@link State#LISTING}
+ * et {@link State#DOWNLOADING}, puis se termine dans l'état {@link State#DONE},
+ * {@link State#FAILED} ou {@link State#CANCELLED}. Une nouvelle demande est refusée tant que la
+ * précédente n'est pas terminée : des appuis répétés sur le bouton de téléchargement ne lancent
+ * donc qu'un seul transfert. {@link #cancel()} annule la demande en cours via son {@link Future},
+ * ce qui interrompt son Thread.
+ * </p><p>
+ * Les progressions de téléchargement, qui peuvent arriver de plusieurs Threads à chaque pourcent,
+ * sont regroupées : seule la dernière progression de chaque média est transmise, au plus une fois
+ * par intervalle. Les autres évènements sont transmis immédiatement, après les progressions en
+ * attente. Le listener n'est jamais appelé par deux Threads à la fois.
+ * </p><p>
+ * La liste et le téléchargement des médias sont délégués à un {@link Backend}, et le temps est lu
+ * via une {@link ControlLoop.Clock}, ce qui permet de tester la machine à états sur la JVM.
+ * </p>
+ */
+public class MediaTransferEngine {
+
+    private final Backend mBackend;
+    private final Listener mListener;
+    private final ControlLoop.Clock mClock;
+    private final long mProgressIntervalNanos;
+    private final ThreadPoolExecutor mExecutor;
+
+    private State mState = State.IDLE;
+    private Job mJob;
+
+    private final Object mDispatchLock = new Object();
+    private final Map<String, Integer> mPendingProgress = new LinkedHashMap<>();
+    private long mLastProgressFlushNanos;
+    private boolean mProgressFlushed;
+
+    /**
+     * @param backend            objet listant et téléchargeant les médias
+     * @param listener           objet informé de l'avancement des demandes
+     * @param clock              horloge utilisée pour limiter la fréquence des progressions
+     * @param progressIntervalMs intervalle minimal entre deux envois de progressions
+     */
+    public MediaTransferEngine(@NonNull Backend backend, @NonNull Listener listener,
+                               @NonNull ControlLoop.Clock clock, @IntRange(from = 0) long progressIntervalMs) {
+        mBackend = backend;
+        mListener = listener;
+        mClock = clock;
+        mProgressIntervalNanos = TimeUnit.MILLISECONDS.toNanos(progressIntervalMs);
+        // Une seule demande en cours, et au plus une en attente derrière une demande qui se termine
+        mExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(1),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(@NonNull Runnable runnable) {
+                        return new Thread(runnable, "MediaTransferEngine");
+                    }
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Soumet une demande de téléchargement, si aucune autre n'est en cours.
+     *
+     * @param request médias à télécharger
+     * @return true si la demande a été acceptée, false si une demande est déjà en cours
+     */
+    public boolean submit(@NonNull Request request) {
+        synchronized (mDispatchLock) {
+            synchronized (this) {
+                if (mState.isActive() || mExecutor.isShutdown()) {
+                    return false;
+                }
+                // Retire de la file une demande annulée avant d'avoir commencé
+                mExecutor.purge();
+                Job job = new Job(request);
+                try {
+                    job.future = mExecutor.submit(job);
+                } catch (RejectedExecutionException e) {
+                    // La demande précédente n'a pas encore libéré le Thread
+                    return false;
+                }
+                mJob = job;
+                mState = State.QUEUED;
+            }
+            dispatchStateChanged(State.QUEUED);
+            return true;
+        }
+    }
+
+    /**
+     * Annule la demande en cours, s'il y en a une. Elle se termine dans l'état
+     * {@link State#CANCELLED} dès que son Thread a pris en compte l'annulation.
+     */
+    public void cancel() {
+        synchronized (mDispatchLock) {
+            synchronized (this) {
+                if (!mState.isActive()) {
+                    return;
+                }
+                mJob.cancelled = true;
+                mJob.future.cancel(true);
+                if (mState == State.QUEUED) {
+                    // Une demande qui n'a pas encore commencé ne sera jamais exécutée
+                    mState = State.CANCELLED;
+                }
+            }
+            if (getState() == State.CANCELLED) {
+                dispatchStateChanged(State.CANCELLED);
+                return;
+            }
+        }
+        mBackend.cancel();
+    }
+
+    /**
+     * Annule la demande en cours et arrête le Thread de l'engine.
+     * Les demandes soumises ensuite sont refusées.
+     */
+    public void shutdown() {
+        cancel();
+        mExecutor.shutdown();
+    }
+
+    /**
+     * @return état de la dernière demande, ou {@link State#IDLE} si aucune demande n'a été soumise
+     */
+    @NonNull
+    public synchronized State getState() {
+        return mState;
+    }
+
+    /**
+     * Passe la demande dans un nouvel état, si elle est toujours la demande en cours
+     * et si elle n'a pas été annulée.
+     *
+     * @return true si l'état a changé
+     */
+    private boolean moveTo(Job job, State from, State to) {
+        synchronized (mDispatchLock) {
+            synchronized (this) {
+                if (mJob != job || job.cancelled || mState != from) {
+                    return false;
+                }
+                mState = to;
+            }
+            dispatchStateChanged(to);
+            return true;
+        }
+    }
+
+    /**
+     * Termine la demande, dans l'état CANCELLED si elle a été annulée entre-temps.
+     */
+    private void finish(Job job, State state) {
+        synchronized (mDispatchLock) {
+            synchronized (this) {
+                if (mJob != job || !mState.isActive()) {
+                    return;
+                }
+                mState = job.cancelled ? State.CANCELLED : state;
+                state = mState;
+            }
+            dispatchStateChanged(state);
+        }
+    }
+
+    /**
+     * Envoie un changement d'état, après les progressions en attente. Doit être appelée avec
+     * mDispatchLock, acquis avant le verrou de l'engine, afin que les états soient transmis
+     * dans l'ordre où ils ont été pris.
+     */
+    private void dispatchStateChanged(State state) {
+        flushProgress();
+        mListener.onStateChanged(state);
+    }
+
+    /**
+     * Envoie les progressions en attente. Doit être appelée avec mDispatchLock.
+     */
+    private void flushProgress() {
+        if (mPendingProgress.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<String, Integer> progress : mPendingProgress.entrySet()) {
+            mListener.onDownloadProgressed(progress.getKey(), progress.getValue());
+        }
+        mPendingProgress.clear();
+        mLastProgressFlushNanos = mClock.nanoTime();
+        mProgressFlushed = true;
+    }
+
+    /**
+     * Etats d'une demande de téléchargement.
+     */
+    public enum State {
+        /**
+         * Aucune demande n'a été soumise.
+         */
+        IDLE,
+        /**
+         * La demande attend que le Thread de l'engine soit disponible.
+         */
+        QUEUED,
+        /**
+         * Les médias du drône sont listés, et ceux à télécharger sont sélectionnés.
+         */
+        LISTING,
+        /**
+         * Les médias sélectionnés sont en cours de téléchargement.
+         */
+        DOWNLOADING,
+        /**
+         * Tous les médias sélectionnés ont été téléchargés.
+         */
+        DONE,
+        /**
+         * La liste des médias n'a pas pu être lue, ou au moins un média n'a pas pu être téléchargé.
+         */
+        FAILED,
+        /**
+         * La demande a été annulée.
+         */
+        CANCELLED;
+
+        /**
+         * @return true si une demande dans cet état n'est pas encore terminée
+         */
+        public boolean isActive() {
+            return this == QUEUED || this == LISTING || this == DOWNLOADING;
+        }
+    }
+
+    /**
+     * Sélection des médias à télécharger dans l'index.
+     */
+    public abstract static class Request {
+
+        /**
+         * @param runId identifiant d'un vol
+         * @return demande des médias enregistrés pendant ce vol
+         */
+        public static Request forRun(@NonNull final String runId) {
+            return new Request() {
+                @NonNull
+                @Override
+                public List<MediaIndex.Entry> select(@NonNull MediaIndex index) {
+                    return index.getByRunId(runId);
+                }
+
+                @Override
+                public String toString() {
+                    return "run " + runId;
+                }
+            };
+        }
+
+        /**
+         * @param year  année
+         * @param month mois, de 1 à 12
+         * @param day   jour du mois
+         * @return demande des médias enregistrés ce jour
+         */
+        public static Request forDay(final int year, final int month, final int day) {
+            return new Request() {
+                @NonNull
+                @Override
+                public List<MediaIndex.Entry> select(@NonNull MediaIndex index) {
+                    return index.getByDay(year, month, day);
+                }
+
+                @Override
+                public String toString() {
+                    return "day " + year + "-" + month + "-" + day;
+                }
+            };
+        }
+
+        /**
+         * @param index index à jour des médias du drône
+         * @return médias demandés
+         */
+        @NonNull
+        public abstract List<MediaIndex.Entry> select(@NonNull MediaIndex index);
+    }
+
+    /**
+     * Objet listant et téléchargeant les médias du drône.
+     */
+    public interface Backend {
+
+        /**
+         * Liste les médias du drône si nécessaire, et sélectionne ceux à télécharger.
+         * Doit s'interrompre au plus tôt lorsque le Thread appelant est interrompu.
+         *
+         * @param request médias demandés
+         * @return médias demandés qui n'ont pas encore été téléchargés
+         * @throws IOException si la liste des médias n'a pas pu être lue
+         */
+        @WorkerThread
+        @NonNull
+        List<MediaIndex.Entry> list(@NonNull Request request) throws IOException;
+
+        /**
+         * Télécharge des médias et attend la fin de tous les téléchargements.
+         * Doit s'interrompre au plus tôt lorsque {@link #cancel()} est appelée.
+         *
+         * @param medias   médias à télécharger
+         * @param listener objet informé de la progression de chaque média
+         * @return nombre de médias entièrement téléchargés
+         */
+        @WorkerThread
+        int download(@NonNull List<MediaIndex.Entry> medias, @NonNull MediaDownloadScheduler.Listener listener);
+
+        /**
+         * Interrompt la liste ou le téléchargement en cours. Appelée depuis un autre Thread.
+         */
+        void cancel();
+    }
+
+    /**
+     * Objet informé de l'avancement des demandes.
+     * Ses méthodes sont appelées depuis le Thread de l'engine ou depuis les Threads de
+     * téléchargement, mais jamais depuis deux Threads à la fois.
+     */
+    public interface Listener {
+
+        /**
+         * Appelé lorsque la demande change d'état.
+         *
+         * @param state nouvel état de la demande
+         */
+        void onStateChanged(@NonNull State state);
+
+        /**
+         * Appelé lorsque les médias à télécharger ont été sélectionnés.
+         *
+         * @param nbMedias nombre de médias qui vont être téléchargés
+         */
+        void onMatchingMediasFound(int nbMedias);
+
+        /**
+         * Appelé au plus une fois par intervalle pour chaque média, avec sa dernière progression.
+         *
+         * @param mediaName nom du média
+         * @param progress  progression de son téléchargement, de 0 à 100
+         */
+        void onDownloadProgressed(String mediaName, int progress);
+
+        /**
+         * Appelé lorsque le téléchargement d'un média est terminé.
+         *
+         * @param mediaName nom du média
+         * @param success   true si le média a été entièrement téléchargé
+         */
+        void onDownloadComplete(String mediaName, boolean success);
+    }
+
+    /**
+     * Exécution d'une demande.
+     */
+    private final class Job implements Runnable, MediaDownloadScheduler.Listener {
+        private final Request mRequest;
+        Future<?> future;
+        volatile boolean cancelled;
+
+        Job(Request request) {
+            mRequest = request;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (!moveTo(this, State.QUEUED, State.LISTING)) {
+                    return;
+                }
+                List<MediaIndex.Entry> medias;
+                try {
+                    medias = mBackend.list(mRequest);
+                } catch (IOException e) {
+                    finish(this, State.FAILED);
+                    return;
+                }
+
+                if (cancelled) {
+                    return;
+                }
+                synchronized (mDispatchLock) {
+                    mListener.onMatchingMediasFound(medias.size());
+                }
+                if (medias.isEmpty() || !moveTo(this, State.LISTING, State.DOWNLOADING)) {
+                    finish(this, State.DONE);
+                    return;
+                }
+
+                int successCount = mBackend.download(medias, this);
+                finish(this, (successCount == medias.size()) ? State.DONE : State.FAILED);
+            } finally {
+                // Quelle que soit l'issue, y compris une exception inattendue du backend
+                finish(this, State.FAILED);
+            }
+        }
+
+        @Override
+        public void onDownloadProgressed(String mediaName, int progress) {
+            synchronized (mDispatchLock) {
+                mPendingProgress.put(mediaName, progress);
+                long now = mClock.nanoTime();
+                if (!mProgressFlushed || now - mLastProgressFlushNanos >= mProgressIntervalNanos) {
+                    flushProgress();
+                }
+            }
+        }
+
+        @Override
+        public void onDownloadComplete(String mediaName, boolean success) {
+            synchronized (mDispatchLock) {
+                // La dernière progression du média est envoyée avant la fin de son téléchargement
+                Integer progress = mPendingProgress.remove(mediaName);
+                if (progress != null) {
+                    mListener.onDownloadProgressed(mediaName, progress);
+                }
+                mListener.onDownloadComplete(mediaName, success);
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package fr.telecomlille.mydrone.drone;
+
+import android.support.annotation.IntRange;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fusionne les commandes de pilotage (flag, roll, pitch, yaw et gaz) émises par les différents
+ * modes de pilotage en une unique commande PCMD.
+ * <p>
+ * Les appelants écrivent chaque axe dans un emplacement atomique sans verrou, depuis n'importe
+ * quel Thread. Un ordonnanceur à fréquence fixe appelle ensuite {@link #tick()}, qui envoie
+ * au plus une commande fusionnée par période au {@link Sink} associé, et seulement si
+ * une valeur a été modifiée depuis le dernier envoi.
+ * </p><p>
+ * Les 5 valeurs sont stockées dans un seul {@code long} : un octet par axe,
+ * et le bit de poids fort indique qu'une valeur n'a pas encore été envoyée.
+ * </p>
+ */
+public class PilotingCommandMixer {
+
+    private static final int SHIFT_FLAG = 0;
+    private static final int SHIFT_ROLL = 8;
+    private static final int SHIFT_PITCH = 16;
+    private static final int SHIFT_YAW = 24;
+    private static final int SHIFT_GAZ = 32;
+    private static final long DIRTY = 1L << 63;
+
+    private final Sink mSink;
+    private final AtomicLong mSlot = new AtomicLong();
+    private final AtomicLong mUpdateCount = new AtomicLong();
+    private final AtomicLong mSentCount = new AtomicLong();
+    private final long mOriginNanos = System.nanoTime();
+
+    /**
+     * Numéro de séquence de la commande, incrémenté à chaque envoi.
+     * Il n'est modifié que depuis le Thread appelant {@link #tick()}.
+     */
+    private int mSequence;
+
+    /**
+     * @param sink destinataire des commandes fusionnées
+     */
+    public PilotingCommandMixer(Sink sink) {
+        mSink = sink;
+    }
+
+    /**
+     * @param flag {@link BebopDrone#FLAG_ENABLED} si Pitch et Roll doivent être pris en compte,
+     *             {@link BebopDrone#FLAG_DISABLED} sinon
+     */
+    public void setFlag(byte flag) {
+        write(SHIFT_FLAG, flag);
+    }
+
+    /**
+     * @param roll valeur en pourcent de -100 à 100
+     */
+    public void setRoll(@IntRange(from = -100, to = 100) int roll) {
+        write(SHIFT_ROLL, roll);
+    }
+
+    /**
+     * @param pitch valeur en pourcent de -100 à 100
+     */
+    public void setPitch(@IntRange(from = -100, to = 100) int pitch) {
+        write(SHIFT_PITCH, pitch);
+    }
+
+    /**
+     * @param yaw valeur en pourcent de -100 à 100
+     */
+    public void setYaw(@IntRange(from = -100, to = 100) int yaw) {
+        write(SHIFT_YAW, yaw);
+    }
+
+    /**
+     * @param gaz valeur en pourcent de -100 à 100
+     */
+    public void setGaz(@IntRange(from = -100, to = 100) int gaz) {
+        write(SHIFT_GAZ, gaz);
+    }
+
+    /**
+     * Envoie la commande courante au {@link Sink} si elle a été modifiée depuis le dernier envoi.
+     * Cette méthode est destinée à être appelée à fréquence fixe depuis un unique Thread.
+     *
+     * @return true si une commande a été envoyée
+     */
+    public boolean tick() {
+        long current;
+        do {
+            current = mSlot.get();
+            if ((current & DIRTY) == 0) {
+                return false;
+            }
+        } while (!mSlot.compareAndSet(current, current & ~DIRTY));
+
+        mSequence = (mSequence + 1) & 0xFF;
+        long elapsedMs = (System.nanoTime() - mOriginNanos) / 1000000L;
+        int timestampAndSeqNum = (mSequence << 24) | (int) (elapsedMs & 0xFFFFFF);
+
+        mSink.setPilotingPCMD(
+                extract(current, SHIFT_FLAG),
+                extract(current, SHIFT_ROLL),
+                extract(current, SHIFT_PITCH),
+                extract(current, SHIFT_YAW),
+                extract(current, SHIFT_GAZ),
+                timestampAndSeqNum);
+        mSentCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * @return le nombre total de modifications d'axes reçues
+     */
+    public long getUpdateCount() {
+        return mUpdateCount.get();
+    }
+
+    /**
+     * @return le nombre de commandes PCMD effectivement envoyées
+     */
+    public long getSentCount() {
+        return mSentCount.get();
+    }
+
+    /**
+     * @return le nombre de modifications qui ont été fusionnées avec une autre
+     * au sein d'une même commande, et n'ont donc pas donné lieu à un envoi supplémentaire
+     */
+    public long getMergedCount() {
+        return Math.max(0, mUpdateCount.get() - mSentCount.get());
+    }
+
+    private void write(int shift, int value) {
+        long mask = 0xFFL << shift;
+        long bits = ((long) value & 0xFFL) << shift;
+        long current, next;
+        do {
+            current = mSlot.get();
+            next = (current & ~mask) | bits | DIRTY;
+        } while (!mSlot.compareAndSet(current, next));
+        mUpdateCount.incrementAndGet();
+    }
+
+    private static byte extract(long packed, int shift) {
+        return (byte) (packed >>> shift);
+    }
+
+    /**
+     * Destinataire des commandes de pilotage fusionnées.
+     * Sur le drône, il s'agit de {@code ARFeatureARDrone3#setPilotingPCMD}.
+     */
+    public interface Sink {
+        /**
+         * Applique une commande de pilotage complète.
+         *
+         * @param flag               1 si Pitch et Roll doivent être pris en compte, 0 sinon
+         * @param roll               valeur en pourcent de -100 à 100
+         * @param pitch              valeur en pourcent de -100 à 100
+         * @param yaw                valeur en pourcent de -100 à 100
+         * @param gaz                valeur en pourcent de -100 à 100
+         * @param timestampAndSeqNum horodatage en millisecondes sur les 24 bits de poids faible,
+         *                           numéro de séquence sur les 8 bits de poids fort
+         */
+        void setPilotingPCMD(byte flag, byte roll, byte pitch, byte yaw, byte gaz, int timestampAndSeqNum);
+    }
+}
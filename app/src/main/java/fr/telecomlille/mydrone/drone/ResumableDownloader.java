@@ -0,0 +1,234 @@
+package fr.telecomlille.mydrone.drone;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+
+/**
+ * Télécharge un fichier par blocs, en reprenant là où il s'était arrêté après une déconnexion.
+ * <p>
+ * Chaque bloc est écrit dans un fichier temporaire et synchronisé sur le disque avant d'être
+ * enregistré dans le {@link TransferJournal}. Le journal n'indique donc jamais comme téléchargé
+ * un octet qui n'a pas été écrit : après une déconnexion, un arrêt de l'application ou du téléphone,
+ * le téléchargement reprend au premier octet non journalisé. Un fichier déjà entièrement téléchargé
+ * n'est pas téléchargé de nouveau.
+ * </p><p>
+ * Le fichier temporaire ne prend le nom du fichier de destination qu'une fois entièrement
+ * téléchargé : un fichier de destination n'est donc jamais incomplet, et peut être lu dès qu'il existe.
+ * </p><p>
+ * Une même instance peut être utilisée simultanément par plusieurs Threads, chacun avec sa propre
+ * {@link Source}.
+ * </p>
+ */
+public class ResumableDownloader {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /**
+     * Suffixe du fichier temporaire, dans lequel un fichier est téléchargé avant d'être renommé.
+     */
+    static final String PARTIAL_SUFFIX = ".part";
+
+    private final TransferJournal mJournal;
+    private final long mChunkSize;
+    private final int mMaxRetries;
+    private final long mRetryDelayMillis;
+
+    /**
+     * @param journal          journal des plages téléchargées
+     * @param chunkSize        nombre d'octets téléchargés entre deux écritures dans le journal
+     * @param maxRetries       nombre de reconnexions successives sans progression avant d'abandonner
+     * @param retryDelayMillis attente avant la première reconnexion, doublée à chaque nouvel échec
+     */
+    public ResumableDownloader(@NonNull TransferJournal journal, @IntRange(from = 1) long chunkSize,
+                               @IntRange(from = 0) int maxRetries, long retryDelayMillis) {
+        mJournal = journal;
+        mChunkSize = chunkSize;
+        mMaxRetries = maxRetries;
+        mRetryDelayMillis = retryDelayMillis;
+    }
+
+    /**
+     * Télécharge un fichier, ou reprend son téléchargement.
+     *
+     * @param source     connexion au serveur
+     * @param remotePath chemin du fichier sur le serveur
+     * @param name       nom du fichier dans le journal
+     * @param size       taille du fichier, en octets
+     * @param dest       fichier de destination, qui n'existe qu'une fois le fichier entièrement téléchargé
+     * @param callback   objet informé de la progression, et consulté pour savoir
+     *                   si le téléchargement doit être annulé
+     * @return true si le fichier est entièrement téléchargé
+     * @throws IOException si le fichier de destination ou le journal ne peut pas être écrit,
+     *                     ou si le téléchargement échoue après toutes les tentatives
+     */
+    @WorkerThread
+    public boolean download(@NonNull Source source, @NonNull String remotePath, @NonNull String name,
+                            long size, @NonNull File dest, @NonNull Callback callback) throws IOException {
+        if (isDownloaded(name, size, dest)) {
+            return true;
+        }
+
+        File partial = new File(dest.getPath() + PARTIAL_SUFFIX);
+        long offset = mJournal.getCompletedBytes(name, size);
+        if (offset > partial.length()) {
+            // La copie a été supprimée ou tronquée depuis : ses plages ne sont plus valables
+            mJournal.forget(name, size);
+            offset = 0;
+        }
+        if (offset < size && !downloadRange(source, remotePath, name, size, partial, offset, callback)) {
+            return false;
+        }
+        if (!partial.renameTo(dest)) {
+            throw new IOException("Failed to rename " + partial + " to " + dest);
+        }
+        return true;
+    }
+
+    /**
+     * Télécharge la fin d'un fichier dans le fichier temporaire, à partir du premier octet non journalisé.
+     *
+     * @return true si le fichier est entièrement téléchargé, false si le téléchargement a été annulé
+     */
+    private boolean downloadRange(Source source, String remotePath, String name, long size, File partial,
+                                  long offset, Callback callback) throws IOException {
+        RandomAccessFile output = new RandomAccessFile(partial, "rw");
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int failures = 0;
+            while (offset < size) {
+                if (callback.isCancelled()) {
+                    return false;
+                }
+                long chunkStart = offset;
+                try {
+                    InputStream input = source.open(remotePath, offset);
+                    try {
+                        output.seek(offset);
+                        while (offset < size) {
+                            int bytesRead = input.read(buffer, 0, (int) Math.min(buffer.length, size - offset));
+                            if (bytesRead < 0) {
+                                throw new EOFException("Unexpected end of " + remotePath + " at " + offset);
+                            }
+                            output.write(buffer, 0, bytesRead);
+                            offset += bytesRead;
+                            if (offset - chunkStart >= mChunkSize || offset == size) {
+                                commit(output, name, size, chunkStart, offset);
+                                chunkStart = offset;
+                                failures = 0;
+                                callback.onProgress(offset, size);
+                            }
+                            if (callback.isCancelled()) {
+                                // Abandonne la connexion plutôt que d'attendre la fin du transfert
+                                source.close();
+                                return false;
+                            }
+                        }
+                    } finally {
+                        input.close();
+                    }
+                } catch (IOException e) {
+                    // Les octets déjà reçus de ce bloc sont valides : ils sont conservés
+                    commit(output, name, size, chunkStart, offset);
+                    if (callback.isCancelled()) {
+                        return false;
+                    }
+                    if (++failures > mMaxRetries) {
+                        throw e;
+                    }
+                    callback.onRetry(offset, e);
+                    source.close();
+                    sleep(mRetryDelayMillis << (failures - 1));
+                }
+            }
+            return true;
+        } finally {
+            output.close();
+        }
+    }
+
+    /**
+     * @param name nom du fichier dans le journal
+     * @param size taille du fichier, en octets
+     * @param dest fichier de destination
+     * @return true si le fichier a déjà été entièrement téléchargé
+     */
+    public boolean isDownloaded(@NonNull String name, long size, @NonNull File dest) {
+        return mJournal.isComplete(name, size) && dest.length() >= size;
+    }
+
+    private void commit(RandomAccessFile output, String name, long size, long start, long end)
+            throws IOException {
+        if (end > start) {
+            output.getFD().sync();
+            mJournal.recordRange(name, size, start, end);
+        }
+    }
+
+    private static void sleep(long millis) throws IOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting to reconnect");
+        }
+    }
+
+    /**
+     * Connexion à un serveur de fichiers.
+     */
+    public interface Source extends Closeable {
+
+        /**
+         * Commence le téléchargement d'un fichier, en se connectant si nécessaire.
+         * Le flux renvoyé doit être fermé avant d'ouvrir un autre fichier.
+         *
+         * @param path   chemin du fichier sur le serveur
+         * @param offset position du premier octet à télécharger
+         * @return flux des octets du fichier, à partir de offset
+         * @throws IOException si le téléchargement ne peut pas commencer
+         */
+        @NonNull
+        InputStream open(@NonNull String path, long offset) throws IOException;
+
+        /**
+         * Ferme la connexion, y compris depuis un autre Thread pour interrompre un téléchargement.
+         * La prochaine ouverture de fichier se reconnecte.
+         */
+        @Override
+        void close();
+    }
+
+    /**
+     * Objet suivant un téléchargement.
+     */
+    public interface Callback {
+
+        /**
+         * Appelé après l'enregistrement de chaque bloc dans le journal.
+         *
+         * @param bytes nombre d'octets téléchargés depuis le début du fichier
+         * @param size  taille du fichier
+         */
+        void onProgress(long bytes, long size);
+
+        /**
+         * Appelé avant chaque reconnexion suivant une interruption.
+         *
+         * @param bytes nombre d'octets déjà téléchargés
+         * @param cause erreur ayant interrompu le téléchargement
+         */
+        void onRetry(long bytes, @NonNull IOException cause);
+
+        /**
+         * @return true si le téléchargement doit être abandonné
+         */
+        boolean isCancelled();
+    }
+}
@@ -1,7 +1,9 @@
 package fr.telecomlille.mydrone.drone;
 
 import android.os.Environment;
+import android.support.annotation.IntRange;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.annotation.WorkerThread;
 import android.util.Log;
 
@@ -10,19 +12,16 @@ import com.parrot.arsdk.ardatatransfer.ARDataTransferException;
 import com.parrot.arsdk.ardatatransfer.ARDataTransferManager;
 import com.parrot.arsdk.ardatatransfer.ARDataTransferMedia;
 import com.parrot.arsdk.ardatatransfer.ARDataTransferMediasDownloader;
-import com.parrot.arsdk.ardatatransfer.ARDataTransferMediasDownloaderCompletionListener;
-import com.parrot.arsdk.ardatatransfer.ARDataTransferMediasDownloaderProgressListener;
 import com.parrot.arsdk.arutils.ARUtilsManager;
 
 import java.io.File;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
-import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.List;
-import java.util.Locale;
 
 /**
  * Permet l'accès au stockage externe de l'appareil pour le stockage des photos et vidéos.
@@ -33,54 +32,90 @@ public class SDCardModule {
 
     private static final String DRONE_MEDIA_FOLDER = "internal_000";
     private static final String MOBILE_MEDIA_FOLDER = "/ARSDKMedias/";
-    private final List<Listener> mListeners;
-    private final ARDataTransferMediasDownloaderProgressListener mDLProgressListener = new ARDataTransferMediasDownloaderProgressListener() {
-        private int mLastProgressSent = -1;
+    private static final String TRANSFER_JOURNAL_FILE = ".transfers.journal";
+    private static final String MEDIA_INDEX_FILE = ".media.index";
+    /**
+     * Nombre d'octets téléchargés entre deux écritures dans le journal des transferts.
+     */
+    private static final long TRANSFER_CHUNK_SIZE = 1024 * 1024;
+    private static final int TRANSFER_MAX_RETRIES = 5;
+    private static final long TRANSFER_RETRY_DELAY_MS = 500;
+    /**
+     * Intervalle minimal entre deux notifications de progression des téléchargements.
+     */
+    private static final long PROGRESS_NOTIFICATION_INTERVAL_MS = 100;
+    private static final Listener[] NO_LISTENERS = new Listener[0];
+    private final Object mListenersLock = new Object();
+    /**
+     * Listeners enregistrés, copiés à chaque modification (copy-on-write)
+     * pour que la notification n'ait jamais à copier la liste.
+     */
+    private volatile Listener[] mListeners = NO_LISTENERS;
+    /**
+     * Liste et télécharge les médias pour le compte de l'engine, depuis son Thread.
+     */
+    private final MediaTransferEngine.Backend mEngineBackend = new MediaTransferEngine.Backend() {
+        @NonNull
+        @Override
+        public List<MediaIndex.Entry> list(@NonNull MediaTransferEngine.Request request) throws IOException {
+            refreshMediaIndex();
+            return getPendingMedias(request.select(mMediaIndex));
+        }
 
         @Override
-        public void didMediaProgress(Object arg, ARDataTransferMedia media, float percent) {
-            final int progressInt = (int) Math.floor(percent);
-            if (mLastProgressSent != progressInt) {
-                mLastProgressSent = progressInt;
-                notifyDownloadProgressed(media.getName(), progressInt);
-            }
+        public int download(@NonNull List<MediaIndex.Entry> medias,
+                            @NonNull MediaDownloadScheduler.Listener listener) {
+            return mDownloadScheduler.download(medias, listener);
         }
-    };
-    private ARDataTransferManager mDataTransferManager;
-    private ARUtilsManager mFtpList;
-    private ARUtilsManager mFtpQueue;
 
-    private boolean mThreadIsRunning;
-    private boolean mIsCancelled;
+        @Override
+        public void cancel() {
+            mDownloadScheduler.cancel();
+        }
+    };
+    /**
+     * Relaie aux listeners l'avancement des demandes de téléchargement.
+     */
+    private final MediaTransferEngine.Listener mEngineListener = new MediaTransferEngine.Listener() {
+        @Override
+        public void onStateChanged(@NonNull MediaTransferEngine.State state) {
+            Log.d(TAG, "Media transfer: " + state);
+        }
 
-    private int mNbMediasToDownload;
-    private int mCurrentDownloadIndex;
+        @Override
+        public void onMatchingMediasFound(int nbMedias) {
+            notifyMatchingMediasFound(nbMedias);
+        }
 
-    private final ARDataTransferMediasDownloaderCompletionListener mDLCompletionListener = new ARDataTransferMediasDownloaderCompletionListener() {
         @Override
-        public void didMediaComplete(Object arg, ARDataTransferMedia media, ARDATATRANSFER_ERROR_ENUM error) {
-            notifyDownloadComplete(media.getName());
-
-            // when all download are finished, stop the download runnable
-            // in order to get out of the downloadMedias function
-            mCurrentDownloadIndex++;
-            if (mCurrentDownloadIndex > mNbMediasToDownload) {
-                ARDataTransferMediasDownloader mediasDownloader = null;
-                if (mDataTransferManager != null) {
-                    mediasDownloader = mDataTransferManager.getARDataTransferMediasDownloader();
-                }
+        public void onDownloadProgressed(String mediaName, int progress) {
+            notifyDownloadProgressed(mediaName, progress);
+        }
 
-                if (mediasDownloader != null) {
-                    mediasDownloader.cancelQueueThread();
-                }
-            }
+        @Override
+        public void onDownloadComplete(String mediaName, boolean success) {
+            notifyDownloadComplete(mediaName, success);
         }
     };
+    private ARDataTransferManager mDataTransferManager;
+    private ARUtilsManager mFtpList;
+    private ARUtilsManager mFtpQueue;
+    private MediaDownloadScheduler mDownloadScheduler;
+    private ResumableDownloader mDownloader;
+    private TransferJournal mTransferJournal;
+    private MediaIndex mMediaIndex;
+    private File mMediaDirectory;
+    private MediaTransferEngine mEngine;
 
-    public SDCardModule(@NonNull ARUtilsManager ftpListManager, @NonNull ARUtilsManager ftpQueueManager) {
-
-        mThreadIsRunning = false;
-        mListeners = new ArrayList<>();
+    /**
+     * @param ftpListManager   connexion utilisée pour lister les médias du drône
+     * @param ftpQueueManager  seconde connexion requise par le downloader de la liste
+     * @param ftpConnector     objet créant les connexions dédiées aux téléchargements
+     * @param downloadSessions nombre de médias téléchargés simultanément
+     */
+    public SDCardModule(@NonNull ARUtilsManager ftpListManager, @NonNull ARUtilsManager ftpQueueManager,
+                        @NonNull MediaDownloadScheduler.FtpConnector ftpConnector,
+                        @IntRange(from = 1) int downloadSessions) {
 
         mFtpList = ftpListManager;
         mFtpQueue = ftpQueueManager;
@@ -95,10 +130,10 @@ public class SDCardModule {
 
         if (result == ARDATATRANSFER_ERROR_ENUM.ARDATATRANSFER_OK) {
             // direct to external directory
-            String externalDirectory = Environment.getExternalStorageDirectory().toString().concat(MOBILE_MEDIA_FOLDER);
+            File f = getMediaDirectory();
+            String externalDirectory = f.getPath();
 
             // if the directory doesn't exist, create it
-            File f = new File(externalDirectory);
             if (!(f.exists() && f.isDirectory())) {
                 boolean success = f.mkdir();
                 if (!success) {
@@ -112,6 +147,22 @@ public class SDCardModule {
                 Log.e(TAG, "Exception", e);
                 result = e.getError();
             }
+
+            try {
+                // Le journal et l'index sont conservés d'une connexion à l'autre
+                mMediaDirectory = f;
+                mMediaIndex = new MediaIndex(new File(f, MEDIA_INDEX_FILE));
+                mTransferJournal = new TransferJournal(new File(f, TRANSFER_JOURNAL_FILE));
+                mDownloader = new ResumableDownloader(mTransferJournal,
+                        TRANSFER_CHUNK_SIZE, TRANSFER_MAX_RETRIES, TRANSFER_RETRY_DELAY_MS);
+                mDownloadScheduler = new MediaDownloadScheduler(ftpConnector, mDownloader, f,
+                        downloadSessions, MediaDownloadScheduler.PHOTOS_FIRST);
+                mEngine = new MediaTransferEngine(mEngineBackend, mEngineListener,
+                        ControlLoop.SYSTEM_CLOCK, PROGRESS_NOTIFICATION_INTERVAL_MS);
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to open the media index or the transfer journal", e);
+                mMediaIndex = null;
+            }
         }
 
         if (result != ARDATATRANSFER_ERROR_ENUM.ARDATATRANSFER_OK) {
@@ -121,215 +172,197 @@ public class SDCardModule {
         }
     }
 
+    /**
+     * Annule les téléchargements en cours et ferme les connexions au drône.
+     * Ce module ne peut plus être utilisé ensuite.
+     */
+    public void dispose() {
+        if (mEngine != null) {
+            mEngine.shutdown();
+        }
+        if (mDownloadScheduler != null) {
+            mDownloadScheduler.dispose();
+        }
+        if (mTransferJournal != null) {
+            try {
+                mTransferJournal.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Exception", e);
+            }
+        }
+    }
+
+    /**
+     * @return statistiques de débit du dernier téléchargement, ou null si le module
+     * n'a pas pu être initialisé
+     */
+    @Nullable
+    public TransferStats getTransferStats() {
+        return (mDownloadScheduler != null) ? mDownloadScheduler.getStats() : null;
+    }
+
+    /**
+     * @return état de la dernière demande de téléchargement
+     */
+    @NonNull
+    public MediaTransferEngine.State getTransferState() {
+        return (mEngine != null) ? mEngine.getState() : MediaTransferEngine.State.IDLE;
+    }
+
+    /**
+     * @return dossier du stockage externe dans lequel les médias du drône sont téléchargés
+     */
+    @NonNull
+    public static File getMediaDirectory() {
+        return new File(Environment.getExternalStorageDirectory(), MOBILE_MEDIA_FOLDER);
+    }
+
     /**
      * Enregistre un listener d'évènements liés au stockage.
      *
      * @param listener le listener à enregistrer
      */
     public void addListener(Listener listener) {
-        mListeners.add(listener);
+        synchronized (mListenersLock) {
+            Listener[] updated = Arrays.copyOf(mListeners, mListeners.length + 1);
+            updated[updated.length - 1] = listener;
+            mListeners = updated;
+        }
     }
 
     /**
      * @param listener le listener à déréférencer
      */
     public void removeListener(Listener listener) {
-        mListeners.remove(listener);
+        synchronized (mListenersLock) {
+            List<Listener> updated = new ArrayList<>(Arrays.asList(mListeners));
+            if (updated.remove(listener)) {
+                mListeners = updated.toArray(new Listener[updated.size()]);
+            }
+        }
     }
 
-    public void getFlightMedias(final String runId) {
-        if (!mThreadIsRunning) {
-            mThreadIsRunning = true;
-            new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    ArrayList<ARDataTransferMedia> mediaList = getMediaList();
-
-                    ArrayList<ARDataTransferMedia> mediasFromRun = null;
-                    mNbMediasToDownload = 0;
-                    if ((mediaList != null) && !mIsCancelled) {
-                        mediasFromRun = getRunIdMatchingMedias(mediaList, runId);
-                        mNbMediasToDownload = mediasFromRun.size();
-                    }
-
-                    notifyMatchingMediasFound(mNbMediasToDownload);
-
-                    if ((mediasFromRun != null) && (mNbMediasToDownload != 0) && !mIsCancelled) {
-                        downloadMedias(mediasFromRun);
-                    }
-
-                    mThreadIsRunning = false;
-                    mIsCancelled = false;
-                }
-            }).start();
-        }
+    /**
+     * Télécharge les médias enregistrés pendant un vol qui ne l'ont pas encore été.
+     * Sans effet si un téléchargement est déjà en cours.
+     *
+     * @param runId identifiant du vol
+     */
+    public void getFlightMedias(String runId) {
+        submit(MediaTransferEngine.Request.forRun(runId));
     }
 
+    /**
+     * Télécharge les médias enregistrés aujourd'hui qui ne l'ont pas encore été.
+     * Sans effet si un téléchargement est déjà en cours.
+     */
     public void getTodaysFlightMedias() {
-        if (!mThreadIsRunning) {
-            mThreadIsRunning = true;
-            new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    ArrayList<ARDataTransferMedia> mediaList = getMediaList();
-
-                    ArrayList<ARDataTransferMedia> mediasFromDate = null;
-                    mNbMediasToDownload = 0;
-                    if ((mediaList != null) && !mIsCancelled) {
-                        GregorianCalendar today = new GregorianCalendar();
-                        mediasFromDate = getDateMatchingMedias(mediaList, today);
-                        mNbMediasToDownload = mediasFromDate.size();
-                    }
-
-                    notifyMatchingMediasFound(mNbMediasToDownload);
-
-                    if ((mediasFromDate != null) && (mNbMediasToDownload != 0) && !mIsCancelled) {
-                        downloadMedias(mediasFromDate);
-                    }
-
-                    mThreadIsRunning = false;
-                    mIsCancelled = false;
-                }
-            }).start();
-        }
+        Calendar today = new GregorianCalendar();
+        submit(MediaTransferEngine.Request.forDay(today.get(Calendar.YEAR),
+                today.get(Calendar.MONTH) + 1, today.get(Calendar.DAY_OF_MONTH)));
     }
 
-    public void cancelGetFlightMedias() {
-        if (mThreadIsRunning) {
-            mIsCancelled = true;
-            ARDataTransferMediasDownloader mediasDownloader = null;
-            if (mDataTransferManager != null) {
-                mediasDownloader = mDataTransferManager.getARDataTransferMediasDownloader();
-            }
-
-            if (mediasDownloader != null) {
-                mediasDownloader.cancelQueueThread();
-            }
+    private void submit(MediaTransferEngine.Request request) {
+        if (mEngine == null || !mEngine.submit(request)) {
+            Log.w(TAG, "Ignoring download of " + request + ": unavailable or already running");
         }
     }
 
-    private ArrayList<ARDataTransferMedia> getMediaList() {
-        ArrayList<ARDataTransferMedia> mediaList = null;
-
-        ARDataTransferMediasDownloader mediasDownloader = null;
-        if (mDataTransferManager != null) {
-            mediasDownloader = mDataTransferManager.getARDataTransferMediasDownloader();
-        }
-
-        if (mediasDownloader != null) {
-            try {
-                int mediaListCount = mediasDownloader.getAvailableMediasSync(false);
-                mediaList = new ArrayList<>(mediaListCount);
-                for (int i = 0; ((i < mediaListCount) && !mIsCancelled); i++) {
-                    ARDataTransferMedia currentMedia = mediasDownloader.getAvailableMediaAtIndex(i);
-                    mediaList.add(currentMedia);
-                }
-            } catch (ARDataTransferException e) {
-                Log.e(TAG, "Exception", e);
-                mediaList = null;
-            }
+    /**
+     * Indique que de nouveaux médias ont pu être enregistrés sur le drône : la liste des médias
+     * sera relue lors du prochain téléchargement.
+     */
+    public void invalidateMediaIndex() {
+        if (mMediaIndex != null) {
+            mMediaIndex.invalidate();
         }
-        return mediaList;
     }
 
-    @NonNull
-    private ArrayList<ARDataTransferMedia> getRunIdMatchingMedias(
-            ArrayList<ARDataTransferMedia> mediaList,
-            String runId) {
-        ArrayList<ARDataTransferMedia> matchingMedias = new ArrayList<>();
-        for (ARDataTransferMedia media : mediaList) {
-            if (media.getName().contains(runId)) {
-                matchingMedias.add(media);
-            }
-
-            // exit if the async task is cancelled
-            if (mIsCancelled) {
-                break;
-            }
+    /**
+     * Annule le téléchargement en cours, s'il y en a un.
+     */
+    public void cancelGetFlightMedias() {
+        if (mEngine != null) {
+            mEngine.cancel();
         }
-
-        return matchingMedias;
     }
 
-    private ArrayList<ARDataTransferMedia> getDateMatchingMedias(ArrayList<ARDataTransferMedia> mediaList,
-                                                                 GregorianCalendar matchingCal) {
-        ArrayList<ARDataTransferMedia> matchingMedias = new ArrayList<>();
-        Calendar mediaCal = new GregorianCalendar();
-        SimpleDateFormat dateFormatter = new SimpleDateFormat("yyyy-MM-dd'T'HHmmss", Locale.getDefault());
-        for (ARDataTransferMedia media : mediaList) {
-            // convert date in string to calendar
-            String dateStr = media.getDate();
-            try {
-                Date mediaDate = dateFormatter.parse(dateStr);
-                mediaCal.setTime(mediaDate);
-
-                // if the date are the same day
-                if ((mediaCal.get(Calendar.DAY_OF_MONTH) == (matchingCal.get(Calendar.DAY_OF_MONTH))) &&
-                        (mediaCal.get(Calendar.MONTH) == (matchingCal.get(Calendar.MONTH))) &&
-                        (mediaCal.get(Calendar.YEAR) == (matchingCal.get(Calendar.YEAR)))) {
-                    matchingMedias.add(media);
-                }
-            } catch (ParseException e) {
-                Log.e(TAG, "Exception", e);
-            }
-
-            // exit if the async task is cancelled
-            if (mIsCancelled) {
-                break;
-            }
+    /**
+     * Met à jour l'index des médias à partir de la liste du drône, si elle a pu changer.
+     *
+     * @throws IOException si la liste du drône n'a pas pu être lue, ou si la mise à jour a été
+     *                     interrompue
+     */
+    @WorkerThread
+    private void refreshMediaIndex() throws IOException {
+        if (!mMediaIndex.isStale()) {
+            return;
         }
 
-        return matchingMedias;
-    }
-
-    private void downloadMedias(@NonNull ArrayList<ARDataTransferMedia> matchingMedias) {
-        mCurrentDownloadIndex = 1;
-
         ARDataTransferMediasDownloader mediasDownloader = null;
         if (mDataTransferManager != null) {
             mediasDownloader = mDataTransferManager.getARDataTransferMediasDownloader();
         }
+        if (mediasDownloader == null) {
+            throw new IOException("No media downloader");
+        }
 
-        if (mediasDownloader != null) {
-            for (ARDataTransferMedia media : matchingMedias) {
-                try {
-                    mediasDownloader.addMediaToQueue(media, mDLProgressListener, null, mDLCompletionListener, null);
-                } catch (ARDataTransferException e) {
-                    Log.e(TAG, "Exception", e);
-                }
-
-                // exit if the async task is cancelled
-                if (mIsCancelled) {
-                    break;
+        try {
+            int mediaListCount = mediasDownloader.getAvailableMediasSync(false);
+            mMediaIndex.beginRefresh();
+            for (int i = 0; i < mediaListCount; i++) {
+                // Une mise à jour interrompue laisserait l'index incomplet : elle n'est pas enregistrée
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("Media list refresh cancelled");
                 }
+                ARDataTransferMedia media = mediasDownloader.getAvailableMediaAtIndex(i);
+                String date = media.getDate();
+                mMediaIndex.add(media.getName(), (long) media.getSize(), (date != null) ? date : "",
+                        media.getFilePath());
             }
+        } catch (ARDataTransferException e) {
+            throw new IOException("Failed to list the drone medias: " + e.getError(), e);
+        }
 
-            if (!mIsCancelled) {
-                mediasDownloader.getDownloaderQueueRunnable().run();
+        try {
+            mMediaIndex.endRefresh();
+        } catch (IOException e) {
+            // L'index en mémoire est à jour, même s'il n'a pas pu être enregistré
+            Log.e(TAG, "Failed to save the media index", e);
+        }
+    }
+
+    /**
+     * @return les médias qui n'ont pas encore été entièrement téléchargés
+     */
+    @NonNull
+    private List<MediaIndex.Entry> getPendingMedias(@NonNull List<MediaIndex.Entry> medias) {
+        List<MediaIndex.Entry> pending = new ArrayList<>(medias.size());
+        for (MediaIndex.Entry media : medias) {
+            if (!mDownloader.isDownloaded(media.getName(), media.getSize(), new File(mMediaDirectory, media.getName()))) {
+                pending.add(media);
             }
         }
+        return pending;
     }
 
     //region notify listener block
     private void notifyMatchingMediasFound(int nbMedias) {
-        List<Listener> listenersCpy = new ArrayList<>(mListeners);
-        for (Listener listener : listenersCpy) {
+        for (Listener listener : mListeners) {
             listener.onMatchingMediasFound(nbMedias);
         }
     }
 
     private void notifyDownloadProgressed(String mediaName, int progress) {
-        List<Listener> listenersCpy = new ArrayList<>(mListeners);
-        for (Listener listener : listenersCpy) {
+        for (Listener listener : mListeners) {
             listener.onDownloadProgressed(mediaName, progress);
         }
     }
     //endregion notify listener block
 
-    private void notifyDownloadComplete(String mediaName) {
-        List<Listener> listenersCpy = new ArrayList<>(mListeners);
-        for (Listener listener : listenersCpy) {
-            listener.onDownloadComplete(mediaName);
+    private void notifyDownloadComplete(String mediaName, boolean success) {
+        for (Listener listener : mListeners) {
+            listener.onDownloadComplete(mediaName, success);
         }
     }
 
@@ -355,8 +388,9 @@ public class SDCardModule {
          * Called when a media download has ended.
          *
          * @param mediaName the name of the media
+         * @param success   true if the media has been entirely downloaded
          */
         @WorkerThread
-        void onDownloadComplete(String mediaName);
+        void onDownloadComplete(String mediaName, boolean success);
     }
 }
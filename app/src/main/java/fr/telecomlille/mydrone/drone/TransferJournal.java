@@ -0,0 +1,257 @@
+package fr.telecomlille.mydrone.drone;
+
+import android.support.annotation.NonNull;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Journal des plages d'octets téléchargées pour chaque média, conservé sur le stockage externe.
+ * <p>
+ * Chaque plage écrite et synchronisée sur le disque est ajoutée à la fin du journal, sous la forme
+ * d'une ligne "nom taille début fin". Le journal n'est jamais réécrit pendant les téléchargements :
+ * une interruption, même brutale, ne peut perdre au plus que la dernière ligne, qui est ignorée à la
+ * relecture. Un média est identifié par son nom et sa taille : si la taille d'un média change, ses
+ * anciennes plages sont oubliées. Une ligne de plage vide "nom taille 0 0" efface les plages
+ * précédentes du média.
+ * </p><p>
+ * A l'ouverture, le journal est compacté lorsqu'il contient beaucoup plus de lignes que de plages
+ * distinctes. Cette classe est thread-safe.
+ * </p>
+ */
+public class TransferJournal implements Closeable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    /**
+     * Le journal est compacté lorsqu'il contient plus de lignes que ce facteur multiplié par le
+     * nombre de plages distinctes.
+     */
+    private static final int COMPACTION_FACTOR = 4;
+
+    private final File mFile;
+    private final Map<String, Entry> mEntries = new HashMap<>();
+    private final FileOutputStream mOutput;
+
+    /**
+     * Ouvre un journal, en le créant s'il n'existe pas.
+     *
+     * @param file fichier du journal
+     * @throws IOException si le journal ne peut pas être lu ou écrit
+     */
+    public TransferJournal(@NonNull File file) throws IOException {
+        mFile = file;
+        int lineCount = load();
+        int rangeCount = 0;
+        for (Entry entry : mEntries.values()) {
+            rangeCount += entry.ranges.size() / 2;
+        }
+        if (lineCount > COMPACTION_FACTOR * Math.max(rangeCount, 1)) {
+            compact();
+        }
+        mOutput = new FileOutputStream(mFile, true);
+    }
+
+    /**
+     * @param name nom du média
+     * @param size taille du média, en octets
+     * @return nombre d'octets téléchargés sans interruption depuis le début du média
+     */
+    public synchronized long getCompletedBytes(@NonNull String name, long size) {
+        Entry entry = mEntries.get(name);
+        if (entry == null || entry.size != size || entry.ranges.isEmpty() || entry.ranges.get(0) != 0) {
+            return 0;
+        }
+        return entry.ranges.get(1);
+    }
+
+    /**
+     * @param name nom du média
+     * @param size taille du média, en octets
+     * @return true si toutes les plages du média ont été téléchargées
+     */
+    public synchronized boolean isComplete(@NonNull String name, long size) {
+        return getCompletedBytes(name, size) >= size;
+    }
+
+    /**
+     * Enregistre une plage d'octets du média, déjà écrite et synchronisée sur le disque.
+     *
+     * @param name  nom du média
+     * @param size  taille du média, en octets
+     * @param start position du premier octet de la plage
+     * @param end   position suivant le dernier octet de la plage
+     * @throws IOException si le journal ne peut pas être écrit
+     */
+    public synchronized void recordRange(@NonNull String name, long size, long start, long end)
+            throws IOException {
+        if (end <= start) {
+            return;
+        }
+        add(name, size, start, end);
+        mOutput.write(format(name, size, start, end).getBytes(UTF_8));
+        mOutput.getFD().sync();
+    }
+
+    /**
+     * Oublie les plages téléchargées d'un média, par exemple parce que sa copie a été supprimée.
+     *
+     * @param name nom du média
+     * @param size taille du média, en octets
+     * @throws IOException si le journal ne peut pas être écrit
+     */
+    public synchronized void forget(@NonNull String name, long size) throws IOException {
+        if (mEntries.remove(name) != null) {
+            mOutput.write(format(name, size, 0, 0).getBytes(UTF_8));
+            mOutput.getFD().sync();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        mOutput.close();
+    }
+
+    /**
+     * Relit le journal, en tronquant une éventuelle dernière ligne incomplète.
+     *
+     * @return nombre de lignes valides
+     */
+    private int load() throws IOException {
+        if (!mFile.isFile()) {
+            return 0;
+        }
+        int lineCount = 0;
+        long validLength = 0;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(mFile), UTF_8));
+        try {
+            String line;
+            long position = 0;
+            while ((line = reader.readLine()) != null) {
+                position += line.getBytes(UTF_8).length + 1;
+                if (position > mFile.length() || !parse(line)) {
+                    break;
+                }
+                validLength = position;
+                lineCount++;
+            }
+        } finally {
+            reader.close();
+        }
+
+        if (validLength < mFile.length()) {
+            RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+            try {
+                file.setLength(validLength);
+            } finally {
+                file.close();
+            }
+        }
+        return lineCount;
+    }
+
+    private boolean parse(String line) {
+        // Le nom peut contenir des espaces : les trois nombres sont lus depuis la fin
+        int third = line.lastIndexOf(' ');
+        int second = (third > 0) ? line.lastIndexOf(' ', third - 1) : -1;
+        int first = (second > 0) ? line.lastIndexOf(' ', second - 1) : -1;
+        if (first <= 0) {
+            return false;
+        }
+        try {
+            long size = Long.parseLong(line.substring(first + 1, second));
+            long start = Long.parseLong(line.substring(second + 1, third));
+            long end = Long.parseLong(line.substring(third + 1));
+            if (start == 0 && end == 0) {
+                mEntries.remove(line.substring(0, first));
+                return true;
+            }
+            if (start < 0 || end <= start || end > size) {
+                return false;
+            }
+            add(line.substring(0, first), size, start, end);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Réécrit le journal avec une ligne par plage, dans un fichier temporaire renommé une fois complet.
+     */
+    private void compact() throws IOException {
+        File tmp = new File(mFile.getPath() + ".tmp");
+        FileOutputStream output = new FileOutputStream(tmp);
+        try {
+            StringBuilder builder = new StringBuilder();
+            for (Entry entry : mEntries.values()) {
+                for (int i = 0; i < entry.ranges.size(); i += 2) {
+                    builder.append(format(entry.name, entry.size, entry.ranges.get(i), entry.ranges.get(i + 1)));
+                }
+            }
+            output.write(builder.toString().getBytes(UTF_8));
+            output.getFD().sync();
+        } finally {
+            output.close();
+        }
+        if (!tmp.renameTo(mFile)) {
+            throw new IOException("Failed to rename " + tmp + " to " + mFile);
+        }
+    }
+
+    private void add(String name, long size, long start, long end) {
+        Entry entry = mEntries.get(name);
+        if (entry == null || entry.size != size) {
+            entry = new Entry(name, size);
+            mEntries.put(name, entry);
+        }
+        entry.add(start, end);
+    }
+
+    private static String format(String name, long size, long start, long end) {
+        return name + " " + size + " " + start + " " + end + "\n";
+    }
+
+    /**
+     * Plages téléchargées d'un média, triées et disjointes.
+     */
+    private static final class Entry {
+        final String name;
+        final long size;
+        /**
+         * Débuts et fins des plages, alternés.
+         */
+        final List<Long> ranges = new ArrayList<>(2);
+
+        Entry(String name, long size) {
+            this.name = name;
+            this.size = size;
+        }
+
+        void add(long start, long end) {
+            // Fusionne la nouvelle plage avec toutes celles qu'elle chevauche ou touche
+            int i = 0;
+            while (i < ranges.size() && ranges.get(i + 1) < start) {
+                i += 2;
+            }
+            while (i < ranges.size() && ranges.get(i) <= end) {
+                start = Math.min(start, ranges.get(i));
+                end = Math.max(end, ranges.get(i + 1));
+                ranges.remove(i + 1);
+                ranges.remove(i);
+            }
+            ranges.add(i, end);
+            ranges.add(i, start);
+        }
+    }
+}
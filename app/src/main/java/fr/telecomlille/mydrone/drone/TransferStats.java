@@ -0,0 +1,167 @@
+package fr.telecomlille.mydrone.drone;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Statistiques de débit des téléchargements de médias, par fichier et pour l'ensemble des fichiers.
+ * <p>
+ * Le débit global est calculé sur la durée écoulée entre le début du premier téléchargement et la
+ * fin du dernier : lorsque plusieurs fichiers sont téléchargés en parallèle, il est donc supérieur
+ * au débit de chacun d'eux.
+ * </p><p>
+ * Cette classe est thread-safe.
+ * </p>
+ */
+public class TransferStats {
+
+    private final Map<String, FileStats> mFiles = new LinkedHashMap<>();
+    private long mFirstStartNanos;
+    private long mLastEndNanos;
+    private long mTotalBytes;
+    private int mFailureCount;
+
+    /**
+     * Appelé lorsque le téléchargement d'un fichier commence.
+     *
+     * @param name nom du fichier
+     * @param size taille du fichier, en octets
+     */
+    synchronized void onStarted(@NonNull String name, long size) {
+        long now = System.nanoTime();
+        if (mFiles.isEmpty()) {
+            mFirstStartNanos = now;
+        }
+        mFiles.put(name, new FileStats(name, size, now));
+    }
+
+    /**
+     * Appelé lorsque le téléchargement d'un fichier est terminé.
+     *
+     * @param name    nom du fichier
+     * @param success true si le fichier a été entièrement téléchargé
+     */
+    synchronized void onCompleted(@NonNull String name, boolean success) {
+        FileStats file = mFiles.get(name);
+        if (file == null) {
+            return;
+        }
+        file.mEndNanos = System.nanoTime();
+        file.mSuccess = success;
+        mLastEndNanos = Math.max(mLastEndNanos, file.mEndNanos);
+        if (success) {
+            mTotalBytes += file.mSize;
+        } else {
+            mFailureCount++;
+        }
+    }
+
+    /**
+     * Oublie les statistiques des téléchargements précédents.
+     */
+    public synchronized void reset() {
+        mFiles.clear();
+        mFirstStartNanos = 0;
+        mLastEndNanos = 0;
+        mTotalBytes = 0;
+        mFailureCount = 0;
+    }
+
+    /**
+     * @return statistiques de chaque fichier, dans l'ordre de début de leur téléchargement
+     */
+    @NonNull
+    public synchronized List<FileStats> getFileStats() {
+        return new ArrayList<>(mFiles.values());
+    }
+
+    /**
+     * @return nombre d'octets des fichiers entièrement téléchargés
+     */
+    public synchronized long getTotalBytes() {
+        return mTotalBytes;
+    }
+
+    /**
+     * @return nombre de téléchargements ayant échoué
+     */
+    public synchronized int getFailureCount() {
+        return mFailureCount;
+    }
+
+    /**
+     * @return débit global en octets par seconde, ou 0 si aucun téléchargement n'est terminé
+     */
+    public synchronized double getBytesPerSecond() {
+        long duration = mLastEndNanos - mFirstStartNanos;
+        return (mLastEndNanos == 0 || duration <= 0) ? 0 : mTotalBytes * 1e9 / duration;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "%d files, %d bytes, %d failed, %.1f kB/s",
+                mFiles.size(), mTotalBytes, mFailureCount, getBytesPerSecond() / 1000);
+    }
+
+    /**
+     * Statistiques du téléchargement d'un fichier.
+     */
+    public static final class FileStats {
+        private final String mName;
+        private final long mSize;
+        private final long mStartNanos;
+        private volatile long mEndNanos;
+        private volatile boolean mSuccess;
+
+        FileStats(String name, long size, long startNanos) {
+            mName = name;
+            mSize = size;
+            mStartNanos = startNanos;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * @return taille du fichier, en octets
+         */
+        public long getSize() {
+            return mSize;
+        }
+
+        /**
+         * @return true si le fichier a été entièrement téléchargé
+         */
+        public boolean isSuccess() {
+            return mSuccess;
+        }
+
+        /**
+         * @return durée du téléchargement en nanosecondes, ou -1 s'il n'est pas terminé
+         */
+        public long getDurationNanos() {
+            long end = mEndNanos;
+            return (end == 0) ? -1 : end - mStartNanos;
+        }
+
+        /**
+         * @return débit du téléchargement en octets par seconde, ou 0 s'il n'a pas abouti
+         */
+        public double getBytesPerSecond() {
+            long duration = getDurationNanos();
+            return (!mSuccess || duration <= 0) ? 0 : mSize * 1e9 / duration;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s: %d bytes, %.1f kB/s%s", mName, mSize,
+                    getBytesPerSecond() / 1000, mSuccess ? "" : " (failed)");
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package fr.telecomlille.mydrone.gallery;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.UiThread;
+import android.support.annotation.WorkerThread;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import fr.telecomlille.mydrone.drone.SDCardModule;
+
+/**
+ * Galerie des photos et vidéos téléchargées depuis le drône.
+ * <p>
+ * Les miniatures sont produites au fur et à mesure des téléchargements, via
+ * {@link #onMediaDownloaded(String)} : lorsque la galerie est affichée, les miniatures des derniers
+ * vols sont déjà prêtes. Elles sont conservées dans un {@link ThumbnailCache}, en mémoire et sur le
+ * stockage de l'application ; un média n'est donc décodé qu'une fois, et jamais en pleine résolution.
+ * </p><p>
+ * Les miniatures absentes de la mémoire sont chargées sur un Thread dédié, en commençant par la
+ * dernière demandée : lors d'un défilement rapide, les miniatures visibles sont chargées avant celles
+ * des médias qui ont déjà quitté l'écran. Les listeners sont appelés sur le Thread principal.
+ * </p>
+ */
+public final class MediaGallery {
+
+    private static final String TAG = "MediaGallery";
+    private static final String THUMBNAIL_FOLDER = "thumbnails";
+    /**
+     * Côté des miniatures, en pixels.
+     */
+    private static final int THUMBNAIL_SIZE = 256;
+    /**
+     * Part de la mémoire de l'application réservée aux miniatures.
+     */
+    private static final int MEMORY_CACHE_FRACTION = 8;
+    private static final long MAX_DISK_CACHE_BYTES = 16 * 1024 * 1024;
+    private static final Listener[] NO_LISTENERS = new Listener[0];
+
+    private static MediaGallery sInstance;
+
+    private final File mMediaDirectory;
+    private final ThumbnailCache mCache;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ThreadPoolExecutor mExecutor;
+    private final Object mListenersLock = new Object();
+    private volatile Listener[] mListeners = NO_LISTENERS;
+
+    /**
+     * Médias de la galerie, du plus récent au plus ancien. Null tant que le dossier n'a pas été lu.
+     */
+    private List<File> mMedias;
+    /**
+     * Clés des miniatures en cours de chargement, pour ne pas charger deux fois la même.
+     */
+    private final Set<String> mPendingKeys = new HashSet<>();
+
+    /**
+     * @param context contexte quelconque : seul le contexte de l'application est utilisé
+     * @return l'instance unique de la galerie
+     */
+    public static synchronized MediaGallery getInstance(@NonNull Context context) {
+        if (sInstance == null) {
+            sInstance = new MediaGallery(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private MediaGallery(Context context) {
+        mMediaDirectory = SDCardModule.getMediaDirectory();
+        int memoryCacheBytes = (int) (Runtime.getRuntime().maxMemory() / MEMORY_CACHE_FRACTION);
+        mCache = new ThumbnailCache(new File(context.getCacheDir(), THUMBNAIL_FOLDER),
+                memoryCacheBytes, MAX_DISK_CACHE_BYTES);
+        // File LIFO : la dernière tâche soumise est exécutée en premier
+        mExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingDeque<Runnable>() {
+            @Override
+            public boolean offer(@NonNull Runnable runnable) {
+                return offerFirst(runnable);
+            }
+        }, new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                Thread thread = new Thread(runnable, TAG);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Enregistre un listener des évènements de la galerie.
+     *
+     * @param listener le listener à enregistrer
+     */
+    public void addListener(@NonNull Listener listener) {
+        synchronized (mListenersLock) {
+            Listener[] updated = Arrays.copyOf(mListeners, mListeners.length + 1);
+            updated[updated.length - 1] = listener;
+            mListeners = updated;
+        }
+    }
+
+    /**
+     * @param listener le listener à déréférencer
+     */
+    public void removeListener(@NonNull Listener listener) {
+        synchronized (mListenersLock) {
+            List<Listener> updated = new ArrayList<>(Arrays.asList(mListeners));
+            if (updated.remove(listener)) {
+                mListeners = updated.toArray(new Listener[updated.size()]);
+            }
+        }
+    }
+
+    /**
+     * Lit la liste des médias téléchargés, transmise aux listeners via
+     * {@link Listener#onMediasLoaded(List)}.
+     */
+    public void loadMedias() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final List<File> medias = new ArrayList<>(getMedias());
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (Listener listener : mListeners) {
+                            listener.onMediasLoaded(medias);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Renvoie la miniature d'un média si elle est en mémoire. Sinon, la miniature est chargée en
+     * arrière-plan et transmise aux listeners via {@link Listener#onThumbnailLoaded(File, Bitmap)}.
+     * Cette méthode peut être appelée à chaque affichage d'un élément de la galerie.
+     *
+     * @param media média de la galerie
+     * @return la miniature, ou null si elle est en cours de chargement
+     */
+    @UiThread
+    @Nullable
+    public Bitmap getThumbnail(@NonNull File media) {
+        String key = keyOf(media);
+        Bitmap thumbnail = mCache.getFromMemory(key);
+        if (thumbnail == null) {
+            loadThumbnail(media, key, false);
+        }
+        return thumbnail;
+    }
+
+    /**
+     * Ajoute à la galerie un média qui vient d'être téléchargé, et produit sa miniature.
+     * Le média est transmis aux listeners via {@link Listener#onMediaAdded(File)}.
+     *
+     * @param mediaName nom du média, dans le dossier des médias téléchargés
+     */
+    public void onMediaDownloaded(@NonNull String mediaName) {
+        File media = new File(mMediaDirectory, mediaName);
+        if (ThumbnailDecoder.isSupported(media)) {
+            loadThumbnail(media, keyOf(media), true);
+        }
+    }
+
+    private void loadThumbnail(final File media, final String key, final boolean added) {
+        synchronized (mPendingKeys) {
+            if (!mPendingKeys.add(key)) {
+                return;
+            }
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap thumbnail = produceThumbnail(media, key);
+                synchronized (mPendingKeys) {
+                    mPendingKeys.remove(key);
+                }
+                if (added) {
+                    addMedia(media);
+                }
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (Listener listener : mListeners) {
+                            if (added) {
+                                listener.onMediaAdded(media);
+                            }
+                            if (thumbnail != null) {
+                                listener.onThumbnailLoaded(media, thumbnail);
+                            }
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * @return la miniature enregistrée du média, ou à défaut la miniature décodée du média
+     */
+    @WorkerThread
+    private Bitmap produceThumbnail(File media, String key) {
+        Bitmap thumbnail = mCache.getFromMemory(key);
+        if (thumbnail == null) {
+            thumbnail = mCache.getFromDisk(key);
+        }
+        if (thumbnail == null) {
+            thumbnail = ThumbnailDecoder.decode(media, THUMBNAIL_SIZE);
+            if (thumbnail != null) {
+                mCache.put(key, thumbnail);
+            }
+        }
+        return thumbnail;
+    }
+
+    @WorkerThread
+    private synchronized List<File> getMedias() {
+        if (mMedias == null) {
+            mMedias = listMedias(mMediaDirectory);
+        }
+        return mMedias;
+    }
+
+    @WorkerThread
+    private synchronized void addMedia(File media) {
+        List<File> medias = getMedias();
+        if (!medias.contains(media)) {
+            medias.add(0, media);
+        }
+    }
+
+    /**
+     * @param directory dossier des médias téléchargés
+     * @return les médias du dossier pouvant être affichés, du plus récent au plus ancien
+     */
+    @NonNull
+    static List<File> listMedias(@NonNull File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return new ArrayList<>();
+        }
+        List<File> medias = new ArrayList<>(files.length);
+        for (File file : files) {
+            // Les fichiers cachés sont l'index des médias et le journal des téléchargements.
+            // Les téléchargements en cours, suffixés par .part, ne sont pas reconnus comme des médias
+            if (file.isFile() && !file.isHidden() && ThumbnailDecoder.isSupported(file)) {
+                medias.add(file);
+            }
+        }
+        Collections.sort(medias, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long lhs = a.lastModified();
+                long rhs = b.lastModified();
+                return (lhs > rhs) ? -1 : ((lhs == rhs) ? a.getName().compareTo(b.getName()) : 1);
+            }
+        });
+        return medias;
+    }
+
+    /**
+     * La taille et la date de modification du média font partie de la clé : un média remplacé
+     * sous le même nom obtient une nouvelle miniature.
+     */
+    private static String keyOf(File media) {
+        return media.getName() + "-" + media.length() + "-" + media.lastModified() + ".jpg";
+    }
+
+    /**
+     * Objet informé des évènements de la galerie, sur le Thread principal.
+     */
+    public interface Listener {
+
+        /**
+         * Appelé en réponse à {@link #loadMedias()}.
+         *
+         * @param medias médias de la galerie, du plus récent au plus ancien
+         */
+        @UiThread
+        void onMediasLoaded(@NonNull List<File> medias);
+
+        /**
+         * Appelé lorsqu'un média téléchargé a été ajouté à la galerie.
+         *
+         * @param media fichier du média
+         */
+        @UiThread
+        void onMediaAdded(@NonNull File media);
+
+        /**
+         * Appelé lorsque la miniature d'un média a été chargée.
+         *
+         * @param media     fichier du média
+         * @param thumbnail miniature du média
+         */
+        @UiThread
+        void onThumbnailLoaded(@NonNull File media, @NonNull Bitmap thumbnail);
+    }
+}
@@ -0,0 +1,173 @@
+package fr.telecomlille.mydrone.gallery;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Cache des miniatures, en mémoire et sur le stockage de l'application.
+ * <p>
+ * Le cache en mémoire est limité en octets, et libère les miniatures les moins récemment utilisées.
+ * Chaque miniature est aussi enregistrée en JPEG dans un dossier dédié, afin de ne pas décoder de
+ * nouveau le média lors d'un prochain lancement de l'application. Lorsque ce dossier dépasse sa
+ * taille maximale, les miniatures les moins récemment lues sont supprimées.
+ * </p>
+ */
+class ThumbnailCache {
+
+    private static final String TAG = "ThumbnailCache";
+    private static final int JPEG_QUALITY = 80;
+
+    private final LruCache<String, Bitmap> mMemoryCache;
+    private final File mDirectory;
+    private final long mMaxDiskBytes;
+    /**
+     * Taille du dossier, calculée lors du premier enregistrement.
+     */
+    private long mDiskBytes = -1;
+
+    /**
+     * @param directory      dossier des miniatures enregistrées
+     * @param maxMemoryBytes taille maximale des miniatures conservées en mémoire
+     * @param maxDiskBytes   taille maximale du dossier des miniatures
+     */
+    ThumbnailCache(@NonNull File directory, int maxMemoryBytes, long maxDiskBytes) {
+        mDirectory = directory;
+        mMaxDiskBytes = maxDiskBytes;
+        mMemoryCache = new LruCache<String, Bitmap>(maxMemoryBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount();
+            }
+        };
+    }
+
+    /**
+     * @param key clé de la miniature
+     * @return la miniature si elle est en mémoire, sinon null
+     */
+    @Nullable
+    Bitmap getFromMemory(@NonNull String key) {
+        return mMemoryCache.get(key);
+    }
+
+    /**
+     * Lit une miniature enregistrée, et la conserve en mémoire.
+     *
+     * @param key clé de la miniature
+     * @return la miniature, ou null si elle n'a pas été enregistrée
+     */
+    @WorkerThread
+    @Nullable
+    synchronized Bitmap getFromDisk(@NonNull String key) {
+        File file = new File(mDirectory, key);
+        if (!file.isFile()) {
+            return null;
+        }
+        Bitmap thumbnail = BitmapFactory.decodeFile(file.getPath());
+        if (thumbnail == null) {
+            // Fichier corrompu : la miniature sera produite de nouveau
+            delete(file);
+            return null;
+        }
+        // La date de modification sert d'horodatage pour libérer les miniatures les plus anciennes
+        file.setLastModified(System.currentTimeMillis());
+        mMemoryCache.put(key, thumbnail);
+        return thumbnail;
+    }
+
+    /**
+     * Conserve une miniature en mémoire et l'enregistre.
+     *
+     * @param key       clé de la miniature
+     * @param thumbnail miniature
+     */
+    @WorkerThread
+    synchronized void put(@NonNull String key, @NonNull Bitmap thumbnail) {
+        mMemoryCache.put(key, thumbnail);
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.w(TAG, "Failed to create the folder " + mDirectory);
+            return;
+        }
+
+        File file = new File(mDirectory, key);
+        File tmp = new File(mDirectory, key + ".tmp");
+        long diskBytes = getDiskBytes() - file.length();
+        try {
+            OutputStream output = new BufferedOutputStream(new FileOutputStream(tmp));
+            try {
+                thumbnail.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, output);
+            } finally {
+                output.close();
+            }
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Failed to rename " + tmp + " to " + file);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to save the thumbnail " + key, e);
+            delete(tmp);
+            return;
+        }
+        mDiskBytes = diskBytes + file.length();
+        if (mDiskBytes > mMaxDiskBytes) {
+            trimDisk();
+        }
+    }
+
+    private long getDiskBytes() {
+        if (mDiskBytes < 0) {
+            mDiskBytes = 0;
+            File[] files = mDirectory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    mDiskBytes += file.length();
+                }
+            }
+        }
+        return mDiskBytes;
+    }
+
+    /**
+     * Supprime les miniatures les moins récemment lues, jusqu'à respecter la taille maximale.
+     */
+    private void trimDisk() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long lhs = a.lastModified();
+                long rhs = b.lastModified();
+                return (lhs < rhs) ? -1 : ((lhs == rhs) ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < files.length && mDiskBytes > mMaxDiskBytes; i++) {
+            long length = files[i].length();
+            if (delete(files[i])) {
+                mDiskBytes -= length;
+            }
+        }
+    }
+
+    private static boolean delete(File file) {
+        if (file.exists() && !file.delete()) {
+            Log.w(TAG, "Failed to delete " + file);
+            return false;
+        }
+        return true;
+    }
+}
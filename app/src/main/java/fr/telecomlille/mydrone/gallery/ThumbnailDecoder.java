@@ -0,0 +1,124 @@
+package fr.telecomlille.mydrone.gallery;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.MediaMetadataRetriever;
+import android.media.ThumbnailUtils;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+
+import java.io.File;
+import java.util.Locale;
+
+/**
+ * Produit les miniatures des photos et des vidéos sans décoder les médias en pleine résolution.
+ * <p>
+ * Une photo est décodée directement à une résolution réduite d'une puissance de 2
+ * ({@link BitmapFactory.Options#inSampleSize}), juste supérieure à la taille de la miniature.
+ * Pour une vidéo, seule l'image clé la plus proche du début est décodée.
+ * </p>
+ */
+final class ThumbnailDecoder {
+
+    /**
+     * Instant de l'image extraite des vidéos, en microsecondes :
+     * la première image est souvent noire.
+     */
+    private static final long VIDEO_FRAME_TIME_US = 1000000;
+
+    private ThumbnailDecoder() {
+    }
+
+    /**
+     * @param media fichier quelconque
+     * @return true si une miniature peut être produite pour ce fichier
+     */
+    static boolean isSupported(@NonNull File media) {
+        String extension = extensionOf(media);
+        return "jpg".equals(extension) || "jpeg".equals(extension) || "png".equals(extension)
+                || isVideo(media);
+    }
+
+    /**
+     * @param media fichier quelconque
+     * @return true si ce fichier est une vidéo
+     */
+    static boolean isVideo(@NonNull File media) {
+        String extension = extensionOf(media);
+        return "mp4".equals(extension) || "mov".equals(extension);
+    }
+
+    /**
+     * Produit la miniature carrée d'un média, recadrée en son centre.
+     *
+     * @param media photo ou vidéo
+     * @param size  côté de la miniature, en pixels
+     * @return la miniature, ou null si le média n'a pas pu être décodé
+     */
+    @WorkerThread
+    @Nullable
+    static Bitmap decode(@NonNull File media, @IntRange(from = 1) int size) {
+        return isVideo(media) ? decodeVideo(media, size) : decodePhoto(media, size);
+    }
+
+    /**
+     * @param width  largeur de l'image originale
+     * @param height hauteur de l'image originale
+     * @param size   côté de la miniature
+     * @return le plus grand facteur de réduction, puissance de 2, qui conserve une image
+     * au moins aussi grande que la miniature
+     */
+    static int computeSampleSize(int width, int height, int size) {
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= size && height / (sampleSize * 2) >= size) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private static Bitmap decodePhoto(File photo, int size) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(photo.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = computeSampleSize(options.outWidth, options.outHeight, size);
+        // Les médias du drône n'ont pas de transparence : 2 octets par pixel suffisent
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        Bitmap sampled = BitmapFactory.decodeFile(photo.getPath(), options);
+        return (sampled != null) ? crop(sampled, size) : null;
+    }
+
+    private static Bitmap decodeVideo(File video, int size) {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(video.getPath());
+            Bitmap frame = retriever.getFrameAtTime(VIDEO_FRAME_TIME_US, MediaMetadataRetriever.OPTION_CLOSEST_SYNC);
+            return (frame != null) ? crop(frame, size) : null;
+        } catch (RuntimeException e) {
+            // Vidéo illisible ou incomplète
+            return null;
+        } finally {
+            retriever.release();
+        }
+    }
+
+    private static Bitmap crop(Bitmap source, int size) {
+        Bitmap thumbnail = ThumbnailUtils.extractThumbnail(source, size, size);
+        if (thumbnail != source) {
+            source.recycle();
+        }
+        return thumbnail;
+    }
+
+    private static String extensionOf(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return (dot >= 0) ? name.substring(dot + 1).toLowerCase(Locale.US) : "";
+    }
+}
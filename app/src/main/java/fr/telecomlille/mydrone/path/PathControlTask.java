@@ -6,6 +6,7 @@ import android.util.Log;
 import java.util.List;
 
 import fr.telecomlille.mydrone.drone.BebopDrone;
+import fr.telecomlille.mydrone.drone.DroneTelemetry;
 import fr.telecomlille.mydrone.view.DrawPathView;
 
 /**
@@ -25,6 +26,7 @@ public class PathControlTask extends AsyncTask<Void, Integer, float[]> {
     private float[] mInitialPosInRoom;
     private List<float[]> mPointsInPath;
     private TaskListener mTaskListener;
+    private final DroneTelemetry.Snapshot mTelemetry = new DroneTelemetry.Snapshot();
 
     /**
      * Construit une nouvelle instance de cette Task.
@@ -65,6 +67,11 @@ public class PathControlTask extends AsyncTask<Void, Integer, float[]> {
                 if (isCancelled()) {
                     return new float[]{realDistLeft, realDistFor};
                 }
+                // Le drône a atterri ou s'est mis en sécurité pendant le tracé : inutile de continuer
+                if (!mDrone.getTelemetry().snapshot(mTelemetry).isAirborne()) {
+                    Log.w(TAG, "Drone is no longer flying, path stopped at point " + i);
+                    return new float[]{realDistLeft, realDistFor};
+                }
                 actualX = mPointsInPath.get(i)[0];
                 actualY = mPointsInPath.get(i)[1];
                 if (actualX <= previousX) {
@@ -0,0 +1,155 @@
+package fr.telecomlille.mydrone.recognition;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfRect;
+import org.opencv.core.Size;
+
+/**
+ * {@link Detector} choisissant, parmi plusieurs détecteurs, celui qui respecte un budget de temps
+ * par image, d'après les durées mesurées pendant l'exécution.
+ * <p>
+ * Les détecteurs sont donnés par ordre de préférence, du plus précis au plus rapide. Le premier
+ * dont le temps estimé pour l'image courante tient dans le budget est utilisé ; si aucun ne
+ * le respecte, le plus rapide est utilisé. Le temps d'un détecteur est estimé par pixel
+ * analysé, afin de rester comparable quelle que soit la taille de la zone de recherche.
+ * </p><p>
+ * Un détecteur qui n'a jamais été mesuré est essayé en priorité. Les détecteurs écartés sont
+ * de nouveau mesurés périodiquement, la charge du processeur pouvant évoluer.
+ * </p>
+ */
+public class AdaptiveDetector implements Detector {
+
+    private final Detector[] mDetectors;
+    private final long mBudgetNanos;
+    private final int mProbeInterval;
+
+    /**
+     * Durée moyenne de détection par pixel de chaque détecteur, en nanosecondes, ou une valeur
+     * négative s'il n'a pas encore été mesuré.
+     */
+    private final float[] mNanosPerPixel;
+    private final long[] mUseCounts;
+    private int mCurrent;
+    private int mDetectionsSinceProbe;
+    private volatile int mSwitchCount;
+
+    /**
+     * @param budgetNanos   durée maximale souhaitée d'une détection, en nanosecondes
+     * @param probeInterval nombre de détections entre deux nouvelles mesures d'un détecteur écarté
+     * @param detectors     détecteurs disponibles, du plus précis au plus rapide.
+     *                      Ils doivent détecter le même type d'objets.
+     */
+    public AdaptiveDetector(long budgetNanos, @IntRange(from = 1) int probeInterval, @NonNull Detector... detectors) {
+        if (detectors.length == 0) {
+            throw new IllegalArgumentException("At least one detector is required");
+        }
+        mDetectors = detectors.clone();
+        mBudgetNanos = budgetNanos;
+        mProbeInterval = probeInterval;
+        mNanosPerPixel = new float[detectors.length];
+        mUseCounts = new long[detectors.length];
+        for (int i = 0; i < detectors.length; i++) {
+            mNanosPerPixel[i] = -1f;
+        }
+    }
+
+    @NonNull
+    @Override
+    public String getName() {
+        return "auto(" + mDetectors[mCurrent].getName() + ")";
+    }
+
+    @NonNull
+    @Override
+    public Size getWindowSize() {
+        return mDetectors[mCurrent].getWindowSize();
+    }
+
+    @Override
+    public double getScaleFactor() {
+        return mDetectors[mCurrent].getScaleFactor();
+    }
+
+    @Override
+    public void detect(@NonNull Mat gray, @NonNull MatOfRect objects, @NonNull Size minSize, @NonNull Size maxSize) {
+        int pixels = gray.cols() * gray.rows();
+        int selected = select(pixels);
+        if (selected != mCurrent) {
+            mCurrent = selected;
+            mSwitchCount++;
+        }
+
+        long start = System.nanoTime();
+        mDetectors[selected].detect(gray, objects, minSize, maxSize);
+        record(selected, System.nanoTime() - start, pixels);
+    }
+
+    /**
+     * Choisit le détecteur à utiliser pour une image de la taille donnée.
+     */
+    private int select(int pixels) {
+        // Mesure en priorité les détecteurs jamais utilisés
+        for (int i = 0; i < mDetectors.length; i++) {
+            if (mNanosPerPixel[i] < 0) {
+                return i;
+            }
+        }
+
+        int best = -1;
+        int fastest = 0;
+        for (int i = 0; i < mDetectors.length; i++) {
+            if ((best < 0) && (mNanosPerPixel[i] * pixels <= mBudgetNanos)) {
+                best = i;
+            }
+            if (mNanosPerPixel[i] < mNanosPerPixel[fastest]) {
+                fastest = i;
+            }
+        }
+        if (best < 0) {
+            best = fastest;
+        }
+
+        // Réessaie périodiquement le détecteur plus précis qui a été écarté
+        if ((best > 0) && (++mDetectionsSinceProbe >= mProbeInterval)) {
+            mDetectionsSinceProbe = 0;
+            return best - 1;
+        }
+        return best;
+    }
+
+    private void record(int index, long durationNanos, int pixels) {
+        float nanosPerPixel = (float) durationNanos / Math.max(1, pixels);
+        float average = mNanosPerPixel[index];
+        // Moyenne mobile exponentielle, de poids 1/8
+        mNanosPerPixel[index] = (average < 0) ? nanosPerPixel : average + (nanosPerPixel - average) / 8;
+        mUseCounts[index]++;
+    }
+
+    /**
+     * @return le détecteur utilisé pour la dernière détection
+     */
+    public Detector getCurrentDetector() {
+        return mDetectors[mCurrent];
+    }
+
+    /**
+     * @return nombre de changements de détecteur
+     */
+    public int getSwitchCount() {
+        return mSwitchCount;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("current=").append(mDetectors[mCurrent].getName());
+        for (int i = 0; i < mDetectors.length; i++) {
+            builder.append(' ').append(mDetectors[i].getName())
+                    .append(String.format("=[%.1fms/100kpx, used %d]",
+                            mNanosPerPixel[i] * 100000 / 1e6, mUseCounts[i]));
+        }
+        return builder.append(" switches=").append(mSwitchCount).toString();
+    }
+}
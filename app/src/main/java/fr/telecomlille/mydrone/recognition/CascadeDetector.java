@@ -0,0 +1,75 @@
+package fr.telecomlille.mydrone.recognition;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfRect;
+import org.opencv.core.Size;
+import org.opencv.objdetect.CascadeClassifier;
+
+/**
+ * {@link Detector} fondé sur un {@link CascadeClassifier}, qui peut utiliser des caractéristiques
+ * de Haar ou LBP selon le fichier de modèle chargé. Les cascades LBP sont nettement plus rapides,
+ * pour une précision un peu moindre.
+ * <p>
+ * Le classifieur est partagé par toutes les Activity via le {@link ModelCache}, et n'est pas
+ * thread-safe : chaque détection se synchronise donc sur lui. Deux détecteurs utilisant le même
+ * classifieur, par exemple ceux d'une Activity en cours de destruction et de la suivante,
+ * ne peuvent ainsi jamais l'utiliser en même temps.
+ * </p>
+ */
+public class CascadeDetector implements Detector {
+
+    private final String mName;
+    private final CascadeClassifier mClassifier;
+    private final double mScaleFactor;
+    private final int mMinNeighbors;
+    private final Size mWindowSize;
+
+    /**
+     * @param name         nom du détecteur, par exemple "haar" ou "lbp"
+     * @param classifier   classifieur chargé
+     * @param scaleFactor  rapport entre deux échelles de recherche successives
+     * @param minNeighbors nombre de détections voisines nécessaires pour retenir un objet
+     */
+    public CascadeDetector(@NonNull String name, @NonNull CascadeClassifier classifier, double scaleFactor,
+                           @IntRange(from = 0) int minNeighbors) {
+        mName = name;
+        mClassifier = classifier;
+        mScaleFactor = scaleFactor;
+        mMinNeighbors = minNeighbors;
+        synchronized (classifier) {
+            mWindowSize = classifier.getOriginalWindowSize();
+        }
+    }
+
+    @NonNull
+    @Override
+    public String getName() {
+        return mName;
+    }
+
+    @NonNull
+    @Override
+    public Size getWindowSize() {
+        return mWindowSize;
+    }
+
+    @Override
+    public double getScaleFactor() {
+        return mScaleFactor;
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+
+    @Override
+    public void detect(@NonNull Mat gray, @NonNull MatOfRect objects, @NonNull Size minSize, @NonNull Size maxSize) {
+        synchronized (mClassifier) {
+            mClassifier.detectMultiScale(gray, objects, mScaleFactor, mMinNeighbors, 0, minSize, maxSize);
+        }
+    }
+}
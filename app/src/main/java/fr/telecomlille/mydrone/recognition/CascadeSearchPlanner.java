@@ -0,0 +1,257 @@
+package fr.telecomlille.mydrone.recognition;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfRect;
+import org.opencv.core.Size;
+import org.opencv.objdetect.CascadeClassifier;
+
+/**
+ * Restreint la recherche d'un {@link Detector} à une zone et à une plage de tailles
+ * déduites du visage précédemment trouvé.
+ * <p>
+ * Par défaut, {@link CascadeClassifier#detectMultiScale(Mat, MatOfRect)} parcourt toute l'image,
+ * à toutes les échelles depuis la taille de sa fenêtre jusqu'à celle de l'image. En suivi,
+ * la taille du visage ne varie presque pas d'une image à l'autre : la recherche est limitée
+ * à une zone autour de la position attendue du visage, décalée selon son mouvement dans l'image,
+ * et aux tailles proches de la précédente.
+ * </p><p>
+ * Une recherche sur toute l'image est effectuée lorsqu'aucun visage n'est connu, lorsque la recherche
+ * restreinte échoue, et périodiquement afin de ne pas manquer un visage apparu ailleurs.
+ * </p><p>
+ * Le nombre de fenêtres évaluées par le détecteur est estimé pour chaque recherche, et comparé
+ * à celui d'une recherche sur toute l'image. La taille de fenêtre et le rapport d'échelle sont
+ * lus auprès du détecteur à chaque recherche, celui-ci pouvant changer en cours d'exécution.
+ * </p>
+ */
+public class CascadeSearchPlanner {
+
+    private final float mSizeTolerance;
+    private final float mSearchMargin;
+    private final int mFullSearchInterval;
+
+    private final Size mMinSize = new Size();
+    private final Size mMaxSize = new Size();
+    private final Size mNoSizeLimit = new Size();
+    private int mSearchesSinceFull;
+    private int mRoiLeft;
+    private int mRoiTop;
+    private boolean mLastWasFull;
+
+    private volatile long mSearchCount;
+    private volatile long mFullSearchCount;
+    private volatile long mLastWindowCount;
+    private volatile long mTotalWindowCount;
+    private volatile long mTotalFullFrameWindowCount;
+
+    /**
+     * @param sizeTolerance      variation de taille du visage acceptée, en proportion de sa taille précédente
+     * @param searchMargin       marge autour de la position attendue du visage, en proportion de sa taille
+     * @param fullSearchInterval nombre maximal de recherches restreintes entre deux recherches
+     *                           sur toute l'image
+     */
+    public CascadeSearchPlanner(float sizeTolerance, float searchMargin,
+                                @IntRange(from = 0) int fullSearchInterval) {
+        mSizeTolerance = sizeTolerance;
+        mSearchMargin = searchMargin;
+        mFullSearchInterval = fullSearchInterval;
+    }
+
+    /**
+     * Recherche les visages dans une image, dans la zone planifiée d'après le visage précédent.
+     * Les rectangles trouvés sont exprimés dans le repère de la zone de recherche,
+     * dont l'origine est donnée par {@link #getRoiLeft()} et {@link #getRoiTop()}.
+     *
+     * @param detector   détecteur à utiliser
+     * @param gray       image en niveaux de gris
+     * @param faces      reçoit les visages trouvés
+     * @param hasPrevious true si la position précédente du visage est connue
+     * @param x          abscisse du coin supérieur gauche du visage précédent
+     * @param y          ordonnée du coin supérieur gauche du visage précédent
+     * @param width      largeur du visage précédent
+     * @param height     hauteur du visage précédent
+     * @param motionX    déplacement horizontal du visage dans l'image, en pixels par image
+     * @param motionY    déplacement vertical du visage dans l'image, en pixels par image
+     * @return nombre de visages trouvés
+     */
+    public int search(@NonNull Detector detector, @NonNull Mat gray, @NonNull MatOfRect faces,
+                      boolean hasPrevious, int x, int y, int width, int height, float motionX, float motionY) {
+        Size window = detector.getWindowSize();
+        int windowWidth = (int) window.width;
+        int windowHeight = (int) window.height;
+        double scaleFactor = detector.getScaleFactor();
+        long fullFrameWindows = countWindows(gray.cols(), gray.rows(), windowWidth, windowHeight,
+                scaleFactor, 0, Integer.MAX_VALUE);
+        mSearchCount++;
+        mTotalFullFrameWindowCount += fullFrameWindows;
+
+        long windows = 0;
+        if (hasPrevious && (mSearchesSinceFull < mFullSearchInterval)) {
+            mSearchesSinceFull++;
+            int found = searchAround(detector, gray, faces, windowWidth, windowHeight, scaleFactor,
+                    x, y, width, height, motionX, motionY);
+            windows = mLastWindowCount;
+            if (found > 0) {
+                return found;
+            }
+            // Le visage n'est plus dans la zone attendue : on le cherche dans toute l'image
+        }
+
+        mSearchesSinceFull = 0;
+        mFullSearchCount++;
+        mLastWasFull = true;
+        mRoiLeft = 0;
+        mRoiTop = 0;
+        detector.detect(gray, faces, mNoSizeLimit, mNoSizeLimit);
+        mLastWindowCount = windows + fullFrameWindows;
+        mTotalWindowCount += fullFrameWindows;
+        return (int) faces.total();
+    }
+
+    private int searchAround(Detector detector, Mat gray, MatOfRect faces,
+                             int windowWidth, int windowHeight, double scaleFactor,
+                             int x, int y, int width, int height, float motionX, float motionY) {
+        mLastWasFull = false;
+        mLastWindowCount = 0;
+
+        // Tailles proches de la précédente, sans descendre sous la fenêtre du détecteur
+        int minWidth = Math.max(windowWidth, (int) (width * (1 - mSizeTolerance)));
+        int minHeight = Math.max(windowHeight, (int) (height * (1 - mSizeTolerance)));
+        int maxWidth = (int) Math.ceil(width * (1 + mSizeTolerance));
+        int maxHeight = (int) Math.ceil(height * (1 + mSizeTolerance));
+
+        // Zone centrée sur la position attendue du visage, élargie selon la vitesse de son mouvement
+        float centerX = x + width / 2f + motionX;
+        float centerY = y + height / 2f + motionY;
+        float halfWidth = maxWidth / 2f + width * mSearchMargin + 2 * Math.abs(motionX);
+        float halfHeight = maxHeight / 2f + height * mSearchMargin + 2 * Math.abs(motionY);
+        int left = Math.max(0, (int) (centerX - halfWidth));
+        int top = Math.max(0, (int) (centerY - halfHeight));
+        int right = Math.min(gray.cols(), (int) Math.ceil(centerX + halfWidth));
+        int bottom = Math.min(gray.rows(), (int) Math.ceil(centerY + halfHeight));
+        if ((right - left <= minWidth) || (bottom - top <= minHeight)) {
+            return 0;
+        }
+
+        mRoiLeft = left;
+        mRoiTop = top;
+        mMinSize.width = minWidth;
+        mMinSize.height = minHeight;
+        mMaxSize.width = maxWidth;
+        mMaxSize.height = maxHeight;
+
+        Mat roi = gray.submat(top, bottom, left, right);
+        detector.detect(roi, faces, mMinSize, mMaxSize);
+        roi.release();
+
+        long windows = countWindows(right - left, bottom - top, windowWidth, windowHeight,
+                scaleFactor, minWidth, maxWidth);
+        mLastWindowCount = windows;
+        mTotalWindowCount += windows;
+        return (int) faces.total();
+    }
+
+    /**
+     * Estime le nombre de fenêtres évaluées par {@link CascadeClassifier#detectMultiScale},
+     * en reproduisant son parcours des échelles : l'image est réduite d'un facteur croissant,
+     * puis parcourue avec un pas de 2 pixels (1 pixel au-delà d'un facteur 2).
+     *
+     * @param imageWidth   largeur de l'image recherchée
+     * @param imageHeight  hauteur de l'image recherchée
+     * @param windowWidth  largeur de la fenêtre du classifieur
+     * @param windowHeight hauteur de la fenêtre du classifieur
+     * @param scaleFactor  rapport entre deux échelles successives
+     * @param minWidth     largeur minimale des visages recherchés
+     * @param maxWidth     largeur maximale des visages recherchés
+     * @return nombre de fenêtres évaluées
+     */
+    static long countWindows(int imageWidth, int imageHeight, int windowWidth, int windowHeight,
+                             double scaleFactor, int minWidth, int maxWidth) {
+        long windows = 0;
+        for (double factor = 1; ; factor *= scaleFactor) {
+            int scaledWidth = (int) Math.round(imageWidth / factor) - windowWidth;
+            int scaledHeight = (int) Math.round(imageHeight / factor) - windowHeight;
+            if ((scaledWidth <= 0) || (scaledHeight <= 0)) {
+                break;
+            }
+            int objectWidth = (int) Math.round(windowWidth * factor);
+            if (objectWidth > maxWidth) {
+                break;
+            }
+            if (objectWidth < minWidth) {
+                continue;
+            }
+            int step = (factor > 2) ? 1 : 2;
+            windows += (long) ((scaledWidth + step - 1) / step) * ((scaledHeight + step - 1) / step);
+        }
+        return windows;
+    }
+
+    /**
+     * @return abscisse, dans l'image, de l'origine de la dernière zone de recherche
+     */
+    public int getRoiLeft() {
+        return mRoiLeft;
+    }
+
+    /**
+     * @return ordonnée, dans l'image, de l'origine de la dernière zone de recherche
+     */
+    public int getRoiTop() {
+        return mRoiTop;
+    }
+
+    /**
+     * @return true si la dernière recherche portait sur toute l'image
+     */
+    public boolean wasFullSearch() {
+        return mLastWasFull;
+    }
+
+    /**
+     * @return nombre de recherches effectuées
+     */
+    public long getSearchCount() {
+        return mSearchCount;
+    }
+
+    /**
+     * @return nombre de recherches effectuées sur toute l'image
+     */
+    public long getFullSearchCount() {
+        return mFullSearchCount;
+    }
+
+    /**
+     * @return nombre estimé de fenêtres évaluées lors de la dernière recherche
+     */
+    public long getLastWindowCount() {
+        return mLastWindowCount;
+    }
+
+    /**
+     * @return nombre moyen estimé de fenêtres évaluées par recherche
+     */
+    public long getAverageWindowCount() {
+        long searches = mSearchCount;
+        return (searches == 0) ? 0 : mTotalWindowCount / searches;
+    }
+
+    /**
+     * @return proportion des fenêtres évaluées par rapport à des recherches sur toute l'image,
+     * entre 0 et 1
+     */
+    public float getWindowRatio() {
+        long fullFrame = mTotalFullFrameWindowCount;
+        return (fullFrame == 0) ? 1f : (float) mTotalWindowCount / fullFrame;
+    }
+
+    @Override
+    public String toString() {
+        return "searches=" + mSearchCount + " full=" + mFullSearchCount
+                + " windows/search=" + getAverageWindowCount()
+                + String.format(" (%.0f%% of full frame)", 100 * getWindowRatio());
+    }
+}
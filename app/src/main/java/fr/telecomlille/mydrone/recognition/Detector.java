@@ -0,0 +1,43 @@
+package fr.telecomlille.mydrone.recognition;
+
+import android.support.annotation.NonNull;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfRect;
+import org.opencv.core.Size;
+
+/**
+ * Algorithme de détection d'objets dans une image en niveaux de gris.
+ * <p>
+ * Les implémentations ne sont pas thread-safe : un détecteur doit être utilisé depuis un seul Thread.
+ * </p>
+ */
+public interface Detector {
+
+    /**
+     * @return nom court du détecteur, pour les journaux
+     */
+    @NonNull
+    String getName();
+
+    /**
+     * @return taille de la fenêtre de détection, c'est-à-dire la plus petite taille d'objet détectable
+     */
+    @NonNull
+    Size getWindowSize();
+
+    /**
+     * @return rapport entre deux échelles de recherche successives
+     */
+    double getScaleFactor();
+
+    /**
+     * Recherche les objets dans une image.
+     *
+     * @param gray    image en niveaux de gris
+     * @param objects reçoit les rectangles des objets trouvés, dans le repère de l'image
+     * @param minSize taille minimale des objets recherchés, ou une taille nulle pour aucune limite
+     * @param maxSize taille maximale des objets recherchés, ou une taille nulle pour aucune limite
+     */
+    void detect(@NonNull Mat gray, @NonNull MatOfRect objects, @NonNull Size minSize, @NonNull Size maxSize);
+}
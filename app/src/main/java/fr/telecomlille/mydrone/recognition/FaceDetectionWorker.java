@@ -0,0 +1,489 @@
+package fr.telecomlille.mydrone.recognition;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Recherche les visages dans les images de vision sur un Thread dédié, sans jamais retarder
+ * la réception ni l'affichage du flux vidéo.
+ * <p>
+ * Chaque image est confiée à un {@link FaceTracker}, qui n'exécute une détection complète que
+ * périodiquement et suit le visage à moindre coût entre deux détections.
+ * </p><p>
+ * Une détection prend plusieurs dizaines de millisecondes : pendant ce temps, seule l'image la plus
+ * récente est conservée, les précédentes sont rendues à leur {@link VisionFrameSource} sans être
+ * analysées. Le résultat de chaque détection est transmis avec l'horodatage de l'image analysée,
+ * afin que le contrôleur puisse tenir compte de l'âge de l'information.
+ * </p><p>
+ * La durée de chaque étape (conversion de l'image, détection ou suivi, contrôle) est mesurée.
+ * </p>
+ */
+public class FaceDetectionWorker {
+
+    private static final String TAG = "FaceDetectionWorker";
+    /**
+     * Attente maximale de la fin du Thread de détection lors de l'arrêt, en millisecondes.
+     * Une détection ne dure que quelques dizaines de millisecondes.
+     */
+    private static final long CLOSE_TIMEOUT_MS = 500;
+
+    private final FaceTracker mTracker;
+    private final Listener mListener;
+    private final ExecutorService mExecutor;
+
+    private final AtomicReference<VisionFrame> mLatestFrame = new AtomicReference<>();
+    private final AtomicBoolean mDrainScheduled = new AtomicBoolean();
+    private volatile boolean mClosed;
+
+    // Utilisé uniquement depuis le Thread de détection
+    private final Result mResult = new Result();
+
+    private final StageTiming mConvertTiming = new StageTiming();
+    private final StageTiming mDetectTiming = new StageTiming();
+    private final StageTiming mTrackTiming = new StageTiming();
+    private final StageTiming mControlTiming = new StageTiming();
+    private volatile long mProcessedCount;
+    private volatile long mSkippedCount;
+
+    /**
+     * @param tracker  objet recherchant le visage dans chaque image, utilisé uniquement depuis
+     *                 le Thread de détection, qui le libère à l'arrêt du worker
+     * @param listener objet recevant les résultats, sur le Thread de détection
+     */
+    public FaceDetectionWorker(@NonNull FaceTracker tracker, @NonNull Listener listener) {
+        mTracker = tracker;
+        mListener = listener;
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                return new Thread(runnable, "FaceDetection");
+            }
+        });
+    }
+
+    /**
+     * Transmet une image à analyser. Cette méthode ne bloque pas : si une détection est en cours,
+     * l'image remplace celle qui attendait éventuellement, qui est alors abandonnée.
+     *
+     * @param frame image à analyser. Le worker se charge de la rendre à sa source.
+     */
+    public void submit(@NonNull VisionFrame frame) {
+        if (mClosed) {
+            frame.release();
+            return;
+        }
+
+        VisionFrame replaced = mLatestFrame.getAndSet(frame);
+        if (replaced != null) {
+            replaced.release();
+            mSkippedCount++;
+        }
+
+        if (mClosed) {
+            // close() a pu s'exécuter entre-temps : ne pas laisser l'image dans l'emplacement
+            releasePending();
+        } else if (mDrainScheduled.compareAndSet(false, true)) {
+            mExecutor.execute(mDrainTask);
+        }
+    }
+
+    /**
+     * Arrête le Thread de détection une fois la détection en cours terminée, et attend son arrêt :
+     * les images et le détecteur ne sont alors plus utilisés, et peuvent être libérés.
+     * Les images en attente sont abandonnées.
+     */
+    public void close() {
+        mClosed = true;
+        releasePending();
+        // Exécuté après la détection en cours, sur le Thread de détection
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mTracker.release();
+            }
+        });
+        mExecutor.shutdown();
+        try {
+            if (!mExecutor.awaitTermination(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                Log.w(TAG, "Detection thread still running after " + CLOSE_TIMEOUT_MS + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void releasePending() {
+        VisionFrame pending = mLatestFrame.getAndSet(null);
+        if (pending != null) {
+            pending.release();
+        }
+    }
+
+    /**
+     * Traite l'image la plus récente tant qu'il en arrive de nouvelles.
+     */
+    private final Runnable mDrainTask = new Runnable() {
+        @Override
+        public void run() {
+            while (true) {
+                VisionFrame frame = mLatestFrame.getAndSet(null);
+                if (frame == null) {
+                    mDrainScheduled.set(false);
+                    // Une image a pu arriver après la lecture de l'emplacement, mais avant que la tâche
+                    // ne soit marquée comme terminée : elle n'aurait alors pas planifié de nouvelle tâche
+                    if ((mLatestFrame.get() != null) && mDrainScheduled.compareAndSet(false, true)) {
+                        continue;
+                    }
+                    return;
+                }
+
+                try {
+                    process(frame);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Face detection failed", e);
+                }
+            }
+        }
+    };
+
+    private void process(VisionFrame frame) {
+        // La frame est rendue à sa source dès la fin de la détection : tout ce qui doit en être lu
+        // l'est auparavant
+        long conversionNanos = frame.getConversionNanos();
+        long detectStart = System.nanoTime();
+        try {
+            mTracker.update(frame.getGray(), frame.getTimestampNanos());
+            mResult.set(frame, mTracker);
+        } finally {
+            frame.release();
+        }
+        long detectEnd = System.nanoTime();
+        mResult.mCompletedNanos = detectEnd;
+        mConvertTiming.record(conversionNanos);
+        if (mTracker.isDetection()) {
+            mDetectTiming.record(detectEnd - detectStart);
+        } else {
+            mTrackTiming.record(detectEnd - detectStart);
+        }
+        mProcessedCount++;
+
+        if (!mClosed) {
+            mListener.onFacesDetected(mResult);
+            mControlTiming.record(System.nanoTime() - detectEnd);
+        }
+    }
+
+    /**
+     * @return durées de conversion des images analysées
+     */
+    public StageTiming getConvertTiming() {
+        return mConvertTiming;
+    }
+
+    /**
+     * @return durées des détections
+     */
+    public StageTiming getDetectTiming() {
+        return mDetectTiming;
+    }
+
+    /**
+     * @return durées des suivis entre deux détections
+     */
+    public StageTiming getTrackTiming() {
+        return mTrackTiming;
+    }
+
+    /**
+     * @return le {@link FaceTracker} utilisé, pour consulter ses statistiques
+     */
+    public FaceTracker getTracker() {
+        return mTracker;
+    }
+
+    /**
+     * @return durées de traitement des résultats par le {@link Listener}
+     */
+    public StageTiming getControlTiming() {
+        return mControlTiming;
+    }
+
+    /**
+     * @return nombre d'images analysées
+     */
+    public long getProcessedCount() {
+        return mProcessedCount;
+    }
+
+    /**
+     * @return nombre d'images abandonnées parce qu'une détection était en cours
+     */
+    public long getSkippedCount() {
+        return mSkippedCount;
+    }
+
+    /**
+     * Reçoit les résultats de la détection de visages.
+     */
+    public interface Listener {
+        /**
+         * Appelé sur le Thread de détection après l'analyse de chaque image.
+         * Le résultat est réutilisé pour la détection suivante : il ne doit pas être conservé
+         * après le retour de cette méthode.
+         *
+         * @param result visages trouvés dans l'image
+         */
+        void onFacesDetected(@NonNull Result result);
+    }
+
+    /**
+     * Résultat de l'analyse d'une image.
+     * <p>
+     * Le rectangle du visage est exprimé en pixels dans le repère de l'image analysée, de dimensions
+     * {@link #getFrameWidth()} x {@link #getFrameHeight()}. La position estimée de la cible,
+     * lissée par le {@link TargetEstimator}, est exprimée en coordonnées normalisées entre 0 et 1.
+     * </p>
+     */
+    public static final class Result {
+
+        private static final float NANOS_PER_SECOND = 1e9f;
+
+        private long mFrameTimestampNanos;
+        private long mCompletedNanos;
+        private int mFrameWidth;
+        private int mFrameHeight;
+        private boolean mHasFace;
+        private boolean mIsDetection;
+        private float mConfidence;
+        private int mFaceX, mFaceY, mFaceWidth, mFaceHeight;
+
+        private boolean mHasTarget;
+        private int mTrackId;
+        private long mEstimateNanos;
+        private float mTargetX, mTargetY, mTargetSize;
+        private float mVelocityX, mVelocityY;
+
+        void set(VisionFrame frame, FaceTracker tracker) {
+            mFrameTimestampNanos = frame.getTimestampNanos();
+            mFrameWidth = frame.getWidth();
+            mFrameHeight = frame.getHeight();
+            mConfidence = tracker.getConfidence();
+            mHasFace = mConfidence > 0f;
+            mIsDetection = tracker.isDetection();
+            mFaceX = tracker.getX();
+            mFaceY = tracker.getY();
+            mFaceWidth = tracker.getWidth();
+            mFaceHeight = tracker.getHeight();
+
+            TargetEstimator estimator = tracker.getEstimator();
+            mHasTarget = estimator.hasTarget();
+            mTrackId = estimator.getTrackId();
+            mEstimateNanos = estimator.getTimestampNanos();
+            mTargetX = estimator.getX();
+            mTargetY = estimator.getY();
+            mTargetSize = estimator.getSize();
+            mVelocityX = estimator.getVelocityX();
+            mVelocityY = estimator.getVelocityY();
+        }
+
+        /**
+         * @return instant de réception de la frame vidéo analysée, selon {@link System#nanoTime()}
+         */
+        public long getFrameTimestampNanos() {
+            return mFrameTimestampNanos;
+        }
+
+        /**
+         * @return temps écoulé entre la réception de la frame et la fin de la détection, en nanosecondes
+         */
+        public long getLatencyNanos() {
+            return mCompletedNanos - mFrameTimestampNanos;
+        }
+
+        /**
+         * @return largeur de l'image analysée en pixels
+         */
+        public int getFrameWidth() {
+            return mFrameWidth;
+        }
+
+        /**
+         * @return hauteur de l'image analysée en pixels
+         */
+        public int getFrameHeight() {
+            return mFrameHeight;
+        }
+
+        /**
+         * @return true si le visage de la cible a été trouvé dans cette image
+         */
+        public boolean hasFace() {
+            return mHasFace;
+        }
+
+        /**
+         * @return true si le visage provient d'une détection complète, false s'il a été suivi
+         */
+        public boolean isDetection() {
+            return mIsDetection;
+        }
+
+        /**
+         * @return confiance dans la position du visage, entre 0 et 1
+         */
+        public float getConfidence() {
+            return mConfidence;
+        }
+
+        /**
+         * @return abscisse du coin supérieur gauche du visage
+         */
+        public int getFaceX() {
+            return mFaceX;
+        }
+
+        /**
+         * @return ordonnée du coin supérieur gauche du visage
+         */
+        public int getFaceY() {
+            return mFaceY;
+        }
+
+        /**
+         * @return largeur du visage
+         */
+        public int getFaceWidth() {
+            return mFaceWidth;
+        }
+
+        /**
+         * @return hauteur du visage
+         */
+        public int getFaceHeight() {
+            return mFaceHeight;
+        }
+
+        /**
+         * @return true si une cible est suivie, même si elle n'a pas été trouvée dans cette image
+         */
+        public boolean hasTarget() {
+            return mHasTarget;
+        }
+
+        /**
+         * @return identifiant de la cible, qui change lorsqu'une nouvelle cible est choisie
+         */
+        public int getTrackId() {
+            return mTrackId;
+        }
+
+        /**
+         * @return abscisse estimée du centre de la cible, entre 0 et 1
+         */
+        public float getTargetX() {
+            return mTargetX;
+        }
+
+        /**
+         * @return ordonnée estimée du centre de la cible, entre 0 et 1
+         */
+        public float getTargetY() {
+            return mTargetY;
+        }
+
+        /**
+         * @return taille estimée de la cible, en proportion de la largeur de l'image
+         */
+        public float getTargetSize() {
+            return mTargetSize;
+        }
+
+        /**
+         * @return vitesse horizontale estimée de la cible, en unités normalisées par seconde
+         */
+        public float getVelocityX() {
+            return mVelocityX;
+        }
+
+        /**
+         * @return vitesse verticale estimée de la cible, en unités normalisées par seconde
+         */
+        public float getVelocityY() {
+            return mVelocityY;
+        }
+
+        /**
+         * @param atNanos instant, selon {@link System#nanoTime()}, typiquement celui où la commande
+         *                calculée à partir de ce résultat sera appliquée
+         * @return abscisse du centre de la cible extrapolée à l'instant donné
+         */
+        public float predictTargetX(long atNanos) {
+            return mTargetX + mVelocityX * ((atNanos - mEstimateNanos) / NANOS_PER_SECOND);
+        }
+
+        /**
+         * @param atNanos instant, selon {@link System#nanoTime()}, typiquement celui où la commande
+         *                calculée à partir de ce résultat sera appliquée
+         * @return ordonnée du centre de la cible extrapolée à l'instant donné
+         */
+        public float predictTargetY(long atNanos) {
+            return mTargetY + mVelocityY * ((atNanos - mEstimateNanos) / NANOS_PER_SECOND);
+        }
+    }
+
+    /**
+     * Durées mesurées pour une étape du traitement. Chaque instance n'est mise à jour
+     * que depuis le Thread de détection.
+     */
+    public static final class StageTiming {
+
+        private volatile long mCount;
+        private volatile long mLastNanos;
+        private volatile long mAverageNanos;
+        private volatile long mMaxNanos;
+
+        void record(long durationNanos) {
+            mLastNanos = durationNanos;
+            if (durationNanos > mMaxNanos) {
+                mMaxNanos = durationNanos;
+            }
+            // Moyenne mobile exponentielle, de poids 1/16
+            long average = mAverageNanos;
+            mAverageNanos = (mCount == 0) ? durationNanos : average + ((durationNanos - average) >> 4);
+            mCount++;
+        }
+
+        /**
+         * @return durée de la dernière exécution de l'étape, en nanosecondes
+         */
+        public long getLastNanos() {
+            return mLastNanos;
+        }
+
+        /**
+         * @return moyenne glissante de la durée de l'étape, en nanosecondes
+         */
+        public long getAverageNanos() {
+            return mAverageNanos;
+        }
+
+        /**
+         * @return plus grande durée observée pour l'étape, en nanosecondes
+         */
+        public long getMaxNanos() {
+            return mMaxNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("avg=%.1fms max=%.1fms", mAverageNanos / 1e6, mMaxNanos / 1e6);
+        }
+    }
+}
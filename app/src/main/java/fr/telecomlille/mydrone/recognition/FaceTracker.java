@@ -0,0 +1,398 @@
+package fr.telecomlille.mydrone.recognition;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.MatOfRect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.video.Video;
+
+import java.util.Arrays;
+
+/**
+ * Suit un visage d'une image à l'autre en alternant détection complète et suivi peu coûteux.
+ * <p>
+ * La détection par un {@link Detector} n'est exécutée que toutes les N images, ou lorsque
+ * le suivi est perdu. Elle est restreinte par un {@link CascadeSearchPlanner} à la zone et aux
+ * tailles attendues d'après la position du visage.
+ * </p><p>
+ * Chaque visage détecté ou suivi est transmis à un {@link TargetEstimator}, qui choisit parmi
+ * les visages détectés celui qui correspond à la cible déjà suivie : c'est ce visage qui est
+ * ensuite suivi par flot optique. Entre deux détections, des points caractéristiques du visage sont suivis
+ * par flot optique pyramidal (Lucas-Kanade), uniquement dans une petite zone autour de la dernière
+ * position connue. Le déplacement du visage est le déplacement médian des points suivis.
+ * </p><p>
+ * Un indice de confiance est calculé à chaque suivi, d'après la proportion de points suivis et
+ * la cohérence de leurs déplacements. En dessous d'un seuil, une nouvelle détection est forcée.
+ * </p><p>
+ * Cette classe n'est pas thread-safe : elle doit être utilisée depuis un seul Thread.
+ * </p>
+ */
+public class FaceTracker {
+
+    private static final int MAX_FACES = 8;
+    private static final int MAX_POINTS = 40;
+    private static final int MIN_POINTS = 6;
+    private static final double POINT_QUALITY = 0.01;
+    private static final double POINT_MIN_DISTANCE = 3;
+    private static final Size FLOW_WINDOW = new Size(11, 11);
+    private static final int FLOW_LEVELS = 2;
+    /**
+     * Écart maximal, en pixels, entre le déplacement d'un point et le déplacement médian
+     * pour que ce point soit considéré comme cohérent.
+     */
+    private static final float MAX_POINT_DEVIATION = 2f;
+    /**
+     * Facteur appliqué au bruit des positions obtenues par suivi, moins précises qu'une détection.
+     */
+    private static final float TRACKING_NOISE_SCALE = 1.5f;
+
+    private final Detector mDetector;
+    private final CascadeSearchPlanner mPlanner;
+    private final TargetEstimator mEstimator;
+    private final int mDetectionInterval;
+    private final float mMinConfidence;
+    private final float mSearchMargin;
+
+    // Détection
+    private final MatOfRect mFaces = new MatOfRect();
+    private final int[] mFaceRects = new int[4 * MAX_FACES];
+    private final float[] mMeasurements = new float[3 * MAX_FACES];
+
+    // Suivi
+    private final Mat mPrevGray = new Mat();
+    private final MatOfPoint mCorners = new MatOfPoint();
+    private final MatOfPoint2f mPrevPoints = new MatOfPoint2f();
+    private final MatOfPoint2f mNextPoints = new MatOfPoint2f();
+    private final MatOfByte mStatus = new MatOfByte();
+    private final MatOfFloat mError = new MatOfFloat();
+    private final int[] mCornerCoords = new int[2 * MAX_POINTS];
+    private final float[] mPoints = new float[2 * MAX_POINTS];
+    private final float[] mMovedPoints = new float[2 * MAX_POINTS];
+    private final byte[] mPointStatus = new byte[MAX_POINTS];
+    private final float[] mDx = new float[MAX_POINTS];
+    private final float[] mDy = new float[MAX_POINTS];
+    private int mPointCount;
+
+    private boolean mHasTarget;
+    private boolean mLastWasDetection;
+    private int mFramesSinceDetection;
+    private float mConfidence;
+    private int mX, mY, mWidth, mHeight;
+    private float mMotionX, mMotionY;
+
+    private volatile long mDetectionCount;
+    private volatile long mTrackCount;
+    private volatile long mLostCount;
+
+    /**
+     * @param detector          détecteur utilisé pour les détections complètes
+     * @param planner           planificateur des zones de recherche des détections
+     * @param estimator         estimateur de la position de la cible
+     * @param detectionInterval nombre maximal d'images entre deux détections complètes
+     * @param minConfidence     confiance minimale du suivi, entre 0 et 1, en dessous de laquelle
+     *                          une détection est forcée
+     * @param searchMargin      marge autour du visage dans laquelle les points sont suivis,
+     *                          en proportion de sa taille
+     */
+    public FaceTracker(@NonNull Detector detector, @NonNull CascadeSearchPlanner planner,
+                       @NonNull TargetEstimator estimator, @IntRange(from = 1) int detectionInterval,
+                       float minConfidence, float searchMargin) {
+        mDetector = detector;
+        mPlanner = planner;
+        mEstimator = estimator;
+        mDetectionInterval = detectionInterval;
+        mMinConfidence = minConfidence;
+        mSearchMargin = searchMargin;
+    }
+
+    /**
+     * Recherche le visage dans une nouvelle image, par détection ou par suivi.
+     *
+     * @param gray           image en niveaux de gris, de même taille que les précédentes
+     * @param timestampNanos instant de capture de l'image, selon {@link System#nanoTime()}
+     * @return true si le visage de la cible est connu dans cette image
+     */
+    public boolean update(@NonNull Mat gray, long timestampNanos) {
+        boolean sizeChanged = (gray.cols() != mPrevGray.cols()) || (gray.rows() != mPrevGray.rows());
+        boolean mustDetect = !mHasTarget || sizeChanged
+                || (mFramesSinceDetection >= mDetectionInterval - 1)
+                || (mConfidence < mMinConfidence);
+
+        if (mustDetect) {
+            detect(gray, timestampNanos);
+        } else if (!track(gray, timestampNanos)) {
+            // Suivi perdu : on cherche à nouveau le visage dans cette même image
+            mLostCount++;
+            detect(gray, timestampNanos);
+        }
+        gray.copyTo(mPrevGray);
+        return mHasTarget;
+    }
+
+    /**
+     * Oublie le visage suivi : la prochaine image donnera lieu à une détection complète.
+     */
+    public void reset() {
+        mHasTarget = false;
+        mPointCount = 0;
+        mMotionX = 0;
+        mMotionY = 0;
+        mEstimator.reset();
+    }
+
+    private void detect(Mat gray, long timestampNanos) {
+        mDetectionCount++;
+        mLastWasDetection = true;
+        mFramesSinceDetection = 0;
+        mPlanner.search(mDetector, gray, mFaces, mHasTarget, mX, mY, mWidth, mHeight, mMotionX, mMotionY);
+
+        // Les rectangles (x, y, largeur, hauteur) sont lus directement, sans créer d'objets Rect
+        int count = mFaces.toArray(mFaceRects);
+        int left = mPlanner.getRoiLeft();
+        int top = mPlanner.getRoiTop();
+        for (int i = 0; i < count; i++) {
+            mFaceRects[4 * i] += left;
+            mFaceRects[4 * i + 1] += top;
+            setMeasurement(i, gray, mFaceRects[4 * i], mFaceRects[4 * i + 1],
+                    mFaceRects[4 * i + 2], mFaceRects[4 * i + 3]);
+        }
+
+        int target = mEstimator.update(timestampNanos, mMeasurements, count, 1f);
+        mHasTarget = target >= 0;
+        if (mHasTarget) {
+            mX = mFaceRects[4 * target];
+            mY = mFaceRects[4 * target + 1];
+            mWidth = mFaceRects[4 * target + 2];
+            mHeight = mFaceRects[4 * target + 3];
+            mConfidence = 1f;
+            selectPoints(gray);
+        }
+    }
+
+    /**
+     * Convertit un visage en mesure normalisée pour le {@link TargetEstimator}.
+     */
+    private void setMeasurement(int index, Mat gray, int x, int y, int width, int height) {
+        float imageWidth = gray.cols();
+        mMeasurements[3 * index] = (x + width / 2f) / imageWidth;
+        mMeasurements[3 * index + 1] = (y + height / 2f) / gray.rows();
+        mMeasurements[3 * index + 2] = width / imageWidth;
+    }
+
+    /**
+     * Choisit les points caractéristiques à suivre à l'intérieur du visage.
+     */
+    private void selectPoints(Mat gray) {
+        Mat face = gray.submat(mY, mY + mHeight, mX, mX + mWidth);
+        Imgproc.goodFeaturesToTrack(face, mCorners, MAX_POINTS, POINT_QUALITY, POINT_MIN_DISTANCE);
+        face.release();
+
+        mPointCount = mCorners.toArray(mCornerCoords);
+        for (int i = 0; i < mPointCount; i++) {
+            mPoints[2 * i] = mCornerCoords[2 * i] + mX;
+            mPoints[2 * i + 1] = mCornerCoords[2 * i + 1] + mY;
+        }
+    }
+
+    /**
+     * Déplace le visage d'après le flot optique de ses points, calculé dans une zone
+     * autour de sa dernière position.
+     *
+     * @return false si le suivi a échoué
+     */
+    private boolean track(Mat gray, long timestampNanos) {
+        if (mPointCount < MIN_POINTS) {
+            return false;
+        }
+        mTrackCount++;
+        mLastWasDetection = false;
+        mFramesSinceDetection++;
+
+        // Zone de recherche : le visage et une marge pour son déplacement, bornés par l'image
+        int marginX = (int) (mWidth * mSearchMargin);
+        int marginY = (int) (mHeight * mSearchMargin);
+        int left = Math.max(0, mX - marginX);
+        int top = Math.max(0, mY - marginY);
+        int right = Math.min(gray.cols(), mX + mWidth + marginX);
+        int bottom = Math.min(gray.rows(), mY + mHeight + marginY);
+
+        for (int i = 0; i < mPointCount; i++) {
+            mMovedPoints[2 * i] = mPoints[2 * i] - left;
+            mMovedPoints[2 * i + 1] = mPoints[2 * i + 1] - top;
+        }
+        mPrevPoints.fromArray(mMovedPoints, mPointCount);
+
+        Mat prevRoi = mPrevGray.submat(top, bottom, left, right);
+        Mat nextRoi = gray.submat(top, bottom, left, right);
+        Video.calcOpticalFlowPyrLK(prevRoi, nextRoi, mPrevPoints, mNextPoints, mStatus, mError,
+                FLOW_WINDOW, FLOW_LEVELS);
+        prevRoi.release();
+        nextRoi.release();
+
+        mNextPoints.toArray(mMovedPoints);
+        mStatus.toArray(mPointStatus);
+
+        // Déplacements des points suivis avec succès
+        int tracked = 0;
+        for (int i = 0; i < mPointCount; i++) {
+            if (mPointStatus[i] != 0) {
+                mDx[tracked] = mMovedPoints[2 * i] + left - mPoints[2 * i];
+                mDy[tracked] = mMovedPoints[2 * i + 1] + top - mPoints[2 * i + 1];
+                tracked++;
+            }
+        }
+        if (tracked < MIN_POINTS) {
+            mConfidence = 0f;
+            return false;
+        }
+
+        float medianDx = median(mDx, tracked);
+        float medianDy = median(mDy, tracked);
+        mMotionX = medianDx;
+        mMotionY = medianDy;
+
+        // Ne conserve que les points cohérents avec le déplacement médian
+        int consistent = 0;
+        for (int i = 0; i < mPointCount; i++) {
+            if (mPointStatus[i] == 0) {
+                continue;
+            }
+            float x = mMovedPoints[2 * i] + left;
+            float y = mMovedPoints[2 * i + 1] + top;
+            float dx = x - mPoints[2 * i] - medianDx;
+            float dy = y - mPoints[2 * i + 1] - medianDy;
+            if ((Math.abs(dx) <= MAX_POINT_DEVIATION) && (Math.abs(dy) <= MAX_POINT_DEVIATION)) {
+                mPoints[2 * consistent] = x;
+                mPoints[2 * consistent + 1] = y;
+                consistent++;
+            }
+        }
+
+        mConfidence = (float) consistent / mPointCount;
+        mPointCount = consistent;
+        if (consistent < MIN_POINTS) {
+            return false;
+        }
+
+        // Le visage se déplace avec ses points, sans sortir de l'image
+        mX = clamp(Math.round(mX + medianDx), 0, gray.cols() - mWidth);
+        mY = clamp(Math.round(mY + medianDy), 0, gray.rows() - mHeight);
+
+        // Une position suivie incompatible avec l'estimation signale une dérive du suivi
+        setMeasurement(0, gray, mX, mY, mWidth, mHeight);
+        return mEstimator.update(timestampNanos, mMeasurements, 1, TRACKING_NOISE_SCALE / mConfidence) >= 0;
+    }
+
+    private static float median(float[] values, int count) {
+        Arrays.sort(values, 0, count);
+        return ((count & 1) == 1) ? values[count / 2] : (values[count / 2 - 1] + values[count / 2]) / 2f;
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    /**
+     * @return true si la position du visage provient d'une détection complète plutôt que du suivi
+     */
+    public boolean isDetection() {
+        return mLastWasDetection;
+    }
+
+    /**
+     * @return confiance dans la position du visage, entre 0 et 1
+     */
+    public float getConfidence() {
+        return mHasTarget ? mConfidence : 0f;
+    }
+
+    /**
+     * @return abscisse du coin supérieur gauche du visage
+     */
+    public int getX() {
+        return mX;
+    }
+
+    /**
+     * @return ordonnée du coin supérieur gauche du visage
+     */
+    public int getY() {
+        return mY;
+    }
+
+    /**
+     * @return largeur du visage
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /**
+     * @return hauteur du visage
+     */
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return l'estimateur de la position de la cible
+     */
+    public TargetEstimator getEstimator() {
+        return mEstimator;
+    }
+
+    /**
+     * @return le détecteur utilisé pour les détections complètes
+     */
+    public Detector getDetector() {
+        return mDetector;
+    }
+
+    /**
+     * @return le planificateur des zones de recherche, pour consulter ses statistiques
+     */
+    public CascadeSearchPlanner getPlanner() {
+        return mPlanner;
+    }
+
+    /**
+     * @return nombre de détections complètes effectuées
+     */
+    public long getDetectionCount() {
+        return mDetectionCount;
+    }
+
+    /**
+     * @return nombre d'images traitées par suivi
+     */
+    public long getTrackCount() {
+        return mTrackCount;
+    }
+
+    /**
+     * @return nombre de fois où le suivi a été perdu
+     */
+    public long getLostCount() {
+        return mLostCount;
+    }
+
+    /**
+     * Libère la mémoire native utilisée par le suivi.
+     */
+    public void release() {
+        mFaces.release();
+        mPrevGray.release();
+        mCorners.release();
+        mPrevPoints.release();
+        mNextPoints.release();
+        mStatus.release();
+        mError.release();
+    }
+}
@@ -0,0 +1,81 @@
+package fr.telecomlille.mydrone.recognition;
+
+import android.support.annotation.NonNull;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDouble;
+import org.opencv.core.MatOfRect;
+import org.opencv.core.Size;
+import org.opencv.objdetect.HOGDescriptor;
+
+/**
+ * {@link Detector} de personnes entières, fondé sur un {@link HOGDescriptor} et le classifieur
+ * de piétons fourni avec OpenCV. Il permet de suivre une personne de dos ou trop éloignée
+ * pour que son visage soit détecté, au prix d'un temps de calcul plus élevé.
+ * <p>
+ * La fenêtre de détection mesure 64 x 128 pixels : l'image analysée doit être au moins aussi grande.
+ * Le descripteur ne permet pas de borner la taille des objets recherchés : les détections
+ * hors des bornes demandées sont retirées après coup.
+ * </p>
+ */
+public class HogDetector implements Detector {
+
+    private static final int MAX_OBJECTS = 16;
+    private static final double SCALE_FACTOR = 1.05;
+    private static final double HIT_THRESHOLD = 0;
+    private static final double FINAL_THRESHOLD = 2;
+    private static final Size WIN_STRIDE = new Size(8, 8);
+    private static final Size PADDING = new Size(0, 0);
+
+    private final HOGDescriptor mDescriptor;
+    private final MatOfDouble mWeights = new MatOfDouble();
+    private final int[] mRects = new int[4 * MAX_OBJECTS];
+
+    public HogDetector() {
+        mDescriptor = new HOGDescriptor();
+        mDescriptor.setSVMDetector(HOGDescriptor.getDefaultPeopleDetector());
+    }
+
+    @NonNull
+    @Override
+    public String getName() {
+        return "hog";
+    }
+
+    @NonNull
+    @Override
+    public Size getWindowSize() {
+        return mDescriptor.get_winSize();
+    }
+
+    @Override
+    public double getScaleFactor() {
+        return SCALE_FACTOR;
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+
+    @Override
+    public void detect(@NonNull Mat gray, @NonNull MatOfRect objects, @NonNull Size minSize, @NonNull Size maxSize) {
+        mDescriptor.detectMultiScale(gray, objects, mWeights, HIT_THRESHOLD, WIN_STRIDE, PADDING,
+                SCALE_FACTOR, FINAL_THRESHOLD, false);
+        if ((minSize.width <= 0) && (maxSize.width <= 0)) {
+            return;
+        }
+
+        // Retire les détections hors des tailles demandées, en lisant directement les rectangles
+        int count = objects.toArray(mRects);
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            int width = mRects[4 * i + 2];
+            if ((width >= minSize.width) && ((maxSize.width <= 0) || (width <= maxSize.width))) {
+                System.arraycopy(mRects, 4 * i, mRects, 4 * kept, 4);
+                kept++;
+            }
+        }
+        objects.fromArray(mRects, kept);
+    }
+}
@@ -0,0 +1,195 @@
+package fr.telecomlille.mydrone.recognition;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import org.opencv.core.Mat;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Réserve de {@link Mat} réutilisables, classées par taille et par type.
+ * <p>
+ * La mémoire native d'une Mat n'est libérée que par {@link Mat#release()} ou par son finaliseur :
+ * créer une Mat par image fait croître la mémoire native par à-coups, jusqu'au passage
+ * du ramasse-miettes. Les Mat empruntées avec {@link #acquire(int, int, int)} doivent être rendues
+ * avec {@link #release(Mat)} ; elles sont alors conservées pour un emprunt ultérieur de même
+ * taille et de même type, dans la limite d'un nombre maximal par taille.
+ * </p><p>
+ * En mode debug, la pile d'appels de chaque emprunt est conservée, afin de signaler
+ * les Mat qui n'ont pas été rendues avec {@link #reportLeaks()}.
+ * </p><p>
+ * Cette classe est thread-safe : une Mat peut être rendue depuis un autre Thread que celui
+ * qui l'a empruntée. Elle n'alloue aucun objet lorsqu'une Mat disponible est réutilisée,
+ * hors mode debug.
+ * </p>
+ */
+public class MatPool {
+
+    private static final String TAG = "MatPool";
+
+    private final int mMaxPerKey;
+    private final boolean mDebug;
+    private final List<Bucket> mBuckets = new ArrayList<>();
+    private final Map<Mat, Throwable> mOutstanding = new IdentityHashMap<>();
+    private int mOutstandingCount;
+    private boolean mClosed;
+
+    private long mHitCount;
+    private long mMissCount;
+
+    /**
+     * @param maxPerKey nombre maximal de Mat conservées pour chaque taille et type
+     * @param debug     true pour conserver l'origine de chaque emprunt et signaler les Mat non rendues
+     */
+    public MatPool(@IntRange(from = 1) int maxPerKey, boolean debug) {
+        mMaxPerKey = maxPerKey;
+        mDebug = debug;
+    }
+
+    /**
+     * Emprunte une Mat de la taille et du type donnés. Son contenu est indéterminé.
+     *
+     * @param rows nombre de lignes
+     * @param cols nombre de colonnes
+     * @param type type des éléments, par exemple {@link org.opencv.core.CvType#CV_8UC1}
+     * @return une Mat à rendre avec {@link #release(Mat)}
+     */
+    @NonNull
+    public synchronized Mat acquire(int rows, int cols, int type) {
+        Bucket bucket = findBucket(rows, cols, type);
+        Mat mat;
+        if ((bucket != null) && (bucket.count > 0)) {
+            mat = bucket.mats[--bucket.count];
+            bucket.mats[bucket.count] = null;
+            mHitCount++;
+        } else {
+            mat = new Mat(rows, cols, type);
+            mMissCount++;
+        }
+
+        mOutstandingCount++;
+        if (mDebug) {
+            mOutstanding.put(mat, new Throwable("Mat " + cols + "x" + rows + " acquired here"));
+        }
+        return mat;
+    }
+
+    /**
+     * Rend une Mat empruntée. Elle ne doit plus être utilisée ensuite.
+     *
+     * @param mat Mat obtenue par {@link #acquire(int, int, int)}
+     */
+    public synchronized void release(@NonNull Mat mat) {
+        if (mDebug && (mOutstanding.remove(mat) == null)) {
+            Log.w(TAG, "Released a Mat that was not acquired from this pool", new Throwable());
+            return;
+        }
+        mOutstandingCount--;
+
+        Bucket bucket = mClosed ? null : findBucket(mat.rows(), mat.cols(), mat.type());
+        if ((bucket == null) && !mClosed && (mat.rows() > 0)) {
+            bucket = new Bucket(mat.rows(), mat.cols(), mat.type(), mMaxPerKey);
+            mBuckets.add(bucket);
+        }
+        if ((bucket != null) && (bucket.count < bucket.mats.length)) {
+            bucket.mats[bucket.count++] = mat;
+        } else {
+            mat.release();
+        }
+    }
+
+    /**
+     * Libère toutes les Mat disponibles. Le pool reste utilisable.
+     */
+    public synchronized void clear() {
+        for (Bucket bucket : mBuckets) {
+            for (int i = 0; i < bucket.count; i++) {
+                bucket.mats[i].release();
+                bucket.mats[i] = null;
+            }
+            bucket.count = 0;
+        }
+        mBuckets.clear();
+    }
+
+    /**
+     * Libère toutes les Mat disponibles. Les Mat rendues ensuite sont libérées immédiatement.
+     */
+    public synchronized void close() {
+        mClosed = true;
+        clear();
+    }
+
+    /**
+     * Signale dans les journaux les Mat empruntées qui n'ont pas encore été rendues,
+     * avec l'origine de leur emprunt en mode debug.
+     *
+     * @return nombre de Mat non rendues
+     */
+    public synchronized int reportLeaks() {
+        if (mOutstandingCount > 0) {
+            Log.w(TAG, mOutstandingCount + " Mat(s) not returned to the pool yet");
+            for (Throwable origin : mOutstanding.values()) {
+                Log.w(TAG, "Mat not returned", origin);
+            }
+        }
+        return mOutstandingCount;
+    }
+
+    private Bucket findBucket(int rows, int cols, int type) {
+        for (int i = 0, size = mBuckets.size(); i < size; i++) {
+            Bucket bucket = mBuckets.get(i);
+            if ((bucket.rows == rows) && (bucket.cols == cols) && (bucket.type == type)) {
+                return bucket;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return nombre de Mat empruntées et non rendues
+     */
+    public synchronized int getOutstandingCount() {
+        return mOutstandingCount;
+    }
+
+    /**
+     * @return nombre d'emprunts satisfaits par une Mat disponible
+     */
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * @return nombre d'emprunts ayant nécessité la création d'une Mat
+     */
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "hits=" + mHitCount + " misses=" + mMissCount + " outstanding=" + mOutstandingCount;
+    }
+
+    /**
+     * Mat disponibles d'une même taille et d'un même type.
+     */
+    private static final class Bucket {
+        final int rows, cols, type;
+        final Mat[] mats;
+        int count;
+
+        Bucket(int rows, int cols, int type, int capacity) {
+            this.rows = rows;
+            this.cols = cols;
+            this.type = type;
+            mats = new Mat[capacity];
+        }
+    }
+}
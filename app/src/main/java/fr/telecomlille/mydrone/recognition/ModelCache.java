@@ -0,0 +1,360 @@
+package fr.telecomlille.mydrone.recognition;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.RawRes;
+import android.support.annotation.WorkerThread;
+import android.util.Log;
+import android.util.SparseArray;
+
+import org.opencv.objdetect.CascadeClassifier;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Cache des modèles de classification, partagé par toutes les Activity de l'application.
+ * <p>
+ * Un {@link CascadeClassifier} ne peut être chargé qu'à partir d'un fichier : le modèle contenu dans
+ * une ressource brute est donc copié dans le stockage privé de l'application. Le nom de la copie
+ * contient le nom de la ressource et l'empreinte SHA-1 de son contenu ; si une copie de même
+ * empreinte et de même taille existe déjà, elle est réutilisée sans être réécrite. Une mise à jour
+ * du modèle dans l'application produit une nouvelle empreinte, et l'ancienne copie est supprimée.
+ * </p><p>
+ * L'empreinte n'est calculée qu'une fois par installation de l'application : elle est enregistrée
+ * à côté de la copie avec la date de cette installation. Tant que l'application n'est pas mise à
+ * jour, un démarrage à froid réutilise la copie sans relire la ressource.
+ * </p><p>
+ * Chaque modèle n'est analysé qu'une fois par processus : le classifieur obtenu est conservé et
+ * renvoyé à toutes les demandes suivantes. Les chargements sont effectués sur un Thread dédié,
+ * afin de ne pas retarder l'affichage ni la connexion au drône.
+ * </p><p>
+ * Un {@link CascadeClassifier} n'est pas thread-safe, et la détection d'une Activity détruite peut
+ * encore être en cours lorsque la suivante démarre la sienne : les détections sur un classifieur
+ * partagé doivent donc être sérialisées en se synchronisant sur celui-ci, comme le fait
+ * {@link CascadeDetector}.
+ * </p>
+ */
+public final class ModelCache {
+
+    private static final String TAG = "ModelCache";
+    private static final String CACHE_DIR = "cascade";
+    /**
+     * Extension du fichier enregistré à côté de chaque copie, contenant la date d'installation de
+     * l'application, l'empreinte et la taille du modèle.
+     */
+    private static final String INFO_EXTENSION = ".info";
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private static ModelCache sInstance;
+
+    private final Context mContext;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mExecutor;
+    private final SparseArray<CascadeClassifier> mClassifiers = new SparseArray<>();
+
+    /**
+     * @param context contexte quelconque : seul le contexte de l'application est conservé
+     * @return l'instance unique du cache
+     */
+    public static synchronized ModelCache getInstance(@NonNull Context context) {
+        if (sInstance == null) {
+            sInstance = new ModelCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private ModelCache(Context context) {
+        mContext = context;
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable) {
+                return new Thread(runnable, "ModelCache");
+            }
+        });
+    }
+
+    /**
+     * Charge des cascades en arrière-plan. OpenCV doit avoir été chargé au préalable.
+     *
+     * @param resIds   identifiants des ressources brutes contenant les cascades
+     * @param callback objet recevant les classifieurs, sur le Thread principal
+     */
+    public void loadCascades(@NonNull final int[] resIds, @NonNull final Callback callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final CascadeClassifier[] classifiers = new CascadeClassifier[resIds.length];
+                for (int i = 0; i < resIds.length; i++) {
+                    classifiers[i] = getCascade(resIds[i]);
+                }
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onCascadesLoaded(classifiers);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Renvoie le classifieur d'une cascade, en le chargeant s'il ne l'a pas encore été.
+     * Cette méthode peut bloquer pendant plusieurs centaines de millisecondes.
+     *
+     * @param resId identifiant de la ressource brute contenant la cascade
+     * @return le classifieur partagé, ou null si la cascade n'a pas pu être chargée
+     */
+    @WorkerThread
+    @Nullable
+    public synchronized CascadeClassifier getCascade(@RawRes int resId) {
+        CascadeClassifier classifier = mClassifiers.get(resId);
+        if (classifier != null) {
+            return classifier;
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        try {
+            File file = getModelFile(resId);
+            classifier = new CascadeClassifier(file.getAbsolutePath());
+            if (classifier.empty()) {
+                Log.e(TAG, "Error while loading classifier file " + file);
+                return null;
+            }
+            mClassifiers.put(resId, classifier);
+            Log.d(TAG, "Loaded cascade classifier from " + file + " in "
+                    + (SystemClock.elapsedRealtime() - start) + " ms");
+            return classifier;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to load cascade.", e);
+            return null;
+        }
+    }
+
+    /**
+     * Renvoie la copie du modèle contenu dans une ressource, en ne l'écrivant que si elle
+     * n'existe pas déjà. La ressource n'est relue qu'après une mise à jour de l'application.
+     */
+    private File getModelFile(int resId) throws IOException {
+        String name = mContext.getResources().getResourceEntryName(resId);
+        File dir = mContext.getDir(CACHE_DIR, Context.MODE_PRIVATE);
+        File infoFile = new File(dir, name + INFO_EXTENSION);
+        long lastUpdateTime = getLastUpdateTime();
+
+        ModelInfo info = ModelInfo.read(infoFile);
+        if ((info != null) && (info.lastUpdateTime == lastUpdateTime)) {
+            File file = info.getFile(dir, name);
+            if (file.isFile() && (file.length() == info.length)) {
+                return file;
+            }
+        }
+
+        // Lecture de la ressource, sans écriture, pour calculer son empreinte
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long length = 0;
+        InputStream is = mContext.getResources().openRawResource(resId);
+        try {
+            int bytesRead;
+            while ((bytesRead = is.read(buffer)) != -1) {
+                digest.update(buffer, 0, bytesRead);
+                length += bytesRead;
+            }
+        } finally {
+            is.close();
+        }
+
+        info = new ModelInfo(lastUpdateTime, toHex(digest.digest()), length);
+        File file = info.getFile(dir, name);
+        if (!file.isFile() || (file.length() != length)) {
+            copyResource(resId, dir, file, buffer);
+            deleteStaleCopies(dir, name, file);
+        }
+        info.write(infoFile);
+        return file;
+    }
+
+    /**
+     * Écrit dans un fichier temporaire, renommé une fois complet : une copie interrompue
+     * ne peut pas être prise pour une copie valide.
+     */
+    private void copyResource(int resId, File dir, File file, byte[] buffer) throws IOException {
+        File tmp = new File(dir, file.getName() + ".tmp");
+        InputStream is = mContext.getResources().openRawResource(resId);
+        OutputStream os = new FileOutputStream(tmp);
+        try {
+            int bytesRead;
+            while ((bytesRead = is.read(buffer)) != -1) {
+                os.write(buffer, 0, bytesRead);
+            }
+        } finally {
+            is.close();
+            os.close();
+        }
+        renameOrThrow(tmp, file);
+        Log.d(TAG, "Copied model to " + file);
+    }
+
+    /**
+     * @return date de la dernière installation ou mise à jour de l'application, qui change
+     * avec ses ressources
+     */
+    private long getLastUpdateTime() {
+        try {
+            return mContext.getPackageManager().getPackageInfo(mContext.getPackageName(), 0).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            // L'application est forcément installée
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Supprime les copies précédentes d'un même modèle, d'empreintes différentes,
+     * ainsi que la copie sans empreinte écrite par les versions précédentes de l'application.
+     */
+    private static void deleteStaleCopies(File dir, String name, File current) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            boolean isCopy = file.getName().startsWith(name + "-") || file.getName().equals(name + ".xml");
+            if (isCopy && !file.equals(current) && !file.delete()) {
+                Log.w(TAG, "Failed to delete stale model " + file);
+            }
+        }
+    }
+
+    private static void renameOrThrow(File from, File to) throws IOException {
+        if (!from.renameTo(to)) {
+            throw new IOException("Failed to rename " + from + " to " + to);
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-1 est disponible sur toutes les versions d'Android
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(2 * bytes.length);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16))
+                    .append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Informations enregistrées à côté de la copie d'un modèle, sur une seule ligne :
+     * date d'installation de l'application, empreinte et taille du modèle.
+     */
+    static final class ModelInfo {
+        final long lastUpdateTime;
+        final String hash;
+        final long length;
+
+        ModelInfo(long lastUpdateTime, @NonNull String hash, long length) {
+            this.lastUpdateTime = lastUpdateTime;
+            this.hash = hash;
+            this.length = length;
+        }
+
+        /**
+         * @return la copie du modèle décrite par ces informations
+         */
+        File getFile(File dir, String name) {
+            return new File(dir, name + "-" + hash + ".xml");
+        }
+
+        /**
+         * @param line ligne écrite par {@link #toString()}
+         * @return les informations lues, ou null si la ligne est invalide
+         */
+        @Nullable
+        static ModelInfo parse(@Nullable String line) {
+            if (line == null) {
+                return null;
+            }
+            String[] fields = line.trim().split(" ");
+            if (fields.length != 3) {
+                return null;
+            }
+            try {
+                return new ModelInfo(Long.parseLong(fields[0]), fields[1], Long.parseLong(fields[2]));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        @Nullable
+        static ModelInfo read(File file) {
+            if (!file.isFile()) {
+                return null;
+            }
+            try {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "US-ASCII"));
+                try {
+                    return parse(reader.readLine());
+                } finally {
+                    reader.close();
+                }
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        void write(File file) throws IOException {
+            File tmp = new File(file.getPath() + ".tmp");
+            Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), "US-ASCII");
+            try {
+                writer.write(toString());
+                writer.write('\n');
+            } finally {
+                writer.close();
+            }
+            renameOrThrow(tmp, file);
+        }
+
+        @Override
+        public String toString() {
+            return lastUpdateTime + " " + hash + " " + length;
+        }
+    }
+
+    /**
+     * Objet recevant les classifieurs chargés en arrière-plan.
+     */
+    public interface Callback {
+
+        /**
+         * Appelé sur le Thread principal lorsque les cascades demandées ont été chargées.
+         *
+         * @param classifiers classifieurs, dans l'ordre des ressources demandées.
+         *                    Un classifieur est null si sa cascade n'a pas pu être chargée.
+         */
+        void onCascadesLoaded(@NonNull CascadeClassifier[] classifiers);
+    }
+}
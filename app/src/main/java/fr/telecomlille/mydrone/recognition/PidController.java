@@ -0,0 +1,119 @@
+package fr.telecomlille.mydrone.recognition;
+
+/**
+ * Régulateur PID sur un axe, tenant compte du temps écoulé entre deux mises à jour.
+ * <p>
+ * La sortie est bornée, et sa variation est limitée à une vitesse maximale afin d'éviter les
+ * à-coups de commande. Le terme intégral n'est accumulé que si la sortie n'est pas saturée,
+ * ou si l'erreur tend à la désaturer (anti-windup par intégration conditionnelle).
+ * Le terme dérivé est calculé sur l'erreur, et ignoré après une interruption trop longue
+ * des mises à jour.
+ * </p><p>
+ * Cette classe n'est pas thread-safe.
+ * </p>
+ */
+public class PidController {
+
+    private final float mKp;
+    private final float mKi;
+    private final float mKd;
+    private final float mOutputLimit;
+    private final float mMaxRate;
+    private final float mMaxDt;
+
+    private float mIntegral;
+    private float mPreviousError;
+    private float mOutput;
+    private boolean mHasPrevious;
+
+    /**
+     * @param kp          gain proportionnel
+     * @param ki          gain intégral, par seconde
+     * @param kd          gain dérivé, en secondes
+     * @param outputLimit valeur absolue maximale de la sortie
+     * @param maxRate     variation maximale de la sortie par seconde
+     * @param maxDt       intervalle maximal entre deux mises à jour, en secondes, au-delà duquel
+     *                    le terme dérivé n'est pas calculé et l'intégration est limitée à cette durée
+     */
+    public PidController(float kp, float ki, float kd, float outputLimit, float maxRate, float maxDt) {
+        mKp = kp;
+        mKi = ki;
+        mKd = kd;
+        mOutputLimit = outputLimit;
+        mMaxRate = maxRate;
+        mMaxDt = maxDt;
+    }
+
+    /**
+     * Calcule la nouvelle sortie du régulateur.
+     *
+     * @param error erreur entre la consigne et la mesure
+     * @param dt    temps écoulé depuis la mise à jour précédente, en secondes.
+     *              Lors de la première mise à jour, ce temps n'est pas connu : l'erreur est
+     *              seulement mémorisée et la sortie reste inchangée.
+     * @return la nouvelle sortie
+     */
+    public float update(float error, float dt) {
+        if (!mHasPrevious) {
+            mHasPrevious = true;
+            mPreviousError = error;
+            return mOutput;
+        }
+        if (dt <= 0) {
+            return mOutput;
+        }
+
+        float derivative = 0;
+        if (dt <= mMaxDt) {
+            derivative = (error - mPreviousError) / dt;
+        } else {
+            dt = mMaxDt;
+        }
+        mPreviousError = error;
+
+        float integral = mIntegral + error * dt;
+        float unclamped = mKp * error + mKi * integral + mKd * derivative;
+        float output = clamp(unclamped);
+        // Anti-windup : l'intégrale n'est accumulée que si elle ne pousse pas plus loin dans la saturation
+        if ((output == unclamped) || (Math.signum(error) != Math.signum(unclamped))) {
+            mIntegral = integral;
+        } else {
+            output = clamp(mKp * error + mKi * mIntegral + mKd * derivative);
+        }
+
+        mOutput = limitRate(output, mMaxRate * dt);
+        return mOutput;
+    }
+
+    /**
+     * Remet le régulateur à zéro, par exemple lorsque la cible est perdue.
+     */
+    public void reset() {
+        mIntegral = 0;
+        mPreviousError = 0;
+        mOutput = 0;
+        mHasPrevious = false;
+    }
+
+    private float limitRate(float output, float maxDelta) {
+        return Math.max(mOutput - maxDelta, Math.min(mOutput + maxDelta, output));
+    }
+
+    private float clamp(float value) {
+        return Math.max(-mOutputLimit, Math.min(mOutputLimit, value));
+    }
+
+    /**
+     * @return la dernière sortie calculée
+     */
+    public float getOutput() {
+        return mOutput;
+    }
+
+    /**
+     * @return la valeur actuelle de l'intégrale de l'erreur
+     */
+    public float getIntegral() {
+        return mIntegral;
+    }
+}
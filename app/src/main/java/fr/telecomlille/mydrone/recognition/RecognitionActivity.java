@@ -1,10 +1,8 @@
 package fr.telecomlille.mydrone.recognition;
 
 import android.app.ProgressDialog;
-import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.os.Bundle;
+import android.support.annotation.NonNull;
 import android.support.v7.app.AppCompatActivity;
 import android.util.Log;
 import android.view.View;
@@ -16,44 +14,112 @@ import android.widget.ToggleButton;
 import com.parrot.arsdk.arcommands.ARCOMMANDS_ARDRONE3_MEDIARECORDEVENT_PICTUREEVENTCHANGED_ERROR_ENUM;
 import com.parrot.arsdk.arcommands.ARCOMMANDS_ARDRONE3_PILOTINGSTATE_FLYINGSTATECHANGED_STATE_ENUM;
 import com.parrot.arsdk.arcontroller.ARCONTROLLER_DEVICE_STATE_ENUM;
+import com.parrot.arsdk.arcontroller.ARCONTROLLER_STREAM_CODEC_TYPE_ENUM;
 import com.parrot.arsdk.arcontroller.ARControllerCodec;
 import com.parrot.arsdk.arcontroller.ARFrame;
 import com.parrot.arsdk.ardiscovery.ARDiscoveryDeviceService;
 
 import org.opencv.android.BaseLoaderCallback;
 import org.opencv.android.OpenCVLoader;
-import org.opencv.android.Utils;
-import org.opencv.core.Mat;
-import org.opencv.core.MatOfRect;
-import org.opencv.core.Rect;
+import org.opencv.core.MatAccounting;
 import org.opencv.objdetect.CascadeClassifier;
 
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-
+import fr.telecomlille.mydrone.BuildConfig;
 import fr.telecomlille.mydrone.MainActivity;
 import fr.telecomlille.mydrone.R;
 import fr.telecomlille.mydrone.drone.BebopDrone;
+import fr.telecomlille.mydrone.drone.DroneTelemetry;
+import fr.telecomlille.mydrone.drone.FrameHub;
+import fr.telecomlille.mydrone.video.VideoFrame;
 import fr.telecomlille.mydrone.view.BebopVideoView;
 
 public class RecognitionActivity extends AppCompatActivity implements BebopDrone.Listener {
 
     private static final String TAG = "RecognitionActivity";
+    private static final int DISPLAY_QUEUE_CAPACITY = 4;
+    private static final int VISION_QUEUE_CAPACITY = 4;
+    private static final int FRAME_CAPACITY = 128 * 1024;
+    /**
+     * Résolution et fréquence des images analysées par la reconnaissance de visage.
+     */
+    private static final int VISION_WIDTH = 320;
+    private static final int VISION_MAX_FPS = 30;
+    private static final int VISION_FRAME_COUNT = 3;
+    /**
+     * Paramètres du suivi de visage : une détection complète au moins toutes les 6 images,
+     * ou dès que la confiance du suivi passe sous 50 %.
+     */
+    private static final int DETECTION_INTERVAL = 6;
+    private static final float MIN_TRACK_CONFIDENCE = 0.5f;
+    private static final float TRACK_SEARCH_MARGIN = 0.5f;
+    /**
+     * Paramètres des détections : tailles comprises entre 70 % et 130 % de la taille précédente,
+     * dans une zone d'une demi-taille de visage autour de sa position attendue,
+     * et une recherche sur toute l'image au moins toutes les 5 détections.
+     */
+    private static final double DETECTION_SCALE_FACTOR = 1.1;
+    private static final int DETECTION_MIN_NEIGHBORS = 3;
+    /**
+     * Durée maximale souhaitée d'une détection. Lorsque la cascade de Haar la dépasse,
+     * la cascade LBP, plus rapide, est utilisée si elle est disponible.
+     * Le détecteur écarté est de nouveau mesuré toutes les 50 détections.
+     */
+    private static final long DETECTION_BUDGET_NS = 30000000L;
+    private static final int DETECTION_PROBE_INTERVAL = 50;
+    /**
+     * Nom de la ressource brute optionnelle contenant la cascade LBP de visages.
+     */
+    private static final String LBP_CASCADE_RESOURCE = "lbpcascade_frontalface";
+    /**
+     * Suivre la silhouette entière d'une personne (HOG) plutôt que son visage.
+     */
+    private static final boolean FOLLOW_WHOLE_PERSON = false;
+    private static final float DETECTION_SIZE_TOLERANCE = 0.3f;
+    private static final float DETECTION_SEARCH_MARGIN = 0.5f;
+    private static final int FULL_SEARCH_INTERVAL = 5;
+    /**
+     * Paramètres de l'estimation de la position de la cible, en coordonnées normalisées.
+     * Une cible non mesurée pendant plus de 500 ms est abandonnée.
+     */
+    private static final float TARGET_PROCESS_NOISE = 0.5f;
+    private static final float TARGET_MEASUREMENT_NOISE = 0.02f;
+    private static final float TARGET_GATE = 9.21f;
+    private static final long TARGET_MAX_COAST_NS = 500000000L;
+    /**
+     * Délai entre le calcul d'une commande et son envoi au drône, couvert par extrapolation
+     * de la position de la cible : une période de la boucle de pilotage.
+     */
+    private static final long CONTROL_LOOKAHEAD_NS = 40000000L;
+    /**
+     * Taille apparente du visage à maintenir, en proportion de la largeur de l'image.
+     */
+    private static final float FOLLOW_FACE_SIZE = 0.2f;
+    /**
+     * Interruption des résultats au-delà de laquelle l'asservissement repart de zéro.
+     */
+    private static final long SERVO_RESET_GAP_NS = 500000000L;
+    /**
+     * Âge maximal d'une détection pour qu'elle soit utilisée pour piloter le drône.
+     */
+    private static final long MAX_DETECTION_AGE_NS = 500000000L;
+    /**
+     * Intervalle entre deux rapports de la mémoire native des Mat pendant le suivi, en debug.
+     */
+    private static final long MAT_ACCOUNTING_LOG_INTERVAL_NS = 60000000000L;
 
     private BebopVideoView mVideoView;
-    private int mScreenWidth, mScreenHeight;
     private BebopDrone mDrone;
     private ProgressDialog mConnectionDialog;
     private ImageButton mTakeoffLandButton;
-    private CascadeClassifier mClassifier;
     private final BaseLoaderCallback mLoaderCallback = new BaseLoaderCallback(this) {
         @Override
         public void onManagerConnected(int status) {
             switch (status) {
                 case BaseLoaderCallback.SUCCESS:
-                    loadCascade();
+                    loadDetector();
+                    // Les images de vision sont des Mat : OpenCV doit être chargé
+                    mFrameHub.subscribe("vision", VISION_QUEUE_CAPACITY,
+                            FrameHub.DropPolicy.DROP_UNTIL_KEYFRAME, mVisionSource);
                     break;
                 default:
                     super.onManagerConnected(status);
@@ -61,7 +127,43 @@ public class RecognitionActivity extends AppCompatActivity implements BebopDrone
             }
         }
     };
-    private boolean mIsEnabled = false;
+    /**
+     * Protège l'activation du suivi et l'envoi des commandes du suivi : une commande calculée
+     * avant la désactivation ne peut pas être envoyée après la commande d'arrêt.
+     */
+    private final Object mFollowLock = new Object();
+    private volatile boolean mIsEnabled = false;
+    private final FrameHub mFrameHub = new FrameHub(FRAME_CAPACITY);
+    private volatile FaceDetectionWorker mDetectionWorker;
+    // Utilisés uniquement depuis le Thread de détection
+    private final VisualServoController mServo = VisualServoController.createDefault(FOLLOW_FACE_SIZE);
+    private int mServoTrackId;
+    private long mLastServoUpdateNanos;
+    private long mLastAccountingLogNanos;
+    private final DroneTelemetry.Snapshot mTelemetry = new DroneTelemetry.Snapshot();
+    private final FaceDetectionWorker.Listener mDetectionListener = new FaceDetectionWorker.Listener() {
+        @Override
+        public void onFacesDetected(@NonNull FaceDetectionWorker.Result result) {
+            onFacesDetected(result);
+        }
+    };
+    /**
+     * Une image en cours de détection, une en attente, et une en cours de conversion.
+     * En debug, les Mat non rendues au pool sont signalées à la fermeture de l'Activity.
+     */
+    private final MatPool mMatPool = new MatPool(VISION_FRAME_COUNT, BuildConfig.DEBUG);
+    private final VisionFrameSource mVisionSource = new VisionFrameSource(VISION_WIDTH, VISION_MAX_FPS,
+            VISION_FRAME_COUNT, mMatPool, new VisionFrameSource.Listener() {
+                @Override
+                public void onVisionFrame(@NonNull VisionFrame frame) {
+                    FaceDetectionWorker worker = mDetectionWorker;
+                    if (mIsEnabled && (worker != null)) {
+                        worker.submit(frame);
+                    } else {
+                        frame.release();
+                    }
+                }
+            });
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -69,9 +171,6 @@ public class RecognitionActivity extends AppCompatActivity implements BebopDrone
         setContentView(R.layout.activity_recognition);
         initIHM();
 
-        mScreenHeight = mVideoView.getHeight();
-        mScreenWidth = mVideoView.getWidth();
-
         ARDiscoveryDeviceService deviceService = getIntent()
                 .getParcelableExtra(MainActivity.EXTRA_DEVICE_SERVICE);
 
@@ -83,6 +182,25 @@ public class RecognitionActivity extends AppCompatActivity implements BebopDrone
         mDrone = new BebopDrone(this, deviceService);
         mDrone.addListener(this);
 
+        if (BuildConfig.DEBUG) {
+            // Suivi de la mémoire native des Mat, rapportée périodiquement pendant le suivi
+            MatAccounting.enable(true);
+            mLastAccountingLogNanos = System.nanoTime();
+        }
+
+        // L'affichage et la reconnaissance de visage reçoivent les frames sur leurs propres Threads.
+        // La reconnaissance de visage s'abonne une fois OpenCV chargé.
+        // Le décodeur retient les frames affichées dans sa propre file : elles comptent dans le budget
+        // de l'affichage, qui ne peut donc pas priver la vision de frames
+        mFrameHub.subscribe("display", DISPLAY_QUEUE_CAPACITY,
+                mVideoView.getDecoderPipeline().getMaxRetainedFrames(),
+                FrameHub.DropPolicy.DROP_UNTIL_KEYFRAME, new FrameHub.Consumer() {
+                    @Override
+                    public void onFrame(@NonNull VideoFrame frame) {
+                        mVideoView.displayFrame(frame);
+                    }
+                });
+
         // Démarre le chargement d'OpenCV
         if (!OpenCVLoader.initAsync(OpenCVLoader.OPENCV_VERSION_3_1_0, this, mLoaderCallback)) {
             Log.e(TAG, "onCreate: failed to initialize OpenCV");
@@ -90,33 +208,60 @@ public class RecognitionActivity extends AppCompatActivity implements BebopDrone
     }
 
     /**
-     * Copie le fichiers XML contenant les instructions de reconnaissance de visage
-     * dans les fichiers temporaires, puis le charge avec le CascadeClassifier.
+     * Démarre le chargement du détecteur, en arrière-plan pendant la connexion au drône.
+     * Les cascades sont partagées par toutes les Activity via le {@link ModelCache}.
      */
-    private void loadCascade() {
-        try {
-            InputStream is = getResources().openRawResource(R.raw.haarcascade_frontalface_default);
-            File cascadeDir = getDir("cascade", Context.MODE_PRIVATE);
-            File mCascadeFile = new File(cascadeDir, "haarcascade_frontalface_default.xml");
-            FileOutputStream os = new FileOutputStream(mCascadeFile);
-
-            byte[] buffer = new byte[4096];
-            int bytesRead;
-            while ((bytesRead = is.read(buffer)) != -1) {
-                os.write(buffer, 0, bytesRead);
-            }
-            is.close();
-            os.close();
-
-            mClassifier = new CascadeClassifier(mCascadeFile.getAbsolutePath());
-            if (mClassifier.empty()) {
-                Log.e(TAG, "Error while loading classifier file.");
-            } else {
-                Log.d(TAG, "Loaded cascade classifier from " + mCascadeFile.getAbsolutePath());
+    private void loadDetector() {
+        if (FOLLOW_WHOLE_PERSON) {
+            startDetection(new HogDetector());
+            return;
+        }
+
+        int lbpId = getResources().getIdentifier(LBP_CASCADE_RESOURCE, "raw", getPackageName());
+        int[] resIds = (lbpId != 0)
+                ? new int[]{R.raw.haarcascade_frontalface_default, lbpId}
+                : new int[]{R.raw.haarcascade_frontalface_default};
+        ModelCache.getInstance(this).loadCascades(resIds, new ModelCache.Callback() {
+            @Override
+            public void onCascadesLoaded(@NonNull CascadeClassifier[] classifiers) {
+                Detector detector = createDetector(classifiers);
+                if ((detector != null) && !isDestroyed()) {
+                    startDetection(detector);
+                }
             }
-        } catch (IOException e) {
-            Log.e("MyActivity", "Failed to load cascade.", e);
+        });
+    }
+
+    /**
+     * Crée le détecteur de visages utilisé pour les détections complètes.
+     * <p>
+     * La cascade de Haar est utilisée tant qu'elle respecte le budget de temps,
+     * et la cascade LBP sinon, si sa ressource est présente dans l'application.
+     * </p>
+     *
+     * @param classifiers cascades de Haar puis, éventuellement, LBP
+     * @return le détecteur, ou null si la cascade de Haar n'a pas pu être chargée
+     */
+    private Detector createDetector(CascadeClassifier[] classifiers) {
+        if (classifiers[0] == null) {
+            return null;
         }
+        Detector haar = new CascadeDetector("haar", classifiers[0], DETECTION_SCALE_FACTOR, DETECTION_MIN_NEIGHBORS);
+        if ((classifiers.length < 2) || (classifiers[1] == null)) {
+            return haar;
+        }
+        Detector lbp = new CascadeDetector("lbp", classifiers[1], DETECTION_SCALE_FACTOR, DETECTION_MIN_NEIGHBORS);
+        return new AdaptiveDetector(DETECTION_BUDGET_NS, DETECTION_PROBE_INTERVAL, haar, lbp);
+    }
+
+    private void startDetection(Detector detector) {
+        CascadeSearchPlanner planner = new CascadeSearchPlanner(
+                DETECTION_SIZE_TOLERANCE, DETECTION_SEARCH_MARGIN, FULL_SEARCH_INTERVAL);
+        TargetEstimator estimator = new TargetEstimator(TARGET_PROCESS_NOISE,
+                TARGET_MEASUREMENT_NOISE, TARGET_GATE, TARGET_MAX_COAST_NS);
+        FaceTracker tracker = new FaceTracker(detector, planner, estimator,
+                DETECTION_INTERVAL, MIN_TRACK_CONFIDENCE, TRACK_SEARCH_MARGIN);
+        mDetectionWorker = new FaceDetectionWorker(tracker, mDetectionListener);
     }
 
     private void initIHM() {
@@ -192,6 +337,32 @@ public class RecognitionActivity extends AppCompatActivity implements BebopDrone
 
     @Override
     protected void onDestroy() {
+        // Les Threads qui utilisent les images sont arrêtés avant que celles-ci ne soient libérées
+        mFrameHub.close();
+        FaceDetectionWorker worker = mDetectionWorker;
+        if (worker != null) {
+            worker.close();
+            FaceTracker tracker = worker.getTracker();
+            Log.d(TAG, "Face detection: processed=" + worker.getProcessedCount()
+                    + " detections=" + tracker.getDetectionCount()
+                    + " tracked=" + tracker.getTrackCount()
+                    + " lost=" + tracker.getLostCount()
+                    + " search=[" + tracker.getPlanner() + "]"
+                    + " detector=[" + tracker.getDetector() + "]"
+                    + " skipped=" + worker.getSkippedCount()
+                    + " convert=[" + worker.getConvertTiming()
+                    + "] detect=[" + worker.getDetectTiming()
+                    + "] track=[" + worker.getTrackTiming()
+                    + "] control=[" + worker.getControlTiming() + "]");
+        }
+        mVisionSource.release();
+        mMatPool.close();
+        mMatPool.reportLeaks();
+        Log.d(TAG, "Vision Mats: " + mMatPool);
+        if (MatAccounting.isEnabled()) {
+            Log.d(TAG, "Native Mat memory: " + MatAccounting.dump());
+            MatAccounting.disable();
+        }
         mDrone.dispose();
         super.onDestroy();
     }
@@ -236,12 +407,15 @@ public class RecognitionActivity extends AppCompatActivity implements BebopDrone
     @Override
     public void configureDecoder(ARControllerCodec codec) {
         mVideoView.configureDecoder(codec);
+        if (codec.getType() == ARCONTROLLER_STREAM_CODEC_TYPE_ENUM.ARCONTROLLER_STREAM_CODEC_TYPE_H264) {
+            ARControllerCodec.H264 codecH264 = codec.getAsH264();
+            mVisionSource.configure(codecH264.getSps().getByteData(), codecH264.getPps().getByteData());
+        }
     }
 
     @Override
     public void onFrameReceived(ARFrame frame) {
-        mVideoView.displayFrame(frame);
-        onImageReceived(frame);
+        mFrameHub.publish(frame);
     }
 
     @Override
@@ -266,52 +440,62 @@ public class RecognitionActivity extends AppCompatActivity implements BebopDrone
 
 
     public void enableFollowing(boolean enable) {
-        mIsEnabled = enable;
-        if (!enable) {
-            mDrone.setFlag(BebopDrone.FLAG_DISABLED);
-            mDrone.setRoll(0);
-            mDrone.setPitch(0);
-            mDrone.setYaw(0);
+        synchronized (mFollowLock) {
+            mIsEnabled = enable;
+            if (!enable) {
+                // Dernière commande du suivi : le drône s'arrête
+                mDrone.hover();
+            }
         }
     }
 
-    public void onImageReceived(ARFrame frame) {
-        if (mIsEnabled) {
-            byte[] data = frame.getByteData();
-            Bitmap bmp = BitmapFactory.decodeByteArray(data, 0, data.length);
-            if (bmp == null) {
-                Log.v(TAG, "onImageReceived: cant decode.");
-                return;
-            }
-            Mat image = new Mat();
-            Utils.bitmapToMat(bmp, image);
-
-            MatOfRect faces = new MatOfRect();
-            mClassifier.detectMultiScale(image, faces);
-
-            if (faces.size().width != 0 && faces.size().height != 0) {
-                Log.d(TAG, "onImageReceived: face recognized !");
-                Rect faceConsidered = faces.toArray()[0];
-                //Affichage du rectangle
-                //opencv_imgproc.rectangle(image, faceConsidered, new opencv_core.Scalar(0, 255, 0, 1));
-                int[] faceCenterCoordinates;
-                if (image.size().width != mVideoView.getWidth() || image.size().height != mVideoView.getHeight()) {
-                    faceCenterCoordinates = new int[]{faceConsidered.x + (faceConsidered.width / 2), faceConsidered.y + (faceConsidered.height/ 2)};
-                } else {
-                    faceCenterCoordinates = new int[]{((int) (faceConsidered.x * mVideoView.getWidth() / image.size().width)),
-                            ((int) (faceConsidered.y * mVideoView.getHeight() / image.size().height))};
-                }
-                //image.size().height();
-                mDrone.setFlag(BebopDrone.FLAG_ENABLED);
-                mDrone.setRoll(((10 * (faceCenterCoordinates[0] - mScreenWidth / 2) / Math.abs(faceCenterCoordinates[0] - mScreenWidth / 2))));
-                mDrone.setGaz(((10 * (mScreenHeight / 2 - faceCenterCoordinates[1]) / Math.abs(mScreenHeight / 2 - faceCenterCoordinates[1]))));
+    /**
+     * Oriente le drône vers le visage détecté.
+     * Appelé sur le Thread de détection après l'analyse de chaque image.
+     */
+    private void onFacesDetected(FaceDetectionWorker.Result result) {
+        if (!mIsEnabled) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (MatAccounting.isEnabled() && (now - mLastAccountingLogNanos > MAT_ACCOUNTING_LOG_INTERVAL_NS)) {
+            mLastAccountingLogNanos = now;
+            Log.d(TAG, "Native Mat memory: " + MatAccounting.dump());
+        }
+        // Lu sans verrou depuis le Thread de détection : inutile de passer par le Thread principal
+        if (!mDrone.getTelemetry().snapshot(mTelemetry).isAirborne()) {
+            // Au sol, en décollage ou en atterrissage : les commandes du suivi seraient ignorées
+            return;
+        }
+        if (!result.hasTarget() || (now - result.getFrameTimestampNanos() > MAX_DETECTION_AGE_NS)) {
+            // Cible perdue, ou position trop ancienne pour être fiable : le drône reste sur place
+            sendFollowCommand(0, 0, 0);
+            return;
+        }
 
-                if ((faceCenterCoordinates[0] < mScreenWidth / 2 + 10) && (faceCenterCoordinates[0] > mScreenWidth / 2 - 10)) {
-                    mDrone.setRoll(0);
-                }
-                if ((faceCenterCoordinates[1] < mScreenHeight / 2 + 10) && (faceCenterCoordinates[1] > mScreenHeight / 2 - 10)) {
-                    mDrone.setGaz(0);
-                }
+        // Nouvelle cible, ou reprise après une interruption : les régulateurs repartent de zéro
+        if ((result.getTrackId() != mServoTrackId) || (now - mLastServoUpdateNanos > SERVO_RESET_GAP_NS)) {
+            mServo.reset();
+            mServoTrackId = result.getTrackId();
+        }
+        mLastServoUpdateNanos = now;
+
+        // Position de la cible extrapolée à l'instant où la commande sera envoyée,
+        // pour compenser le temps de traitement de l'image
+        long commandTime = now + CONTROL_LOOKAHEAD_NS;
+        mServo.update(commandTime, result.predictTargetX(commandTime), result.predictTargetY(commandTime),
+                result.getTargetSize());
+
+        sendFollowCommand(mServo.getPitch(), mServo.getYaw(), mServo.getGaz());
+    }
+
+    /**
+     * Envoie une commande du suivi, sauf si le suivi a été désactivé pendant son calcul.
+     */
+    private void sendFollowCommand(int pitch, int yaw, int gaz) {
+        synchronized (mFollowLock) {
+            if (mIsEnabled) {
+                mDrone.setPilotingCommand(BebopDrone.FLAG_ENABLED, 0, pitch, yaw, gaz);
             }
         }
     }
@@ -0,0 +1,266 @@
+package fr.telecomlille.mydrone.recognition;
+
+/**
+ * Estime la position, la taille et la vitesse du visage suivi à partir de mesures bruitées,
+ * au moyen de filtres de Kalman à vitesse constante.
+ * <p>
+ * Les mesures sont exprimées en coordonnées normalisées : abscisse et ordonnée du centre du visage
+ * entre 0 et 1, et taille du visage en proportion de la largeur de l'image. Les vitesses sont
+ * exprimées en unités normalisées par seconde.
+ * </p><p>
+ * Lorsque plusieurs visages sont mesurés dans une image, seul celui qui est compatible avec la
+ * position prédite de la cible est utilisé (distance de Mahalanobis sous un seuil). Si la cible
+ * n'est plus mesurée pendant un certain temps, elle est abandonnée et la prochaine mesure
+ * démarre une nouvelle cible, avec un nouvel identifiant.
+ * </p><p>
+ * La position peut être extrapolée à un instant ultérieur, afin de compenser le délai
+ * entre la capture d'une image et l'application de la commande correspondante.
+ * </p><p>
+ * Cette classe n'est pas thread-safe, et n'alloue aucun objet après sa construction.
+ * </p>
+ */
+public class TargetEstimator {
+
+    private static final float NANOS_PER_SECOND = 1e9f;
+    /**
+     * Variance initiale des vitesses, en (unités normalisées par seconde)².
+     */
+    private static final float INITIAL_VELOCITY_VARIANCE = 1f;
+
+    private final float mProcessNoise;
+    private final float mMeasurementNoise;
+    private final float mGateThreshold;
+    private final long mMaxCoastNanos;
+
+    private final Axis mX = new Axis();
+    private final Axis mY = new Axis();
+    private final Axis mSize = new Axis();
+
+    private boolean mHasTarget;
+    private int mTrackId;
+    private long mTimestampNanos;
+    private long mLastMeasurementNanos;
+
+    /**
+     * @param processNoise     densité spectrale de l'accélération de la cible, en
+     *                         (unités normalisées)² par seconde³ ; plus elle est grande,
+     *                         plus l'estimation réagit vite et moins elle est lissée
+     * @param measurementNoise écart-type du bruit des mesures, en unités normalisées
+     * @param gateThreshold    carré de la distance de Mahalanobis au-delà duquel une mesure
+     *                         n'est pas associée à la cible (9.21 pour 99 % avec deux dimensions)
+     * @param maxCoastNanos    durée maximale sans mesure avant d'abandonner la cible, en nanosecondes
+     */
+    public TargetEstimator(float processNoise, float measurementNoise, float gateThreshold, long maxCoastNanos) {
+        mProcessNoise = processNoise;
+        mMeasurementNoise = measurementNoise;
+        mGateThreshold = gateThreshold;
+        mMaxCoastNanos = maxCoastNanos;
+    }
+
+    /**
+     * Intègre les visages mesurés dans une image.
+     *
+     * @param timestampNanos instant de capture de l'image, selon {@link System#nanoTime()}
+     * @param measurements   mesures, par triplets (x, y, taille) en coordonnées normalisées
+     * @param count          nombre de mesures, éventuellement 0
+     * @param noiseScale     facteur appliqué à l'écart-type du bruit de ces mesures, supérieur à 1
+     *                       pour des mesures moins fiables
+     * @return l'indice de la mesure associée à la cible, ou -1 si aucune ne l'a été
+     */
+    public int update(long timestampNanos, float[] measurements, int count, float noiseScale) {
+        if (mHasTarget) {
+            predictTo(timestampNanos);
+            float r = square(mMeasurementNoise * noiseScale);
+            int best = -1;
+            float bestDistance = mGateThreshold;
+            for (int i = 0; i < count; i++) {
+                float distance = square(measurements[3 * i] - mX.pos) / (mX.p00 + r)
+                        + square(measurements[3 * i + 1] - mY.pos) / (mY.p00 + r);
+                if (distance <= bestDistance) {
+                    bestDistance = distance;
+                    best = i;
+                }
+            }
+
+            if (best >= 0) {
+                mX.correct(measurements[3 * best], r);
+                mY.correct(measurements[3 * best + 1], r);
+                mSize.correct(measurements[3 * best + 2], r);
+                mLastMeasurementNanos = timestampNanos;
+                return best;
+            }
+            if (timestampNanos - mLastMeasurementNanos <= mMaxCoastNanos) {
+                // La cible est momentanément perdue : on continue de prédire sa position
+                return -1;
+            }
+            mHasTarget = false;
+        }
+
+        if (count == 0) {
+            return -1;
+        }
+
+        // Nouvelle cible : le plus grand visage, a priori le plus proche
+        int largest = 0;
+        for (int i = 1; i < count; i++) {
+            if (measurements[3 * i + 2] > measurements[3 * largest + 2]) {
+                largest = i;
+            }
+        }
+        float r = square(mMeasurementNoise * noiseScale);
+        mX.reset(measurements[3 * largest], r);
+        mY.reset(measurements[3 * largest + 1], r);
+        mSize.reset(measurements[3 * largest + 2], r);
+        mHasTarget = true;
+        mTrackId++;
+        mTimestampNanos = timestampNanos;
+        mLastMeasurementNanos = timestampNanos;
+        return largest;
+    }
+
+    /**
+     * Abandonne la cible actuelle.
+     */
+    public void reset() {
+        mHasTarget = false;
+    }
+
+    private void predictTo(long timestampNanos) {
+        float dt = (timestampNanos - mTimestampNanos) / NANOS_PER_SECOND;
+        if (dt > 0) {
+            mX.predict(dt, mProcessNoise);
+            mY.predict(dt, mProcessNoise);
+            mSize.predict(dt, mProcessNoise);
+            mTimestampNanos = timestampNanos;
+        }
+    }
+
+    private static float square(float value) {
+        return value * value;
+    }
+
+    /**
+     * @return true si une cible est suivie
+     */
+    public boolean hasTarget() {
+        return mHasTarget;
+    }
+
+    /**
+     * @return identifiant de la cible, qui change à chaque nouvelle cible
+     */
+    public int getTrackId() {
+        return mTrackId;
+    }
+
+    /**
+     * @return true si la cible a été mesurée lors de la dernière mise à jour
+     */
+    public boolean isMeasured() {
+        return mHasTarget && (mLastMeasurementNanos == mTimestampNanos);
+    }
+
+    /**
+     * @return instant de l'estimation, c'est-à-dire de la dernière image intégrée
+     */
+    public long getTimestampNanos() {
+        return mTimestampNanos;
+    }
+
+    /**
+     * @return abscisse estimée du centre de la cible, entre 0 et 1
+     */
+    public float getX() {
+        return mX.pos;
+    }
+
+    /**
+     * @return ordonnée estimée du centre de la cible, entre 0 et 1
+     */
+    public float getY() {
+        return mY.pos;
+    }
+
+    /**
+     * @return taille estimée de la cible, en proportion de la largeur de l'image
+     */
+    public float getSize() {
+        return mSize.pos;
+    }
+
+    /**
+     * @return vitesse horizontale estimée, en unités normalisées par seconde
+     */
+    public float getVelocityX() {
+        return mX.vel;
+    }
+
+    /**
+     * @return vitesse verticale estimée, en unités normalisées par seconde
+     */
+    public float getVelocityY() {
+        return mY.vel;
+    }
+
+    /**
+     * @return vitesse de variation de la taille estimée, en unités normalisées par seconde
+     */
+    public float getSizeVelocity() {
+        return mSize.vel;
+    }
+
+    /**
+     * @param atNanos instant, selon {@link System#nanoTime()}
+     * @return abscisse du centre de la cible extrapolée à l'instant donné
+     */
+    public float predictX(long atNanos) {
+        return mX.pos + mX.vel * ((atNanos - mTimestampNanos) / NANOS_PER_SECOND);
+    }
+
+    /**
+     * @param atNanos instant, selon {@link System#nanoTime()}
+     * @return ordonnée du centre de la cible extrapolée à l'instant donné
+     */
+    public float predictY(long atNanos) {
+        return mY.pos + mY.vel * ((atNanos - mTimestampNanos) / NANOS_PER_SECOND);
+    }
+
+    /**
+     * Filtre de Kalman à vitesse constante sur un axe, d'état (position, vitesse).
+     */
+    private static final class Axis {
+        float pos, vel;
+        // Covariance de l'état, symétrique
+        float p00, p01, p11;
+
+        void reset(float measurement, float r) {
+            pos = measurement;
+            vel = 0;
+            p00 = r;
+            p01 = 0;
+            p11 = INITIAL_VELOCITY_VARIANCE;
+        }
+
+        void predict(float dt, float q) {
+            pos += vel * dt;
+            // P = F P F' + Q, avec F = [1 dt; 0 1] et Q issu d'une accélération aléatoire
+            float dt2 = dt * dt;
+            p00 += dt * (2 * p01 + dt * p11) + q * dt2 * dt / 3;
+            p01 += dt * p11 + q * dt2 / 2;
+            p11 += q * dt;
+        }
+
+        void correct(float measurement, float r) {
+            float s = p00 + r;
+            float k0 = p00 / s;
+            float k1 = p01 / s;
+            float innovation = measurement - pos;
+            pos += k0 * innovation;
+            vel += k1 * innovation;
+            // P = (I - K H) P
+            p11 -= k1 * p01;
+            p01 -= k0 * p01;
+            p00 -= k0 * p00;
+        }
+    }
+}
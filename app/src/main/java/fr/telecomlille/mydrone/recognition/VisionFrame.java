@@ -0,0 +1,96 @@
+package fr.telecomlille.mydrone.recognition;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * Image en niveaux de gris issue du flux vidéo décodé, destinée aux traitements de vision.
+ * <p>
+ * Les instances sont fournies par un {@link VisionFrameSource}, qui les réutilise : le consommateur
+ * doit appeler {@link #release()} une fois l'image traitée, et ne plus l'utiliser ensuite.
+ * </p>
+ */
+public final class VisionFrame {
+
+    private final VisionFrameSource mSource;
+    private final MatPool mMatPool;
+    private final Mat mGray;
+    private long mTimestampNanos;
+    private long mConversionNanos;
+    private int mSourceWidth;
+    private int mSourceHeight;
+
+    VisionFrame(VisionFrameSource source, MatPool matPool, int width, int height) {
+        mSource = source;
+        mMatPool = matPool;
+        mGray = matPool.acquire(height, width, CvType.CV_8UC1);
+    }
+
+    void set(byte[] luma, long timestampNanos, int sourceWidth, int sourceHeight, long conversionStartNanos) {
+        mGray.put(0, 0, luma);
+        mConversionNanos = System.nanoTime() - conversionStartNanos;
+        mTimestampNanos = timestampNanos;
+        mSourceWidth = sourceWidth;
+        mSourceHeight = sourceHeight;
+    }
+
+    /**
+     * @return l'image en niveaux de gris (CV_8UC1), à la résolution réduite du {@link VisionFrameSource}
+     */
+    public Mat getGray() {
+        return mGray;
+    }
+
+    /**
+     * @return largeur de l'image en pixels
+     */
+    public int getWidth() {
+        return mGray.cols();
+    }
+
+    /**
+     * @return hauteur de l'image en pixels
+     */
+    public int getHeight() {
+        return mGray.rows();
+    }
+
+    /**
+     * @return largeur en pixels du flux vidéo d'origine
+     */
+    public int getSourceWidth() {
+        return mSourceWidth;
+    }
+
+    /**
+     * @return hauteur en pixels du flux vidéo d'origine
+     */
+    public int getSourceHeight() {
+        return mSourceHeight;
+    }
+
+    /**
+     * @return instant de réception de la frame vidéo correspondante, selon {@link System#nanoTime()}
+     */
+    public long getTimestampNanos() {
+        return mTimestampNanos;
+    }
+
+    /**
+     * @return durée de la conversion de l'image décodée en niveaux de gris, en nanosecondes
+     */
+    public long getConversionNanos() {
+        return mConversionNanos;
+    }
+
+    /**
+     * Rend cette image à son {@link VisionFrameSource}.
+     */
+    public void release() {
+        mSource.recycle(this);
+    }
+
+    void dispose() {
+        mMatPool.release(mGray);
+    }
+}
@@ -0,0 +1,435 @@
+package fr.telecomlille.mydrone.recognition;
+
+import android.media.Image;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import fr.telecomlille.mydrone.drone.FrameHub;
+import fr.telecomlille.mydrone.video.SpsParser;
+import fr.telecomlille.mydrone.video.VideoFrame;
+
+/**
+ * Fournit aux traitements de vision des images en niveaux de gris extraites du flux vidéo décodé.
+ * <p>
+ * Ce consommateur de {@link FrameHub} décode le flux H.264 avec son propre {@link MediaCodec},
+ * sans surface d'affichage, afin d'obtenir les images au format YUV. Seul le plan de luminance (Y)
+ * est utilisé : il est directement sous-échantillonné à la résolution demandée et copié dans une
+ * {@link org.opencv.core.Mat} en niveaux de gris issue d'un pool. Aucun Bitmap n'est créé,
+ * et aucune allocation n'a lieu par image une fois le pool rempli. Les Mat des images sont
+ * empruntées à un {@link MatPool}, et lui sont rendues lorsque les images ne sont plus utiles.
+ * </p><p>
+ * Toutes les frames doivent être décodées pour que le flux reste valide, mais seules les images
+ * espacées d'au moins la période correspondant à la fréquence demandée sont converties.
+ * L'abonnement au {@link FrameHub} doit donc utiliser {@link FrameHub.DropPolicy#DROP_UNTIL_KEYFRAME}.
+ * </p>
+ */
+public class VisionFrameSource implements FrameHub.Consumer {
+
+    private static final String TAG = "VisionFrameSource";
+    private static final String VIDEO_MIME_TYPE = "video/avc";
+    private static final long CODEC_TIMEOUT_US = 10000;
+    private static final int INPUT_ATTEMPTS = 5;
+    private static final String KEY_STRIDE = "stride";
+
+    private final int mTargetWidth;
+    private final long mMinIntervalNanos;
+    private final Listener mListener;
+    private final MatPool mMatPool;
+
+    private MediaCodec mCodec;
+    private ByteBuffer[] mInputBuffers;
+    private ByteBuffer[] mOutputBuffers;
+    private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
+    private boolean mWaitingForKeyFrame;
+
+    private byte[] mSps;
+    private byte[] mPps;
+    private int mVideoWidth;
+    private int mVideoHeight;
+    private int mOutputStride;
+
+    private int mOutWidth;
+    private int mOutHeight;
+    private int[] mColumnIndex;
+    private byte[] mRowBuffer = new byte[0];
+    private byte[] mLuma;
+    private long mLastOutputNanos;
+    private VisionFrame mReadyFrame;
+
+    private final Object mFramesLock = new Object();
+    private final VisionFrame[] mFreeFrames;
+    private int mFreeCount;
+    private int mCreatedCount;
+    private boolean mReleased;
+
+    private volatile long mDecodedCount;
+    private volatile long mDeliveredCount;
+    private volatile long mSkippedCount;
+    private volatile long mPoolExhaustedCount;
+
+    /**
+     * @param targetWidth largeur des images produites en pixels. La hauteur est déduite des
+     *                    proportions du flux. Les images ne sont jamais agrandies.
+     * @param maxFps      nombre maximal d'images produites par seconde
+     * @param poolSize    nombre d'images pouvant être en cours d'utilisation simultanément
+     * @param matPool     pool fournissant les Mat des images
+     * @param listener    objet recevant les images produites
+     */
+    public VisionFrameSource(@IntRange(from = 16) int targetWidth, @IntRange(from = 1) int maxFps,
+                             @IntRange(from = 1) int poolSize, @NonNull MatPool matPool,
+                             @NonNull Listener listener) {
+        mTargetWidth = targetWidth;
+        mMinIntervalNanos = 1000000000L / maxFps;
+        mMatPool = matPool;
+        mListener = listener;
+        mFreeFrames = new VisionFrame[poolSize];
+    }
+
+    /**
+     * Configure le décodeur avec les paramètres du flux. Le décodeur n'est recréé que si ceux-ci
+     * ont changé.
+     *
+     * @param sps Sequence Parameter Set du flux, avec start code
+     * @param pps Picture Parameter Set du flux, avec start code
+     */
+    public synchronized void configure(@NonNull byte[] sps, @NonNull byte[] pps) {
+        if ((mCodec != null) && Arrays.equals(sps, mSps) && Arrays.equals(pps, mPps)) {
+            return;
+        }
+
+        releaseCodec();
+        try {
+            SpsParser.Sps parsed = SpsParser.parse(sps);
+            if ((parsed.getWidth() != mVideoWidth) || (parsed.getHeight() != mVideoHeight)) {
+                mVideoWidth = parsed.getWidth();
+                mVideoHeight = parsed.getHeight();
+                onVideoSizeChanged();
+            }
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Unable to parse SPS, vision disabled", e);
+            return;
+        }
+        mSps = sps;
+        mPps = pps;
+
+        MediaFormat format = MediaFormat.createVideoFormat(VIDEO_MIME_TYPE, mVideoWidth, mVideoHeight);
+        format.setByteBuffer("csd-0", ByteBuffer.wrap(sps));
+        format.setByteBuffer("csd-1", ByteBuffer.wrap(pps));
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            format.setInteger(MediaFormat.KEY_COLOR_FORMAT,
+                    MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Flexible);
+        }
+
+        try {
+            mCodec = MediaCodec.createDecoderByType(VIDEO_MIME_TYPE);
+            mCodec.configure(format, null, null, 0);
+            mCodec.start();
+        } catch (IOException | IllegalStateException e) {
+            Log.e(TAG, "Unable to start vision decoder", e);
+            releaseCodec();
+            return;
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            mInputBuffers = mCodec.getInputBuffers();
+            mOutputBuffers = mCodec.getOutputBuffers();
+        }
+        mOutputStride = mVideoWidth;
+        mWaitingForKeyFrame = true;
+    }
+
+    /**
+     * Libère le décodeur et les images du pool qui ne sont pas en cours d'utilisation.
+     * Les images en cours d'utilisation seront libérées lorsqu'elles seront rendues.
+     */
+    public synchronized void release() {
+        releaseCodec();
+        synchronized (mFramesLock) {
+            mReleased = true;
+            for (int i = 0; i < mFreeCount; i++) {
+                mFreeFrames[i].dispose();
+                mFreeFrames[i] = null;
+            }
+            mCreatedCount -= mFreeCount;
+            mFreeCount = 0;
+        }
+    }
+
+    @Override
+    public void onFrame(@NonNull VideoFrame frame) {
+        VisionFrame ready;
+        synchronized (this) {
+            if (mCodec == null) {
+                return;
+            }
+            try {
+                decode(frame);
+            } catch (IllegalStateException e) {
+                Log.e(TAG, "Vision decoder failure", e);
+                releaseCodec();
+            }
+            ready = mReadyFrame;
+            mReadyFrame = null;
+        }
+
+        // Le listener est appelé hors du verrou, pour ne pas bloquer la configuration du décodeur
+        if (ready != null) {
+            mDeliveredCount++;
+            mListener.onVisionFrame(ready);
+        }
+    }
+
+    private void decode(VideoFrame frame) {
+        if (mWaitingForKeyFrame) {
+            if (!frame.isIFrame()) {
+                return;
+            }
+            mWaitingForKeyFrame = false;
+        }
+
+        int index = -1;
+        for (int attempt = 0; (index < 0) && (attempt < INPUT_ATTEMPTS); attempt++) {
+            index = mCodec.dequeueInputBuffer(CODEC_TIMEOUT_US);
+            if (index < 0) {
+                // Récupérer les images décodées libère parfois des buffers d'entrée
+                drainOutput();
+            }
+        }
+        if (index < 0) {
+            // Frame perdue : la suite du flux n'est décodable qu'à partir de la prochaine I-frame
+            mWaitingForKeyFrame = true;
+            return;
+        }
+
+        ByteBuffer buffer;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            buffer = mCodec.getInputBuffer(index);
+        } else {
+            buffer = mInputBuffers[index];
+            buffer.clear();
+        }
+        int size = frame.getSize();
+        if ((buffer == null) || (size > buffer.remaining())) {
+            // Frame trop grande pour le buffer d'entrée : le buffer est rendu vide au décodeur
+            Log.w(TAG, "Dropping frame of " + size + " bytes: no decoder input buffer large enough");
+            mCodec.queueInputBuffer(index, 0, 0, frame.getTimestampNanos() / 1000, 0);
+            mWaitingForKeyFrame = true;
+            return;
+        }
+        frame.writeTo(buffer);
+        mCodec.queueInputBuffer(index, 0, size, frame.getTimestampNanos() / 1000, 0);
+        drainOutput();
+    }
+
+    /**
+     * Récupère les images décodées disponibles et convertit la plus récente, si la fréquence
+     * maximale le permet.
+     */
+    private void drainOutput() {
+        int index;
+        while ((index = mCodec.dequeueOutputBuffer(mBufferInfo, 0)) != MediaCodec.INFO_TRY_AGAIN_LATER) {
+            if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                MediaFormat format = mCodec.getOutputFormat();
+                mOutputStride = format.containsKey(KEY_STRIDE) ? format.getInteger(KEY_STRIDE) : mVideoWidth;
+                continue;
+            }
+            if (index == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
+                mOutputBuffers = mCodec.getOutputBuffers();
+                continue;
+            }
+            if (index < 0) {
+                continue;
+            }
+
+            mDecodedCount++;
+            long timestampNanos = mBufferInfo.presentationTimeUs * 1000;
+            if (timestampNanos - mLastOutputNanos >= mMinIntervalNanos) {
+                if (convert(index, timestampNanos)) {
+                    mLastOutputNanos = timestampNanos;
+                }
+            } else {
+                mSkippedCount++;
+            }
+            mCodec.releaseOutputBuffer(index, false);
+        }
+    }
+
+    private boolean convert(int index, long timestampNanos) {
+        VisionFrame out = acquireFrame();
+        if (out == null) {
+            mPoolExhaustedCount++;
+            return false;
+        }
+
+        long start = System.nanoTime();
+        boolean converted = false;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            Image image = mCodec.getOutputImage(index);
+            if (image != null) {
+                Image.Plane luma = image.getPlanes()[0];
+                downsample(luma.getBuffer(), 0, luma.getRowStride(), luma.getPixelStride());
+                image.close();
+                converted = true;
+            }
+        }
+        if (!converted) {
+            // Dans tous les formats YUV 4:2:0, le plan Y est au début du buffer
+            ByteBuffer buffer = (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP)
+                    ? mCodec.getOutputBuffer(index) : mOutputBuffers[index];
+            if (buffer == null) {
+                recycle(out);
+                return false;
+            }
+            downsample(buffer, mBufferInfo.offset, mOutputStride, 1);
+        }
+
+        out.set(mLuma, timestampNanos, mVideoWidth, mVideoHeight, start);
+        if (mReadyFrame != null) {
+            // Seule l'image la plus récente est transmise
+            recycle(mReadyFrame);
+        }
+        mReadyFrame = out;
+        return true;
+    }
+
+    /**
+     * Sous-échantillonne le plan de luminance par plus proche voisin, dans {@link #mLuma}.
+     */
+    private void downsample(ByteBuffer plane, int offset, int rowStride, int pixelStride) {
+        int rowBytes = (mVideoWidth - 1) * pixelStride + 1;
+        if (mRowBuffer.length < rowBytes) {
+            mRowBuffer = new byte[rowBytes];
+        }
+        for (int y = 0; y < mOutHeight; y++) {
+            int sourceRow = y * mVideoHeight / mOutHeight;
+            plane.position(offset + sourceRow * rowStride);
+            plane.get(mRowBuffer, 0, rowBytes);
+
+            int base = y * mOutWidth;
+            for (int x = 0; x < mOutWidth; x++) {
+                mLuma[base + x] = mRowBuffer[mColumnIndex[x] * pixelStride];
+            }
+        }
+    }
+
+    private void onVideoSizeChanged() {
+        mOutWidth = Math.min(mTargetWidth, mVideoWidth);
+        mOutHeight = Math.max(1, (mVideoHeight * mOutWidth / mVideoWidth) & ~1);
+        mColumnIndex = new int[mOutWidth];
+        for (int x = 0; x < mOutWidth; x++) {
+            mColumnIndex[x] = x * mVideoWidth / mOutWidth;
+        }
+        mLuma = new byte[mOutWidth * mOutHeight];
+
+        // Les images du pool n'ont plus la bonne taille
+        synchronized (mFramesLock) {
+            for (int i = 0; i < mFreeCount; i++) {
+                mFreeFrames[i].dispose();
+                mFreeFrames[i] = null;
+            }
+            mCreatedCount -= mFreeCount;
+            mFreeCount = 0;
+        }
+        mMatPool.clear();
+    }
+
+    private VisionFrame acquireFrame() {
+        synchronized (mFramesLock) {
+            while (mFreeCount > 0) {
+                VisionFrame frame = mFreeFrames[--mFreeCount];
+                mFreeFrames[mFreeCount] = null;
+                if ((frame.getWidth() == mOutWidth) && (frame.getHeight() == mOutHeight)) {
+                    return frame;
+                }
+                frame.dispose();
+                mCreatedCount--;
+            }
+            if (mCreatedCount < mFreeFrames.length) {
+                // Les Mat sont créées à la demande, une fois OpenCV chargé
+                mCreatedCount++;
+                return new VisionFrame(this, mMatPool, mOutWidth, mOutHeight);
+            }
+            return null;
+        }
+    }
+
+    void recycle(VisionFrame frame) {
+        synchronized (mFramesLock) {
+            if (!mReleased && (mFreeCount < mFreeFrames.length)) {
+                mFreeFrames[mFreeCount++] = frame;
+            } else {
+                frame.dispose();
+            }
+        }
+    }
+
+    private void releaseCodec() {
+        if (mReadyFrame != null) {
+            recycle(mReadyFrame);
+            mReadyFrame = null;
+        }
+        if (mCodec != null) {
+            try {
+                mCodec.stop();
+            } catch (IllegalStateException e) {
+                Log.w(TAG, "Vision decoder already stopped", e);
+            }
+            mCodec.release();
+            mCodec = null;
+        }
+        mInputBuffers = null;
+        mOutputBuffers = null;
+        mSps = null;
+        mPps = null;
+    }
+
+    /**
+     * @return nombre d'images décodées
+     */
+    public long getDecodedCount() {
+        return mDecodedCount;
+    }
+
+    /**
+     * @return nombre d'images converties et transmises au listener
+     */
+    public long getDeliveredCount() {
+        return mDeliveredCount;
+    }
+
+    /**
+     * @return nombre d'images décodées mais ignorées pour respecter la fréquence maximale
+     */
+    public long getSkippedCount() {
+        return mSkippedCount;
+    }
+
+    /**
+     * @return nombre d'images ignorées parce que toutes les images du pool étaient utilisées
+     */
+    public long getPoolExhaustedCount() {
+        return mPoolExhaustedCount;
+    }
+
+    /**
+     * Reçoit les images produites par un {@link VisionFrameSource}.
+     */
+    public interface Listener {
+        /**
+         * Appelé sur le Thread du consommateur de {@link FrameHub}, avec l'image la plus récente.
+         * L'image doit être rendue avec {@link VisionFrame#release()} une fois traitée,
+         * éventuellement depuis un autre Thread.
+         *
+         * @param frame image en niveaux de gris
+         */
+        void onVisionFrame(@NonNull VisionFrame frame);
+    }
+}
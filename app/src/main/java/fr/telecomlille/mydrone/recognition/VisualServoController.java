@@ -0,0 +1,136 @@
+package fr.telecomlille.mydrone.recognition;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Asservissement visuel du drône sur une cible, à partir de sa position dans l'image.
+ * <p>
+ * Chaque axe est régulé par son propre {@link PidController} :
+ * <ul>
+ * <li>le lacet (yaw) ramène la cible au centre horizontal de l'image,</li>
+ * <li>la vitesse verticale (gaz) la ramène au centre vertical,</li>
+ * <li>le tangage (pitch) maintient la taille apparente de la cible, donc la distance au drône.</li>
+ * </ul>
+ * Les positions sont exprimées en coordonnées normalisées entre 0 et 1, et la taille en proportion
+ * de la largeur de l'image, indépendamment de la résolution analysée. Les commandes produites sont
+ * comprises entre -100 et 100, comme celles de {@link fr.telecomlille.mydrone.drone.BebopDrone}.
+ * </p><p>
+ * Le temps écoulé entre deux mises à jour est calculé à partir de leurs horodatages : la fréquence
+ * des mises à jour peut varier sans changer le comportement de la régulation.
+ * </p><p>
+ * Cette classe n'est pas thread-safe.
+ * </p>
+ */
+public class VisualServoController {
+
+    private static final float NANOS_PER_SECOND = 1e9f;
+
+    // Réglages par défaut, validés sur le modèle simulé de VisualServoControllerTest
+    static final float YAW_KP = 150f, YAW_KI = 40f, YAW_KD = 30f;
+    static final float YAW_LIMIT = 60f, YAW_MAX_RATE = 300f;
+    static final float GAZ_KP = 300f, GAZ_KI = 20f, GAZ_KD = 40f;
+    static final float GAZ_LIMIT = 50f, GAZ_MAX_RATE = 300f;
+    static final float PITCH_KP = 250f, PITCH_KI = 5f, PITCH_KD = 150f;
+    static final float PITCH_LIMIT = 30f, PITCH_MAX_RATE = 100f;
+    static final float MAX_DT = 0.5f;
+    static final float DEAD_ZONE = 0.01f;
+
+    private final PidController mYawPid;
+    private final PidController mGazPid;
+    private final PidController mPitchPid;
+    private final float mTargetSize;
+    private final float mDeadZone;
+
+    private long mLastUpdateNanos;
+    private boolean mHasLastUpdate;
+    private int mYaw;
+    private int mGaz;
+    private int mPitch;
+
+    /**
+     * Crée un contrôleur avec les réglages utilisés pour le suivi de visage.
+     *
+     * @param targetSize taille apparente souhaitée du visage, en proportion de la largeur de l'image
+     * @return le contrôleur
+     */
+    public static VisualServoController createDefault(float targetSize) {
+        return new VisualServoController(
+                new PidController(YAW_KP, YAW_KI, YAW_KD, YAW_LIMIT, YAW_MAX_RATE, MAX_DT),
+                new PidController(GAZ_KP, GAZ_KI, GAZ_KD, GAZ_LIMIT, GAZ_MAX_RATE, MAX_DT),
+                new PidController(PITCH_KP, PITCH_KI, PITCH_KD, PITCH_LIMIT, PITCH_MAX_RATE, MAX_DT),
+                targetSize, DEAD_ZONE);
+    }
+
+    /**
+     * @param yawPid     régulateur de l'écart horizontal, en commande de lacet
+     * @param gazPid     régulateur de l'écart vertical, en commande de vitesse verticale
+     * @param pitchPid   régulateur de l'écart de taille, en commande de tangage
+     * @param targetSize taille apparente souhaitée de la cible, en proportion de la largeur de l'image
+     * @param deadZone   écart, en coordonnées normalisées, en dessous duquel il est considéré comme nul
+     */
+    public VisualServoController(@NonNull PidController yawPid, @NonNull PidController gazPid,
+                                 @NonNull PidController pitchPid, float targetSize, float deadZone) {
+        mYawPid = yawPid;
+        mGazPid = gazPid;
+        mPitchPid = pitchPid;
+        mTargetSize = targetSize;
+        mDeadZone = deadZone;
+    }
+
+    /**
+     * Calcule les commandes pour une nouvelle position de la cible.
+     *
+     * @param timestampNanos instant de la mise à jour, selon {@link System#nanoTime()}
+     * @param x              abscisse du centre de la cible, entre 0 et 1
+     * @param y              ordonnée du centre de la cible, entre 0 et 1 (vers le bas)
+     * @param size           taille apparente de la cible, en proportion de la largeur de l'image
+     */
+    public void update(long timestampNanos, float x, float y, float size) {
+        float dt = mHasLastUpdate ? (timestampNanos - mLastUpdateNanos) / NANOS_PER_SECOND : 0f;
+        mLastUpdateNanos = timestampNanos;
+        mHasLastUpdate = true;
+
+        // Erreurs positives : tourner à droite, monter, avancer
+        mYaw = Math.round(mYawPid.update(deadZone(x - 0.5f), dt));
+        mGaz = Math.round(mGazPid.update(deadZone(0.5f - y), dt));
+        mPitch = Math.round(mPitchPid.update(deadZone(mTargetSize - size), dt));
+    }
+
+    /**
+     * Remet les régulateurs à zéro, par exemple lorsque la cible est perdue.
+     */
+    public void reset() {
+        mYawPid.reset();
+        mGazPid.reset();
+        mPitchPid.reset();
+        mHasLastUpdate = false;
+        mYaw = 0;
+        mGaz = 0;
+        mPitch = 0;
+    }
+
+    private float deadZone(float error) {
+        return (Math.abs(error) < mDeadZone) ? 0f : error;
+    }
+
+    /**
+     * @return commande de lacet, entre -100 et 100
+     */
+    public int getYaw() {
+        return mYaw;
+    }
+
+    /**
+     * @return commande de vitesse verticale, entre -100 et 100
+     */
+    public int getGaz() {
+        return mGaz;
+    }
+
+    /**
+     * @return commande de tangage, entre -100 et 100
+     */
+    public int getPitch() {
+        return mPitch;
+    }
+}
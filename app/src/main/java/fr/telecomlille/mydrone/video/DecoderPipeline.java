@@ -0,0 +1,366 @@
+package fr.telecomlille.mydrone.video;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Process;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.util.Log;
+import android.view.Surface;
+
+import com.parrot.arsdk.arcontroller.ARFrame;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Décode le flux H.264 du drône de manière asynchrone, sans jamais bloquer le Thread du SDK.
+ * <p>
+ * Les frames reçues sont copiées dans des buffers issus d'un {@link VideoFramePool}
+ * puis placées dans une {@link FrameQueue}. Un Thread d'alimentation transmet ces frames au
+ * décodeur, tandis qu'un second Thread récupère les images décodées et les affiche sur la
+ * {@link Surface} cible. Un décodeur lent ne retarde donc plus la réception des frames,
+ * ni les autres consommateurs du flux.
+ * </p><p>
+ * Le temps de décodage est mesuré entre la réception d'une frame et l'affichage de l'image
+ * correspondante, en transmettant l'instant de réception comme horodatage au décodeur.
+ * </p>
+ */
+public class DecoderPipeline {
+
+    private static final String TAG = "DecoderPipeline";
+    private static final String VIDEO_MIME_TYPE = "video/avc";
+    private static final long CODEC_TIMEOUT_US = 10000;
+    private static final long QUEUE_TIMEOUT_NS = 10000000L;
+    /**
+     * Capacité initiale des buffers de frame, suffisante pour une I-frame en 640x368.
+     */
+    private static final int FRAME_CAPACITY = 128 * 1024;
+
+    private final VideoFramePool mFramePool;
+    private final FrameQueue mQueue;
+    /**
+     * Rend atomiques la vérification de {@link #mRunning} et l'ajout d'une frame à la file,
+     * afin qu'aucune frame ne soit ajoutée après l'arrêt du pipeline. Il n'est jamais conservé
+     * pendant une attente : le Thread du SDK n'est pas bloqué.
+     */
+    private final Object mSubmitLock = new Object();
+
+    private MediaCodec mCodec;
+    private ByteBuffer[] mInputBuffers;
+    private Thread mFeederThread;
+    private Thread mDrainThread;
+    private volatile boolean mRunning;
+
+    private volatile long mDecodedFrameCount;
+    private volatile long mLastDecodeLatencyUs;
+    private volatile long mMaxDecodeLatencyUs;
+    private volatile long mAverageDecodeLatencyUs;
+
+    /**
+     * @param queueCapacity nombre maximal de frames en attente de décodage
+     */
+    public DecoderPipeline(@IntRange(from = 1) int queueCapacity) {
+        mQueue = new FrameQueue(queueCapacity);
+        // Une frame en cours de copie et une en cours de transmission au décodeur, en plus de la file
+        mFramePool = new VideoFramePool(queueCapacity + 2, FRAME_CAPACITY);
+    }
+
+    /**
+     * Crée et démarre le décodeur, ainsi que les Threads d'alimentation et d'affichage.
+     * Si le pipeline était déjà démarré, il est d'abord arrêté.
+     *
+     * @param format  format du flux, contenant les paramètres SPS et PPS
+     * @param surface surface sur laquelle afficher les images décodées
+     * @return true si le décodeur a pu être démarré
+     */
+    public synchronized boolean start(@NonNull MediaFormat format, @NonNull Surface surface) {
+        stop();
+
+        try {
+            mCodec = MediaCodec.createDecoderByType(VIDEO_MIME_TYPE);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to create decoder", e);
+            return false;
+        }
+
+        mCodec.configure(format, surface, null, 0);
+        mCodec.start();
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            mInputBuffers = mCodec.getInputBuffers();
+        }
+
+        synchronized (mSubmitLock) {
+            mRunning = true;
+        }
+        mFeederThread = new Thread(mFeeder, "DecoderFeeder");
+        mDrainThread = new Thread(mDrain, "DecoderDrain");
+        mFeederThread.start();
+        mDrainThread.start();
+        return true;
+    }
+
+    /**
+     * Arrête les Threads du pipeline et libère le décodeur. Les frames en attente sont abandonnées.
+     */
+    public synchronized void stop() {
+        if (mCodec == null) {
+            return;
+        }
+
+        synchronized (mSubmitLock) {
+            mRunning = false;
+        }
+        joinQuietly(mFeederThread);
+        joinQuietly(mDrainThread);
+        mFeederThread = null;
+        mDrainThread = null;
+
+        // Le Thread d'alimentation est arrêté et plus aucune frame ne peut être ajoutée :
+        // on peut consommer la file à sa place, sans qu'une frame ne passe à la session suivante
+        mQueue.clear();
+
+        mCodec.stop();
+        mCodec.release();
+        mCodec = null;
+        mInputBuffers = null;
+    }
+
+    /**
+     * Transmet une frame reçue depuis le SDK au pipeline. Cette méthode ne bloque pas :
+     * si le décodeur ne suit pas, la frame est abandonnée selon la politique de la {@link FrameQueue}.
+     * Elle doit toujours être appelée depuis le même Thread.
+     *
+     * @param frame frame reçue, qui n'est plus utilisée après le retour de cette méthode
+     * @return true si la frame a été mise en file d'attente
+     */
+    public boolean submit(@NonNull ARFrame frame) {
+        if (!mRunning) {
+            return false;
+        }
+
+        VideoFrame copy = mFramePool.acquire();
+        if (copy == null) {
+            synchronized (mSubmitLock) {
+                if (mRunning) {
+                    mQueue.markOverflow();
+                }
+            }
+            return false;
+        }
+        copy.copyFrom(frame);
+        return offer(copy);
+    }
+
+    /**
+     * Transmet au pipeline une frame déjà copiée, par exemple par un
+     * {@link fr.telecomlille.mydrone.drone.FrameHub}, sans la copier à nouveau.
+     * Cette méthode ne bloque pas, et ne doit pas être utilisée en même temps que
+     * {@link #submit(ARFrame)} : la file d'attente n'accepte qu'un seul producteur.
+     *
+     * @param frame frame à décoder ; le pipeline obtient sa propre référence sur celle-ci
+     * @return true si la frame a été mise en file d'attente
+     */
+    public boolean submit(@NonNull VideoFrame frame) {
+        if (!mRunning) {
+            return false;
+        }
+
+        frame.retain();
+        return offer(frame);
+    }
+
+    /**
+     * Ajoute une frame à la file si le pipeline n'a pas été arrêté entre-temps.
+     *
+     * @param frame frame dont le pipeline détient une référence, libérée si elle n'est pas ajoutée
+     */
+    private boolean offer(VideoFrame frame) {
+        synchronized (mSubmitLock) {
+            if (mRunning) {
+                return mQueue.offer(frame);
+            }
+        }
+        frame.release();
+        return false;
+    }
+
+    /**
+     * @return nombre maximal de frames retenues par le pipeline via {@link #submit(VideoFrame)} :
+     * celles de la file, et celle en cours de transmission au décodeur
+     */
+    public int getMaxRetainedFrames() {
+        return mQueue.getCapacity() + 1;
+    }
+
+    /**
+     * Transmet les frames de la file au décodeur, dans leur ordre d'arrivée.
+     */
+    private final Runnable mFeeder = new Runnable() {
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+            VideoFrame frame = null;
+            // Chaque démarrage du décodeur commence par une I-frame
+            boolean waitForIFrame = true;
+            try {
+                while (mRunning) {
+                    if (frame == null) {
+                        frame = mQueue.take(QUEUE_TIMEOUT_NS);
+                        if (frame == null) {
+                            continue;
+                        }
+                        if (waitForIFrame && !frame.isIFrame()) {
+                            frame.release();
+                            frame = null;
+                            continue;
+                        }
+                    }
+
+                    int index = mCodec.dequeueInputBuffer(CODEC_TIMEOUT_US);
+                    if (index < 0) {
+                        continue;
+                    }
+
+                    ByteBuffer buffer;
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                        buffer = mCodec.getInputBuffer(index);
+                    } else {
+                        buffer = mInputBuffers[index];
+                        buffer.clear();
+                    }
+                    int size = frame.getSize();
+                    if ((buffer == null) || (size > buffer.remaining())) {
+                        // Frame plus grande que le buffer du décodeur : les P-frames suivantes
+                        // ne seraient pas décodables sans elle
+                        Log.w(TAG, "Dropping frame of " + size + " bytes: no decoder input buffer large enough");
+                        mCodec.queueInputBuffer(index, 0, 0, frame.getTimestampNanos() / 1000, 0);
+                        waitForIFrame = true;
+                    } else {
+                        frame.writeTo(buffer);
+                        mCodec.queueInputBuffer(index, 0, size, frame.getTimestampNanos() / 1000, 0);
+                        waitForIFrame = false;
+                    }
+                    frame.release();
+                    frame = null;
+                }
+            } catch (IllegalStateException e) {
+                Log.e(TAG, "Error while feeding decoder", e);
+            } finally {
+                if (frame != null) {
+                    frame.release();
+                }
+            }
+        }
+    };
+
+    /**
+     * Affiche les images décodées dès qu'elles sont disponibles.
+     */
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            try {
+                while (mRunning) {
+                    int index = mCodec.dequeueOutputBuffer(info, CODEC_TIMEOUT_US);
+                    if (index >= 0) {
+                        onFrameDecoded(System.nanoTime() / 1000 - info.presentationTimeUs);
+                        mCodec.releaseOutputBuffer(index, true);
+                    }
+                }
+            } catch (IllegalStateException e) {
+                Log.e(TAG, "Error while draining decoder", e);
+            }
+        }
+    };
+
+    /**
+     * Met à jour les statistiques de latence. Appelé uniquement depuis le Thread d'affichage.
+     */
+    private void onFrameDecoded(long latencyUs) {
+        mLastDecodeLatencyUs = latencyUs;
+        if (latencyUs > mMaxDecodeLatencyUs) {
+            mMaxDecodeLatencyUs = latencyUs;
+        }
+        // Moyenne mobile exponentielle, de poids 1/16
+        long average = mAverageDecodeLatencyUs;
+        mAverageDecodeLatencyUs = (mDecodedFrameCount == 0) ? latencyUs : average + ((latencyUs - average) >> 4);
+        mDecodedFrameCount++;
+    }
+
+    private static void joinQuietly(Thread thread) {
+        if (thread == null) {
+            return;
+        }
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return true si le décodeur est démarré
+     */
+    public boolean isRunning() {
+        return mRunning;
+    }
+
+    /**
+     * @return nombre de frames en attente de décodage
+     */
+    public int getQueueDepth() {
+        return mQueue.getDepth();
+    }
+
+    /**
+     * @return nombre de frames abandonnées parce que le décodeur ne suivait pas
+     */
+    public long getDropCount() {
+        return mQueue.getDropCount();
+    }
+
+    /**
+     * @return nombre d'images décodées et affichées
+     */
+    public long getDecodedFrameCount() {
+        return mDecodedFrameCount;
+    }
+
+    /**
+     * @return temps écoulé entre la réception et l'affichage de la dernière image, en microsecondes
+     */
+    public long getLastDecodeLatencyUs() {
+        return mLastDecodeLatencyUs;
+    }
+
+    /**
+     * @return moyenne glissante du temps entre la réception et l'affichage, en microsecondes
+     */
+    public long getAverageDecodeLatencyUs() {
+        return mAverageDecodeLatencyUs;
+    }
+
+    /**
+     * @return plus grand temps observé entre la réception et l'affichage, en microsecondes
+     */
+    public long getMaxDecodeLatencyUs() {
+        return mMaxDecodeLatencyUs;
+    }
+
+    /**
+     * @return le pool des buffers de frame, pour vérifier qu'aucun buffer n'est alloué à chaque frame
+     */
+    public VideoFramePool getFramePool() {
+        return mFramePool;
+    }
+}
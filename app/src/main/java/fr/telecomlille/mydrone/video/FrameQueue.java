@@ -0,0 +1,231 @@
+package fr.telecomlille.mydrone.video;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * File bornée de {@link VideoFrame}, à un seul producteur et un seul consommateur (SPSC), sans verrou.
+ * <p>
+ * Le producteur est le Thread du SDK qui reçoit les frames, le consommateur est le Thread qui les
+ * transmet au décodeur. Lorsque la file déborde, le producteur abandonne les P-frames suivantes
+ * jusqu'à la prochaine I-frame : sans les frames perdues, elles ne seraient pas décodables.
+ * De son côté, le consommateur abandonne les frames en retard encore présentes dans la file,
+ * jusqu'à la dernière I-frame reçue, afin de rattraper le direct au lieu d'accumuler du retard.
+ * </p><p>
+ * Les frames abandonnées sont rendues à leur pool.
+ * </p>
+ */
+public class FrameQueue {
+
+    private final VideoFrame[] mSlots;
+    private final int mMask;
+
+    /**
+     * Index de la prochaine frame à lire. Modifié uniquement par le consommateur.
+     */
+    private volatile long mHead;
+    /**
+     * Index de la prochaine frame à écrire. Modifié uniquement par le producteur.
+     */
+    private volatile long mTail;
+    /**
+     * Index de la dernière I-frame écrite dans la file, ou -1.
+     */
+    private volatile long mLastIFrameIndex = -1;
+    /**
+     * Positionné par le producteur lors d'un débordement, remis à zéro par le consommateur
+     * une fois les frames en retard abandonnées.
+     */
+    private volatile boolean mOverflowed;
+    /**
+     * Vrai tant que le producteur doit abandonner les P-frames. Accédé uniquement par le producteur,
+     * ou par {@link #clear()} lorsque celui-ci est arrêté. Le décodage ne peut commencer que par
+     * une I-frame : la file les attend donc dès sa création.
+     */
+    private boolean mDropUntilIFrame = true;
+    private volatile Thread mWaitingConsumer;
+
+    private volatile long mOverflowCount;
+    private volatile long mProducerDropCount;
+    private volatile long mConsumerDropCount;
+
+    /**
+     * @param capacity nombre maximal de frames en attente, arrondi à la puissance de 2 supérieure
+     */
+    public FrameQueue(@IntRange(from = 1) int capacity) {
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mSlots = new VideoFrame[size];
+        mMask = size - 1;
+    }
+
+    /**
+     * Ajoute une frame en fin de file. Appelé uniquement par le producteur.
+     *
+     * @param frame frame à ajouter ; elle est rendue à son pool si elle est abandonnée
+     * @return true si la frame a été ajoutée, false si elle a été abandonnée
+     */
+    public boolean offer(@NonNull VideoFrame frame) {
+        if (mDropUntilIFrame && !frame.isIFrame()) {
+            frame.release();
+            mProducerDropCount++;
+            return false;
+        }
+
+        long tail = mTail;
+        if (tail - mHead == mSlots.length) {
+            frame.release();
+            markOverflow();
+            return false;
+        }
+
+        mSlots[(int) tail & mMask] = frame;
+        if (frame.isIFrame()) {
+            mLastIFrameIndex = tail;
+        }
+        mDropUntilIFrame = false;
+        // L'écriture volatile de mTail publie le contenu de la case au consommateur
+        mTail = tail + 1;
+        wakeConsumer();
+        return true;
+    }
+
+    /**
+     * Signale qu'une frame n'a pas pu être ajoutée à la file (par exemple faute de buffer libre),
+     * ce qui a le même effet qu'un débordement. Appelé uniquement par le producteur.
+     */
+    public void markOverflow() {
+        mDropUntilIFrame = true;
+        mOverflowed = true;
+        mOverflowCount++;
+        mProducerDropCount++;
+        wakeConsumer();
+    }
+
+    /**
+     * Retire la frame en tête de file. Appelé uniquement par le consommateur.
+     *
+     * @return la frame la plus ancienne, ou null si la file est vide.
+     * Le consommateur doit la rendre à son pool une fois traitée.
+     */
+    @Nullable
+    public VideoFrame poll() {
+        long head = mHead;
+        if (mOverflowed) {
+            mOverflowed = false;
+            head = skipStaleFrames(head);
+        }
+        if (head == mTail) {
+            return null;
+        }
+
+        int slot = (int) head & mMask;
+        VideoFrame frame = mSlots[slot];
+        mSlots[slot] = null;
+        mHead = head + 1;
+        return frame;
+    }
+
+    /**
+     * Retire la frame en tête de file, en attendant au plus le délai indiqué si la file est vide.
+     * Appelé uniquement par le consommateur. L'attente est interrompue si le Thread est interrompu.
+     *
+     * @param timeoutNanos délai d'attente maximal en nanosecondes
+     * @return la frame la plus ancienne, ou null si aucune frame n'est arrivée à temps
+     */
+    @Nullable
+    public VideoFrame take(long timeoutNanos) {
+        VideoFrame frame = poll();
+        if (frame == null) {
+            mWaitingConsumer = Thread.currentThread();
+            // Nouvelle tentative après s'être déclaré, pour ne pas manquer un réveil
+            frame = poll();
+            if (frame == null) {
+                LockSupport.parkNanos(this, timeoutNanos);
+                frame = poll();
+            }
+            mWaitingConsumer = null;
+        }
+        return frame;
+    }
+
+    /**
+     * Abandonne toutes les frames de la file, qui attend ensuite la prochaine I-frame :
+     * le consommateur suivant commence ainsi son décodage par une image complète.
+     * Appelé uniquement lorsque le producteur et le consommateur sont arrêtés.
+     */
+    public void clear() {
+        long head = mHead;
+        long tail = mTail;
+        while (head < tail) {
+            int slot = (int) head & mMask;
+            mSlots[slot].release();
+            mSlots[slot] = null;
+            head++;
+        }
+        mHead = head;
+        mLastIFrameIndex = -1;
+        mOverflowed = false;
+        mDropUntilIFrame = true;
+    }
+
+    /**
+     * Abandonne les frames en retard, jusqu'à la dernière I-frame présente dans la file
+     * ou jusqu'à la fin de la file s'il n'y en a pas.
+     */
+    private long skipStaleFrames(long head) {
+        long tail = mTail;
+        long lastIFrame = mLastIFrameIndex;
+        long target = ((lastIFrame >= head) && (lastIFrame < tail)) ? lastIFrame : tail;
+        while (head < target) {
+            int slot = (int) head & mMask;
+            mSlots[slot].release();
+            mSlots[slot] = null;
+            mConsumerDropCount++;
+            head++;
+        }
+        mHead = head;
+        return head;
+    }
+
+    private void wakeConsumer() {
+        Thread consumer = mWaitingConsumer;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * @return nombre maximal de frames en attente, après arrondi à la puissance de 2 supérieure
+     */
+    public int getCapacity() {
+        return mSlots.length;
+    }
+
+    /**
+     * @return nombre de frames actuellement en attente dans la file
+     */
+    public int getDepth() {
+        return (int) (mTail - mHead);
+    }
+
+    /**
+     * @return nombre de débordements de la file
+     */
+    public long getOverflowCount() {
+        return mOverflowCount;
+    }
+
+    /**
+     * @return nombre total de frames abandonnées, à l'entrée de la file ou parce qu'elles étaient
+     * en retard
+     */
+    public long getDropCount() {
+        return mProducerDropCount + mConsumerDropCount;
+    }
+}
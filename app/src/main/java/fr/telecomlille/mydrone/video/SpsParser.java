@@ -0,0 +1,384 @@
+package fr.telecomlille.mydrone.video;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Analyse un Sequence Parameter Set (SPS) H.264, afin d'en extraire la résolution réelle du flux
+ * ainsi que son profil et son niveau.
+ * <p>
+ * Le SPS peut être précédé d'un start code Annex B (00 00 01 ou 00 00 00 01), comme ceux transmis
+ * par le SDK. Les octets d'émulation de start code (00 00 03) sont retirés avant l'analyse.
+ * La résolution tient compte des paramètres de recadrage (frame cropping) et du codage entrelacé.
+ * </p>
+ */
+public final class SpsParser {
+
+    private static final int NAL_TYPE_SPS = 7;
+
+    private SpsParser() {
+        // Classe utilitaire
+    }
+
+    /**
+     * @param data octets du SPS, avec ou sans start code
+     * @return les paramètres extraits du SPS
+     * @throws IllegalArgumentException si les données ne forment pas un SPS valide
+     */
+    @NonNull
+    public static Sps parse(@NonNull byte[] data) {
+        return parse(data, 0, data.length);
+    }
+
+    /**
+     * @param data   tableau contenant le SPS, avec ou sans start code
+     * @param offset position du premier octet du SPS dans le tableau
+     * @param length nombre d'octets du SPS
+     * @return les paramètres extraits du SPS
+     * @throws IllegalArgumentException si les données ne forment pas un SPS valide
+     */
+    @NonNull
+    public static Sps parse(@NonNull byte[] data, int offset, int length) {
+        int start = skipStartCode(data, offset, length);
+        int end = offset + length;
+        if (start >= end) {
+            throw new IllegalArgumentException("Empty NAL unit");
+        }
+        int nalType = data[start] & 0x1F;
+        if (nalType != NAL_TYPE_SPS) {
+            throw new IllegalArgumentException("Not a SPS NAL unit: type " + nalType);
+        }
+
+        byte[] rbsp = unescape(data, start + 1, end);
+        BitReader reader = new BitReader(rbsp);
+        try {
+            return readSps(reader);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated SPS", e);
+        }
+    }
+
+    private static Sps readSps(BitReader reader) {
+        Sps sps = new Sps();
+        sps.profileIdc = reader.readBits(8);
+        sps.constraintFlags = reader.readBits(8);
+        sps.levelIdc = reader.readBits(8);
+        sps.spsId = reader.readUe();
+
+        int chromaFormatIdc = 1;
+        boolean separateColourPlane = false;
+        if (hasChromaInfo(sps.profileIdc)) {
+            chromaFormatIdc = reader.readUe();
+            if (chromaFormatIdc == 3) {
+                separateColourPlane = reader.readBit();
+            }
+            sps.bitDepthLuma = reader.readUe() + 8;
+            sps.bitDepthChroma = reader.readUe() + 8;
+            reader.readBit(); // qpprime_y_zero_transform_bypass_flag
+            if (reader.readBit()) { // seq_scaling_matrix_present_flag
+                int count = (chromaFormatIdc != 3) ? 8 : 12;
+                for (int i = 0; i < count; i++) {
+                    if (reader.readBit()) {
+                        skipScalingList(reader, (i < 6) ? 16 : 64);
+                    }
+                }
+            }
+        }
+        sps.chromaFormatIdc = chromaFormatIdc;
+
+        reader.readUe(); // log2_max_frame_num_minus4
+        int picOrderCntType = reader.readUe();
+        if (picOrderCntType == 0) {
+            reader.readUe(); // log2_max_pic_order_cnt_lsb_minus4
+        } else if (picOrderCntType == 1) {
+            reader.readBit(); // delta_pic_order_always_zero_flag
+            reader.readSe(); // offset_for_non_ref_pic
+            reader.readSe(); // offset_for_top_to_bottom_field
+            int cycleLength = reader.readUe();
+            for (int i = 0; i < cycleLength; i++) {
+                reader.readSe(); // offset_for_ref_frame
+            }
+        }
+        sps.maxRefFrames = reader.readUe();
+        reader.readBit(); // gaps_in_frame_num_value_allowed_flag
+
+        int widthInMbs = reader.readUe() + 1;
+        int heightInMapUnits = reader.readUe() + 1;
+        boolean frameMbsOnly = reader.readBit();
+        if (!frameMbsOnly) {
+            reader.readBit(); // mb_adaptive_frame_field_flag
+        }
+        reader.readBit(); // direct_8x8_inference_flag
+
+        int cropLeft = 0, cropRight = 0, cropTop = 0, cropBottom = 0;
+        if (reader.readBit()) { // frame_cropping_flag
+            cropLeft = reader.readUe();
+            cropRight = reader.readUe();
+            cropTop = reader.readUe();
+            cropBottom = reader.readUe();
+        }
+
+        int fieldFactor = frameMbsOnly ? 1 : 2;
+        int cropUnitX, cropUnitY;
+        if ((chromaFormatIdc == 0) || separateColourPlane) {
+            cropUnitX = 1;
+            cropUnitY = fieldFactor;
+        } else {
+            int subWidthC = (chromaFormatIdc == 3) ? 1 : 2;
+            int subHeightC = (chromaFormatIdc == 1) ? 2 : 1;
+            cropUnitX = subWidthC;
+            cropUnitY = subHeightC * fieldFactor;
+        }
+
+        sps.codedWidth = widthInMbs * 16;
+        sps.codedHeight = fieldFactor * heightInMapUnits * 16;
+        sps.width = sps.codedWidth - cropUnitX * (cropLeft + cropRight);
+        sps.height = sps.codedHeight - cropUnitY * (cropTop + cropBottom);
+        sps.interlaced = !frameMbsOnly;
+        if ((sps.width <= 0) || (sps.height <= 0)) {
+            throw new IllegalArgumentException("Invalid cropping: " + sps.width + "x" + sps.height);
+        }
+        return sps;
+    }
+
+    /**
+     * Indique si le SPS d'un profil contient les informations de chroma et de profondeur de bits.
+     */
+    private static boolean hasChromaInfo(int profileIdc) {
+        switch (profileIdc) {
+            case 100:
+            case 110:
+            case 122:
+            case 244:
+            case 44:
+            case 83:
+            case 86:
+            case 118:
+            case 128:
+            case 138:
+            case 139:
+            case 134:
+            case 135:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static void skipScalingList(BitReader reader, int size) {
+        int lastScale = 8;
+        int nextScale = 8;
+        for (int i = 0; i < size; i++) {
+            if (nextScale != 0) {
+                int deltaScale = reader.readSe();
+                nextScale = (lastScale + deltaScale + 256) % 256;
+            }
+            if (nextScale != 0) {
+                lastScale = nextScale;
+            }
+        }
+    }
+
+    /**
+     * @return position du premier octet après le start code, ou offset s'il n'y en a pas
+     */
+    private static int skipStartCode(byte[] data, int offset, int length) {
+        if ((length >= 4) && (data[offset] == 0) && (data[offset + 1] == 0)
+                && (data[offset + 2] == 0) && (data[offset + 3] == 1)) {
+            return offset + 4;
+        }
+        if ((length >= 3) && (data[offset] == 0) && (data[offset + 1] == 0) && (data[offset + 2] == 1)) {
+            return offset + 3;
+        }
+        return offset;
+    }
+
+    /**
+     * Retire les octets d'émulation de start code : toute séquence 00 00 03 devient 00 00.
+     */
+    static byte[] unescape(byte[] data, int start, int end) {
+        byte[] out = new byte[end - start];
+        int size = 0;
+        int zeros = 0;
+        for (int i = start; i < end; i++) {
+            byte b = data[i];
+            if ((zeros >= 2) && (b == 3)) {
+                zeros = 0;
+                continue;
+            }
+            out[size++] = b;
+            zeros = (b == 0) ? zeros + 1 : 0;
+        }
+        if (size == out.length) {
+            return out;
+        }
+        byte[] trimmed = new byte[size];
+        System.arraycopy(out, 0, trimmed, 0, size);
+        return trimmed;
+    }
+
+    /**
+     * Paramètres extraits d'un SPS.
+     */
+    public static final class Sps {
+        int profileIdc;
+        int constraintFlags;
+        int levelIdc;
+        int spsId;
+        int chromaFormatIdc;
+        int bitDepthLuma = 8;
+        int bitDepthChroma = 8;
+        int maxRefFrames;
+        int codedWidth;
+        int codedHeight;
+        int width;
+        int height;
+        boolean interlaced;
+
+        Sps() {
+        }
+
+        /**
+         * @return largeur de l'image affichée en pixels, après recadrage
+         */
+        public int getWidth() {
+            return width;
+        }
+
+        /**
+         * @return hauteur de l'image affichée en pixels, après recadrage
+         */
+        public int getHeight() {
+            return height;
+        }
+
+        /**
+         * @return largeur codée en pixels, multiple de 16
+         */
+        public int getCodedWidth() {
+            return codedWidth;
+        }
+
+        /**
+         * @return hauteur codée en pixels, multiple de 16
+         */
+        public int getCodedHeight() {
+            return codedHeight;
+        }
+
+        /**
+         * @return profil H.264 (66 : Baseline, 77 : Main, 100 : High, etc.)
+         */
+        public int getProfileIdc() {
+            return profileIdc;
+        }
+
+        /**
+         * @return octet des contraintes de profil (constraint_set0_flag à constraint_set5_flag)
+         */
+        public int getConstraintFlags() {
+            return constraintFlags;
+        }
+
+        /**
+         * @return niveau H.264 multiplié par 10 (31 pour le niveau 3.1)
+         */
+        public int getLevelIdc() {
+            return levelIdc;
+        }
+
+        /**
+         * @return identifiant de ce SPS
+         */
+        public int getSpsId() {
+            return spsId;
+        }
+
+        /**
+         * @return format de chroma (0 : monochrome, 1 : 4:2:0, 2 : 4:2:2, 3 : 4:4:4)
+         */
+        public int getChromaFormatIdc() {
+            return chromaFormatIdc;
+        }
+
+        /**
+         * @return nombre de bits par échantillon de luminance
+         */
+        public int getBitDepthLuma() {
+            return bitDepthLuma;
+        }
+
+        /**
+         * @return nombre de bits par échantillon de chrominance
+         */
+        public int getBitDepthChroma() {
+            return bitDepthChroma;
+        }
+
+        /**
+         * @return nombre maximal d'images de référence
+         */
+        public int getMaxRefFrames() {
+            return maxRefFrames;
+        }
+
+        /**
+         * @return true si le flux peut contenir des images entrelacées
+         */
+        public boolean isInterlaced() {
+            return interlaced;
+        }
+
+        @Override
+        public String toString() {
+            return "Sps{" + width + "x" + height + ", profile=" + profileIdc + ", level=" + levelIdc + "}";
+        }
+    }
+
+    /**
+     * Lecture bit à bit d'un RBSP, avec décodage des entiers exp-Golomb.
+     */
+    private static final class BitReader {
+        private final byte[] mData;
+        private int mBitPosition;
+
+        BitReader(byte[] data) {
+            mData = data;
+        }
+
+        boolean readBit() {
+            int bit = (mData[mBitPosition >> 3] >> (7 - (mBitPosition & 7))) & 1;
+            mBitPosition++;
+            return bit != 0;
+        }
+
+        int readBits(int count) {
+            int value = 0;
+            for (int i = 0; i < count; i++) {
+                value = (value << 1) | (readBit() ? 1 : 0);
+            }
+            return value;
+        }
+
+        /**
+         * Lit un entier non signé codé en exp-Golomb, ue(v).
+         */
+        int readUe() {
+            int leadingZeros = 0;
+            while (!readBit()) {
+                leadingZeros++;
+                if (leadingZeros > 31) {
+                    throw new IllegalArgumentException("Invalid exp-Golomb code");
+                }
+            }
+            return (int) ((1L << leadingZeros) - 1 + readBits(leadingZeros));
+        }
+
+        /**
+         * Lit un entier signé codé en exp-Golomb, se(v).
+         */
+        int readSe() {
+            int codeNum = readUe();
+            return ((codeNum & 1) != 0) ? (codeNum + 1) / 2 : -(codeNum / 2);
+        }
+    }
+}
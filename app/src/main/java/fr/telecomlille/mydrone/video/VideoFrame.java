@@ -0,0 +1,199 @@
+package fr.telecomlille.mydrone.video;
+
+import android.support.annotation.NonNull;
+
+import com.parrot.arsdk.arcontroller.ARFrame;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Copie d'une frame H.264 reçue depuis le drône, stockée dans un buffer direct réutilisable.
+ * <p>
+ * Une {@link ARFrame} n'est valide que pendant l'appel à
+ * {@link fr.telecomlille.mydrone.drone.BebopDrone.Listener#onFrameReceived(ARFrame)} :
+ * le SDK la réutilise ensuite. Pour conserver une frame au-delà de cet appel,
+ * on la copie dans un VideoFrame obtenu depuis un {@link VideoFramePool},
+ * puis on le rend au pool avec {@link #release()} une fois traité.
+ * </p><p>
+ * Une même frame peut être partagée entre plusieurs consommateurs : chacun d'eux obtient une
+ * référence avec {@link #retain()} et la libère avec {@link #release()}. La frame retourne au pool
+ * lorsque la dernière référence est libérée.
+ * </p><p>
+ * Une frame peut aussi être une vue d'une frame partagée, obtenue via
+ * {@link VideoFramePool#acquireView(VideoFrame)} : elle n'a pas de buffer propre, et conserve une
+ * référence sur la frame partagée jusqu'à sa propre libération. Cela permet de limiter le nombre
+ * de frames qu'un consommateur peut retenir, sans copier les données.
+ * </p>
+ */
+public final class VideoFrame {
+
+    private final VideoFramePool mPool;
+    private final AtomicInteger mRefCount = new AtomicInteger();
+    private ByteBuffer mData;
+    /**
+     * Frame dont celle-ci est une vue, ou null si elle contient ses propres données.
+     */
+    private VideoFrame mSource;
+    private int mSize;
+    private boolean mIsIFrame;
+    private long mTimestampNanos;
+
+    VideoFrame(VideoFramePool pool, int capacity) {
+        mPool = pool;
+        mData = ByteBuffer.allocateDirect(capacity);
+    }
+
+    /**
+     * Crée une vue, sans buffer propre.
+     */
+    VideoFrame(VideoFramePool pool) {
+        mPool = pool;
+    }
+
+    /**
+     * Copie le contenu d'une frame reçue depuis le SDK.
+     * <p>
+     * Le SDK n'expose le contenu natif d'une {@link ARFrame} en Java que sous forme de tableau,
+     * via {@link ARFrame#getByteData()} : c'est la seule copie qui ne peut pas être évitée sans JNI.
+     * Le buffer direct n'est réalloué que si la frame dépasse sa capacité actuelle.
+     * </p>
+     *
+     * @param frame frame à copier
+     */
+    public void copyFrom(@NonNull ARFrame frame) {
+        int size = frame.getDataSize();
+        ensureCapacity(size);
+        mData.clear();
+        mData.put(frame.getByteData(), 0, size);
+        mData.flip();
+        mSize = size;
+        mIsIFrame = frame.isIFrame();
+        mTimestampNanos = System.nanoTime();
+    }
+
+    /**
+     * Copie le contenu d'une autre frame, y compris son type et son horodatage.
+     *
+     * @param other frame à copier
+     */
+    public void copyFrom(@NonNull VideoFrame other) {
+        int size = other.mSize;
+        ensureCapacity(size);
+        mData.clear();
+        other.writeTo(mData);
+        mData.flip();
+        mSize = size;
+        mIsIFrame = other.mIsIFrame;
+        mTimestampNanos = other.mTimestampNanos;
+    }
+
+    /**
+     * Copie le contenu de cette frame dans un autre buffer, à partir de sa position courante.
+     * Une frame partagée peut être copiée depuis plusieurs Threads à la fois.
+     *
+     * @param dst buffer de destination, typiquement un buffer d'entrée de MediaCodec
+     */
+    public void writeTo(@NonNull ByteBuffer dst) {
+        if (mSource != null) {
+            mSource.writeTo(dst);
+            return;
+        }
+        // La copie déplace la position du buffer source : elle est donc sérialisée
+        synchronized (mData) {
+            mData.position(0);
+            dst.put(mData);
+        }
+    }
+
+    /**
+     * Copie le contenu de cette frame dans un tableau.
+     * Une frame partagée peut être copiée depuis plusieurs Threads à la fois.
+     *
+     * @param dst tableau de destination, d'au moins {@link #getSize()} octets
+     */
+    public void writeTo(@NonNull byte[] dst) {
+        if (mSource != null) {
+            mSource.writeTo(dst);
+            return;
+        }
+        synchronized (mData) {
+            mData.position(0);
+            mData.get(dst, 0, mSize);
+        }
+    }
+
+    /**
+     * @return taille de la frame en octets
+     */
+    public int getSize() {
+        return (mSource != null) ? mSource.mSize : mSize;
+    }
+
+    /**
+     * @return true si la frame est une I-frame, décodable indépendamment des précédentes
+     */
+    public boolean isIFrame() {
+        return (mSource != null) ? mSource.mIsIFrame : mIsIFrame;
+    }
+
+    /**
+     * @return instant de réception de la frame, selon {@link System#nanoTime()}
+     */
+    public long getTimestampNanos() {
+        return (mSource != null) ? mSource.mTimestampNanos : mTimestampNanos;
+    }
+
+    /**
+     * Obtient une référence supplémentaire sur cette frame, à libérer avec {@link #release()}.
+     */
+    public void retain() {
+        if (mRefCount.getAndIncrement() <= 0) {
+            throw new IllegalStateException("Frame retained after being released");
+        }
+    }
+
+    /**
+     * Libère une référence sur cette frame. Lorsque la dernière référence est libérée,
+     * la frame retourne à son pool et ne doit plus être utilisée.
+     */
+    public void release() {
+        int refCount = mRefCount.decrementAndGet();
+        if (refCount == 0) {
+            VideoFrame source = mSource;
+            mSource = null;
+            mPool.release(this);
+            if (source != null) {
+                source.release();
+            }
+        } else if (refCount < 0) {
+            throw new IllegalStateException("Frame released twice");
+        }
+    }
+
+    /**
+     * Appelé par le pool lorsque la frame est attribuée, avec une seule référence.
+     */
+    void onAcquired() {
+        mRefCount.set(1);
+    }
+
+    /**
+     * Appelé par le pool lorsque cette vue est attribuée à une frame partagée.
+     */
+    void attach(VideoFrame source) {
+        source.retain();
+        mSource = source;
+    }
+
+    private void ensureCapacity(int size) {
+        if (mData == null) {
+            throw new IllegalStateException("A view has no buffer to copy into");
+        }
+        if (mData.capacity() < size) {
+            // Marge pour éviter de réallouer à chaque I-frame légèrement plus grande
+            mData = ByteBuffer.allocateDirect(size + (size >> 2));
+            mPool.onBufferAllocated();
+        }
+    }
+}
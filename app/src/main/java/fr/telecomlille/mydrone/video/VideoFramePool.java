@@ -0,0 +1,155 @@
+package fr.telecomlille.mydrone.video;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Pool de taille fixe de {@link VideoFrame}, dont les buffers directs sont alloués une fois pour
+ * toutes à la création du pool.
+ * <p>
+ * Le pool compte les buffers qu'il alloue : une fois les premières I-frames reçues,
+ * ce nombre ne doit plus augmenter, ce qui permet de vérifier que la réception du flux vidéo
+ * n'alloue plus rien à chaque frame.
+ * Toutes les méthodes peuvent être appelées depuis n'importe quel Thread.
+ * </p><p>
+ * Un pool de vues ({@link #VideoFramePool(int)}) ne contient que des frames sans buffer, attribuées
+ * à des frames partagées via {@link #acquireView(VideoFrame)}. Sa taille borne le nombre de frames
+ * partagées que son propriétaire peut retenir.
+ * </p>
+ */
+public class VideoFramePool {
+
+    private VideoFrame[] mFreeFrames;
+    private final int mFrameCapacity;
+    private int mFreeCount;
+
+    private volatile int mAllocationCount;
+    private volatile long mAcquireCount;
+    private volatile long mExhaustedCount;
+
+    /**
+     * @param poolSize      nombre de frames du pool
+     * @param frameCapacity capacité initiale en octets du buffer de chaque frame
+     */
+    public VideoFramePool(@IntRange(from = 1) int poolSize, @IntRange(from = 1) int frameCapacity) {
+        mFrameCapacity = frameCapacity;
+        mFreeFrames = new VideoFrame[poolSize];
+        for (int i = 0; i < poolSize; i++) {
+            mFreeFrames[i] = new VideoFrame(this, frameCapacity);
+        }
+        mFreeCount = poolSize;
+        mAllocationCount = poolSize;
+    }
+
+    /**
+     * Crée un pool de vues, qui n'alloue aucun buffer.
+     *
+     * @param poolSize nombre de vues du pool
+     */
+    public VideoFramePool(@IntRange(from = 1) int poolSize) {
+        mFrameCapacity = 0;
+        mFreeFrames = new VideoFrame[poolSize];
+        for (int i = 0; i < poolSize; i++) {
+            mFreeFrames[i] = new VideoFrame(this);
+        }
+        mFreeCount = poolSize;
+    }
+
+    /**
+     * Ajoute des frames au pool. Destiné à la configuration du pool, pas au traitement des frames.
+     *
+     * @param count nombre de frames à ajouter
+     */
+    public synchronized void grow(@IntRange(from = 0) int count) {
+        VideoFrame[] frames = new VideoFrame[mFreeFrames.length + count];
+        System.arraycopy(mFreeFrames, 0, frames, 0, mFreeCount);
+        for (int i = 0; i < count; i++) {
+            frames[mFreeCount++] = (mFrameCapacity > 0)
+                    ? new VideoFrame(this, mFrameCapacity) : new VideoFrame(this);
+        }
+        if (mFrameCapacity > 0) {
+            mAllocationCount += count;
+        }
+        mFreeFrames = frames;
+    }
+
+    /**
+     * @return nombre total de frames du pool, libres ou non
+     */
+    public synchronized int getPoolSize() {
+        return mFreeFrames.length;
+    }
+
+    /**
+     * Obtient une frame libre du pool.
+     *
+     * @return une frame, ou null si toutes les frames du pool sont en cours d'utilisation
+     */
+    @Nullable
+    public synchronized VideoFrame acquire() {
+        if (mFreeCount == 0) {
+            mExhaustedCount++;
+            return null;
+        }
+        mAcquireCount++;
+        VideoFrame frame = mFreeFrames[--mFreeCount];
+        mFreeFrames[mFreeCount] = null;
+        frame.onAcquired();
+        return frame;
+    }
+
+    /**
+     * Obtient une vue libre de ce pool de vues, et l'attribue à une frame partagée.
+     *
+     * @param source frame partagée, sur laquelle la vue obtient une référence
+     * @return la vue, ou null si toutes les vues du pool sont en cours d'utilisation
+     */
+    @Nullable
+    public VideoFrame acquireView(@NonNull VideoFrame source) {
+        VideoFrame view = acquire();
+        if (view != null) {
+            view.attach(source);
+        }
+        return view;
+    }
+
+    synchronized void release(VideoFrame frame) {
+        if (mFreeCount == mFreeFrames.length) {
+            throw new IllegalStateException("Frame released twice");
+        }
+        mFreeFrames[mFreeCount++] = frame;
+    }
+
+    synchronized void onBufferAllocated() {
+        mAllocationCount++;
+    }
+
+    /**
+     * @return nombre de frames actuellement disponibles
+     */
+    public synchronized int getFreeCount() {
+        return mFreeCount;
+    }
+
+    /**
+     * @return nombre total de buffers directs alloués par ce pool, y compris à sa création
+     */
+    public int getAllocationCount() {
+        return mAllocationCount;
+    }
+
+    /**
+     * @return nombre de frames obtenues depuis la création du pool
+     */
+    public long getAcquireCount() {
+        return mAcquireCount;
+    }
+
+    /**
+     * @return nombre de demandes refusées parce que le pool était vide
+     */
+    public long getExhaustedCount() {
+        return mExhaustedCount;
+    }
+}
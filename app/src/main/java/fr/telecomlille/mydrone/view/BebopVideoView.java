@@ -1,7 +1,6 @@
 package fr.telecomlille.mydrone.view;
 
 import android.content.Context;
-import android.media.MediaCodec;
 import android.media.MediaFormat;
 import android.util.AttributeSet;
 import android.util.Log;
@@ -12,33 +11,48 @@ import com.parrot.arsdk.arcontroller.ARCONTROLLER_STREAM_CODEC_TYPE_ENUM;
 import com.parrot.arsdk.arcontroller.ARControllerCodec;
 import com.parrot.arsdk.arcontroller.ARFrame;
 
-import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import fr.telecomlille.mydrone.video.DecoderPipeline;
+import fr.telecomlille.mydrone.video.SpsParser;
+import fr.telecomlille.mydrone.video.VideoFrame;
+
 /**
  * Un View capable de décoder les frame prises par la caméra du drone pour les afficher en
  * tant que flux vidéo continu.
+ * <p>
+ * Le décodage est confié à un {@link DecoderPipeline} : {@link #displayFrame(ARFrame)} se contente
+ * de copier la frame dans sa file d'attente, et ne bloque jamais le Thread du SDK.
+ * </p><p>
+ * La résolution du flux est lue dans le SPS transmis par le drône. Le décodeur n'est reconfiguré
+ * que si les paramètres SPS/PPS ont réellement changé, ce qui évite d'interrompre l'affichage
+ * lorsque le drône renvoie les mêmes paramètres, par exemple à la reconnexion.
+ * </p>
  */
 public class BebopVideoView extends SurfaceView implements SurfaceHolder.Callback {
 
     private static final String TAG = "BebopVideoView";
     private static final String VIDEO_MIME_TYPE = "video/avc";
-    private static final int VIDEO_DEQUEUE_TIMEOUT = 33000;
+    private static final int DECODER_QUEUE_CAPACITY = 8;
 
-    private MediaCodec mMediaCodec;
+    private final DecoderPipeline mDecoder = new DecoderPipeline(DECODER_QUEUE_CAPACITY);
     private Lock mReadyLock;
 
-    private boolean mIsCodecConfigured = false;
-
-    private ByteBuffer mSpsBuffer;
-    private ByteBuffer mPpsBuffer;
+    private boolean mIsSurfaceReady = false;
 
-    private ByteBuffer[] mBuffers;
+    private byte[] mSps;
+    private byte[] mPps;
+    private int mVideoWidth = DEFAULT_VIDEO_WIDTH;
+    private int mVideoHeight = DEFAULT_VIDEO_HEIGHT;
 
-    private static final int VIDEO_WIDTH = 640;
-    private static final int VIDEO_HEIGHT = 368;
+    /**
+     * Résolution utilisée si le SPS reçu ne peut pas être analysé.
+     */
+    private static final int DEFAULT_VIDEO_WIDTH = 640;
+    private static final int DEFAULT_VIDEO_HEIGHT = 368;
 
     public BebopVideoView(Context context) {
         super(context);
@@ -61,56 +75,16 @@ public class BebopVideoView extends SurfaceView implements SurfaceHolder.Callbac
     }
 
     public void displayFrame(ARFrame frame) {
-        mReadyLock.lock();
-
-        if ((mMediaCodec != null)) {
-            if (mIsCodecConfigured) {
-                // Here we have either a good PFrame, or an IFrame
-                int index = -1;
-
-                try {
-                    index = mMediaCodec.dequeueInputBuffer(VIDEO_DEQUEUE_TIMEOUT);
-                } catch (IllegalStateException e) {
-                    Log.e(TAG, "Error while dequeue input buffer");
-                }
-                if (index >= 0) {
-                    ByteBuffer b;
-                    if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.LOLLIPOP) {
-                        b = mMediaCodec.getInputBuffer(index);
-                    } else {
-                        b = mBuffers[index];
-                        b.clear();
-                    }
-
-                    if (b != null) {
-                        b.put(frame.getByteData(), 0, frame.getDataSize());
-                    }
-
-                    try {
-                        mMediaCodec.queueInputBuffer(index, 0, frame.getDataSize(), 0, 0);
-                    } catch (IllegalStateException e) {
-                        Log.e(TAG, "Error while queue input buffer");
-                    }
-                }
-            }
-
-            // Try to display previous frame
-            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
-            int outIndex;
-            try {
-                outIndex = mMediaCodec.dequeueOutputBuffer(info, 0);
-
-                while (outIndex >= 0) {
-                    mMediaCodec.releaseOutputBuffer(outIndex, true);
-                    outIndex = mMediaCodec.dequeueOutputBuffer(info, 0);
-                }
-            } catch (IllegalStateException e) {
-                Log.e(TAG, "Error while dequeue input buffer (outIndex)");
-            }
-        }
-
+        mDecoder.submit(frame);
+    }
 
-        mReadyLock.unlock();
+    /**
+     * Affiche une frame déjà copiée, par exemple distribuée par un
+     * {@link fr.telecomlille.mydrone.drone.FrameHub}. Ne doit pas être utilisée en même temps que
+     * {@link #displayFrame(ARFrame)}.
+     */
+    public void displayFrame(VideoFrame frame) {
+        mDecoder.submit(frame);
     }
 
     public void configureDecoder(ARControllerCodec codec) {
@@ -118,61 +92,75 @@ public class BebopVideoView extends SurfaceView implements SurfaceHolder.Callbac
 
         if (codec.getType() == ARCONTROLLER_STREAM_CODEC_TYPE_ENUM.ARCONTROLLER_STREAM_CODEC_TYPE_H264) {
             ARControllerCodec.H264 codecH264 = codec.getAsH264();
+            byte[] sps = codecH264.getSps().getByteData();
+            byte[] pps = codecH264.getPps().getByteData();
+
+            boolean changed = !Arrays.equals(sps, mSps) || !Arrays.equals(pps, mPps);
+            if (changed) {
+                mSps = sps;
+                mPps = pps;
+                readVideoSize(sps);
+            }
 
-            mSpsBuffer = ByteBuffer.wrap(codecH264.getSps().getByteData());
-            mPpsBuffer = ByteBuffer.wrap(codecH264.getPps().getByteData());
-        }
-
-        if ((mMediaCodec != null) && (mSpsBuffer != null)) {
-            configureMediaCodec();
+            // Inutile d'interrompre le décodeur si les paramètres du flux sont identiques
+            if (mIsSurfaceReady && (changed || !mDecoder.isRunning())) {
+                startDecoder();
+            }
         }
 
         mReadyLock.unlock();
     }
 
-    private void configureMediaCodec() {
-        mMediaCodec.stop();
-        MediaFormat format = MediaFormat.createVideoFormat(VIDEO_MIME_TYPE, VIDEO_WIDTH, VIDEO_HEIGHT);
-        format.setByteBuffer("csd-0", mSpsBuffer);
-        format.setByteBuffer("csd-1", mPpsBuffer);
-
-        mMediaCodec.configure(format, getHolder().getSurface(), null, 0);
-        mMediaCodec.start();
-
-        if (android.os.Build.VERSION.SDK_INT < android.os.Build.VERSION_CODES.LOLLIPOP) {
-            mBuffers = mMediaCodec.getInputBuffers();
+    private void readVideoSize(byte[] sps) {
+        try {
+            SpsParser.Sps parsed = SpsParser.parse(sps);
+            mVideoWidth = parsed.getWidth();
+            mVideoHeight = parsed.getHeight();
+            Log.d(TAG, "Video stream: " + parsed);
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Unable to parse SPS, falling back to default resolution", e);
+            mVideoWidth = DEFAULT_VIDEO_WIDTH;
+            mVideoHeight = DEFAULT_VIDEO_HEIGHT;
         }
+    }
+
+    private void startDecoder() {
+        MediaFormat format = MediaFormat.createVideoFormat(VIDEO_MIME_TYPE, mVideoWidth, mVideoHeight);
+        format.setByteBuffer("csd-0", ByteBuffer.wrap(mSps));
+        format.setByteBuffer("csd-1", ByteBuffer.wrap(mPps));
 
-        mIsCodecConfigured = true;
+        mDecoder.start(format, getHolder().getSurface());
     }
 
-    private void initMediaCodec(String type) {
-        try {
-            mMediaCodec = MediaCodec.createDecoderByType(type);
-        } catch (IOException e) {
-            Log.e(TAG, "Exception", e);
-        }
+    /**
+     * @return largeur en pixels du flux vidéo, lue dans le SPS
+     */
+    public int getVideoWidth() {
+        return mVideoWidth;
+    }
 
-        if ((mMediaCodec != null) && (mSpsBuffer != null)) {
-            configureMediaCodec();
-        }
+    /**
+     * @return hauteur en pixels du flux vidéo, lue dans le SPS
+     */
+    public int getVideoHeight() {
+        return mVideoHeight;
     }
 
-    private void releaseMediaCodec() {
-        if (mMediaCodec != null) {
-            if (mIsCodecConfigured) {
-                mMediaCodec.stop();
-                mMediaCodec.release();
-            }
-            mIsCodecConfigured = false;
-            mMediaCodec = null;
-        }
+    /**
+     * @return le pipeline de décodage, notamment pour consulter ses statistiques
+     * (profondeur de la file, frames abandonnées, latence de décodage).
+     */
+    public DecoderPipeline getDecoderPipeline() {
+        return mDecoder;
     }
 
     @Override
     public void surfaceCreated(SurfaceHolder holder) {
         mReadyLock.lock();
-        initMediaCodec(VIDEO_MIME_TYPE);
+        mIsSurfaceReady = true;
+        if (mSps != null) {
+            startDecoder();
+        }
         mReadyLock.unlock();
     }
 
@@ -184,7 +172,8 @@ public class BebopVideoView extends SurfaceView implements SurfaceHolder.Callbac
     @Override
     public void surfaceDestroyed(SurfaceHolder holder) {
         mReadyLock.lock();
-        releaseMediaCodec();
+        mIsSurfaceReady = false;
+        mDecoder.stop();
         mReadyLock.unlock();
     }
 }
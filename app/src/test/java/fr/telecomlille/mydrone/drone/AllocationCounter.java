@@ -0,0 +1,39 @@
+package fr.telecomlille.mydrone.drone;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Mesure la mémoire allouée par le Thread courant, lorsque la JVM le permet.
+ */
+final class AllocationCounter {
+
+    private final com.sun.management.ThreadMXBean mThreads;
+    private final long mThreadId = Thread.currentThread().getId();
+
+    private AllocationCounter(com.sun.management.ThreadMXBean threads) {
+        mThreads = threads;
+    }
+
+    /**
+     * @return un compteur pour le Thread courant, ou null si la JVM ne mesure pas les allocations
+     */
+    static AllocationCounter forCurrentThread() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) {
+            return null;
+        }
+        return new AllocationCounter(threads);
+    }
+
+    /**
+     * @return nombre d'octets alloués par le Thread depuis son démarrage
+     */
+    long allocatedBytes() {
+        return mThreads.getThreadAllocatedBytes(mThreadId);
+    }
+}
@@ -0,0 +1,144 @@
+package fr.telecomlille.mydrone.drone;
+
+import android.support.annotation.NonNull;
+
+import com.parrot.arsdk.arcontroller.ARCONTROLLER_DICTIONARY_KEY_ENUM;
+import com.parrot.arsdk.arcontroller.ARControllerArgumentDictionary;
+import com.parrot.arsdk.arcontroller.ARControllerDictionary;
+import com.parrot.arsdk.arcontroller.ARFeatureARDrone3;
+import com.parrot.arsdk.arcontroller.ARFeatureCommon;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Tests unitaires de {@link CommandDispatcher}.
+ */
+public class CommandDispatcherTest {
+
+    private static final double DELTA = 1e-6;
+    private static final int COMMAND_COUNT = 100000;
+
+    private CommandDispatcher mDispatcher;
+    private DroneTelemetry mTelemetry;
+    private DroneEventQueue mEvents;
+    private DroneTelemetry.Snapshot mSnapshot;
+
+    @Before
+    public void setUp() {
+        mDispatcher = new CommandDispatcher();
+        mTelemetry = new DroneTelemetry();
+        mEvents = new DroneEventQueue(1);
+        mSnapshot = new DroneTelemetry.Snapshot();
+
+        // Mêmes traitements que BebopDrone pour les commandes les plus fréquentes
+        mDispatcher.register(ARCONTROLLER_DICTIONARY_KEY_ENUM.ARCONTROLLER_DICTIONARY_KEY_COMMON_COMMONSTATE_BATTERYSTATECHANGED,
+                new CommandDispatcher.CommandHandler() {
+                    @Override
+                    public void onCommand(@NonNull ARControllerArgumentDictionary<Object> args) {
+                        int battery = CommandDispatcher.getInt(args, ARFeatureCommon.ARCONTROLLER_DICTIONARY_KEY_COMMON_COMMONSTATE_BATTERYSTATECHANGED_PERCENT);
+                        mTelemetry.updateBattery(battery);
+                        mEvents.setBattery(battery);
+                    }
+                });
+        mDispatcher.register(ARCONTROLLER_DICTIONARY_KEY_ENUM.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_PILOTINGSTATE_SPEEDCHANGED,
+                new CommandDispatcher.CommandHandler() {
+                    @Override
+                    public void onCommand(@NonNull ARControllerArgumentDictionary<Object> args) {
+                        mTelemetry.updateSpeed(
+                                CommandDispatcher.getDouble(args, ARFeatureARDrone3.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_PILOTINGSTATE_SPEEDCHANGED_SPEEDX),
+                                CommandDispatcher.getDouble(args, ARFeatureARDrone3.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_PILOTINGSTATE_SPEEDCHANGED_SPEEDY),
+                                CommandDispatcher.getDouble(args, ARFeatureARDrone3.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_PILOTINGSTATE_SPEEDCHANGED_SPEEDZ));
+                    }
+                });
+    }
+
+    @Test
+    public void dispatch_callsHandlerOfTheKey() {
+        assertTrue(mDispatcher.dispatch(ARCONTROLLER_DICTIONARY_KEY_ENUM.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_PILOTINGSTATE_SPEEDCHANGED,
+                speedCommand(1.5f, -2.0f, 0.25f)));
+
+        mTelemetry.snapshot(mSnapshot);
+        assertEquals(1.5, mSnapshot.getSpeedX(), DELTA);
+        assertEquals(-2.0, mSnapshot.getSpeedY(), DELTA);
+        assertEquals(0.25, mSnapshot.getSpeedZ(), DELTA);
+    }
+
+    @Test
+    public void dispatch_readsAnyNumericType() {
+        // Selon la commande, le SDK stocke les entiers dans un Byte, un Short ou un Integer
+        ARControllerDictionary command = command(ARFeatureCommon.ARCONTROLLER_DICTIONARY_KEY_COMMON_COMMONSTATE_BATTERYSTATECHANGED_PERCENT,
+                Byte.valueOf((byte) 87));
+
+        assertTrue(mDispatcher.dispatch(ARCONTROLLER_DICTIONARY_KEY_ENUM.ARCONTROLLER_DICTIONARY_KEY_COMMON_COMMONSTATE_BATTERYSTATECHANGED,
+                command));
+        assertEquals(87, mTelemetry.snapshot(mSnapshot).getBattery());
+    }
+
+    @Test
+    public void dispatch_withoutHandlerOrArguments_isIgnored() {
+        assertFalse(mDispatcher.dispatch(ARCONTROLLER_DICTIONARY_KEY_ENUM.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_PILOTINGSTATE_ALTITUDECHANGED,
+                speedCommand(0, 0, 0)));
+        assertFalse(mDispatcher.dispatch(ARCONTROLLER_DICTIONARY_KEY_ENUM.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_PILOTINGSTATE_SPEEDCHANGED,
+                new ARControllerDictionary()));
+        assertFalse(mDispatcher.dispatch(null, speedCommand(0, 0, 0)));
+        assertFalse(mDispatcher.dispatch(ARCONTROLLER_DICTIONARY_KEY_ENUM.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_PILOTINGSTATE_SPEEDCHANGED,
+                null));
+    }
+
+    @Test
+    public void dispatch_doesNotAllocatePerCommand() {
+        AllocationCounter counter = AllocationCounter.forCurrentThread();
+        assumeTrue(counter != null);
+        // Les dictionnaires sont remplis par le SDK avant l'appel de onCommandReceived
+        ARControllerDictionary speed = speedCommand(1.0f, 2.0f, 3.0f);
+        ARControllerDictionary battery = command(ARFeatureCommon.ARCONTROLLER_DICTIONARY_KEY_COMMON_COMMONSTATE_BATTERYSTATECHANGED_PERCENT,
+                Byte.valueOf((byte) 50));
+
+        // Premier passage : chargement des classes et compilation
+        dispatchAll(speed, battery);
+        long before = counter.allocatedBytes();
+        dispatchAll(speed, battery);
+        long allocated = counter.allocatedBytes() - before;
+
+        // Une allocation par commande représenterait plusieurs méga-octets
+        assertTrue("allocated " + allocated + " bytes", allocated < 4096);
+    }
+
+    private void dispatchAll(ARControllerDictionary speed, ARControllerDictionary battery) {
+        for (int i = 0; i < COMMAND_COUNT; i++) {
+            mDispatcher.dispatch(ARCONTROLLER_DICTIONARY_KEY_ENUM.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_PILOTINGSTATE_SPEEDCHANGED, speed);
+            mDispatcher.dispatch(ARCONTROLLER_DICTIONARY_KEY_ENUM.ARCONTROLLER_DICTIONARY_KEY_COMMON_COMMONSTATE_BATTERYSTATECHANGED, battery);
+            if ((i % 100) == 0) {
+                // Le Thread principal délivre les évènements à chaque frame
+                int count = mEvents.take();
+                for (int j = 0; j < count; j++) {
+                    mEvents.poll(j);
+                }
+            }
+        }
+    }
+
+    private static ARControllerDictionary speedCommand(float speedX, float speedY, float speedZ) {
+        ARControllerArgumentDictionary<Object> args = new ARControllerArgumentDictionary<>();
+        args.put(ARFeatureARDrone3.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_PILOTINGSTATE_SPEEDCHANGED_SPEEDX, speedX);
+        args.put(ARFeatureARDrone3.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_PILOTINGSTATE_SPEEDCHANGED_SPEEDY, speedY);
+        args.put(ARFeatureARDrone3.ARCONTROLLER_DICTIONARY_KEY_ARDRONE3_PILOTINGSTATE_SPEEDCHANGED_SPEEDZ, speedZ);
+        ARControllerDictionary command = new ARControllerDictionary();
+        command.put(ARControllerDictionary.ARCONTROLLER_DICTIONARY_SINGLE_KEY, args);
+        return command;
+    }
+
+    private static ARControllerDictionary command(String key, Object value) {
+        ARControllerArgumentDictionary<Object> args = new ARControllerArgumentDictionary<>();
+        args.put(key, value);
+        ARControllerDictionary command = new ARControllerDictionary();
+        command.put(ARControllerDictionary.ARCONTROLLER_DICTIONARY_SINGLE_KEY, args);
+        return command;
+    }
+}
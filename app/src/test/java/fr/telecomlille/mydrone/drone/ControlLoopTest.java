@@ -0,0 +1,147 @@
+package fr.telecomlille.mydrone.drone;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests unitaires de {@link ControlLoop}, cadencée par une horloge simulée.
+ */
+public class ControlLoopTest {
+
+    private static final int RATE_HZ = 25;
+    private static final long PERIOD = 40000000L;
+
+    private FakeClock mClock;
+    private FakeSink mSink;
+    private ControlLoop mLoop;
+
+    @Before
+    public void setUp() throws Exception {
+        mClock = new FakeClock();
+        mSink = new FakeSink(mClock);
+        mLoop = new ControlLoop(mSink, RATE_HZ, 8, mClock);
+    }
+
+    @Test
+    public void period_matchesRate() throws Exception {
+        assertEquals(PERIOD, mLoop.getPeriodNanos());
+    }
+
+    @Test
+    public void runIteration_sendsOneCommandPerPeriod() throws Exception {
+        mLoop.setPitch(10);
+        mLoop.runIteration();
+        mLoop.setPitch(20);
+        mLoop.setRoll(-5);
+        mLoop.runIteration();
+
+        assertEquals(2, mSink.commands.size());
+        assertEquals(PERIOD, mSink.sendTimes.get(1) - mSink.sendTimes.get(0));
+        assertEquals(20, mSink.commands.get(1)[2]);
+        assertEquals(-5, mSink.commands.get(1)[1]);
+        assertEquals(0, mLoop.getDeadlineMissCount());
+    }
+
+    @Test
+    public void post_whenQueueFull_keepsLatestValueOfEachAxis() throws Exception {
+        mLoop.setFlag(BebopDrone.FLAG_ENABLED);
+        for (int i = 1; i <= 20; i++) {
+            mLoop.setYaw(i);
+        }
+        mLoop.runIteration();
+
+        byte[] cmd = mSink.commands.get(0);
+        assertEquals(BebopDrone.FLAG_ENABLED, cmd[0]);
+        assertEquals(20, cmd[3]);
+        assertEquals(18, mLoop.getCoalescedInputCount());
+    }
+
+    @Test
+    public void runIteration_whenSinkIsSlow_countsMissedDeadlines() throws Exception {
+        mLoop.setGaz(50);
+        // L'envoi dure 2,5 périodes : les deux échéances suivantes sont manquées
+        mSink.sendDuration = PERIOD * 5 / 2;
+        mLoop.runIteration();
+        assertEquals(2, mLoop.getDeadlineMissCount());
+
+        mSink.sendDuration = 0;
+        mLoop.setGaz(40);
+        mLoop.runIteration();
+        // La période suivante reprend sur la grille, sans rafale de rattrapage
+        assertEquals(3 * PERIOD, mSink.sendTimes.get(1) - mSink.sendTimes.get(0));
+        assertEquals(2, mLoop.getTickCount());
+    }
+
+    @Test
+    public void runIteration_recordsMaxLateness() throws Exception {
+        mClock.oversleep = 5000000L;
+        mLoop.runIteration();
+        mClock.oversleep = 2000000L;
+        mLoop.runIteration();
+
+        assertEquals(5000000L, mLoop.getMaxLatenessNanos());
+        assertEquals(0, mLoop.getDeadlineMissCount());
+    }
+
+    @Test
+    public void setCommand_replacesEveryAxis() throws Exception {
+        mLoop.setCommand(BebopDrone.FLAG_ENABLED, 0, 30, -20, 10);
+        mLoop.setCommand(BebopDrone.FLAG_DISABLED, 0, 0, 0, 0);
+        mLoop.runIteration();
+
+        assertEquals(1, mSink.commands.size());
+        byte[] cmd = mSink.commands.get(0);
+        assertEquals(BebopDrone.FLAG_DISABLED, cmd[0]);
+        assertEquals(0, cmd[2]);
+        assertEquals(0, cmd[3]);
+        assertEquals(0, cmd[4]);
+    }
+
+    @Test
+    public void flush_sendsPendingCommandImmediately() throws Exception {
+        mLoop.setFlag(BebopDrone.FLAG_DISABLED);
+        mLoop.flush();
+        assertEquals(1, mSink.commands.size());
+    }
+
+    private static class FakeClock implements ControlLoop.Clock {
+        long now;
+        long oversleep;
+
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+
+        @Override
+        public void sleepUntil(long deadlineNanos) {
+            if (deadlineNanos > now) {
+                now = deadlineNanos;
+            }
+            now += oversleep;
+        }
+    }
+
+    private static class FakeSink implements PilotingCommandMixer.Sink {
+        final FakeClock clock;
+        final List<byte[]> commands = new ArrayList<>();
+        final List<Long> sendTimes = new ArrayList<>();
+        long sendDuration;
+
+        FakeSink(FakeClock clock) {
+            this.clock = clock;
+        }
+
+        @Override
+        public void setPilotingPCMD(byte flag, byte roll, byte pitch, byte yaw, byte gaz, int timestampAndSeqNum) {
+            commands.add(new byte[]{flag, roll, pitch, yaw, gaz});
+            sendTimes.add(clock.now);
+            clock.now += sendDuration;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package fr.telecomlille.mydrone.drone;
+
+import com.parrot.arsdk.arcommands.ARCOMMANDS_ARDRONE3_MEDIARECORDEVENT_PICTUREEVENTCHANGED_ERROR_ENUM;
+import com.parrot.arsdk.arcommands.ARCOMMANDS_ARDRONE3_PILOTINGSTATE_FLYINGSTATECHANGED_STATE_ENUM;
+import com.parrot.arsdk.arcontroller.ARCONTROLLER_DEVICE_STATE_ENUM;
+import com.parrot.arsdk.arcontroller.ARControllerCodec;
+import com.parrot.arsdk.arcontroller.ARFrame;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Tests unitaires de {@link DroneEventQueue}.
+ */
+public class DroneEventQueueTest {
+
+    private static final int PARALLEL_DOWNLOADS = 3;
+    private static final String[] MEDIA_NAMES = {"a.jpg", "b.jpg", "c.mp4"};
+
+    private DroneEventQueue mQueue;
+    private RecordingListener mListener;
+    private BebopDrone.Listener[] mListeners;
+
+    @Before
+    public void setUp() {
+        mQueue = new DroneEventQueue(PARALLEL_DOWNLOADS);
+        mListener = new RecordingListener();
+        mListeners = new BebopDrone.Listener[]{mListener};
+    }
+
+    @Test
+    public void stateEvents_deliverOnlyLatestValue_atItsPosition() {
+        mQueue.setBattery(90);
+        mQueue.add(namedEvent("picture"));
+        mQueue.setDownloadProgress("a.jpg", 10);
+        mQueue.setBattery(80);
+        mQueue.setDownloadProgress("a.jpg", 20);
+        mQueue.add(namedEvent("complete"));
+
+        deliver();
+
+        assertEquals(4, mListener.events.size());
+        assertEquals("picture", mListener.events.get(0));
+        assertEquals("battery 80", mListener.events.get(1));
+        assertEquals("progress a.jpg 20", mListener.events.get(2));
+        assertEquals("complete", mListener.events.get(3));
+    }
+
+    @Test
+    public void parallelDownloads_keepTheirOwnProgress() {
+        for (int progress = 0; progress <= 100; progress += 10) {
+            for (String name : MEDIA_NAMES) {
+                mQueue.setDownloadProgress(name, progress);
+            }
+        }
+
+        deliver();
+
+        assertEquals(MEDIA_NAMES.length, mListener.events.size());
+        for (int i = 0; i < MEDIA_NAMES.length; i++) {
+            assertEquals("progress " + MEDIA_NAMES[i] + " 100", mListener.events.get(i));
+        }
+    }
+
+    @Test
+    public void stateEvent_isTheSameInstanceFromFrameToFrame() {
+        DroneEventQueue.StateEvent battery = mQueue.getBatteryEvent();
+        for (int frame = 0; frame < 100; frame++) {
+            mQueue.setBattery(frame);
+            mQueue.setBattery(frame + 1);
+            assertTrue(battery.isPending());
+
+            int count = mQueue.take();
+            assertFalse(battery.isPending());
+            DroneEventQueue.Event delivered = null;
+            for (int i = 0; i < count; i++) {
+                DroneEventQueue.Event event = mQueue.poll(i);
+                if (event != null) {
+                    assertNull(delivered);
+                    delivered = event;
+                }
+            }
+            assertSame(battery, delivered);
+        }
+    }
+
+    @Test
+    public void takenValue_isNotOverwrittenByLaterPost() {
+        mQueue.setBattery(50);
+        int count = mQueue.take();
+        // Une nouvelle valeur arrive pendant la distribution de la précédente
+        mQueue.setBattery(40);
+        for (int i = 0; i < count; i++) {
+            DroneEventQueue.Event event = mQueue.poll(i);
+            if (event != null) {
+                event.deliver(mListeners);
+            }
+        }
+        deliver();
+
+        assertEquals(2, mListener.events.size());
+        assertEquals("battery 50", mListener.events.get(0));
+        assertEquals("battery 40", mListener.events.get(1));
+    }
+
+    @Test
+    public void undeliveredStateEvents_doNotGrowTheQueue() {
+        // Le Thread principal ne délivre plus rien : seules les positions libérées s'accumulent
+        for (int i = 0; i < 10000; i++) {
+            mQueue.setBattery(i % 100);
+            mQueue.setPilotingState(ARCOMMANDS_ARDRONE3_PILOTINGSTATE_FLYINGSTATECHANGED_STATE_ENUM.getFromValue(i % 3));
+            mQueue.setDownloadProgress(MEDIA_NAMES[i % MEDIA_NAMES.length], i % 100);
+        }
+
+        assertTrue(mQueue.getPendingCount() <= 16);
+        deliver();
+        assertEquals(2 + MEDIA_NAMES.length, mListener.events.size());
+    }
+
+    @Test
+    public void postingStateEvents_doesNotAllocate() {
+        AllocationCounter counter = AllocationCounter.forCurrentThread();
+        assumeTrue(counter != null);
+        ARCOMMANDS_ARDRONE3_PILOTINGSTATE_FLYINGSTATECHANGED_STATE_ENUM[] states =
+                ARCOMMANDS_ARDRONE3_PILOTINGSTATE_FLYINGSTATECHANGED_STATE_ENUM.values();
+        BebopDrone.Listener[] noListeners = new BebopDrone.Listener[0];
+
+        // Premier passage : chargement des classes et compilation
+        postAndDeliver(states, noListeners, 10000);
+        long before = counter.allocatedBytes();
+        postAndDeliver(states, noListeners, 10000);
+        long allocated = counter.allocatedBytes() - before;
+
+        // Une allocation par évènement représenterait plusieurs centaines de kilo-octets
+        assertTrue("allocated " + allocated + " bytes", allocated < 4096);
+    }
+
+    private void postAndDeliver(ARCOMMANDS_ARDRONE3_PILOTINGSTATE_FLYINGSTATECHANGED_STATE_ENUM[] states,
+                                BebopDrone.Listener[] listeners, int frames) {
+        for (int frame = 0; frame < frames; frame++) {
+            mQueue.setBattery(frame % 100);
+            mQueue.setPilotingState(states[frame % states.length]);
+            mQueue.setDownloadProgress(MEDIA_NAMES[frame % MEDIA_NAMES.length], frame % 100);
+            int count = mQueue.take();
+            for (int i = 0; i < count; i++) {
+                DroneEventQueue.Event event = mQueue.poll(i);
+                if (event != null) {
+                    event.deliver(listeners);
+                }
+            }
+        }
+    }
+
+    private void deliver() {
+        int count = mQueue.take();
+        for (int i = 0; i < count; i++) {
+            DroneEventQueue.Event event = mQueue.poll(i);
+            if (event != null) {
+                event.deliver(mListeners);
+            }
+        }
+    }
+
+    private DroneEventQueue.Event namedEvent(final String name) {
+        return new DroneEventQueue.Event() {
+            @Override
+            void deliver(BebopDrone.Listener[] listeners) {
+                mListener.events.add(name);
+            }
+        };
+    }
+
+    private static class RecordingListener implements BebopDrone.Listener {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void onDroneConnectionChanged(ARCONTROLLER_DEVICE_STATE_ENUM state) {
+        }
+
+        @Override
+        public void onBatteryChargeChanged(int batteryPercentage) {
+            events.add("battery " + batteryPercentage);
+        }
+
+        @Override
+        public void onPilotingStateChanged(ARCOMMANDS_ARDRONE3_PILOTINGSTATE_FLYINGSTATECHANGED_STATE_ENUM state) {
+            events.add("state " + state);
+        }
+
+        @Override
+        public void onPictureTaken(ARCOMMANDS_ARDRONE3_MEDIARECORDEVENT_PICTUREEVENTCHANGED_ERROR_ENUM error) {
+        }
+
+        @Override
+        public void configureDecoder(ARControllerCodec codec) {
+        }
+
+        @Override
+        public void onFrameReceived(ARFrame frame) {
+        }
+
+        @Override
+        public void onMatchingMediasFound(int nbMedias) {
+        }
+
+        @Override
+        public void onDownloadProgressed(String mediaName, int progress) {
+            events.add("progress " + mediaName + " " + progress);
+        }
+
+        @Override
+        public void onDownloadComplete(String mediaName) {
+        }
+
+        @Override
+        public void onRelativeMoveFinished(float dX, float dY, float dZ, float dPsi, boolean isInterrupted) {
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package fr.telecomlille.mydrone.drone;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests unitaires de {@link DroneTelemetry}.
+ */
+public class DroneTelemetryTest {
+
+    private static final double DELTA = 1e-9;
+
+    private DroneTelemetry mTelemetry;
+
+    @Before
+    public void setUp() {
+        mTelemetry = new DroneTelemetry();
+    }
+
+    @Test
+    public void snapshot_beforeAnyUpdate_hasNoFixNorState() {
+        DroneTelemetry.Snapshot snapshot = mTelemetry.snapshot(new DroneTelemetry.Snapshot());
+
+        assertFalse(snapshot.hasGpsFix());
+        assertNull(snapshot.getFlyingState());
+        assertFalse(snapshot.isAirborne());
+        assertEquals(0, snapshot.getUpdateTimeNanos());
+    }
+
+    @Test
+    public void snapshot_copiesLatestValues() {
+        mTelemetry.updateSpeed(1.5, -2.0, 0.25);
+        mTelemetry.updateAttitude(0.1, -0.2, 3.0);
+        mTelemetry.updatePosition(50.6, 3.06, 42.0);
+        mTelemetry.updateBattery(87);
+        mTelemetry.updateFlyingState(2);
+
+        DroneTelemetry.Snapshot snapshot = mTelemetry.snapshot(new DroneTelemetry.Snapshot());
+        assertEquals(1.5, snapshot.getSpeedX(), DELTA);
+        assertEquals(-2.0, snapshot.getSpeedY(), DELTA);
+        assertEquals(0.25, snapshot.getSpeedZ(), DELTA);
+        assertEquals(3.0, snapshot.getYaw(), DELTA);
+        assertTrue(snapshot.hasGpsFix());
+        assertEquals(50.6, snapshot.getLatitude(), DELTA);
+        assertEquals(87, snapshot.getBattery());
+        assertEquals(2, snapshot.getFlyingState().getValue());
+        assertTrue(snapshot.isAirborne());
+        assertTrue(snapshot.getUpdateTimeNanos() > 0);
+    }
+
+    @Test
+    public void snapshot_reusedInstance_isOverwritten() {
+        DroneTelemetry.Snapshot snapshot = new DroneTelemetry.Snapshot();
+        mTelemetry.updateAltitude(10.0);
+        assertSame(snapshot, mTelemetry.snapshot(snapshot));
+        int sequence = snapshot.getSequence();
+
+        mTelemetry.updateAltitude(12.5);
+        mTelemetry.snapshot(snapshot);
+
+        assertEquals(12.5, snapshot.getAltitude(), DELTA);
+        assertTrue(snapshot.getSequence() != sequence);
+    }
+
+    @Test
+    public void snapshot_duringWrites_isNeverTorn() throws Exception {
+        final AtomicBoolean running = new AtomicBoolean(true);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                double value = 0;
+                while (running.get()) {
+                    value++;
+                    mTelemetry.updateSpeed(value, value, value);
+                }
+            }
+        });
+        writer.start();
+        try {
+            DroneTelemetry.Snapshot snapshot = new DroneTelemetry.Snapshot();
+            for (int i = 0; i < 100000; i++) {
+                mTelemetry.snapshot(snapshot);
+                // Les 3 composantes d'une même mise à jour sont toujours lues ensemble
+                assertEquals(snapshot.getSpeedX(), snapshot.getSpeedY(), 0);
+                assertEquals(snapshot.getSpeedX(), snapshot.getSpeedZ(), 0);
+                assertEquals(0, snapshot.getSequence() & 1);
+            }
+        } finally {
+            running.set(false);
+            writer.join();
+        }
+    }
+}
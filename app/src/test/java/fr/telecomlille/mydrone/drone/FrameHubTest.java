@@ -0,0 +1,126 @@
+package fr.telecomlille.mydrone.drone;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import fr.telecomlille.mydrone.video.VideoFrame;
+import fr.telecomlille.mydrone.video.VideoFramePool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests unitaires de {@link FrameHub}.
+ */
+public class FrameHubTest {
+
+    private static final int FRAME_CAPACITY = 64;
+    private static final int FRAME_COUNT = 50;
+    private static final long TIMEOUT_SECONDS = 5;
+
+    private FrameHub mHub;
+    private VideoFrame mSource;
+
+    @Before
+    public void setUp() {
+        mHub = new FrameHub(FRAME_CAPACITY);
+        mSource = new VideoFramePool(1, FRAME_CAPACITY).acquire();
+    }
+
+    @After
+    public void tearDown() {
+        mHub.close();
+    }
+
+    @Test
+    public void hoardingConsumer_cannotStarveOtherConsumers() throws Exception {
+        // Retient toutes les frames reçues, comme un décodeur bloqué
+        final List<VideoFrame> hoarded = new ArrayList<>();
+        FrameHub.Subscription hoarder = mHub.subscribe("hoarder", 2, 3, FrameHub.DropPolicy.LATEST_ONLY,
+                new FrameHub.Consumer() {
+                    @Override
+                    public void onFrame(VideoFrame frame) {
+                        frame.retain();
+                        synchronized (hoarded) {
+                            hoarded.add(frame);
+                        }
+                    }
+                });
+        final Semaphore received = new Semaphore(0);
+        FrameHub.Subscription other = mHub.subscribe("other", 2, FrameHub.DropPolicy.LOSSLESS,
+                new FrameHub.Consumer() {
+                    @Override
+                    public void onFrame(VideoFrame frame) {
+                        received.release();
+                    }
+                });
+
+        for (int i = 0; i < FRAME_COUNT; i++) {
+            mHub.publish(mSource);
+            assertTrue(received.tryAcquire(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        }
+
+        assertEquals(0, mHub.getLostCount());
+        assertEquals(0, other.getDroppedCount());
+        // Le consommateur qui retient ses frames ne perd que les siennes, une fois son budget atteint
+        synchronized (hoarded) {
+            assertTrue(hoarded.size() <= hoarder.getBudget());
+        }
+        assertTrue(hoarder.getOverBudgetCount() > 0);
+    }
+
+    @Test
+    public void sharedPool_coversEveryBudget() {
+        FrameHub.Subscription display = mHub.subscribe("display", 4, 9, FrameHub.DropPolicy.DROP_UNTIL_KEYFRAME,
+                new FrameHub.Consumer() {
+                    @Override
+                    public void onFrame(VideoFrame frame) {
+                    }
+                });
+        FrameHub.Subscription vision = mHub.subscribe("vision", 4, FrameHub.DropPolicy.DROP_UNTIL_KEYFRAME,
+                new FrameHub.Consumer() {
+                    @Override
+                    public void onFrame(VideoFrame frame) {
+                    }
+                });
+
+        assertEquals(4 + 1 + 9, display.getBudget());
+        assertEquals(4 + 1, vision.getBudget());
+        // Une frame par vue, plus celle en cours de publication
+        assertEquals(display.getBudget() + vision.getBudget() + 1, mHub.getFramePool().getPoolSize());
+    }
+
+    @Test
+    public void close_waitsForTheFrameInProgress() throws Exception {
+        final Semaphore started = new Semaphore(0);
+        final AtomicBoolean processing = new AtomicBoolean();
+        mHub.subscribe("slow", 2, FrameHub.DropPolicy.LATEST_ONLY, new FrameHub.Consumer() {
+            @Override
+            public void onFrame(VideoFrame frame) {
+                processing.set(true);
+                started.release();
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                processing.set(false);
+            }
+        });
+
+        mHub.publish(mSource);
+        assertTrue(started.tryAcquire(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        mHub.close();
+
+        // Les ressources du consommateur peuvent être libérées dès le retour de close()
+        assertFalse(processing.get());
+    }
+}
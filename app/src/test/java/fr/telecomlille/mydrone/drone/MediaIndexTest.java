@@ -0,0 +1,99 @@
+package fr.telecomlille.mydrone.drone;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests unitaires de {@link MediaIndex}.
+ */
+public class MediaIndexTest {
+
+    private static final String PHOTO_A = "Bebop_2_2017-03-14T101500+0100_1A2B3C.jpg";
+    private static final String VIDEO_A = "Bebop_2_2017-03-14T101800+0100_1A2B3C.mp4";
+    private static final String PHOTO_B = "Bebop_2_2017-03-15T090000+0100_4D5E6F.jpg";
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        mFile = File.createTempFile("media", ".index");
+        assertTrue(mFile.delete());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mFile.delete();
+    }
+
+    @Test
+    public void refresh_indexesByRunIdAndDay() throws Exception {
+        MediaIndex index = new MediaIndex(mFile);
+        assertTrue(index.isStale());
+        refresh(index, PHOTO_A, VIDEO_A, PHOTO_B);
+        assertFalse(index.isStale());
+
+        List<MediaIndex.Entry> run = index.getByRunId("1A2B3C");
+        assertEquals(2, run.size());
+        assertEquals(PHOTO_A, run.get(0).getName());
+        assertEquals(VIDEO_A, run.get(1).getName());
+        assertEquals(1, index.getByDay(2017, 3, 15).size());
+        assertEquals(0, index.getByDay(2017, 3, 16).size());
+    }
+
+    @Test
+    public void refresh_keepsKnownEntriesAndRemovesMissingOnes() throws Exception {
+        MediaIndex index = new MediaIndex(mFile);
+        refresh(index, PHOTO_A, VIDEO_A);
+        MediaIndex.Entry photo = index.get(PHOTO_A);
+
+        index.invalidate();
+        assertTrue(index.isStale());
+        refresh(index, PHOTO_A, PHOTO_B);
+
+        assertSame(photo, index.get(PHOTO_A));
+        assertNull(index.get(VIDEO_A));
+        assertEquals(1, index.getByRunId("1A2B3C").size());
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void index_isPersisted() throws Exception {
+        refresh(new MediaIndex(mFile), PHOTO_A, PHOTO_B);
+
+        MediaIndex reloaded = new MediaIndex(mFile);
+        assertTrue(reloaded.isStale());
+        assertEquals(2, reloaded.size());
+        assertEquals(1024, reloaded.get(PHOTO_B).getSize());
+        assertEquals("/internal_000/Bebop_2/media/" + PHOTO_B, reloaded.get(PHOTO_B).getRemotePath());
+        assertEquals(1, reloaded.getByRunId("4D5E6F").size());
+    }
+
+    @Test
+    public void getByRunId_unconventionalName_fallsBackToNameSearch() throws Exception {
+        MediaIndex index = new MediaIndex(mFile);
+        refresh(index, "flight-1A2B3C.jpg", PHOTO_B);
+
+        assertNull(index.get("flight-1A2B3C.jpg").getRunId());
+        assertEquals(1, index.getByRunId("1A2B3C").size());
+    }
+
+    private static void refresh(MediaIndex index, String... names) throws Exception {
+        index.beginRefresh();
+        for (String name : names) {
+            // "Bebop_2_2017-03-14T101500+0100_..." : date du drône au format "yyyy-MM-ddTHHmmss"
+            String date = name.startsWith("Bebop_2_") ? name.substring(8, 25) : "";
+            index.add(name, 1024, date, "/internal_000/Bebop_2/media/" + name);
+        }
+        index.endRefresh();
+    }
+}
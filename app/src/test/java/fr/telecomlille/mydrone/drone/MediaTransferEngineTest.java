@@ -0,0 +1,317 @@
+package fr.telecomlille.mydrone.drone;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests unitaires de {@link MediaTransferEngine}.
+ */
+public class MediaTransferEngineTest {
+
+    private static final long TIMEOUT_SECONDS = 5;
+    private static final long PROGRESS_INTERVAL_MS = 100;
+
+    private static final MediaIndex.Entry PHOTO =
+            new MediaIndex.Entry("photo.jpg", 1024, "2017-03-14T101500", "/media/photo.jpg");
+    private static final MediaIndex.Entry VIDEO =
+            new MediaIndex.Entry("video.mp4", 4096, "2017-03-14T101800", "/media/video.mp4");
+
+    private FakeClock mClock;
+    private FakeBackend mBackend;
+    private RecordingListener mListener;
+    private MediaTransferEngine mEngine;
+
+    @Before
+    public void setUp() {
+        mClock = new FakeClock();
+        mBackend = new FakeBackend();
+        mListener = new RecordingListener();
+        mEngine = new MediaTransferEngine(mBackend, mListener, mClock, PROGRESS_INTERVAL_MS);
+    }
+
+    @After
+    public void tearDown() {
+        mEngine.shutdown();
+    }
+
+    @Test
+    public void submit_downloadsListedMedias() throws Exception {
+        mBackend.medias = Arrays.asList(PHOTO, VIDEO);
+
+        assertTrue(mEngine.submit(MediaTransferEngine.Request.forRun("1A2B3C")));
+        mListener.awaitTermination();
+
+        assertEquals(Arrays.asList("QUEUED", "LISTING", "found 2", "DOWNLOADING",
+                "complete photo.jpg true", "complete video.mp4 true", "DONE"), mListener.events());
+        assertEquals(MediaTransferEngine.State.DONE, mEngine.getState());
+    }
+
+    @Test
+    public void submit_noMatchingMedia_endsDone() throws Exception {
+        mEngine.submit(MediaTransferEngine.Request.forRun("1A2B3C"));
+        mListener.awaitTermination();
+
+        assertEquals(Arrays.asList("QUEUED", "LISTING", "found 0", "DONE"), mListener.events());
+    }
+
+    @Test
+    public void submit_listingFails_endsFailed() throws Exception {
+        mBackend.listFailure = new IOException("Drone unreachable");
+
+        mEngine.submit(MediaTransferEngine.Request.forRun("1A2B3C"));
+        mListener.awaitTermination();
+
+        assertEquals(Arrays.asList("QUEUED", "LISTING", "FAILED"), mListener.events());
+    }
+
+    @Test
+    public void submit_someDownloadsFail_endsFailed() throws Exception {
+        mBackend.medias = Arrays.asList(PHOTO, VIDEO);
+        mBackend.failedMedia = VIDEO.getName();
+
+        mEngine.submit(MediaTransferEngine.Request.forRun("1A2B3C"));
+        mListener.awaitTermination();
+
+        assertEquals(MediaTransferEngine.State.FAILED, mEngine.getState());
+        assertTrue(mListener.events().contains("complete video.mp4 false"));
+    }
+
+    @Test
+    public void submit_whileActive_isRejected() throws Exception {
+        mBackend.blockListing = true;
+        assertTrue(mEngine.submit(MediaTransferEngine.Request.forRun("1A2B3C")));
+        mBackend.awaitListing();
+
+        assertFalse(mEngine.submit(MediaTransferEngine.Request.forRun("1A2B3C")));
+
+        mBackend.release.countDown();
+        mListener.awaitTermination();
+        assertEquals(1, mBackend.listCount);
+        assertTrue(mEngine.submit(MediaTransferEngine.Request.forRun("1A2B3C")));
+    }
+
+    @Test
+    public void cancel_duringListing_endsCancelled() throws Exception {
+        mBackend.medias = Collections.singletonList(PHOTO);
+        mBackend.blockListing = true;
+        mEngine.submit(MediaTransferEngine.Request.forRun("1A2B3C"));
+        mBackend.awaitListing();
+
+        mEngine.cancel();
+        mListener.awaitTermination();
+
+        assertEquals(Arrays.asList("QUEUED", "LISTING", "CANCELLED"), mListener.events());
+        assertEquals(0, mBackend.downloadCount);
+    }
+
+    @Test
+    public void cancel_duringDownload_cancelsBackend() throws Exception {
+        mBackend.medias = Collections.singletonList(PHOTO);
+        mBackend.blockDownload = true;
+        mEngine.submit(MediaTransferEngine.Request.forRun("1A2B3C"));
+        mBackend.awaitDownload();
+
+        mEngine.cancel();
+        mListener.awaitTermination();
+
+        assertTrue(mBackend.cancelled);
+        assertEquals(MediaTransferEngine.State.CANCELLED, mEngine.getState());
+        assertEquals("CANCELLED", mListener.last());
+    }
+
+    @Test
+    public void submit_afterCancel_startsNewRequest() throws Exception {
+        mBackend.blockListing = true;
+        mEngine.submit(MediaTransferEngine.Request.forRun("1A2B3C"));
+        mBackend.awaitListing();
+        mEngine.cancel();
+        mListener.awaitTermination();
+
+        mListener.reset();
+        mBackend.blockListing = false;
+        assertTrue(mEngine.submit(MediaTransferEngine.Request.forRun("1A2B3C")));
+        mListener.awaitTermination();
+
+        assertEquals(Arrays.asList("QUEUED", "LISTING", "found 0", "DONE"), mListener.events());
+    }
+
+    @Test
+    public void progress_isCoalescedWithinInterval() throws Exception {
+        mBackend.medias = Collections.singletonList(PHOTO);
+        mBackend.progressSteps = new int[]{10, 20, 30};
+
+        mEngine.submit(MediaTransferEngine.Request.forRun("1A2B3C"));
+        mListener.awaitTermination();
+
+        // La première progression est envoyée, les suivantes sont regroupées jusqu'à la fin du média
+        assertEquals(Arrays.asList("QUEUED", "LISTING", "found 1", "DOWNLOADING",
+                "progress photo.jpg 10", "progress photo.jpg 30", "complete photo.jpg true", "DONE"),
+                mListener.events());
+    }
+
+    @Test
+    public void progress_isSentAgainOnceIntervalElapsed() throws Exception {
+        mBackend.medias = Collections.singletonList(PHOTO);
+        mBackend.progressSteps = new int[]{10, 20, 30};
+        mBackend.stepNanos = TimeUnit.MILLISECONDS.toNanos(PROGRESS_INTERVAL_MS);
+
+        mEngine.submit(MediaTransferEngine.Request.forRun("1A2B3C"));
+        mListener.awaitTermination();
+
+        assertTrue(mListener.events().containsAll(Arrays.asList(
+                "progress photo.jpg 10", "progress photo.jpg 20", "progress photo.jpg 30")));
+    }
+
+    /**
+     * Horloge avancée manuellement.
+     */
+    private static final class FakeClock implements ControlLoop.Clock {
+        volatile long now;
+
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+
+        @Override
+        public void sleepUntil(long deadlineNanos) {
+            now = Math.max(now, deadlineNanos);
+        }
+    }
+
+    private final class FakeBackend implements MediaTransferEngine.Backend {
+        final CountDownLatch listing = new CountDownLatch(1);
+        final CountDownLatch downloading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        volatile List<MediaIndex.Entry> medias = Collections.emptyList();
+        volatile IOException listFailure;
+        volatile String failedMedia;
+        volatile boolean blockListing;
+        volatile boolean blockDownload;
+        volatile boolean cancelled;
+        volatile int[] progressSteps = new int[0];
+        volatile long stepNanos;
+        volatile int listCount;
+        volatile int downloadCount;
+
+        @Override
+        public List<MediaIndex.Entry> list(MediaTransferEngine.Request request) throws IOException {
+            listCount++;
+            listing.countDown();
+            if (blockListing) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted");
+                }
+            }
+            if (listFailure != null) {
+                throw listFailure;
+            }
+            return medias;
+        }
+
+        @Override
+        public int download(List<MediaIndex.Entry> medias, MediaDownloadScheduler.Listener listener) {
+            downloadCount++;
+            downloading.countDown();
+            if (blockDownload) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return 0;
+            }
+            int successCount = 0;
+            for (MediaIndex.Entry media : medias) {
+                for (int progress : progressSteps) {
+                    listener.onDownloadProgressed(media.getName(), progress);
+                    mClock.now += stepNanos;
+                }
+                boolean success = !media.getName().equals(failedMedia);
+                listener.onDownloadComplete(media.getName(), success);
+                if (success) {
+                    successCount++;
+                }
+            }
+            return successCount;
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            release.countDown();
+        }
+
+        void awaitListing() throws InterruptedException {
+            assertTrue(listing.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        }
+
+        void awaitDownload() throws InterruptedException {
+            assertTrue(downloading.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        }
+    }
+
+    private static final class RecordingListener implements MediaTransferEngine.Listener {
+        private final List<String> mEvents = new ArrayList<>();
+        private CountDownLatch mTerminated = new CountDownLatch(1);
+
+        @Override
+        public synchronized void onStateChanged(MediaTransferEngine.State state) {
+            mEvents.add(state.name());
+            if (state != MediaTransferEngine.State.IDLE && !state.isActive()) {
+                mTerminated.countDown();
+            }
+        }
+
+        @Override
+        public synchronized void onMatchingMediasFound(int nbMedias) {
+            mEvents.add("found " + nbMedias);
+        }
+
+        @Override
+        public synchronized void onDownloadProgressed(String mediaName, int progress) {
+            mEvents.add("progress " + mediaName + " " + progress);
+        }
+
+        @Override
+        public synchronized void onDownloadComplete(String mediaName, boolean success) {
+            mEvents.add("complete " + mediaName + " " + success);
+        }
+
+        void awaitTermination() throws InterruptedException {
+            CountDownLatch terminated;
+            synchronized (this) {
+                terminated = mTerminated;
+            }
+            assertTrue(terminated.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        }
+
+        synchronized void reset() {
+            mEvents.clear();
+            mTerminated = new CountDownLatch(1);
+        }
+
+        synchronized List<String> events() {
+            return new ArrayList<>(mEvents);
+        }
+
+        synchronized String last() {
+            return mEvents.get(mEvents.size() - 1);
+        }
+    }
+}
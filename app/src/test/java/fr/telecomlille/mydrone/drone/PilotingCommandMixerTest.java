@@ -0,0 +1,99 @@
+package fr.telecomlille.mydrone.drone;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests unitaires de {@link PilotingCommandMixer}, pilotés par un faux contrôleur.
+ */
+public class PilotingCommandMixerTest {
+
+    private FakeSink mSink;
+    private PilotingCommandMixer mMixer;
+
+    @Before
+    public void setUp() throws Exception {
+        mSink = new FakeSink();
+        mMixer = new PilotingCommandMixer(mSink);
+    }
+
+    @Test
+    public void tick_withoutUpdate_sendsNothing() throws Exception {
+        assertFalse(mMixer.tick());
+        assertEquals(0, mSink.commands.size());
+    }
+
+    @Test
+    public void tick_mergesAllAxesIntoOneCommand() throws Exception {
+        mMixer.setFlag(BebopDrone.FLAG_ENABLED);
+        mMixer.setRoll(-20);
+        mMixer.setPitch(35);
+        mMixer.setYaw(-100);
+        mMixer.setGaz(100);
+
+        assertTrue(mMixer.tick());
+        assertEquals(1, mSink.commands.size());
+        byte[] cmd = mSink.commands.get(0);
+        assertEquals(1, cmd[0]);
+        assertEquals(-20, cmd[1]);
+        assertEquals(35, cmd[2]);
+        assertEquals(-100, cmd[3]);
+        assertEquals(100, cmd[4]);
+    }
+
+    @Test
+    public void tick_keepsOnlyLatestValueOfAnAxis() throws Exception {
+        mMixer.setPitch(10);
+        mMixer.setPitch(20);
+        mMixer.setPitch(30);
+        mMixer.tick();
+
+        assertEquals(30, mSink.commands.get(0)[2]);
+        assertEquals(3, mMixer.getUpdateCount());
+        assertEquals(1, mMixer.getSentCount());
+        assertEquals(2, mMixer.getMergedCount());
+    }
+
+    @Test
+    public void tick_sendsOnlyWhenSomethingChanged() throws Exception {
+        mMixer.setYaw(50);
+        assertTrue(mMixer.tick());
+        assertFalse(mMixer.tick());
+
+        mMixer.setGaz(-50);
+        assertTrue(mMixer.tick());
+        byte[] cmd = mSink.commands.get(1);
+        assertEquals("yaw must be kept between commands", 50, cmd[3]);
+        assertEquals(-50, cmd[4]);
+    }
+
+    @Test
+    public void tick_incrementsSequenceNumber() throws Exception {
+        mMixer.setRoll(1);
+        mMixer.tick();
+        mMixer.setRoll(2);
+        mMixer.tick();
+
+        int first = mSink.timestamps.get(0) >>> 24;
+        int second = mSink.timestamps.get(1) >>> 24;
+        assertEquals(first + 1, second);
+    }
+
+    private static class FakeSink implements PilotingCommandMixer.Sink {
+        final List<byte[]> commands = new ArrayList<>();
+        final List<Integer> timestamps = new ArrayList<>();
+
+        @Override
+        public void setPilotingPCMD(byte flag, byte roll, byte pitch, byte yaw, byte gaz, int timestampAndSeqNum) {
+            commands.add(new byte[]{flag, roll, pitch, yaw, gaz});
+            timestamps.add(timestampAndSeqNum);
+        }
+    }
+}
@@ -0,0 +1,376 @@
+package fr.telecomlille.mydrone.drone;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests unitaires de {@link ResumableDownloader}, {@link TransferJournal} et {@link FtpClient},
+ * face à un serveur FTP local simulant des déconnexions.
+ */
+public class ResumableDownloaderTest {
+
+    private static final String REMOTE_PATH = "/internal_000/Bebop_2/media/Bebop_2_20170101T120000+0100_ABCD.mp4";
+    private static final String NAME = "Bebop_2_20170101T120000+0100_ABCD.mp4";
+    private static final int SIZE = 300 * 1024;
+    private static final int CHUNK_SIZE = 16 * 1024;
+    private static final int DROP_AFTER = 100 * 1024;
+
+    private File mFolder;
+    private byte[] mContent;
+    private FakeFtpServer mServer;
+    private FtpClient mClient;
+    private File mJournalFile;
+    private File mDest;
+
+    @Before
+    public void setUp() throws Exception {
+        mFolder = File.createTempFile("transfers", "");
+        assertTrue(mFolder.delete() && mFolder.mkdir());
+        mContent = new byte[SIZE];
+        new Random(42).nextBytes(mContent);
+        mServer = new FakeFtpServer(REMOTE_PATH, mContent);
+        mClient = new FtpClient("127.0.0.1", mServer.getPort(), 2000);
+        mJournalFile = new File(mFolder, ".transfers.journal");
+        mDest = new File(mFolder, NAME);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mClient.close();
+        mServer.close();
+        File[] files = mFolder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mFolder.delete();
+    }
+
+    @Test
+    public void download_withoutDisconnect_writesWholeFile() throws Exception {
+        TransferJournal journal = new TransferJournal(mJournalFile);
+        assertTrue(newDownloader(journal, 0).download(mClient, REMOTE_PATH, NAME, SIZE, mDest, new RecordingCallback()));
+        journal.close();
+
+        assertArrayEquals(mContent, readDest());
+        assertEquals(Collections.singletonList(0L), mServer.getRequestedOffsets());
+    }
+
+    @Test
+    public void download_resumesAfterDisconnects() throws Exception {
+        mServer.dropAfter(DROP_AFTER, DROP_AFTER);
+        TransferJournal journal = new TransferJournal(mJournalFile);
+        RecordingCallback callback = new RecordingCallback();
+        assertTrue(newDownloader(journal, 3).download(mClient, REMOTE_PATH, NAME, SIZE, mDest, callback));
+
+        assertArrayEquals(mContent, readDest());
+        assertEquals(Arrays.asList(0L, (long) DROP_AFTER, 2L * DROP_AFTER), mServer.getRequestedOffsets());
+        assertEquals(Arrays.asList((long) DROP_AFTER, 2L * DROP_AFTER), callback.retries);
+        assertEquals(SIZE, callback.lastProgress);
+        assertTrue(journal.isComplete(NAME, SIZE));
+        journal.close();
+    }
+
+    @Test
+    public void download_tooManyDisconnects_throwsAndKeepsProgress() throws Exception {
+        mServer.dropAfter(DROP_AFTER, 10);
+        TransferJournal journal = new TransferJournal(mJournalFile);
+        try {
+            newDownloader(journal, 1).download(mClient, REMOTE_PATH, NAME, SIZE, mDest, new RecordingCallback());
+            fail("Expected the download to fail");
+        } catch (IOException expected) {
+            // Deux interruptions pour une seule reconnexion autorisée
+        }
+        assertEquals(DROP_AFTER + 10, journal.getCompletedBytes(NAME, SIZE));
+        journal.close();
+    }
+
+    @Test
+    public void download_afterRestart_resumesFromJournal() throws Exception {
+        mServer.dropAfter(DROP_AFTER);
+        TransferJournal journal = new TransferJournal(mJournalFile);
+        try {
+            newDownloader(journal, 0).download(mClient, REMOTE_PATH, NAME, SIZE, mDest, new RecordingCallback());
+            fail("Expected the download to fail");
+        } catch (IOException expected) {
+            // Aucune reconnexion autorisée
+        }
+        journal.close();
+        mClient.close();
+
+        // Simule un redémarrage de l'application : le journal est relu depuis le disque
+        TransferJournal reopened = new TransferJournal(mJournalFile);
+        assertEquals(DROP_AFTER, reopened.getCompletedBytes(NAME, SIZE));
+        assertTrue(newDownloader(reopened, 0).download(mClient, REMOTE_PATH, NAME, SIZE, mDest, new RecordingCallback()));
+        reopened.close();
+
+        assertArrayEquals(mContent, readDest());
+        assertEquals(Arrays.asList(0L, (long) DROP_AFTER), mServer.getRequestedOffsets());
+    }
+
+    @Test
+    public void download_completedFile_isSkipped() throws Exception {
+        TransferJournal journal = new TransferJournal(mJournalFile);
+        ResumableDownloader downloader = newDownloader(journal, 0);
+        assertTrue(downloader.download(mClient, REMOTE_PATH, NAME, SIZE, mDest, new RecordingCallback()));
+        assertTrue(downloader.download(mClient, REMOTE_PATH, NAME, SIZE, mDest, new RecordingCallback()));
+        journal.close();
+
+        assertEquals(1, mServer.getRequestedOffsets().size());
+    }
+
+    @Test
+    public void download_deletedCopy_restartsFromBeginning() throws Exception {
+        TransferJournal journal = new TransferJournal(mJournalFile);
+        ResumableDownloader downloader = newDownloader(journal, 0);
+        assertTrue(downloader.download(mClient, REMOTE_PATH, NAME, SIZE, mDest, new RecordingCallback()));
+        assertTrue(mDest.delete());
+        assertTrue(downloader.download(mClient, REMOTE_PATH, NAME, SIZE, mDest, new RecordingCallback()));
+        journal.close();
+
+        assertArrayEquals(mContent, readDest());
+        assertEquals(Arrays.asList(0L, 0L), mServer.getRequestedOffsets());
+    }
+
+    @Test
+    public void download_cancelled_stopsBeforeEnd() throws Exception {
+        TransferJournal journal = new TransferJournal(mJournalFile);
+        RecordingCallback callback = new RecordingCallback();
+        callback.cancelAfter = CHUNK_SIZE;
+        assertFalse(newDownloader(journal, 0).download(mClient, REMOTE_PATH, NAME, SIZE, mDest, callback));
+
+        long completed = journal.getCompletedBytes(NAME, SIZE);
+        assertTrue(completed >= CHUNK_SIZE && completed < SIZE);
+        journal.close();
+    }
+
+    @Test
+    public void download_incomplete_neverCreatesDest() throws Exception {
+        TransferJournal journal = new TransferJournal(mJournalFile);
+        RecordingCallback callback = new RecordingCallback();
+        callback.cancelAfter = CHUNK_SIZE;
+        ResumableDownloader downloader = newDownloader(journal, 0);
+        assertFalse(downloader.download(mClient, REMOTE_PATH, NAME, SIZE, mDest, callback));
+        assertFalse(mDest.exists());
+
+        assertTrue(downloader.download(mClient, REMOTE_PATH, NAME, SIZE, mDest, new RecordingCallback()));
+        journal.close();
+
+        assertArrayEquals(mContent, readDest());
+        assertFalse(new File(mFolder, NAME + ResumableDownloader.PARTIAL_SUFFIX).exists());
+    }
+
+    @Test
+    public void journal_ignoresTornLastLine() throws Exception {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(mJournalFile), "UTF-8");
+        writer.write("a b.jpg 100 0 40\n");
+        writer.write("a b.jpg 100 40 60\n");
+        writer.write("other.mp4 100 0 100\n");
+        writer.write("a b.jpg 100 60 1");
+        writer.close();
+
+        TransferJournal journal = new TransferJournal(mJournalFile);
+        assertEquals(60, journal.getCompletedBytes("a b.jpg", 100));
+        assertTrue(journal.isComplete("other.mp4", 100));
+        assertEquals(0, journal.getCompletedBytes("other.mp4", 200));
+        journal.recordRange("a b.jpg", 100, 60, 100);
+        journal.forget("other.mp4", 100);
+        journal.close();
+
+        TransferJournal reopened = new TransferJournal(mJournalFile);
+        assertTrue(reopened.isComplete("a b.jpg", 100));
+        assertFalse(reopened.isComplete("other.mp4", 100));
+        reopened.close();
+    }
+
+    @Test
+    public void journal_mergesOutOfOrderRanges() throws Exception {
+        TransferJournal journal = new TransferJournal(mJournalFile);
+        journal.recordRange(NAME, 100, 50, 100);
+        assertEquals(0, journal.getCompletedBytes(NAME, 100));
+        journal.recordRange(NAME, 100, 0, 20);
+        assertEquals(20, journal.getCompletedBytes(NAME, 100));
+        journal.recordRange(NAME, 100, 20, 50);
+        assertTrue(journal.isComplete(NAME, 100));
+        journal.close();
+    }
+
+    @Test
+    public void parsePassivePort() throws Exception {
+        assertEquals(4 * 256 + 1, FtpClient.parsePassivePort("227 Entering Passive Mode (192,168,42,1,4,1)."));
+    }
+
+    private static ResumableDownloader newDownloader(TransferJournal journal, int maxRetries) {
+        return new ResumableDownloader(journal, CHUNK_SIZE, maxRetries, 1);
+    }
+
+    private byte[] readDest() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mDest, "r");
+        try {
+            byte[] content = new byte[(int) file.length()];
+            file.readFully(content);
+            return content;
+        } finally {
+            file.close();
+        }
+    }
+
+    private static final class RecordingCallback implements ResumableDownloader.Callback {
+        final List<Long> retries = new ArrayList<>();
+        long lastProgress;
+        long cancelAfter = Long.MAX_VALUE;
+
+        @Override
+        public void onProgress(long bytes, long size) {
+            lastProgress = bytes;
+        }
+
+        @Override
+        public void onRetry(long bytes, IOException cause) {
+            retries.add(bytes);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return lastProgress >= cancelAfter;
+        }
+    }
+
+    /**
+     * Serveur FTP minimal servant un unique fichier, et coupant la connexion après un nombre
+     * d'octets donné pour les premiers téléchargements.
+     */
+    private static final class FakeFtpServer implements Runnable {
+        private final String mPath;
+        private final byte[] mContent;
+        private final ServerSocket mServerSocket;
+        private final List<Long> mRequestedOffsets = Collections.synchronizedList(new ArrayList<Long>());
+        private final List<Integer> mDrops = Collections.synchronizedList(new ArrayList<Integer>());
+
+        FakeFtpServer(String path, byte[] content) throws IOException {
+            mPath = path;
+            mContent = content;
+            mServerSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+            Thread thread = new Thread(this, "FakeFtpServer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int getPort() {
+            return mServerSocket.getLocalPort();
+        }
+
+        /**
+         * @param bytes nombre d'octets envoyés avant la coupure, pour chacun des prochains téléchargements
+         */
+        void dropAfter(Integer... bytes) {
+            mDrops.addAll(Arrays.asList(bytes));
+        }
+
+        List<Long> getRequestedOffsets() {
+            return new ArrayList<>(mRequestedOffsets);
+        }
+
+        void close() throws IOException {
+            mServerSocket.close();
+        }
+
+        @Override
+        public void run() {
+            while (!mServerSocket.isClosed()) {
+                try {
+                    Socket control = mServerSocket.accept();
+                    try {
+                        serve(control);
+                    } finally {
+                        control.close();
+                    }
+                } catch (IOException e) {
+                    // Connexion fermée par le client ou serveur arrêté
+                }
+            }
+        }
+
+        private void serve(Socket control) throws IOException {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(control.getInputStream(), "US-ASCII"));
+            Writer writer = new OutputStreamWriter(control.getOutputStream(), "US-ASCII");
+            reply(writer, "220 Fake FTP ready");
+            ServerSocket passive = null;
+            long offset = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("USER")) {
+                    reply(writer, "331 Password required");
+                } else if (line.startsWith("PASS")) {
+                    reply(writer, "230-Welcome\r\n230 Logged in");
+                } else if (line.startsWith("TYPE")) {
+                    reply(writer, "200 Type set");
+                } else if (line.startsWith("PASV")) {
+                    passive = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+                    int port = passive.getLocalPort();
+                    reply(writer, "227 Entering Passive Mode (127,0,0,1," + (port >> 8) + "," + (port & 0xFF) + ")");
+                } else if (line.startsWith("REST ")) {
+                    offset = Long.parseLong(line.substring(5).trim());
+                    reply(writer, "350 Restarting");
+                } else if (line.equals("RETR " + mPath) && passive != null) {
+                    mRequestedOffsets.add(offset);
+                    reply(writer, "150 Opening data connection");
+                    Integer drop = mDrops.isEmpty() ? null : mDrops.remove(0);
+                    Socket data = passive.accept();
+                    passive.close();
+                    passive = null;
+                    OutputStream os = data.getOutputStream();
+                    int length = mContent.length - (int) offset;
+                    if (drop != null) {
+                        length = Math.min(length, drop);
+                    }
+                    os.write(mContent, (int) offset, length);
+                    os.flush();
+                    data.close();
+                    offset = 0;
+                    if (drop != null) {
+                        // Perte du lien : la connexion de contrôle est coupée sans réponse
+                        return;
+                    }
+                    reply(writer, "226 Transfer complete");
+                } else if (line.startsWith("QUIT")) {
+                    reply(writer, "221 Bye");
+                    return;
+                } else {
+                    reply(writer, "502 Not implemented");
+                }
+            }
+        }
+
+        private static void reply(Writer writer, String reply) throws IOException {
+            writer.write(reply + "\r\n");
+            writer.flush();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package fr.telecomlille.mydrone.gallery;
+
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests unitaires de {@link ThumbnailDecoder}.
+ */
+public class ThumbnailDecoderTest {
+
+    @Test
+    public void computeSampleSize_keepsImageLargerThanThumbnail() {
+        // Photo du Bebop 2 : 4096x3072, réduite à 512x384 pour une miniature de 256 pixels
+        assertEquals(8, ThumbnailDecoder.computeSampleSize(4096, 3072, 256));
+        assertEquals(4, ThumbnailDecoder.computeSampleSize(1920, 1080, 256));
+    }
+
+    @Test
+    public void computeSampleSize_smallImage_isNotReduced() {
+        assertEquals(1, ThumbnailDecoder.computeSampleSize(300, 200, 256));
+        assertEquals(1, ThumbnailDecoder.computeSampleSize(100, 100, 256));
+    }
+
+    @Test
+    public void isSupported_photosAndVideosOnly() {
+        assertTrue(ThumbnailDecoder.isSupported(new File("Bebop_2_2017-03-14T101500+0100_1A2B3C.jpg")));
+        assertTrue(ThumbnailDecoder.isSupported(new File("Bebop_2_2017-03-14T101800+0100_1A2B3C.MP4")));
+        assertTrue(ThumbnailDecoder.isVideo(new File("flight.mp4")));
+        assertFalse(ThumbnailDecoder.isVideo(new File("flight.jpg")));
+        // Photos brutes, que BitmapFactory ne sait pas décoder, et fichiers internes
+        assertFalse(ThumbnailDecoder.isSupported(new File("Bebop_2_2017-03-14T101500+0100_1A2B3C.dng")));
+        assertFalse(ThumbnailDecoder.isSupported(new File(".transfers.journal")));
+    }
+}
@@ -0,0 +1,195 @@
+package fr.telecomlille.mydrone.recognition;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests unitaires de {@link VisualServoController} et {@link PidController}.
+ * <p>
+ * Le contrôleur est évalué en boucle fermée sur un modèle simplifié du drône et de sa caméra,
+ * avec les réglages par défaut : ces tests servent aussi de banc d'essai pour le réglage des gains.
+ * </p>
+ */
+public class VisualServoControllerTest {
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+    private static final float TARGET_SIZE = 0.2f;
+
+    @Test
+    public void servo_centersStaticTarget() throws Exception {
+        SimulatedDrone drone = new SimulatedDrone(0.15, 0.7, 4.5);
+        VisualServoController servo = VisualServoController.createDefault(TARGET_SIZE);
+
+        drone.run(servo, 15, 10);
+
+        assertEquals(0.5, drone.x(), 0.02);
+        assertEquals(0.5, drone.y(), 0.02);
+        assertEquals(TARGET_SIZE, drone.size(), 0.01);
+    }
+
+    @Test
+    public void servo_doesNotOvershootMuch() throws Exception {
+        SimulatedDrone drone = new SimulatedDrone(0.2, 0.5, 3);
+        VisualServoController servo = VisualServoController.createDefault(TARGET_SIZE);
+
+        drone.run(servo, 15, 8);
+
+        // La cible part de la gauche de l'image : elle ne doit pas trop dépasser le centre
+        assertTrue("Overshoot: " + (drone.maxX - 0.5), drone.maxX < 0.5 + 0.05);
+    }
+
+    @Test
+    public void servo_followsMovingTarget() throws Exception {
+        SimulatedDrone drone = new SimulatedDrone(0.5, 0.5, 3);
+        // La cible se déplace latéralement à 10 degrés par seconde
+        drone.targetBearingRate = 10;
+        VisualServoController servo = VisualServoController.createDefault(TARGET_SIZE);
+
+        drone.run(servo, 15, 10);
+
+        // L'intégrale compense l'erreur de traînage
+        assertEquals(0.5, drone.x(), 0.03);
+    }
+
+    @Test
+    public void servo_behavesTheSameAtDifferentUpdateRates() throws Exception {
+        SimulatedDrone slow = new SimulatedDrone(0.15, 0.7, 4.5);
+        SimulatedDrone fast = new SimulatedDrone(0.15, 0.7, 4.5);
+
+        slow.run(VisualServoController.createDefault(TARGET_SIZE), 10, 3);
+        fast.run(VisualServoController.createDefault(TARGET_SIZE), 30, 3);
+
+        assertEquals(slow.x(), fast.x(), 0.03);
+        assertEquals(slow.y(), fast.y(), 0.03);
+        assertEquals(slow.size(), fast.size(), 0.02);
+    }
+
+    @Test
+    public void pid_limitsOutputAndRate() throws Exception {
+        PidController pid = new PidController(100, 0, 0, 50, 100, 1);
+        pid.update(1, 0);
+
+        // 100 par seconde au plus : 10 par pas de 100 ms, jusqu'à la limite de 50
+        assertEquals(10, pid.update(1, 0.1f), 1e-4);
+        assertEquals(20, pid.update(1, 0.1f), 1e-4);
+        for (int i = 0; i < 10; i++) {
+            pid.update(1, 0.1f);
+        }
+        assertEquals(50, pid.getOutput(), 1e-4);
+    }
+
+    @Test
+    public void pid_doesNotWindUpWhileSaturated() throws Exception {
+        PidController pid = new PidController(10, 10, 0, 20, 1000, 1);
+        pid.update(5, 0);
+        // Saturation prolongée
+        for (int i = 0; i < 100; i++) {
+            pid.update(5, 0.1f);
+        }
+        assertEquals(20, pid.getOutput(), 1e-4);
+        assertTrue("Integral wound up: " + pid.getIntegral(), pid.getIntegral() < 2);
+
+        // Dès que l'erreur change de signe, la sortie doit s'inverser rapidement
+        float output = 0;
+        for (int i = 0; i < 5; i++) {
+            output = pid.update(-1, 0.1f);
+        }
+        assertTrue("Output still positive: " + output, output < 0);
+    }
+
+    @Test
+    public void pid_ignoresDerivativeAfterLongGap() throws Exception {
+        PidController pid = new PidController(0, 0, 10, 100, 10000, 0.5f);
+        pid.update(0, 0);
+        pid.update(0, 0.1f);
+
+        // Un saut d'erreur après une longue interruption ne doit pas produire de pic de dérivée
+        assertEquals(0, pid.update(1, 2f), 1e-4);
+        // Le saut suivant, après un intervalle normal, est bien dérivé
+        assertEquals(100, pid.update(2, 0.1f), 1e-3);
+    }
+
+    /**
+     * Modèle simplifié du drône suivant une cible : le lacet et la vitesse verticale répondent
+     * aux commandes avec un retard du premier ordre, le tangage produit une vitesse d'avancement.
+     * La caméra a un champ de 80 x 50 degrés, et les mesures arrivent avec 100 ms de retard.
+     */
+    private static final class SimulatedDrone {
+
+        private static final double H_FOV = 80, V_FOV = 50;
+        private static final double MAX_YAW_RATE = 100;  // degrés par seconde
+        private static final double MAX_VERTICAL_SPEED = 1;  // mètres par seconde
+        private static final double MAX_FORWARD_SPEED = 3;  // mètres par seconde
+        private static final double YAW_LAG = 0.2, VERTICAL_LAG = 0.3, FORWARD_LAG = 0.8;
+        private static final double FACE_WIDTH = 0.6;  // taille apparente à 1 m
+        private static final double LATENCY = 0.1;
+        private static final double STEP = 0.001;
+
+        double targetBearing, targetBearingRate, targetAltitude;
+        double heading, yawRate;
+        double altitude, verticalSpeed;
+        double distance, forwardSpeed;
+        double maxX = Double.NEGATIVE_INFINITY;
+
+        SimulatedDrone(double x, double y, double distance) {
+            this.distance = distance;
+            targetBearing = (x - 0.5) * H_FOV;
+            targetAltitude = (0.5 - y) * verticalSpan();
+        }
+
+        double x() {
+            return 0.5 + (targetBearing - heading) / H_FOV;
+        }
+
+        double y() {
+            return 0.5 - (targetAltitude - altitude) / verticalSpan();
+        }
+
+        double size() {
+            return FACE_WIDTH / distance;
+        }
+
+        private double verticalSpan() {
+            return 2 * distance * Math.tan(Math.toRadians(V_FOV / 2));
+        }
+
+        /**
+         * Simule le vol pendant la durée donnée, le contrôleur étant mis à jour à la fréquence donnée.
+         */
+        void run(VisualServoController servo, int rateHz, double duration) {
+            int stepsPerUpdate = (int) Math.round(1 / (rateHz * STEP));
+            int latencySteps = (int) Math.round(LATENCY / STEP);
+            int totalSteps = (int) Math.round(duration / STEP);
+            double[] history = new double[3 * (latencySteps + 1)];
+            int yaw = 0, gaz = 0, pitch = 0;
+
+            for (int step = 0; step < totalSteps; step++) {
+                int slot = step % (latencySteps + 1);
+                history[3 * slot] = x();
+                history[3 * slot + 1] = y();
+                history[3 * slot + 2] = size();
+
+                if ((step % stepsPerUpdate == 0) && (step >= latencySteps)) {
+                    // Mesure retardée de la latence de traitement
+                    int delayed = (step - latencySteps) % (latencySteps + 1);
+                    servo.update((long) (step * STEP * NANOS_PER_SECOND), (float) history[3 * delayed],
+                            (float) history[3 * delayed + 1], (float) history[3 * delayed + 2]);
+                    yaw = servo.getYaw();
+                    gaz = servo.getGaz();
+                    pitch = servo.getPitch();
+                }
+
+                yawRate += (yaw / 100.0 * MAX_YAW_RATE - yawRate) * STEP / YAW_LAG;
+                verticalSpeed += (gaz / 100.0 * MAX_VERTICAL_SPEED - verticalSpeed) * STEP / VERTICAL_LAG;
+                forwardSpeed += (pitch / 100.0 * MAX_FORWARD_SPEED - forwardSpeed) * STEP / FORWARD_LAG;
+                heading += yawRate * STEP;
+                altitude += verticalSpeed * STEP;
+                distance -= forwardSpeed * STEP;
+                targetBearing += targetBearingRate * STEP;
+                maxX = Math.max(maxX, x());
+            }
+        }
+    }
+}
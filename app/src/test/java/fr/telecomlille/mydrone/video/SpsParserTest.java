@@ -0,0 +1,186 @@
+package fr.telecomlille.mydrone.video;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests unitaires de {@link SpsParser}, sur des SPS générés bit à bit.
+ */
+public class SpsParserTest {
+
+    @Test
+    public void parse_baselineBebopStream() throws Exception {
+        byte[] sps = baselineSps(640 / 16, 368 / 16).toNal(true);
+
+        SpsParser.Sps result = SpsParser.parse(sps);
+        assertEquals(640, result.getWidth());
+        assertEquals(368, result.getHeight());
+        assertEquals(66, result.getProfileIdc());
+        assertEquals(31, result.getLevelIdc());
+        assertEquals(1, result.getChromaFormatIdc());
+    }
+
+    @Test
+    public void parse_highProfileWithCropping() throws Exception {
+        BitWriter w = new BitWriter();
+        w.bits(100, 8).bits(0, 8).bits(40, 8).ue(0);
+        // chroma_format_idc, bit depths, qpprime, scaling matrix avec une liste explicite
+        w.ue(1).ue(0).ue(0).bit(0).bit(1);
+        w.bit(1);
+        for (int i = 0; i < 16; i++) {
+            w.se(i == 0 ? 8 : 0);
+        }
+        for (int i = 1; i < 8; i++) {
+            w.bit(0);
+        }
+        // log2_max_frame_num, poc type 0, log2_max_poc_lsb, ref frames, gaps
+        w.ue(0).ue(0).ue(2).ue(4).bit(0);
+        // 1920x1088 codé, recadré à 1080 : 4 unités de 2 lignes en bas
+        w.ue(1920 / 16 - 1).ue(1088 / 16 - 1).bit(1).bit(1);
+        w.bit(1).ue(0).ue(0).ue(0).ue(4);
+        w.bit(0).trailingBits();
+
+        SpsParser.Sps result = SpsParser.parse(w.toNal(false));
+        assertEquals(1920, result.getWidth());
+        assertEquals(1080, result.getHeight());
+        assertEquals(1088, result.getCodedHeight());
+        assertEquals(100, result.getProfileIdc());
+        assertEquals(4, result.getMaxRefFrames());
+    }
+
+    @Test
+    public void parse_interlacedStreamDoublesMapUnits() throws Exception {
+        BitWriter w = new BitWriter();
+        w.bits(77, 8).bits(0, 8).bits(30, 8).ue(0);
+        // log2_max_frame_num, poc type 0, log2_max_poc_lsb, ref frames, gaps
+        w.ue(0).ue(0).ue(0).ue(2).bit(0);
+        // 576 lignes en 18 paires de macroblocs, frame_mbs_only_flag à 0
+        w.ue(720 / 16 - 1).ue(576 / 32 - 1).bit(0).bit(1).bit(1);
+        w.bit(0).bit(0).trailingBits();
+
+        SpsParser.Sps result = SpsParser.parse(w.toNal(true));
+        assertEquals(720, result.getWidth());
+        assertEquals(576, result.getHeight());
+        assertTrue(result.isInterlaced());
+    }
+
+    @Test
+    public void parse_removesEmulationPreventionBytes() throws Exception {
+        BitWriter w = new BitWriter();
+        w.bits(66, 8).bits(0xC0, 8).bits(31, 8).ue(0);
+        // poc type 1 : un offset_for_non_ref_pic très grand produit une longue suite de bits à 0
+        w.ue(0).ue(1).bit(0).se(1 << 29).se(0).ue(0);
+        w.ue(1).bit(0);
+        w.ue(1280 / 16 - 1).ue(720 / 16 - 1).bit(1).bit(1);
+        w.bit(0).bit(0).trailingBits();
+
+        byte[] nal = w.toNal(true);
+        assertTrue("generated SPS must contain an emulation prevention byte", containsEscape(nal));
+
+        SpsParser.Sps result = SpsParser.parse(nal);
+        assertEquals(1280, result.getWidth());
+        assertEquals(720, result.getHeight());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parse_rejectsOtherNalTypes() throws Exception {
+        SpsParser.parse(new byte[]{0, 0, 0, 1, 0x68, (byte) 0xCE, 0x3C, (byte) 0x80});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parse_rejectsTruncatedSps() throws Exception {
+        SpsParser.parse(new byte[]{0, 0, 0, 1, 0x67, 0x42});
+    }
+
+    private static boolean containsEscape(byte[] nal) {
+        for (int i = 2; i < nal.length; i++) {
+            if ((nal[i - 2] == 0) && (nal[i - 1] == 0) && (nal[i] == 3)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static BitWriter baselineSps(int widthInMbs, int heightInMbs) {
+        BitWriter w = new BitWriter();
+        w.bits(66, 8).bits(0xC0, 8).bits(31, 8).ue(0);
+        // log2_max_frame_num, poc type 2, ref frames, gaps
+        w.ue(0).ue(2).ue(1).bit(0);
+        w.ue(widthInMbs - 1).ue(heightInMbs - 1).bit(1).bit(1);
+        w.bit(0).bit(0).trailingBits();
+        return w;
+    }
+
+    /**
+     * Ecriture bit à bit d'un RBSP, puis encapsulation dans une NAL Annex B.
+     */
+    private static class BitWriter {
+        private final ByteArrayOutputStream mOut = new ByteArrayOutputStream();
+        private int mCurrent;
+        private int mBitCount;
+
+        BitWriter bit(int bit) {
+            mCurrent = (mCurrent << 1) | (bit & 1);
+            if (++mBitCount == 8) {
+                mOut.write(mCurrent);
+                mCurrent = 0;
+                mBitCount = 0;
+            }
+            return this;
+        }
+
+        BitWriter bits(int value, int count) {
+            for (int i = count - 1; i >= 0; i--) {
+                bit(value >> i);
+            }
+            return this;
+        }
+
+        BitWriter ue(int value) {
+            int codeNum = value + 1;
+            int length = 32 - Integer.numberOfLeadingZeros(codeNum);
+            bits(0, length - 1);
+            return bits(codeNum, length);
+        }
+
+        BitWriter se(int value) {
+            return ue((value > 0) ? 2 * value - 1 : -2 * value);
+        }
+
+        BitWriter trailingBits() {
+            bit(1);
+            while (mBitCount != 0) {
+                bit(0);
+            }
+            return this;
+        }
+
+        /**
+         * @return la NAL SPS : start code, en-tête, puis RBSP avec octets d'émulation
+         */
+        byte[] toNal(boolean withStartCode) {
+            ByteArrayOutputStream nal = new ByteArrayOutputStream();
+            if (withStartCode) {
+                nal.write(0);
+                nal.write(0);
+                nal.write(0);
+                nal.write(1);
+            }
+            nal.write(0x67);
+            int zeros = 0;
+            for (byte b : mOut.toByteArray()) {
+                if ((zeros == 2) && ((b & 0xFF) <= 3)) {
+                    nal.write(3);
+                    zeros = 0;
+                }
+                nal.write(b);
+                zeros = (b == 0) ? zeros + 1 : 0;
+            }
+            return nal.toByteArray();
+        }
+    }
+}
@@ -6,10 +6,15 @@ public class Mat {
 
     public final long nativeObj;
 
+    // Set by MatAccounting while accounting is enabled
+    MatAccounting.Entry accountingEntry;
+
     public Mat(long addr) {
         if (addr == 0)
             throw new java.lang.UnsupportedOperationException("Native object address is NULL");
         nativeObj = addr;
+        if (MatAccounting.sHooked)
+            MatAccounting.onCreate(this);
     }
 
     //
@@ -20,6 +25,8 @@ public class Mat {
     public Mat() {
 
         nativeObj = n_Mat();
+        if (MatAccounting.sHooked)
+            MatAccounting.onCreate(this);
 
         return;
     }
@@ -32,6 +39,8 @@ public class Mat {
     public Mat(int rows, int cols, int type) {
 
         nativeObj = n_Mat(rows, cols, type);
+        if (MatAccounting.sHooked)
+            MatAccounting.onCreate(this);
 
         return;
     }
@@ -44,6 +53,8 @@ public class Mat {
     public Mat(Size size, int type) {
 
         nativeObj = n_Mat(size.width, size.height, type);
+        if (MatAccounting.sHooked)
+            MatAccounting.onCreate(this);
 
         return;
     }
@@ -56,6 +67,8 @@ public class Mat {
     public Mat(int rows, int cols, int type, Scalar s) {
 
         nativeObj = n_Mat(rows, cols, type, s.val[0], s.val[1], s.val[2], s.val[3]);
+        if (MatAccounting.sHooked)
+            MatAccounting.onCreate(this);
 
         return;
     }
@@ -68,6 +81,8 @@ public class Mat {
     public Mat(Size size, int type, Scalar s) {
 
         nativeObj = n_Mat(size.width, size.height, type, s.val[0], s.val[1], s.val[2], s.val[3]);
+        if (MatAccounting.sHooked)
+            MatAccounting.onCreate(this);
 
         return;
     }
@@ -80,6 +95,8 @@ public class Mat {
     public Mat(Mat m, Range rowRange, Range colRange) {
 
         nativeObj = n_Mat(m.nativeObj, rowRange.start, rowRange.end, colRange.start, colRange.end);
+        if (MatAccounting.sHooked)
+            MatAccounting.onCreate(this);
 
         return;
     }
@@ -88,6 +105,8 @@ public class Mat {
     public Mat(Mat m, Range rowRange) {
 
         nativeObj = n_Mat(m.nativeObj, rowRange.start, rowRange.end);
+        if (MatAccounting.sHooked)
+            MatAccounting.onCreate(this);
 
         return;
     }
@@ -100,6 +119,8 @@ public class Mat {
     public Mat(Mat m, Rect roi) {
 
         nativeObj = n_Mat(m.nativeObj, roi.y, roi.y + roi.height, roi.x, roi.x + roi.width);
+        if (MatAccounting.sHooked)
+            MatAccounting.onCreate(this);
 
         return;
     }
@@ -1060,6 +1081,8 @@ public class Mat {
 
     @Override
     protected void finalize() throws Throwable {
+        if (accountingEntry != null)
+            MatAccounting.onFinalize(this);
         n_delete(nativeObj);
         super.finalize();
     }
@@ -0,0 +1,312 @@
+package org.opencv.core;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Opt-in accounting of the native memory held by {@link Mat} objects.
+ * <p>
+ * The Java heap only sees a few bytes per Mat, so the garbage collector gets no signal while
+ * native buffers pile up. When accounting is enabled, every Mat created afterwards is registered
+ * until it is finalized, optionally with the call site that created it. {@link #snapshot()}
+ * then reports the live native bytes per Mat type and per creation site.
+ * </p><p>
+ * Sizes are measured when the snapshot is taken, so Mats resized or released after their
+ * creation are reported with their current size. Submatrices and Mats sharing the buffer of
+ * another registered Mat are counted once. Mats created before accounting was enabled are not
+ * counted.
+ * </p><p>
+ * When disabled, the only cost left on Mat creation is the read of a volatile flag.
+ * </p>
+ */
+public final class MatAccounting {
+
+    /**
+     * True when Mat constructors must call {@link #onCreate(Mat)}: accounting is enabled,
+     * or a {@link MatScope} is open.
+     */
+    static volatile boolean sHooked;
+
+    private static volatile boolean sEnabled;
+    private static volatile boolean sRecordSites;
+    private static int sOpenScopes;
+
+    private static final Object sLock = new Object();
+    // Circular doubly-linked list of registered Mats, for O(1) removal on finalization
+    private static final Entry sHead = new Entry(null, null);
+    private static int sRegisteredCount;
+
+    private MatAccounting() {
+    }
+
+    /**
+     * Starts registering the Mats created from now on.
+     *
+     * @param recordSites true to record the call site creating each Mat. This captures
+     *                    a stack trace per Mat and is meant for debugging.
+     */
+    public static void enable(boolean recordSites) {
+        synchronized (sLock) {
+            sRecordSites = recordSites;
+            sEnabled = true;
+            updateHook();
+        }
+    }
+
+    /**
+     * Stops registering Mats and forgets the registered ones.
+     */
+    public static void disable() {
+        synchronized (sLock) {
+            sEnabled = false;
+            updateHook();
+            for (Entry entry = sHead.next; entry != sHead; entry = entry.next) {
+                Mat mat = entry.get();
+                if (mat != null)
+                    mat.accountingEntry = null;
+            }
+            sHead.next = sHead;
+            sHead.prev = sHead;
+            sRegisteredCount = 0;
+        }
+    }
+
+    /**
+     * @return true if Mats are being registered
+     */
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    static void onCreate(Mat mat) {
+        if (sEnabled) {
+            Throwable site = sRecordSites ? new Throwable() : null;
+            synchronized (sLock) {
+                if (sEnabled) {
+                    Entry entry = new Entry(mat, site);
+                    entry.prev = sHead.prev;
+                    entry.next = sHead;
+                    sHead.prev.next = entry;
+                    sHead.prev = entry;
+                    sRegisteredCount++;
+                    mat.accountingEntry = entry;
+                }
+            }
+        }
+        MatScope.onCreate(mat);
+    }
+
+    static void onFinalize(Mat mat) {
+        synchronized (sLock) {
+            Entry entry = mat.accountingEntry;
+            if (entry != null && entry.next != null) {
+                entry.prev.next = entry.next;
+                entry.next.prev = entry.prev;
+                entry.prev = null;
+                entry.next = null;
+                sRegisteredCount--;
+            }
+            mat.accountingEntry = null;
+        }
+    }
+
+    static void onScopeOpened() {
+        synchronized (sLock) {
+            sOpenScopes++;
+            updateHook();
+        }
+    }
+
+    static void onScopeClosed() {
+        synchronized (sLock) {
+            sOpenScopes--;
+            updateHook();
+        }
+    }
+
+    private static void updateHook() {
+        sHooked = sEnabled || sOpenScopes > 0;
+    }
+
+    /**
+     * Measures the registered Mats that are still alive.
+     *
+     * @return the live native memory, per Mat type and per creation site
+     */
+    public static Snapshot snapshot() {
+        List<Mat> mats = new ArrayList<Mat>();
+        List<Throwable> sites = new ArrayList<Throwable>();
+        synchronized (sLock) {
+            for (Entry entry = sHead.next; entry != sHead; entry = entry.next) {
+                Mat mat = entry.get();
+                if (mat != null) {
+                    mats.add(mat);
+                    sites.add(entry.site);
+                }
+            }
+        }
+
+        // Sizes are read outside of the lock, so that Mat creation is not blocked meanwhile
+        Snapshot snapshot = new Snapshot();
+        Set<Long> buffers = new HashSet<Long>();
+        for (int i = 0; i < mats.size(); i++) {
+            Mat mat = mats.get(i);
+            long bytes = 0;
+            if (!mat.isSubmatrix() && buffers.add(mat.dataAddr()))
+                bytes = mat.total() * mat.elemSize();
+            snapshot.add(mat.type(), siteOf(sites.get(i)), bytes);
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return a human readable report of the live native memory, for logs
+     */
+    public static String dump() {
+        return snapshot().toString();
+    }
+
+    /**
+     * @return number of Mats currently registered, including those waiting for finalization
+     */
+    public static int getRegisteredCount() {
+        synchronized (sLock) {
+            return sRegisteredCount;
+        }
+    }
+
+    /**
+     * @return the first caller outside of the OpenCV bindings, or "unknown"
+     */
+    private static String siteOf(Throwable site) {
+        if (site == null)
+            return "unknown";
+        for (StackTraceElement element : site.getStackTrace()) {
+            if (!element.getClassName().startsWith("org.opencv."))
+                return element.toString();
+        }
+        return "unknown";
+    }
+
+    static final class Entry extends WeakReference<Mat> {
+        final Throwable site;
+        Entry prev;
+        Entry next;
+
+        Entry(Mat mat, Throwable site) {
+            super(mat);
+            this.site = site;
+            prev = this;
+            next = this;
+        }
+    }
+
+    /**
+     * Live native memory at the time of {@link #snapshot()}.
+     */
+    public static final class Snapshot {
+
+        private static final int MAX_REPORTED_SITES = 10;
+
+        private final Map<Integer, long[]> mByType = new HashMap<Integer, long[]>();
+        private final Map<String, long[]> mBySite = new HashMap<String, long[]>();
+        private long mTotalBytes;
+        private int mMatCount;
+
+        private Snapshot() {
+        }
+
+        private void add(int type, String site, long bytes) {
+            add(mByType, type, bytes);
+            add(mBySite, site, bytes);
+            mTotalBytes += bytes;
+            mMatCount++;
+        }
+
+        private static <K> void add(Map<K, long[]> totals, K key, long bytes) {
+            long[] total = totals.get(key);
+            if (total == null) {
+                total = new long[2];
+                totals.put(key, total);
+            }
+            total[0]++;
+            total[1] += bytes;
+        }
+
+        /**
+         * @return number of live registered Mats
+         */
+        public int getMatCount() {
+            return mMatCount;
+        }
+
+        /**
+         * @return native bytes held by the live registered Mats
+         */
+        public long getTotalBytes() {
+            return mTotalBytes;
+        }
+
+        /**
+         * @param type Mat type, such as {@link CvType#CV_8UC1}
+         * @return number of live registered Mats of this type
+         */
+        public int getMatCount(int type) {
+            long[] total = mByType.get(type);
+            return (total == null) ? 0 : (int) total[0];
+        }
+
+        /**
+         * @param type Mat type, such as {@link CvType#CV_8UC1}
+         * @return native bytes held by the live registered Mats of this type
+         */
+        public long getBytes(int type) {
+            long[] total = mByType.get(type);
+            return (total == null) ? 0 : total[1];
+        }
+
+        /**
+         * @return native bytes held per creation site, largest first. Sites are "unknown"
+         * unless call sites are recorded.
+         */
+        public List<Map.Entry<String, Long>> getBytesBySite() {
+            List<Map.Entry<String, Long>> sites = new ArrayList<Map.Entry<String, Long>>();
+            for (Map.Entry<String, long[]> site : mBySite.entrySet())
+                sites.add(new java.util.AbstractMap.SimpleImmutableEntry<String, Long>(
+                        site.getKey(), site.getValue()[1]));
+            Collections.sort(sites, new Comparator<Map.Entry<String, Long>>() {
+                @Override
+                public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+                    return b.getValue().compareTo(a.getValue());
+                }
+            });
+            return sites;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append(mMatCount).append(" Mats, ").append(mTotalBytes).append(" bytes");
+            for (Map.Entry<Integer, long[]> type : mByType.entrySet()) {
+                builder.append("\n  ").append(CvType.typeToString(type.getKey()))
+                        .append(": ").append(type.getValue()[0]).append(" Mats, ")
+                        .append(type.getValue()[1]).append(" bytes");
+            }
+            List<Map.Entry<String, Long>> sites = getBytesBySite();
+            for (int i = 0; i < sites.size() && i < MAX_REPORTED_SITES; i++) {
+                Map.Entry<String, Long> site = sites.get(i);
+                builder.append("\n  at ").append(site.getKey()).append(": ")
+                        .append(mBySite.get(site.getKey())[0]).append(" Mats, ")
+                        .append(site.getValue()).append(" bytes");
+            }
+            return builder.toString();
+        }
+    }
+}
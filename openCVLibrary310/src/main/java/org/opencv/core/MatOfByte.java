@@ -59,6 +59,33 @@ public class MatOfByte extends Mat {
         return a;
     }
 
+    /**
+     * Fills this Mat from a primitive array, without boxing.
+     *
+     * @param buff  values
+     * @param count number of values to copy from buff, possibly 0
+     */
+    public void fromArray(byte[] buff, int count) {
+        if (buff.length < count * _channels)
+            throw new IllegalArgumentException("buff is too small for " + count + " values");
+        super.create(count, 1, CvType.makeType(_depth, _channels));
+        if (count > 0)
+            put(0, 0, buff);
+    }
+
+    /**
+     * Copies the values into a caller-supplied array, without allocating.
+     *
+     * @param buff receives values
+     * @return number of values copied, at most buff.length
+     */
+    public int toArray(byte[] buff) {
+        int num = Math.min((int) total(), buff.length / _channels);
+        if (num > 0)
+            get(0, 0, buff);
+        return num;
+    }
+
     public void fromList(List<Byte> lb) {
         if (lb == null || lb.size() == 0)
             return;
@@ -69,6 +69,35 @@ public class MatOfDMatch extends Mat {
         return a;
     }
 
+    /**
+     * Fills this Mat from packed values, without going through DMatch objects.
+     *
+     * @param buff  queryIdx, trainIdx, imgIdx and distance of each match,
+     *              its length must be a multiple of 4
+     * @param count number of matches to copy from buff, possibly 0
+     */
+    public void fromArray(float[] buff, int count) {
+        if (buff.length < count * _channels)
+            throw new IllegalArgumentException("buff is too small for " + count + " matches");
+        super.create(count, 1, CvType.makeType(_depth, _channels));
+        if (count > 0)
+            put(0, 0, buff);
+    }
+
+    /**
+     * Copies the matches into a caller-supplied array, without creating DMatch objects.
+     *
+     * @param buff receives queryIdx, trainIdx, imgIdx and distance of each match,
+     *             its length must be a multiple of 4
+     * @return number of matches copied, at most buff.length / 4
+     */
+    public int toArray(float[] buff) {
+        int num = Math.min((int) total(), buff.length / _channels);
+        if (num > 0)
+            get(0, 0, buff);
+        return num;
+    }
+
     public void fromList(List<DMatch> ldm) {
         DMatch adm[] = ldm.toArray(new DMatch[0]);
         fromArray(adm);
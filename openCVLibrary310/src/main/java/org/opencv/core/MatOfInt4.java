@@ -60,6 +60,35 @@ public class MatOfInt4 extends Mat {
         return a;
     }
 
+    /**
+     * Fills this Mat from packed values, without going through Int4 objects.
+     *
+     * @param buff  the 4 values of each element,
+     *              its length must be a multiple of 4
+     * @param count number of elements to copy from buff, possibly 0
+     */
+    public void fromArray(int[] buff, int count) {
+        if (buff.length < count * _channels)
+            throw new IllegalArgumentException("buff is too small for " + count + " elements");
+        super.create(count, 1, CvType.makeType(_depth, _channels));
+        if (count > 0)
+            put(0, 0, buff);
+    }
+
+    /**
+     * Copies the elements into a caller-supplied array, without creating Int4 objects.
+     *
+     * @param buff receives the 4 values of each element,
+     *             its length must be a multiple of 4
+     * @return number of elements copied, at most buff.length / 4
+     */
+    public int toArray(int[] buff) {
+        int num = Math.min((int) total(), buff.length / _channels);
+        if (num > 0)
+            get(0, 0, buff);
+        return num;
+    }
+
     public void fromList(List<Integer> lb) {
         if (lb == null || lb.size() == 0)
             return;
@@ -72,6 +72,35 @@ public class MatOfKeyPoint extends Mat {
         return a;
     }
 
+    /**
+     * Fills this Mat from packed values, without going through KeyPoint objects.
+     *
+     * @param buff  x, y, size, angle, response, octave and class_id of each key point,
+     *              its length must be a multiple of 7
+     * @param count number of key points to copy from buff, possibly 0
+     */
+    public void fromArray(float[] buff, int count) {
+        if (buff.length < count * _channels)
+            throw new IllegalArgumentException("buff is too small for " + count + " key points");
+        super.create(count, 1, CvType.makeType(_depth, _channels));
+        if (count > 0)
+            put(0, 0, buff);
+    }
+
+    /**
+     * Copies the key points into a caller-supplied array, without creating KeyPoint objects.
+     *
+     * @param buff receives x, y, size, angle, response, octave and class_id of each key point,
+     *             its length must be a multiple of 7
+     * @return number of key points copied, at most buff.length / 7
+     */
+    public int toArray(float[] buff) {
+        int num = Math.min((int) total(), buff.length / _channels);
+        if (num > 0)
+            get(0, 0, buff);
+        return num;
+    }
+
     public void fromList(List<KeyPoint> lkp) {
         KeyPoint akp[] = lkp.toArray(new KeyPoint[0]);
         fromArray(akp);
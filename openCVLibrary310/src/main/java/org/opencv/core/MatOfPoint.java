@@ -66,6 +66,35 @@ public class MatOfPoint extends Mat {
         return ap;
     }
 
+    /**
+     * Fills this Mat from packed values, without going through Point objects.
+     *
+     * @param buff  x and y of each point,
+     *              its length must be a multiple of 2
+     * @param count number of points to copy from buff, possibly 0
+     */
+    public void fromArray(int[] buff, int count) {
+        if (buff.length < count * _channels)
+            throw new IllegalArgumentException("buff is too small for " + count + " points");
+        super.create(count, 1, CvType.makeType(_depth, _channels));
+        if (count > 0)
+            put(0, 0, buff);
+    }
+
+    /**
+     * Copies the points into a caller-supplied array, without creating Point objects.
+     *
+     * @param buff receives x and y of each point,
+     *             its length must be a multiple of 2
+     * @return number of points copied, at most buff.length / 2
+     */
+    public int toArray(int[] buff) {
+        int num = Math.min((int) total(), buff.length / _channels);
+        if (num > 0)
+            get(0, 0, buff);
+        return num;
+    }
+
     public void fromList(List<Point> lp) {
         Point ap[] = lp.toArray(new Point[0]);
         fromArray(ap);
@@ -67,6 +67,35 @@ public class MatOfPoint3 extends Mat {
         return ap;
     }
 
+    /**
+     * Fills this Mat from packed values, without going through Point3 objects.
+     *
+     * @param buff  x, y and z of each point,
+     *              its length must be a multiple of 3
+     * @param count number of points to copy from buff, possibly 0
+     */
+    public void fromArray(int[] buff, int count) {
+        if (buff.length < count * _channels)
+            throw new IllegalArgumentException("buff is too small for " + count + " points");
+        super.create(count, 1, CvType.makeType(_depth, _channels));
+        if (count > 0)
+            put(0, 0, buff);
+    }
+
+    /**
+     * Copies the points into a caller-supplied array, without creating Point3 objects.
+     *
+     * @param buff receives x, y and z of each point,
+     *             its length must be a multiple of 3
+     * @return number of points copied, at most buff.length / 3
+     */
+    public int toArray(int[] buff) {
+        int num = Math.min((int) total(), buff.length / _channels);
+        if (num > 0)
+            get(0, 0, buff);
+        return num;
+    }
+
     public void fromList(List<Point3> lp) {
         Point3 ap[] = lp.toArray(new Point3[0]);
         fromArray(ap);
@@ -70,6 +70,35 @@ public class MatOfRect extends Mat {
         return a;
     }
 
+    /**
+     * Fills this Mat from packed rectangles, without going through Rect objects.
+     *
+     * @param buff  x, y, width and height of each rectangle,
+     *              its length must be a multiple of 4
+     * @param count number of rectangles to copy from buff, possibly 0
+     */
+    public void fromArray(int[] buff, int count) {
+        if (buff.length < count * _channels)
+            throw new IllegalArgumentException("buff is too small for " + count + " rectangles");
+        super.create(count, 1, CvType.makeType(_depth, _channels));
+        if (count > 0)
+            put(0, 0, buff);
+    }
+
+    /**
+     * Copies the rectangles into a caller-supplied array, without creating Rect objects.
+     *
+     * @param buff receives x, y, width and height of each rectangle,
+     *             its length must be a multiple of 4
+     * @return number of rectangles copied, at most buff.length / 4
+     */
+    public int toArray(int[] buff) {
+        int num = Math.min((int) total(), buff.length / _channels);
+        if (num > 0)
+            get(0, 0, buff);
+        return num;
+    }
+
     public void fromList(List<Rect> lr) {
         Rect ap[] = lr.toArray(new Rect[0]);
         fromArray(ap);
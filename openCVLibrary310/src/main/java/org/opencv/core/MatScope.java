@@ -0,0 +1,113 @@
+package org.opencv.core;
+
+import java.io.Closeable;
+
+/**
+ * Releases, when closed, every {@link Mat} created on the current thread while it was open.
+ * <p>
+ * Meant to be used with try-with-resources, so that the native buffers of temporary Mats,
+ * including those created implicitly by the bindings such as submatrices, are released
+ * deterministically instead of waiting for their finalizer:
+ * </p>
+ * <pre>
+ * try (MatScope scope = MatScope.open()) {
+ *     Mat roi = gray.submat(top, bottom, left, right);
+ *     ...
+ *     return scope.keep(result);
+ * }
+ * </pre>
+ * <p>
+ * Scopes nest: a Mat is owned by the innermost open scope of its thread, and a kept Mat is handed
+ * over to the enclosing scope, if any. A scope must be closed on the thread that opened it,
+ * in reverse opening order.
+ * </p>
+ */
+public final class MatScope implements Closeable {
+
+    private static final ThreadLocal<MatScope> sCurrent = new ThreadLocal<MatScope>();
+
+    private final MatScope mParent;
+    private final Thread mThread;
+    private Mat[] mMats = new Mat[16];
+    private int mCount;
+    private boolean mClosed;
+
+    private MatScope(MatScope parent) {
+        mParent = parent;
+        mThread = Thread.currentThread();
+    }
+
+    /**
+     * Opens a scope on the current thread.
+     *
+     * @return the scope, to be closed on this thread
+     */
+    public static MatScope open() {
+        MatScope scope = new MatScope(sCurrent.get());
+        sCurrent.set(scope);
+        MatAccounting.onScopeOpened();
+        return scope;
+    }
+
+    static void onCreate(Mat mat) {
+        MatScope scope = sCurrent.get();
+        if (scope != null)
+            scope.add(mat);
+    }
+
+    private void add(Mat mat) {
+        if (mCount == mMats.length) {
+            Mat[] mats = new Mat[mCount * 2];
+            System.arraycopy(mMats, 0, mats, 0, mCount);
+            mMats = mats;
+        }
+        mMats[mCount++] = mat;
+    }
+
+    /**
+     * Excludes a Mat from this scope, so that it survives its closing.
+     * The Mat is then owned by the enclosing scope, if any.
+     *
+     * @param mat a Mat created in this scope
+     * @return the Mat
+     */
+    public <T extends Mat> T keep(T mat) {
+        for (int i = mCount - 1; i >= 0; i--) {
+            if (mMats[i] == mat) {
+                System.arraycopy(mMats, i + 1, mMats, i, mCount - i - 1);
+                mMats[--mCount] = null;
+                if (mParent != null)
+                    mParent.add(mat);
+                break;
+            }
+        }
+        return mat;
+    }
+
+    /**
+     * @return number of Mats owned by this scope
+     */
+    public int size() {
+        return mCount;
+    }
+
+    /**
+     * Releases the Mats owned by this scope, in reverse creation order.
+     */
+    @Override
+    public void close() {
+        if (mClosed)
+            return;
+        if (Thread.currentThread() != mThread || sCurrent.get() != this)
+            throw new IllegalStateException("MatScope must be closed on its thread, innermost first");
+        mClosed = true;
+        sCurrent.set(mParent);
+        MatAccounting.onScopeClosed();
+
+        for (int i = mCount - 1; i >= 0; i--) {
+            mMats[i].release();
+            mMats[i] = null;
+        }
+        mCount = 0;
+    }
+}
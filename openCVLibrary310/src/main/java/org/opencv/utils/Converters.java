@@ -733,4 +733,351 @@ public class Converters {
         }
         mats.clear();
     }
+
+    // Primitive conversions
+    //
+    // The methods below are equivalent to the List based ones above, but read from and write to
+    // caller-supplied primitive arrays, with the values of each element packed one after another.
+    // They neither box values nor create Point, Rect, KeyPoint or DMatch objects, so that
+    // conversions done for each video frame do not allocate. The length of every array must be
+    // a multiple of the number of channels of the Mat.
+
+    /**
+     * @param buff  x and y of each point
+     * @param count number of elements to copy from buff, possibly 0
+     * @param res   receives the elements, reallocated only if its size or type differs
+     */
+    public static void vector_Point_to_Mat(int[] buff, int count, Mat res) {
+        create_vector_Mat(res, count, buff.length, CvType.CV_32SC2);
+        if (count > 0)
+            res.put(0, 0, buff);
+    }
+
+    /**
+     * @param m    Point vector Mat
+     * @param buff receives x and y of each point
+     * @return number of elements copied, at most the number of elements buff can hold
+     */
+    public static int Mat_to_vector_Point(Mat m, int[] buff) {
+        int count = check_vector_Mat(m, buff.length, CvType.CV_32SC2);
+        if (count > 0)
+            m.get(0, 0, buff);
+        return count;
+    }
+
+    /**
+     * @param buff  x and y of each point
+     * @param count number of elements to copy from buff, possibly 0
+     * @param res   receives the elements, reallocated only if its size or type differs
+     */
+    public static void vector_Point2f_to_Mat(float[] buff, int count, Mat res) {
+        create_vector_Mat(res, count, buff.length, CvType.CV_32FC2);
+        if (count > 0)
+            res.put(0, 0, buff);
+    }
+
+    /**
+     * @param m    Point2f vector Mat
+     * @param buff receives x and y of each point
+     * @return number of elements copied, at most the number of elements buff can hold
+     */
+    public static int Mat_to_vector_Point2f(Mat m, float[] buff) {
+        int count = check_vector_Mat(m, buff.length, CvType.CV_32FC2);
+        if (count > 0)
+            m.get(0, 0, buff);
+        return count;
+    }
+
+    /**
+     * @param buff  x and y of each point
+     * @param count number of elements to copy from buff, possibly 0
+     * @param res   receives the elements, reallocated only if its size or type differs
+     */
+    public static void vector_Point2d_to_Mat(double[] buff, int count, Mat res) {
+        create_vector_Mat(res, count, buff.length, CvType.CV_64FC2);
+        if (count > 0)
+            res.put(0, 0, buff);
+    }
+
+    /**
+     * @param m    Point2d vector Mat
+     * @param buff receives x and y of each point
+     * @return number of elements copied, at most the number of elements buff can hold
+     */
+    public static int Mat_to_vector_Point2d(Mat m, double[] buff) {
+        int count = check_vector_Mat(m, buff.length, CvType.CV_64FC2);
+        if (count > 0)
+            m.get(0, 0, buff);
+        return count;
+    }
+
+    /**
+     * @param buff  x, y and z of each point
+     * @param count number of elements to copy from buff, possibly 0
+     * @param res   receives the elements, reallocated only if its size or type differs
+     */
+    public static void vector_Point3i_to_Mat(int[] buff, int count, Mat res) {
+        create_vector_Mat(res, count, buff.length, CvType.CV_32SC3);
+        if (count > 0)
+            res.put(0, 0, buff);
+    }
+
+    /**
+     * @param m    Point3i vector Mat
+     * @param buff receives x, y and z of each point
+     * @return number of elements copied, at most the number of elements buff can hold
+     */
+    public static int Mat_to_vector_Point3i(Mat m, int[] buff) {
+        int count = check_vector_Mat(m, buff.length, CvType.CV_32SC3);
+        if (count > 0)
+            m.get(0, 0, buff);
+        return count;
+    }
+
+    /**
+     * @param buff  x, y and z of each point
+     * @param count number of elements to copy from buff, possibly 0
+     * @param res   receives the elements, reallocated only if its size or type differs
+     */
+    public static void vector_Point3f_to_Mat(float[] buff, int count, Mat res) {
+        create_vector_Mat(res, count, buff.length, CvType.CV_32FC3);
+        if (count > 0)
+            res.put(0, 0, buff);
+    }
+
+    /**
+     * @param m    Point3f vector Mat
+     * @param buff receives x, y and z of each point
+     * @return number of elements copied, at most the number of elements buff can hold
+     */
+    public static int Mat_to_vector_Point3f(Mat m, float[] buff) {
+        int count = check_vector_Mat(m, buff.length, CvType.CV_32FC3);
+        if (count > 0)
+            m.get(0, 0, buff);
+        return count;
+    }
+
+    /**
+     * @param buff  x, y and z of each point
+     * @param count number of elements to copy from buff, possibly 0
+     * @param res   receives the elements, reallocated only if its size or type differs
+     */
+    public static void vector_Point3d_to_Mat(double[] buff, int count, Mat res) {
+        create_vector_Mat(res, count, buff.length, CvType.CV_64FC3);
+        if (count > 0)
+            res.put(0, 0, buff);
+    }
+
+    /**
+     * @param m    Point3d vector Mat
+     * @param buff receives x, y and z of each point
+     * @return number of elements copied, at most the number of elements buff can hold
+     */
+    public static int Mat_to_vector_Point3d(Mat m, double[] buff) {
+        int count = check_vector_Mat(m, buff.length, CvType.CV_64FC3);
+        if (count > 0)
+            m.get(0, 0, buff);
+        return count;
+    }
+
+    /**
+     * @param buff  values
+     * @param count number of elements to copy from buff, possibly 0
+     * @param res   receives the elements, reallocated only if its size or type differs
+     */
+    public static void vector_float_to_Mat(float[] buff, int count, Mat res) {
+        create_vector_Mat(res, count, buff.length, CvType.CV_32FC1);
+        if (count > 0)
+            res.put(0, 0, buff);
+    }
+
+    /**
+     * @param m    float vector Mat
+     * @param buff receives values
+     * @return number of elements copied, at most the number of elements buff can hold
+     */
+    public static int Mat_to_vector_float(Mat m, float[] buff) {
+        int count = check_vector_Mat(m, buff.length, CvType.CV_32FC1);
+        if (count > 0)
+            m.get(0, 0, buff);
+        return count;
+    }
+
+    /**
+     * @param buff  values
+     * @param count number of elements to copy from buff, possibly 0
+     * @param res   receives the elements, reallocated only if its size or type differs
+     */
+    public static void vector_uchar_to_Mat(byte[] buff, int count, Mat res) {
+        create_vector_Mat(res, count, buff.length, CvType.CV_8UC1);
+        if (count > 0)
+            res.put(0, 0, buff);
+    }
+
+    /**
+     * @param m    uchar vector Mat
+     * @param buff receives values
+     * @return number of elements copied, at most the number of elements buff can hold
+     */
+    public static int Mat_to_vector_uchar(Mat m, byte[] buff) {
+        int count = check_vector_Mat(m, buff.length, CvType.CV_8UC1);
+        if (count > 0)
+            m.get(0, 0, buff);
+        return count;
+    }
+
+    /**
+     * @param buff  values
+     * @param count number of elements to copy from buff, possibly 0
+     * @param res   receives the elements, reallocated only if its size or type differs
+     */
+    public static void vector_char_to_Mat(byte[] buff, int count, Mat res) {
+        create_vector_Mat(res, count, buff.length, CvType.CV_8SC1);
+        if (count > 0)
+            res.put(0, 0, buff);
+    }
+
+    /**
+     * @param m    char vector Mat
+     * @param buff receives values
+     * @return number of elements copied, at most the number of elements buff can hold
+     */
+    public static int Mat_to_vector_char(Mat m, byte[] buff) {
+        int count = check_vector_Mat(m, buff.length, CvType.CV_8SC1);
+        if (count > 0)
+            m.get(0, 0, buff);
+        return count;
+    }
+
+    /**
+     * @param buff  values
+     * @param count number of elements to copy from buff, possibly 0
+     * @param res   receives the elements, reallocated only if its size or type differs
+     */
+    public static void vector_int_to_Mat(int[] buff, int count, Mat res) {
+        create_vector_Mat(res, count, buff.length, CvType.CV_32SC1);
+        if (count > 0)
+            res.put(0, 0, buff);
+    }
+
+    /**
+     * @param m    int vector Mat
+     * @param buff receives values
+     * @return number of elements copied, at most the number of elements buff can hold
+     */
+    public static int Mat_to_vector_int(Mat m, int[] buff) {
+        int count = check_vector_Mat(m, buff.length, CvType.CV_32SC1);
+        if (count > 0)
+            m.get(0, 0, buff);
+        return count;
+    }
+
+    /**
+     * @param buff  values
+     * @param count number of elements to copy from buff, possibly 0
+     * @param res   receives the elements, reallocated only if its size or type differs
+     */
+    public static void vector_double_to_Mat(double[] buff, int count, Mat res) {
+        create_vector_Mat(res, count, buff.length, CvType.CV_64FC1);
+        if (count > 0)
+            res.put(0, 0, buff);
+    }
+
+    /**
+     * @param m    double vector Mat
+     * @param buff receives values
+     * @return number of elements copied, at most the number of elements buff can hold
+     */
+    public static int Mat_to_vector_double(Mat m, double[] buff) {
+        int count = check_vector_Mat(m, buff.length, CvType.CV_64FC1);
+        if (count > 0)
+            m.get(0, 0, buff);
+        return count;
+    }
+
+    /**
+     * @param buff  x, y, width and height of each rectangle
+     * @param count number of elements to copy from buff, possibly 0
+     * @param res   receives the elements, reallocated only if its size or type differs
+     */
+    public static void vector_Rect_to_Mat(int[] buff, int count, Mat res) {
+        create_vector_Mat(res, count, buff.length, CvType.CV_32SC4);
+        if (count > 0)
+            res.put(0, 0, buff);
+    }
+
+    /**
+     * @param m    Rect vector Mat
+     * @param buff receives x, y, width and height of each rectangle
+     * @return number of elements copied, at most the number of elements buff can hold
+     */
+    public static int Mat_to_vector_Rect(Mat m, int[] buff) {
+        int count = check_vector_Mat(m, buff.length, CvType.CV_32SC4);
+        if (count > 0)
+            m.get(0, 0, buff);
+        return count;
+    }
+
+    /**
+     * @param buff  x, y, size, angle, response, octave and class_id of each key point
+     * @param count number of elements to copy from buff, possibly 0
+     * @param res   receives the elements, reallocated only if its size or type differs
+     */
+    public static void vector_KeyPoint_to_Mat(double[] buff, int count, Mat res) {
+        create_vector_Mat(res, count, buff.length, CvType.CV_64FC(7));
+        if (count > 0)
+            res.put(0, 0, buff);
+    }
+
+    /**
+     * @param m    KeyPoint vector Mat
+     * @param buff receives x, y, size, angle, response, octave and class_id of each key point
+     * @return number of elements copied, at most the number of elements buff can hold
+     */
+    public static int Mat_to_vector_KeyPoint(Mat m, double[] buff) {
+        int count = check_vector_Mat(m, buff.length, CvType.CV_64FC(7));
+        if (count > 0)
+            m.get(0, 0, buff);
+        return count;
+    }
+
+    /**
+     * @param buff  queryIdx, trainIdx, imgIdx and distance of each match
+     * @param count number of elements to copy from buff, possibly 0
+     * @param res   receives the elements, reallocated only if its size or type differs
+     */
+    public static void vector_DMatch_to_Mat(double[] buff, int count, Mat res) {
+        create_vector_Mat(res, count, buff.length, CvType.CV_64FC4);
+        if (count > 0)
+            res.put(0, 0, buff);
+    }
+
+    /**
+     * @param m    DMatch vector Mat
+     * @param buff receives queryIdx, trainIdx, imgIdx and distance of each match
+     * @return number of elements copied, at most the number of elements buff can hold
+     */
+    public static int Mat_to_vector_DMatch(Mat m, double[] buff) {
+        int count = check_vector_Mat(m, buff.length, CvType.CV_64FC4);
+        if (count > 0)
+            m.get(0, 0, buff);
+        return count;
+    }
+
+    private static void create_vector_Mat(Mat res, int count, int buffLength, int type) {
+        if (res == null)
+            throw new java.lang.IllegalArgumentException("Output Mat can't be null");
+        if (count < 0 || buffLength < count * CvType.channels(type))
+            throw new java.lang.IllegalArgumentException("Input array is too small for " + count + " elements");
+        res.create(count, 1, type);
+    }
+
+    private static int check_vector_Mat(Mat m, int buffLength, int type) {
+        if (m == null)
+            throw new java.lang.IllegalArgumentException("Input Mat can't be null");
+        if (type != m.type() || m.cols() != 1)
+            throw new java.lang.IllegalArgumentException(
+                    CvType.typeToString(type) + " != m.type() ||  m.cols()!=1\n" + m);
+        return Math.min(m.rows(), buffLength / CvType.channels(type));
+    }
 }
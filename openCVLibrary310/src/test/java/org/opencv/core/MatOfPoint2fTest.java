@@ -0,0 +1,77 @@
+package org.opencv.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests the primitive array methods of {@link MatOfPoint2f} without the native library.
+ */
+public class MatOfPoint2fTest {
+
+    @Test
+    public void toArray_copiesAtMostWhatTheArrayHolds() {
+        JavaMatOfPoint2f mat = new JavaMatOfPoint2f(new float[]{1, 2, 3, 4, 5, 6});
+
+        float[] all = new float[8];
+        assertEquals(3, mat.toArray(all));
+        assertArrayEquals(new float[]{1, 2, 3, 4, 5, 6, 0, 0}, all, 0f);
+
+        float[] some = new float[4];
+        assertEquals(2, mat.toArray(some));
+        assertArrayEquals(new float[]{1, 2, 3, 4}, some, 0f);
+    }
+
+    @Test
+    public void toArray_ofEmptyMat_copiesNothing() {
+        JavaMatOfPoint2f mat = new JavaMatOfPoint2f(new float[0]);
+
+        assertEquals(0, mat.toArray(new float[4]));
+        assertEquals(0, mat.mGetCount);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fromArray_withArrayTooSmall_throws() {
+        new JavaMatOfPoint2f(new float[0]).fromArray(new float[3], 2);
+    }
+
+    /**
+     * MatOfPoint2f whose points are stored in a Java array. Only the methods reached by
+     * {@link #toArray(float[])}, and by {@link #fromArray(float[], int)} before it allocates,
+     * are implemented.
+     */
+    private static class JavaMatOfPoint2f extends MatOfPoint2f {
+        private final float[] mData;
+        int mGetCount;
+
+        JavaMatOfPoint2f(float[] data) {
+            // Never dereferenced: the constructor only calls empty(), which is overridden
+            super(1L);
+            mData = data;
+        }
+
+        @Override
+        public boolean empty() {
+            return true;
+        }
+
+        @Override
+        public long total() {
+            return mData.length / 2;
+        }
+
+        @Override
+        public int get(int row, int col, float[] data) {
+            mGetCount++;
+            int count = Math.min(data.length, mData.length - 2 * row);
+            System.arraycopy(mData, 2 * row, data, 0, count);
+            return count;
+        }
+
+        @Override
+        protected void finalize() {
+            // No native object to delete
+        }
+    }
+}
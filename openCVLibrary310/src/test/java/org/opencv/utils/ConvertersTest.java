@@ -0,0 +1,181 @@
+package org.opencv.utils;
+
+import org.junit.Test;
+import org.opencv.core.CvType;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Tests the primitive array conversions of {@link Converters} on a {@link JavaMat},
+ * without the native library.
+ */
+public class ConvertersTest {
+
+    private static final float DELTA = 0f;
+
+    @Test
+    public void point2f_roundTrip() {
+        float[] points = {1.5f, 2.5f, -3f, 4f, 5f, 6.25f};
+        JavaMat mat = new JavaMat();
+
+        Converters.vector_Point2f_to_Mat(points, 3, mat);
+
+        assertEquals(3, mat.rows());
+        assertEquals(1, mat.cols());
+        assertEquals(CvType.CV_32FC2, mat.type());
+        float[] read = new float[8];
+        assertEquals(3, Converters.Mat_to_vector_Point2f(mat, read));
+        assertArrayEquals(new float[]{1.5f, 2.5f, -3f, 4f, 5f, 6.25f, 0f, 0f}, read, DELTA);
+    }
+
+    @Test
+    public void writer_copiesOnlyCountElements() {
+        int[] rects = {1, 2, 3, 4, 5, 6, 7, 8};
+        JavaMat mat = new JavaMat();
+
+        Converters.vector_Rect_to_Mat(rects, 1, mat);
+
+        assertEquals(1, mat.rows());
+        assertEquals(CvType.CV_32SC4, mat.type());
+        int[] read = new int[8];
+        assertEquals(1, Converters.Mat_to_vector_Rect(mat, read));
+        assertArrayEquals(new int[]{1, 2, 3, 4, 0, 0, 0, 0}, read);
+    }
+
+    @Test
+    public void reader_copiesAtMostWhatTheArrayHolds() {
+        double[] matches = {0, 1, 2, 0.5, 3, 4, 5, 1.5, 6, 7, 8, 2.5};
+        JavaMat mat = new JavaMat();
+        Converters.vector_DMatch_to_Mat(matches, 3, mat);
+
+        double[] read = new double[8];
+        assertEquals(2, Converters.Mat_to_vector_DMatch(mat, read));
+        assertArrayEquals(new double[]{0, 1, 2, 0.5, 3, 4, 5, 1.5}, read, 0);
+    }
+
+    @Test
+    public void emptyVector_givesEmptyMat() {
+        JavaMat mat = new JavaMat();
+
+        Converters.vector_KeyPoint_to_Mat(new double[0], 0, mat);
+
+        assertEquals(0, mat.rows());
+        assertEquals(CvType.CV_64FC(7), mat.type());
+        assertEquals(0, Converters.Mat_to_vector_KeyPoint(mat, new double[14]));
+    }
+
+    @Test
+    public void everyConversion_usesTheMatTypeOfTheListVersion() {
+        JavaMat mat = new JavaMat();
+
+        Converters.vector_Point_to_Mat(new int[]{1, 2}, 1, mat);
+        assertEquals(CvType.CV_32SC2, mat.type());
+        Converters.vector_Point2d_to_Mat(new double[]{1, 2}, 1, mat);
+        assertEquals(CvType.CV_64FC2, mat.type());
+        Converters.vector_Point3i_to_Mat(new int[]{1, 2, 3}, 1, mat);
+        assertEquals(CvType.CV_32SC3, mat.type());
+        Converters.vector_Point3f_to_Mat(new float[]{1, 2, 3}, 1, mat);
+        assertEquals(CvType.CV_32FC3, mat.type());
+        Converters.vector_Point3d_to_Mat(new double[]{1, 2, 3}, 1, mat);
+        assertEquals(CvType.CV_64FC3, mat.type());
+        Converters.vector_float_to_Mat(new float[]{1}, 1, mat);
+        assertEquals(CvType.CV_32FC1, mat.type());
+        Converters.vector_uchar_to_Mat(new byte[]{1}, 1, mat);
+        assertEquals(CvType.CV_8UC1, mat.type());
+        Converters.vector_char_to_Mat(new byte[]{1}, 1, mat);
+        assertEquals(CvType.CV_8SC1, mat.type());
+        Converters.vector_int_to_Mat(new int[]{1}, 1, mat);
+        assertEquals(CvType.CV_32SC1, mat.type());
+        Converters.vector_double_to_Mat(new double[]{1}, 1, mat);
+        assertEquals(CvType.CV_64FC1, mat.type());
+    }
+
+    @Test
+    public void bytes_roundTrip() {
+        byte[] values = {0, 1, 127, -128, -1};
+        JavaMat mat = new JavaMat();
+
+        Converters.vector_uchar_to_Mat(values, values.length, mat);
+        byte[] read = new byte[values.length];
+        assertEquals(values.length, Converters.Mat_to_vector_uchar(mat, read));
+        assertArrayEquals(values, read);
+
+        Converters.vector_char_to_Mat(values, values.length, mat);
+        read = new byte[values.length];
+        assertEquals(values.length, Converters.Mat_to_vector_char(mat, read));
+        assertArrayEquals(values, read);
+    }
+
+    @Test
+    public void sameSize_doesNotReallocateTheMat() {
+        float[] points = new float[20];
+        JavaMat mat = new JavaMat();
+
+        for (int i = 0; i < 10; i++) {
+            points[0] = i;
+            Converters.vector_Point2f_to_Mat(points, 10, mat);
+        }
+        assertEquals(1, mat.getReallocationCount());
+
+        Converters.vector_Point2f_to_Mat(points, 5, mat);
+        assertEquals(2, mat.getReallocationCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void writer_withArrayTooSmall_throws() {
+        Converters.vector_Point3f_to_Mat(new float[5], 2, new JavaMat());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void writer_withNegativeCount_throws() {
+        Converters.vector_int_to_Mat(new int[4], -1, new JavaMat());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void writer_withoutMat_throws() {
+        Converters.vector_int_to_Mat(new int[4], 4, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void reader_withOtherType_throws() {
+        JavaMat mat = new JavaMat();
+        Converters.vector_Point_to_Mat(new int[]{1, 2}, 1, mat);
+
+        Converters.Mat_to_vector_Point2f(mat, new float[2]);
+    }
+
+    @Test
+    public void conversions_doNotAllocate() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+        long threadId = Thread.currentThread().getId();
+        float[] points = new float[64];
+        float[] read = new float[64];
+        JavaMat mat = new JavaMat();
+
+        // First pass: class loading and compilation
+        convertAll(points, read, mat);
+        long before = threads.getThreadAllocatedBytes(threadId);
+        convertAll(points, read, mat);
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        // The List versions allocate a Point and a boxed value per element
+        assertTrue("allocated " + allocated + " bytes", allocated < 4096);
+    }
+
+    private static void convertAll(float[] points, float[] read, JavaMat mat) {
+        for (int i = 0; i < 10000; i++) {
+            points[0] = i;
+            Converters.vector_Point2f_to_Mat(points, 32, mat);
+            Converters.Mat_to_vector_Point2f(mat, read);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package org.opencv.utils;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * Mat whose elements are stored in a Java array, so that the Java side of the conversions can be
+ * tested without loading the native library. It implements the methods used by
+ * {@link Converters}, with the same type checks as {@link Mat}, and never touches its native object.
+ */
+class JavaMat extends Mat {
+
+    private int mRows;
+    private int mCols;
+    private int mType;
+    private double[] mData = new double[0];
+    private int mReallocationCount;
+
+    JavaMat() {
+        // Never dereferenced: every method reaching native code is overridden
+        super(1L);
+    }
+
+    /**
+     * @return number of times create() had to change the size or type of this Mat
+     */
+    int getReallocationCount() {
+        return mReallocationCount;
+    }
+
+    @Override
+    public void create(int rows, int cols, int type) {
+        if ((rows != mRows) || (cols != mCols) || (type != mType)) {
+            mRows = rows;
+            mCols = cols;
+            mType = type;
+            mData = new double[rows * cols * CvType.channels(type)];
+            mReallocationCount++;
+        }
+    }
+
+    @Override
+    public int rows() {
+        return mRows;
+    }
+
+    @Override
+    public int cols() {
+        return mCols;
+    }
+
+    @Override
+    public int type() {
+        return mType;
+    }
+
+    @Override
+    public int depth() {
+        return CvType.depth(mType);
+    }
+
+    @Override
+    public int channels() {
+        return CvType.channels(mType);
+    }
+
+    @Override
+    public long total() {
+        return (long) mRows * mCols;
+    }
+
+    @Override
+    public boolean empty() {
+        return total() == 0;
+    }
+
+    @Override
+    public int put(int row, int col, int[] data) {
+        int offset = offsetOf(row, col, data.length, CvType.CV_32S);
+        int count = Math.min(data.length, mData.length - offset);
+        for (int i = 0; i < count; i++) {
+            mData[offset + i] = data[i];
+        }
+        return count;
+    }
+
+    @Override
+    public int put(int row, int col, float[] data) {
+        int offset = offsetOf(row, col, data.length, CvType.CV_32F);
+        int count = Math.min(data.length, mData.length - offset);
+        for (int i = 0; i < count; i++) {
+            mData[offset + i] = data[i];
+        }
+        return count;
+    }
+
+    @Override
+    public int put(int row, int col, double... data) {
+        // Like Mat, doubles can be written to any depth
+        int offset = offsetOf(row, col, data.length, depth());
+        int count = Math.min(data.length, mData.length - offset);
+        System.arraycopy(data, 0, mData, offset, count);
+        return count;
+    }
+
+    @Override
+    public int put(int row, int col, byte[] data) {
+        int offset = offsetOf(row, col, data.length, checkByteDepth());
+        int count = Math.min(data.length, mData.length - offset);
+        for (int i = 0; i < count; i++) {
+            mData[offset + i] = data[i];
+        }
+        return count;
+    }
+
+    @Override
+    public int get(int row, int col, int[] data) {
+        int offset = offsetOf(row, col, data.length, CvType.CV_32S);
+        int count = Math.min(data.length, mData.length - offset);
+        for (int i = 0; i < count; i++) {
+            data[i] = (int) mData[offset + i];
+        }
+        return count;
+    }
+
+    @Override
+    public int get(int row, int col, float[] data) {
+        int offset = offsetOf(row, col, data.length, CvType.CV_32F);
+        int count = Math.min(data.length, mData.length - offset);
+        for (int i = 0; i < count; i++) {
+            data[i] = (float) mData[offset + i];
+        }
+        return count;
+    }
+
+    @Override
+    public int get(int row, int col, double[] data) {
+        int offset = offsetOf(row, col, data.length, CvType.CV_64F);
+        int count = Math.min(data.length, mData.length - offset);
+        System.arraycopy(mData, offset, data, 0, count);
+        return count;
+    }
+
+    @Override
+    public int get(int row, int col, byte[] data) {
+        int offset = offsetOf(row, col, data.length, checkByteDepth());
+        int count = Math.min(data.length, mData.length - offset);
+        for (int i = 0; i < count; i++) {
+            data[i] = (byte) mData[offset + i];
+        }
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return "JavaMat [ " + mRows + "*" + mCols + "*" + CvType.typeToString(mType) + " ]";
+    }
+
+    @Override
+    protected void finalize() {
+        // No native object to delete
+    }
+
+    private int checkByteDepth() {
+        int depth = depth();
+        if ((depth != CvType.CV_8U) && (depth != CvType.CV_8S)) {
+            throw new UnsupportedOperationException("Mat data type is not compatible: " + mType);
+        }
+        return depth;
+    }
+
+    private int offsetOf(int row, int col, int length, int expectedDepth) {
+        if ((length % channels()) != 0) {
+            throw new UnsupportedOperationException("Provided data element number (" + length
+                    + ") should be multiple of the Mat channels count (" + channels() + ")");
+        }
+        if (depth() != expectedDepth) {
+            throw new UnsupportedOperationException("Mat data type is not compatible: " + mType);
+        }
+        return (row * mCols + col) * channels();
+    }
+}